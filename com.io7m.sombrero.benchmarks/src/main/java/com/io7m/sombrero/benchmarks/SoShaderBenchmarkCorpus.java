@@ -0,0 +1,321 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.benchmarks;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.sombrero.core.SoShaderException;
+import com.io7m.sombrero.core.SoShaderExceptionBadPath;
+import com.io7m.sombrero.core.SoShaderFileReferenceType;
+import com.io7m.sombrero.core.SoShaderModule;
+import com.io7m.sombrero.core.SoShaderModuleType;
+import com.io7m.sombrero.core.SoShaderResolverType;
+import com.io7m.sombrero.core.SoShaderStoreDirectory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A synthetic corpus of shader sources, written to a temporary directory and
+ * published as a single module named {@link #MODULE}.
+ */
+
+public final class SoShaderBenchmarkCorpus implements Closeable
+{
+  /**
+   * The name of the module that contains the corpus.
+   */
+
+  public static final String MODULE = "bench";
+
+  /**
+   * A file at the top of a chain of {@link #INCLUDE_DEPTH} nested includes.
+   */
+
+  public static final String DEEP_INCLUDES = MODULE + "/deep/d0.h";
+
+  /**
+   * A file that uses many object-like and function-like macros.
+   */
+
+  public static final String MACRO_HEAVY = MODULE + "/macros/main.h";
+
+  /**
+   * A single large file with no includes.
+   */
+
+  public static final String LARGE_FILE = MODULE + "/large/large.h";
+
+  /**
+   * A file whose output depends on which of {@link #FEATURES} features are
+   * defined.
+   */
+
+  public static final String VARIANTS = MODULE + "/variants/variants.h";
+
+  /**
+   * The depth of the include chain in {@link #DEEP_INCLUDES}.
+   */
+
+  public static final int INCLUDE_DEPTH = 64;
+
+  /**
+   * The number of features that {@link #VARIANTS} can enable.
+   */
+
+  public static final int FEATURES = 16;
+
+  private static final int MACROS_OBJECT = 512;
+  private static final int MACROS_FUNCTION = 64;
+  private static final int MACRO_USES = 2048;
+  private static final int LARGE_FUNCTIONS = 2000;
+
+  private final Path base;
+  private final SoShaderResolverType resolver;
+
+  private SoShaderBenchmarkCorpus(
+    final Path in_base)
+  {
+    this.base = NullCheck.notNull(in_base, "Base");
+    this.resolver = new Resolver(
+      SoShaderModule.of(MODULE, SoShaderStoreDirectory.create(this.base)));
+  }
+
+  /**
+   * Write a new corpus to a fresh temporary directory.
+   *
+   * @return A new corpus
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static SoShaderBenchmarkCorpus create()
+    throws IOException
+  {
+    final Path base =
+      Files.createTempDirectory("sombrero-benchmarks-").toRealPath();
+
+    writeDeepIncludes(base.resolve("deep"));
+    writeMacroHeavy(base.resolve("macros"));
+    writeLargeFile(base.resolve("large"));
+    writeVariants(base.resolve("variants"));
+    return new SoShaderBenchmarkCorpus(base);
+  }
+
+  /**
+   * @return A resolver that exposes the corpus
+   */
+
+  public SoShaderResolverType resolver()
+  {
+    return this.resolver;
+  }
+
+  /**
+   * Produce {@code count} sets of defines for {@link #VARIANTS}. Each set
+   * enables a different combination of features.
+   *
+   * @param count The number of sets
+   *
+   * @return The sets of defines
+   */
+
+  public static List<Map<String, String>> variantDefines(
+    final int count)
+  {
+    final List<Map<String, String>> variants = new ArrayList<>(count);
+    for (int index = 0; index < count; ++index) {
+      final Map<String, String> defines = new HashMap<>(FEATURES);
+      for (int feature = 0; feature < FEATURES; ++feature) {
+        if ((((index * 0x9E3779B1) >>> feature) & 1) != 0) {
+          defines.put("FEATURE_" + feature, "1");
+        }
+      }
+      defines.put("VARIANT_INDEX", Integer.toString(index));
+      variants.add(Collections.unmodifiableMap(defines));
+    }
+    return Collections.unmodifiableList(variants);
+  }
+
+  private static void writeDeepIncludes(
+    final Path directory)
+    throws IOException
+  {
+    Files.createDirectories(directory);
+    for (int index = 0; index < INCLUDE_DEPTH; ++index) {
+      final StringBuilder sb = new StringBuilder(1024);
+      sb.append("#ifndef D").append(index).append("_H\n");
+      sb.append("#define D").append(index).append("_H\n");
+      if (index + 1 < INCLUDE_DEPTH) {
+        sb.append("#include \"d").append(index + 1).append(".h\"\n");
+      }
+      sb.append("// Declarations at depth ").append(index).append('\n');
+      for (int decl = 0; decl < 8; ++decl) {
+        sb.append("vec4 d").append(index).append('_').append(decl);
+        sb.append("(vec4 x) { return x * ").append(decl).append(".0; }\n");
+      }
+      sb.append("#endif\n");
+      write(directory.resolve("d" + index + ".h"), sb);
+    }
+  }
+
+  private static void writeMacroHeavy(
+    final Path directory)
+    throws IOException
+  {
+    Files.createDirectories(directory);
+
+    final StringBuilder defs = new StringBuilder(64 * 1024);
+    defs.append("#ifndef MACROS_H\n");
+    defs.append("#define MACROS_H\n");
+    for (int index = 0; index < MACROS_OBJECT; ++index) {
+      defs.append("#define CONSTANT_").append(index);
+      defs.append(' ').append(index).append(".0\n");
+    }
+    for (int index = 0; index < MACROS_FUNCTION; ++index) {
+      defs.append("#define MIX_").append(index);
+      defs.append("(a, b) (((a) * CONSTANT_").append(index);
+      defs.append(") + ((b) * (1.0 - CONSTANT_").append(index);
+      defs.append(")))\n");
+    }
+    defs.append("#define NAME(p, n) p ## _ ## n\n");
+    defs.append("#define STRING(x) #x\n");
+    defs.append("#endif\n");
+    write(directory.resolve("macros.h"), defs);
+
+    final StringBuilder main = new StringBuilder(128 * 1024);
+    main.append("#include \"macros.h\"\n");
+    for (int index = 0; index < MACRO_USES; ++index) {
+      main.append("float NAME(value, ").append(index).append(") = MIX_");
+      main.append(index % MACROS_FUNCTION).append("(CONSTANT_");
+      main.append(index % MACROS_OBJECT).append(", CONSTANT_");
+      main.append((index * 7) % MACROS_OBJECT).append(");\n");
+    }
+    write(directory.resolve("main.h"), main);
+  }
+
+  private static void writeLargeFile(
+    final Path directory)
+    throws IOException
+  {
+    Files.createDirectories(directory);
+
+    final StringBuilder sb = new StringBuilder(1024 * 1024);
+    for (int index = 0; index < LARGE_FUNCTIONS; ++index) {
+      sb.append("/*\n");
+      sb.append(" * Function ").append(index).append('\n');
+      sb.append(" */\n\n");
+      sb.append("vec3 function_").append(index);
+      sb.append("(const vec3 n, const vec3 l) // Lambert\n");
+      sb.append("{\n");
+      sb.append("  const float d = max(0.0, dot(n, l));\n");
+      sb.append("  return vec3(d * ").append(index).append(".0);\n");
+      sb.append("}\n\n");
+    }
+    write(directory.resolve("large.h"), sb);
+  }
+
+  private static void writeVariants(
+    final Path directory)
+    throws IOException
+  {
+    Files.createDirectories(directory);
+
+    final StringBuilder sb = new StringBuilder(64 * 1024);
+    sb.append("#include <").append(MODULE).append("/deep/d");
+    sb.append(INCLUDE_DEPTH / 2).append(".h>\n");
+    for (int feature = 0; feature < FEATURES; ++feature) {
+      sb.append("#if defined(FEATURE_").append(feature).append(")\n");
+      for (int line = 0; line < 32; ++line) {
+        sb.append("float feature_").append(feature).append('_').append(line);
+        sb.append(" = ").append(line).append(".0 * VARIANT_INDEX;\n");
+      }
+      sb.append("#else\n");
+      sb.append("float feature_").append(feature).append("_disabled;\n");
+      sb.append("#endif\n");
+    }
+    write(directory.resolve("variants.h"), sb);
+  }
+
+  private static void write(
+    final Path file,
+    final CharSequence text)
+    throws IOException
+  {
+    Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Override
+  public void close()
+    throws IOException
+  {
+    final List<Path> paths;
+    try (final Stream<Path> stream = Files.walk(this.base)) {
+      paths = stream.sorted(Comparator.reverseOrder())
+        .collect(Collectors.toList());
+    }
+    for (final Path path : paths) {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  private static final class Resolver implements SoShaderResolverType
+  {
+    private final Map<String, SoShaderModuleType> modules;
+
+    Resolver(
+      final SoShaderModuleType module)
+    {
+      this.modules = Collections.singletonMap(module.name(), module);
+    }
+
+    @Override
+    public Optional<SoShaderFileReferenceType> resolve(
+      final String file)
+      throws SoShaderException
+    {
+      final int ind = file.indexOf('/');
+      if (ind == -1) {
+        throw new SoShaderExceptionBadPath("Invalid path: " + file);
+      }
+
+      final SoShaderModuleType module =
+        this.modules.get(file.substring(0, ind));
+      if (module != null) {
+        return module.store().lookup(file.substring(ind));
+      }
+      return Optional.empty();
+    }
+
+    @Override
+    public Map<String, SoShaderModuleType> available()
+    {
+      return this.modules;
+    }
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.benchmarks;
+
+import com.io7m.junreachable.UnreachableCodeException;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The main benchmark program. Runs all of the benchmarks with the GC
+ * profiler enabled, so that the bytes allocated per operation are reported
+ * alongside throughput. Standard JMH command-line options are accepted.
+ */
+
+public final class SoShaderBenchmarkMain
+{
+  private SoShaderBenchmarkMain()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Main entry point.
+   *
+   * @param args Command-line arguments
+   *
+   * @throws RunnerException            On benchmark errors
+   * @throws CommandLineOptionException On malformed arguments
+   */
+
+  public static void main(
+    final String[] args)
+    throws RunnerException, CommandLineOptionException
+  {
+    final Options options = new OptionsBuilder()
+      .parent(new CommandLineOptions(args))
+      .addProfiler(GCProfiler.class)
+      .build();
+
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.benchmarks;
+
+import com.io7m.sombrero.core.SoShaderException;
+import com.io7m.sombrero.core.SoShaderPreprocessorConfig;
+import com.io7m.sombrero.core.SoShaderPreprocessorType;
+import com.io7m.sombrero.jcpp.SoShaderPreprocessorJCPP;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput benchmarks for the JCPP preprocessor over a synthetic corpus.
+ * The output cache is disabled so that every operation runs the
+ * preprocessor in full.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SoShaderPreprocessorJCPPBenchmark
+{
+  /**
+   * The size of the preprocessor's decoded source cache, or {@code 0} for
+   * none.
+   */
+
+  @Param({"0", "256"})
+  public int source_cache_size;
+
+  private SoShaderBenchmarkCorpus corpus;
+  private SoShaderPreprocessorType preprocessor;
+  private List<Map<String, String>> variants;
+  private Map<String, String> defines;
+
+  /**
+   * Construct a benchmark.
+   */
+
+  public SoShaderPreprocessorJCPPBenchmark()
+  {
+
+  }
+
+  /**
+   * Write the corpus and create a preprocessor.
+   *
+   * @throws IOException On I/O errors
+   */
+
+  @Setup(Level.Trial)
+  public void setup()
+    throws IOException
+  {
+    this.corpus = SoShaderBenchmarkCorpus.create();
+
+    final SoShaderPreprocessorConfig.Builder b =
+      SoShaderPreprocessorConfig.builder();
+    b.setResolver(this.corpus.resolver());
+    b.setVersion(330);
+    b.setSourceCacheSize(this.source_cache_size);
+    this.preprocessor = SoShaderPreprocessorJCPP.create(b.build());
+
+    this.variants = SoShaderBenchmarkCorpus.variantDefines(32);
+    this.defines = Collections.emptyMap();
+  }
+
+  /**
+   * Delete the corpus.
+   *
+   * @throws IOException On I/O errors
+   */
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+    throws IOException
+  {
+    this.corpus.close();
+  }
+
+  /**
+   * Preprocess a file at the top of a deep chain of includes.
+   *
+   * @return The output
+   *
+   * @throws SoShaderException On errors
+   */
+
+  @Benchmark
+  public List<String> deepIncludes()
+    throws SoShaderException
+  {
+    return this.preprocessor.preprocessFile(
+      this.defines, SoShaderBenchmarkCorpus.DEEP_INCLUDES);
+  }
+
+  /**
+   * Preprocess a file that expands many macros.
+   *
+   * @return The output
+   *
+   * @throws SoShaderException On errors
+   */
+
+  @Benchmark
+  public List<String> macroHeavy()
+    throws SoShaderException
+  {
+    return this.preprocessor.preprocessFile(
+      this.defines, SoShaderBenchmarkCorpus.MACRO_HEAVY);
+  }
+
+  /**
+   * Preprocess a single large file.
+   *
+   * @return The output
+   *
+   * @throws SoShaderException On errors
+   */
+
+  @Benchmark
+  public List<String> largeFile()
+    throws SoShaderException
+  {
+    return this.preprocessor.preprocessFile(
+      this.defines, SoShaderBenchmarkCorpus.LARGE_FILE);
+  }
+
+  /**
+   * Preprocess a large file, streaming the output as a single character
+   * sequence.
+   *
+   * @return The output
+   *
+   * @throws SoShaderException On errors
+   */
+
+  @Benchmark
+  public CharSequence largeFileCharSequence()
+    throws SoShaderException
+  {
+    return this.preprocessor.preprocessFileToCharSequence(
+      this.defines, SoShaderBenchmarkCorpus.LARGE_FILE);
+  }
+
+  /**
+   * Preprocess one file for many sets of defines.
+   *
+   * @return The output
+   *
+   * @throws SoShaderException On errors
+   */
+
+  @Benchmark
+  public List<List<String>> variants()
+    throws SoShaderException
+  {
+    return this.preprocessor.preprocessFileVariants(
+      this.variants, SoShaderBenchmarkCorpus.VARIANTS);
+  }
+}
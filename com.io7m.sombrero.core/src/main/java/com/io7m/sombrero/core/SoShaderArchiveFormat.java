@@ -0,0 +1,68 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.core;
+
+import com.io7m.junreachable.UnreachableCodeException;
+
+/**
+ * <p>The layout of shader archives. All integers are big-endian, and all
+ * offsets are relative to the start of the file.</p>
+ *
+ * <pre>
+ * header  : magic (int32), version (int32), count (int32)
+ * index   : count entries, sorted by name
+ * entry   : name offset (int32), name length (int32),
+ *           data offset (int32), data length (int32)
+ * names   : the UTF-8 encoded names of the files, without separators
+ * data    : the contents of the files, without separators
+ * </pre>
+ *
+ * <p>Names are normal in the sense of {@link SoShaderNames}, and entries are
+ * sorted by the unsigned byte values of the encoded names.</p>
+ */
+
+final class SoShaderArchiveFormat
+{
+  /**
+   * The archive magic number, {@code SOMA} in ASCII.
+   */
+
+  static final int MAGIC = 0x534F4D41;
+
+  /**
+   * The current archive version.
+   */
+
+  static final int VERSION = 1;
+
+  /**
+   * The size in bytes of the header.
+   */
+
+  static final int HEADER_SIZE = 12;
+
+  /**
+   * The size in bytes of an index entry.
+   */
+
+  static final int ENTRY_SIZE = 16;
+
+  private SoShaderArchiveFormat()
+  {
+    throw new UnreachableCodeException();
+  }
+}
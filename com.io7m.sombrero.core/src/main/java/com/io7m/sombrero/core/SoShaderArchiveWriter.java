@@ -0,0 +1,196 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.core;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>Functions for packing a directory of shader files into a single archive
+ * suitable for use with {@link SoShaderStoreArchive}.</p>
+ *
+ * <p>Archives can also be written during builds by executing
+ * {@link SoShaderArchiveWriterMain}.</p>
+ */
+
+public final class SoShaderArchiveWriter
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(SoShaderArchiveWriter.class);
+  }
+
+  private SoShaderArchiveWriter()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Pack every regular file in {@code directory} and its descendants into an
+   * archive. The archive is written to a temporary file that then replaces
+   * {@code output}, so readers never observe a partially written archive.
+   *
+   * @param directory The directory
+   * @param output    The archive file
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static void write(
+    final Path directory,
+    final Path output)
+    throws IOException
+  {
+    NullCheck.notNull(directory, "Directory");
+    NullCheck.notNull(output, "Output");
+
+    final List<Entry> entries = collect(directory);
+    final Path absolute = output.toAbsolutePath();
+    final Path temporary = Files.createTempFile(
+      absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+
+    try {
+      try (final OutputStream stream = Files.newOutputStream(temporary)) {
+        writeEntries(entries, stream);
+      }
+      Files.move(
+        temporary,
+        absolute,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+
+    LOG.debug("wrote {}: {} files", absolute, Integer.valueOf(entries.size()));
+  }
+
+  /**
+   * Pack every regular file in {@code directory} and its descendants into an
+   * archive written to {@code output}. The stream is flushed but not closed.
+   *
+   * @param directory The directory
+   * @param output    The output stream
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static void write(
+    final Path directory,
+    final OutputStream output)
+    throws IOException
+  {
+    NullCheck.notNull(directory, "Directory");
+    NullCheck.notNull(output, "Output");
+
+    writeEntries(collect(directory), output);
+  }
+
+  private static List<Entry> collect(
+    final Path directory)
+    throws IOException
+  {
+    final Path root = directory.toAbsolutePath().normalize();
+    final List<Entry> entries = new ArrayList<>(64);
+
+    SoShaderDirectories.walk(root, (path, name) -> {
+      LOG.trace("pack: {}", name);
+      entries.add(new Entry(
+        name.getBytes(StandardCharsets.UTF_8),
+        Files.readAllBytes(path)));
+    });
+
+    entries.sort((x, y) -> Arrays.compareUnsigned(x.name, y.name));
+    return entries;
+  }
+
+  private static void writeEntries(
+    final List<Entry> entries,
+    final OutputStream output)
+    throws IOException
+  {
+    final int count = entries.size();
+    long names_size = 0L;
+    long data_size = 0L;
+    for (final Entry entry : entries) {
+      names_size += (long) entry.name.length;
+      data_size += (long) entry.data.length;
+    }
+
+    final long names_start = (long) SoShaderArchiveFormat.HEADER_SIZE
+      + (long) count * (long) SoShaderArchiveFormat.ENTRY_SIZE;
+    final long data_start = names_start + names_size;
+    if (data_start + data_size > (long) Integer.MAX_VALUE) {
+      throw new IOException("Archive would exceed the maximum size");
+    }
+
+    final DataOutputStream out =
+      new DataOutputStream(new BufferedOutputStream(output, 65536));
+
+    out.writeInt(SoShaderArchiveFormat.MAGIC);
+    out.writeInt(SoShaderArchiveFormat.VERSION);
+    out.writeInt(count);
+
+    int name_offset = (int) names_start;
+    int data_offset = (int) data_start;
+    for (final Entry entry : entries) {
+      out.writeInt(name_offset);
+      out.writeInt(entry.name.length);
+      out.writeInt(data_offset);
+      out.writeInt(entry.data.length);
+      name_offset += entry.name.length;
+      data_offset += entry.data.length;
+    }
+
+    for (final Entry entry : entries) {
+      out.write(entry.name);
+    }
+    for (final Entry entry : entries) {
+      out.write(entry.data);
+    }
+    out.flush();
+  }
+
+  private static final class Entry
+  {
+    private final byte[] name;
+    private final byte[] data;
+
+    Entry(
+      final byte[] in_name,
+      final byte[] in_data)
+    {
+      this.name = NullCheck.notNull(in_name, "Name");
+      this.data = NullCheck.notNull(in_data, "Data");
+    }
+  }
+}
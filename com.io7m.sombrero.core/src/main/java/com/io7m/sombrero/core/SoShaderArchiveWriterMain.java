@@ -0,0 +1,58 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.core;
+
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * A program that packs a directory of shader files into an archive, for use
+ * during builds: {@code SoShaderArchiveWriterMain <directory> <archive>}.
+ *
+ * @see SoShaderArchiveWriter
+ */
+
+public final class SoShaderArchiveWriterMain
+{
+  private SoShaderArchiveWriterMain()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Main entry point.
+   *
+   * @param args Command-line arguments: the directory to pack, and the
+   *             archive to write
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static void main(
+    final String[] args)
+    throws IOException
+  {
+    if (args.length != 2) {
+      throw new IllegalArgumentException(
+        "usage: directory archive");
+    }
+
+    SoShaderArchiveWriter.write(Paths.get(args[0]), Paths.get(args[1]));
+  }
+}
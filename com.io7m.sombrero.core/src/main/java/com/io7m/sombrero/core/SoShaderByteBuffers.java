@@ -0,0 +1,137 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.core;
+
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.function.IntFunction;
+
+/**
+ * Functions for encoding preprocessed output into byte buffers.
+ */
+
+final class SoShaderByteBuffers
+{
+  private SoShaderByteBuffers()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Calculate the number of bytes required to encode {@code text} as UTF-8.
+   * Unpaired surrogates are counted as a single replacement byte.
+   *
+   * @param text The text
+   *
+   * @return The encoded length in bytes
+   */
+
+  static int lengthUTF8(
+    final CharSequence text)
+  {
+    final int length = text.length();
+    int bytes = 0;
+    for (int index = 0; index < length; ++index) {
+      final char c = text.charAt(index);
+      if (c < 0x80) {
+        bytes += 1;
+      } else if (c < 0x800) {
+        bytes += 2;
+      } else if (Character.isHighSurrogate(c)
+        && index + 1 < length
+        && Character.isLowSurrogate(text.charAt(index + 1))) {
+        bytes += 4;
+        ++index;
+      } else if (Character.isSurrogate(c)) {
+        bytes += 1;
+      } else {
+        bytes += 3;
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * Encode {@code text} as NUL-terminated UTF-8 into a buffer obtained from
+   * {@code allocator}.
+   *
+   * @param text      The text
+   * @param allocator A function that, given a size in bytes, returns a buffer
+   *                  with at least that many bytes remaining
+   *
+   * @return The buffer, with the position set to the start of the encoded text
+   * and the limit set immediately after the terminating NUL byte
+   *
+   * @throws SoShaderException If the allocated buffer is too small, or the
+   *                           text cannot be encoded
+   */
+
+  static ByteBuffer encodeUTF8(
+    final CharSequence text,
+    final IntFunction<ByteBuffer> allocator)
+    throws SoShaderException
+  {
+    final int size = lengthUTF8(text) + 1;
+    final ByteBuffer buffer = allocator.apply(size);
+    if (buffer.remaining() < size) {
+      final StringBuilder sb = new StringBuilder(128);
+      sb.append("Output buffer is too small.");
+      sb.append(System.lineSeparator());
+      sb.append("  Required: ");
+      sb.append(size);
+      sb.append(System.lineSeparator());
+      sb.append("  Remaining: ");
+      sb.append(buffer.remaining());
+      sb.append(System.lineSeparator());
+      throw new SoShaderException(sb.toString());
+    }
+
+    final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    encoder.onMalformedInput(CodingErrorAction.REPLACE);
+    encoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+    encoder.replaceWith(new byte[]{(byte) '?'});
+
+    final int start = buffer.position();
+    try {
+      checkResult(encoder.encode(CharBuffer.wrap(text), buffer, true));
+      checkResult(encoder.flush(buffer));
+    } catch (final CharacterCodingException e) {
+      throw new SoShaderException(e);
+    }
+
+    buffer.put((byte) 0);
+    buffer.limit(buffer.position());
+    buffer.position(start);
+    return buffer;
+  }
+
+  private static void checkResult(
+    final CoderResult result)
+    throws CharacterCodingException
+  {
+    if (result.isError() || result.isOverflow()) {
+      result.throwException();
+    }
+  }
+}
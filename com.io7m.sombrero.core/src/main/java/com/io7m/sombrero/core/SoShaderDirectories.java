@@ -0,0 +1,168 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.core;
+
+import com.io7m.junreachable.UnreachableCodeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+
+/**
+ * <p>Functions for listing the files in directories.</p>
+ *
+ * <p>Symbolic links are followed, so that a listing contains exactly the
+ * files that a lookup of the form {@code base/name} would find. Links that
+ * would form a cycle are skipped.</p>
+ */
+
+final class SoShaderDirectories
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(SoShaderDirectories.class);
+  }
+
+  private SoShaderDirectories()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Visit every regular file in {@code root} and its descendants.
+   *
+   * @param root     The directory
+   * @param receiver The receiver of files
+   *
+   * @throws IOException On I/O errors
+   */
+
+  static void walk(
+    final Path root,
+    final ReceiverType receiver)
+    throws IOException
+  {
+    walk(root, root, receiver);
+  }
+
+  /**
+   * Visit every directory and regular file in {@code start} and its
+   * descendants. The names of files are given relative to {@code root}.
+   *
+   * @param root     The directory relative to which files are named
+   * @param start    The directory at which to start, which must be {@code
+   *                 root} or a descendant of it
+   * @param receiver The receiver of directories and files
+   *
+   * @throws IOException On I/O errors
+   */
+
+  static void walk(
+    final Path root,
+    final Path start,
+    final ReceiverType receiver)
+    throws IOException
+  {
+    Files.walkFileTree(
+      start,
+      EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+      Integer.MAX_VALUE,
+      new SimpleFileVisitor<Path>()
+      {
+        @Override
+        public FileVisitResult preVisitDirectory(
+          final Path dir,
+          final BasicFileAttributes attrs)
+          throws IOException
+        {
+          receiver.onDirectory(dir);
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(
+          final Path file,
+          final BasicFileAttributes attrs)
+          throws IOException
+        {
+          if (attrs.isRegularFile()) {
+            receiver.onFile(
+              file, SoShaderNames.ofRelativePath(root.relativize(file)));
+          }
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(
+          final Path file,
+          final IOException e)
+          throws IOException
+        {
+          if (e instanceof FileSystemLoopException) {
+            LOG.debug("skipping cyclic link: {}", file);
+            return FileVisitResult.CONTINUE;
+          }
+          throw e;
+        }
+      });
+  }
+
+  /**
+   * The type of receivers of listed files.
+   */
+
+  interface ReceiverType
+  {
+    /**
+     * A directory was entered.
+     *
+     * @param directory The directory
+     *
+     * @throws IOException On I/O errors
+     */
+
+    default void onDirectory(
+      final Path directory)
+      throws IOException
+    {
+      // Directories are ignored by default
+    }
+
+    /**
+     * A regular file was found.
+     *
+     * @param file The file
+     * @param name The normal name of the file relative to the root
+     *
+     * @throws IOException On I/O errors
+     */
+
+    void onFile(
+      Path file,
+      String name)
+      throws IOException;
+  }
+}
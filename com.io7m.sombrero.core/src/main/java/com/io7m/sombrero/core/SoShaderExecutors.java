@@ -0,0 +1,79 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.core;
+
+import com.io7m.junreachable.UnreachableCodeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Functions for obtaining the executor used for asynchronous preprocessing.
+ */
+
+final class SoShaderExecutors
+{
+  private static final Logger LOG;
+  private static final Executor DEFAULT;
+
+  static {
+    LOG = LoggerFactory.getLogger(SoShaderExecutors.class);
+    DEFAULT = createDefault();
+  }
+
+  private SoShaderExecutors()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * The default executor runs each task on a new virtual thread if the
+   * running JVM supports virtual threads, and on the common fork/join pool
+   * otherwise. Preprocessing spends much of its time blocked on store I/O,
+   * which virtual threads do not hold a carrier thread for.
+   *
+   * @return The default executor
+   */
+
+  static Executor defaultExecutor()
+  {
+    return DEFAULT;
+  }
+
+  private static Executor createDefault()
+  {
+    try {
+      final Method method =
+        Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      final Executor executor = (Executor) method.invoke(null);
+      LOG.debug("using virtual threads for asynchronous preprocessing");
+      return executor;
+    } catch (final NoSuchMethodException
+      | IllegalAccessException
+      | InvocationTargetException
+      | UnsupportedOperationException e) {
+      LOG.debug(
+        "virtual threads unavailable, using the common fork/join pool");
+      return ForkJoinPool.commonPool();
+    }
+  }
+}
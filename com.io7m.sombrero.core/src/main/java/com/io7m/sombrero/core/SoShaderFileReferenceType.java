@@ -18,6 +18,8 @@ package com.io7m.sombrero.core;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.OptionalLong;
 
 /**
  * A reference to a file.
@@ -33,4 +35,54 @@ public interface SoShaderFileReferenceType
 
   InputStream stream()
     throws IOException;
+
+  /**
+   * <p>The contents of the file as a buffer. The buffer's position is the
+   * start of the file and its limit is the end of the file. The buffer may
+   * be shared and so must not be modified, although its position and limit
+   * may be changed freely.</p>
+   *
+   * <p>The default implementation reads the whole of {@link #stream()}.
+   * Implementations may instead return a buffer that refers directly to the
+   * underlying storage, such as a memory-mapped file.</p>
+   *
+   * @return The contents of the file
+   *
+   * @throws IOException On I/O errors
+   */
+
+  default ByteBuffer bytes()
+    throws IOException
+  {
+    try (final InputStream stream = this.stream()) {
+      return ByteBuffer.wrap(stream.readAllBytes());
+    }
+  }
+
+  /**
+   * <p>A fingerprint of the contents of the file. If two fingerprints
+   * obtained from the same store for the same file differ, then the contents
+   * of the file have changed. Equal fingerprints indicate, with high
+   * probability but no guarantee, that the contents have not changed.</p>
+   *
+   * <p>Depending on the store, a fingerprint is either a hash of the contents
+   * of the file, or is derived from metadata such as the file's size and
+   * modification time. Fingerprints are therefore only comparable with other
+   * fingerprints of the same file from the same store. Obtaining a
+   * fingerprint never requires reading the contents of the file from
+   * storage.</p>
+   *
+   * <p>The default implementation returns nothing, indicating that no
+   * fingerprint can be provided cheaply.</p>
+   *
+   * @return The fingerprint of the file, if available
+   *
+   * @throws IOException On I/O errors
+   */
+
+  default OptionalLong fingerprint()
+    throws IOException
+  {
+    return OptionalLong.empty();
+  }
 }
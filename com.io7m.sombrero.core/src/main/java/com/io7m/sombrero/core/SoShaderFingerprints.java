@@ -0,0 +1,128 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.core;
+
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Functions for calculating the fingerprints returned by {@link
+ * SoShaderFileReferenceType#fingerprint()}.
+ */
+
+final class SoShaderFingerprints
+{
+  private static final long SEED = 0x27d4eb2f165667c5L;
+  private static final long PRIME_1 = 0x9e3779b185ebca87L;
+  private static final long PRIME_2 = 0xc2b2ae3d27d4eb4fL;
+
+  private SoShaderFingerprints()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Hash the remaining bytes of a buffer. The buffer's position is not
+   * changed.
+   *
+   * @param buffer The buffer
+   *
+   * @return A 64-bit hash of the buffer's contents
+   */
+
+  static long ofBytes(
+    final ByteBuffer buffer)
+  {
+    final ByteBuffer view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    long hash = mix(SEED, (long) view.remaining());
+    while (view.remaining() >= 8) {
+      hash = mix(hash, view.getLong());
+    }
+
+    long tail = 0L;
+    int shift = 0;
+    while (view.hasRemaining()) {
+      tail |= ((long) view.get() & 0xffL) << shift;
+      shift += 8;
+    }
+    return finish(mix(hash, tail));
+  }
+
+  /**
+   * Combine two values, such as a size and a checksum, into a fingerprint.
+   *
+   * @param x The first value
+   * @param y The second value
+   *
+   * @return A 64-bit hash of the values
+   */
+
+  static long ofValues(
+    final long x,
+    final long y)
+  {
+    return finish(mix(mix(SEED, x), y));
+  }
+
+  /**
+   * Calculate a fingerprint from the size and modification time of a file.
+   * The contents of the file are not read.
+   *
+   * @param path The file
+   *
+   * @return A 64-bit hash of the file's size and modification time
+   *
+   * @throws IOException On I/O errors
+   */
+
+  static long ofAttributes(
+    final Path path)
+    throws IOException
+  {
+    final BasicFileAttributes attributes =
+      Files.readAttributes(path, BasicFileAttributes.class);
+    return ofValues(
+      attributes.size(),
+      attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS));
+  }
+
+  private static long mix(
+    final long hash,
+    final long value)
+  {
+    return Long.rotateLeft(hash ^ (value * PRIME_1), 31) * PRIME_2;
+  }
+
+  private static long finish(
+    final long hash)
+  {
+    long h = hash;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.core;
+
+import com.io7m.jnull.NullCheck;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * <p>A writer that splits preprocessor output into lines as it arrives.
+ * Lines consisting entirely of whitespace are dropped, and all line
+ * terminators are normalized to {@code \n}.</p>
+ *
+ * <p>Output may be given either as characters, or as UTF-8 bytes that do not
+ * contain line terminators. Bytes are buffered until they are followed by
+ * characters or the end of the line; runs that are pure ASCII are widened
+ * without decoding.</p>
+ *
+ * <p>Writers are not thread-safe, but may be reset and reused.</p>
+ */
+
+public final class SoShaderLineWriter
+{
+  private final StringBuilder line;
+  private SoShaderPreprocessorLineConsumerType consumer;
+  private byte[] bytes;
+  private int bytes_length;
+  private boolean bytes_ascii;
+  private boolean blank;
+  private boolean carriage;
+
+  private SoShaderLineWriter(
+    final SoShaderPreprocessorLineConsumerType in_consumer)
+  {
+    this.consumer = NullCheck.notNull(in_consumer, "Consumer");
+    this.line = new StringBuilder(128);
+    this.bytes = new byte[256];
+    this.bytes_length = 0;
+    this.bytes_ascii = true;
+    this.blank = true;
+    this.carriage = false;
+  }
+
+  /**
+   * Create a new writer.
+   *
+   * @param consumer The line consumer
+   *
+   * @return A new writer
+   */
+
+  public static SoShaderLineWriter create(
+    final SoShaderPreprocessorLineConsumerType consumer)
+  {
+    return new SoShaderLineWriter(consumer);
+  }
+
+  /**
+   * Discard any buffered text and direct subsequent lines to
+   * {@code in_consumer}, so that the writer can be reused for another run.
+   *
+   * @param in_consumer The new line consumer
+   */
+
+  public void reset(
+    final SoShaderPreprocessorLineConsumerType in_consumer)
+  {
+    this.consumer = NullCheck.notNull(in_consumer, "Consumer");
+    this.line.setLength(0);
+    this.bytes_length = 0;
+    this.bytes_ascii = true;
+    this.blank = true;
+    this.carriage = false;
+  }
+
+  /**
+   * Append characters, which may contain line terminators.
+   *
+   * @param text The characters
+   *
+   * @throws SoShaderException If the line consumer raises an exception
+   */
+
+  public void append(
+    final CharSequence text)
+    throws SoShaderException
+  {
+    this.flushBytes();
+
+    final int length = text.length();
+    for (int index = 0; index < length; ++index) {
+      final char c = text.charAt(index);
+      switch (c) {
+        case '\n': {
+          if (this.carriage) {
+            this.carriage = false;
+          } else {
+            this.endLine();
+          }
+          break;
+        }
+        case '\r': {
+          this.carriage = true;
+          this.endLine();
+          break;
+        }
+        default: {
+          this.carriage = false;
+          if (c > ' ') {
+            this.blank = false;
+          }
+          this.line.append(c);
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Append UTF-8 bytes, which must not contain line terminators.
+   *
+   * @param data  The bytes
+   * @param start The index of the first byte
+   * @param end   The index one past the last byte
+   */
+
+  public void write(
+    final byte[] data,
+    final int start,
+    final int end)
+  {
+    final int count = end - start;
+    if (this.bytes_length + count > this.bytes.length) {
+      this.bytes = Arrays.copyOf(
+        this.bytes, Math.max(this.bytes.length * 2, this.bytes_length + count));
+    }
+
+    for (int index = start; index < end; ++index) {
+      final byte b = data[index];
+      if (b < 0) {
+        this.bytes_ascii = false;
+        this.blank = false;
+      } else if (b > ' ') {
+        this.blank = false;
+      }
+    }
+
+    System.arraycopy(data, start, this.bytes, this.bytes_length, count);
+    this.bytes_length += count;
+    this.carriage = false;
+  }
+
+  /**
+   * End the current line.
+   *
+   * @throws SoShaderException If the line consumer raises an exception
+   */
+
+  public void newline()
+    throws SoShaderException
+  {
+    this.endLine();
+    this.carriage = false;
+  }
+
+  /**
+   * End the current line, if it is not empty.
+   *
+   * @throws SoShaderException If the line consumer raises an exception
+   */
+
+  public void finish()
+    throws SoShaderException
+  {
+    this.newline();
+  }
+
+  private void flushBytes()
+  {
+    if (this.bytes_length == 0) {
+      return;
+    }
+
+    if (this.bytes_ascii) {
+      for (int index = 0; index < this.bytes_length; ++index) {
+        this.line.append((char) this.bytes[index]);
+      }
+    } else {
+      this.line.append(
+        new String(this.bytes, 0, this.bytes_length, StandardCharsets.UTF_8));
+    }
+    this.bytes_length = 0;
+    this.bytes_ascii = true;
+  }
+
+  private void endLine()
+    throws SoShaderException
+  {
+    this.flushBytes();
+    if (!this.blank) {
+      this.line.append('\n');
+      this.consumer.onLine(this.line);
+    }
+    this.line.setLength(0);
+    this.blank = true;
+  }
+}
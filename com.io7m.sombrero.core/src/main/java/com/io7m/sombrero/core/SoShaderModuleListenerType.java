@@ -0,0 +1,40 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.core;
+
+import java.util.Set;
+
+/**
+ * A listener for changes to the set of modules available from a resolver.
+ *
+ * @see SoShaderModuleTracker
+ */
+
+public interface SoShaderModuleListenerType
+{
+  /**
+   * Called when the set of available modules has changed.
+   *
+   * @param added   The names of modules that were not previously available
+   * @param removed The names of modules that are no longer available, or that
+   *                are now provided by a different module instance
+   */
+
+  void onModulesChanged(
+    final Set<String> added,
+    final Set<String> removed);
+}
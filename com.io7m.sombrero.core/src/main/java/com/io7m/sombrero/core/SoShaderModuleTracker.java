@@ -0,0 +1,171 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.core;
+
+import com.io7m.jnull.NullCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>A live view of the names of the modules available from a resolver.</p>
+ *
+ * <p>Each call to {@link #modules()} compares the
+ * {@link SoShaderResolverType#generation()} of the resolver against the
+ * generation observed by the previous call, and only rebuilds the list of
+ * names when the generation has changed. When it has, the given listener is
+ * told which modules were added and removed before the new list of names is
+ * returned to any caller, so that state derived from the old set of modules
+ * can be discarded first.</p>
+ *
+ * <p>The tracker is safe to use from multiple threads.</p>
+ */
+
+public final class SoShaderModuleTracker
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(SoShaderModuleTracker.class);
+  }
+
+  private final SoShaderResolverType resolver;
+  private final SoShaderModuleListenerType listener;
+  private final Object lock;
+  private volatile State state;
+
+  private SoShaderModuleTracker(
+    final SoShaderResolverType in_resolver,
+    final SoShaderModuleListenerType in_listener)
+  {
+    this.resolver = NullCheck.notNull(in_resolver, "Resolver");
+    this.listener = NullCheck.notNull(in_listener, "Listener");
+    this.lock = new Object();
+    this.state = this.snapshot(in_resolver.generation());
+  }
+
+  /**
+   * Create a new tracker.
+   *
+   * @param resolver The resolver
+   * @param listener A listener that will be told about changes to the set of
+   *                 modules
+   *
+   * @return A new tracker
+   */
+
+  public static SoShaderModuleTracker create(
+    final SoShaderResolverType resolver,
+    final SoShaderModuleListenerType listener)
+  {
+    return new SoShaderModuleTracker(resolver, listener);
+  }
+
+  /**
+   * @return A read-only list of the names of the currently available modules
+   */
+
+  public List<String> modules()
+  {
+    final long generation = this.resolver.generation();
+    final State current = this.state;
+    if (current.generation == generation) {
+      return current.names;
+    }
+
+    synchronized (this.lock) {
+      final State latest = this.state;
+      if (latest.generation == generation) {
+        return latest.names;
+      }
+
+      LOG.debug(
+        "generation changed ({} -> {}), updating modules",
+        Long.valueOf(latest.generation),
+        Long.valueOf(generation));
+
+      /*
+       * The generation is read before the modules, so if the modules change
+       * again in between, the new state is recorded with an older generation
+       * and is simply rebuilt on the next call.
+       */
+
+      final State updated = this.snapshot(generation);
+      final Set<String> added = new HashSet<>(4);
+      final Set<String> removed = new HashSet<>(4);
+      for (final Map.Entry<String, SoShaderModuleType> e
+        : updated.available.entrySet()) {
+        final String name = e.getKey();
+        final SoShaderModuleType previous = latest.available.get(name);
+        if (previous == null) {
+          added.add(name);
+        } else if (previous != e.getValue()) {
+          removed.add(name);
+        }
+      }
+      for (final String name : latest.available.keySet()) {
+        if (!updated.available.containsKey(name)) {
+          removed.add(name);
+        }
+      }
+
+      if (!added.isEmpty() || !removed.isEmpty()) {
+        this.listener.onModulesChanged(
+          Collections.unmodifiableSet(added),
+          Collections.unmodifiableSet(removed));
+      }
+
+      this.state = updated;
+      return updated.names;
+    }
+  }
+
+  private State snapshot(
+    final long generation)
+  {
+    final Map<String, SoShaderModuleType> available =
+      Collections.unmodifiableMap(
+        new LinkedHashMap<>(this.resolver.available()));
+    final List<String> names =
+      Collections.unmodifiableList(new ArrayList<>(available.keySet()));
+    return new State(generation, available, names);
+  }
+
+  private static final class State
+  {
+    private final long generation;
+    private final Map<String, SoShaderModuleType> available;
+    private final List<String> names;
+
+    State(
+      final long in_generation,
+      final Map<String, SoShaderModuleType> in_available,
+      final List<String> in_names)
+    {
+      this.generation = in_generation;
+      this.available = NullCheck.notNull(in_available, "Available");
+      this.names = NullCheck.notNull(in_names, "Names");
+    }
+  }
+}
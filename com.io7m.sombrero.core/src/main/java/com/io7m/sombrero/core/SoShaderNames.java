@@ -0,0 +1,144 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.core;
+
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Optional;
+
+/**
+ * Functions for normalizing the names of files within stores. A normal name
+ * begins with a slash, and contains no empty, {@code .}, or {@code ..}
+ * segments.
+ */
+
+public final class SoShaderNames
+{
+  private SoShaderNames()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * @param name A file name
+   *
+   * @return {@code true} iff {@code name} is already normal
+   */
+
+  public static boolean isNormal(
+    final String name)
+  {
+    final int length = name.length();
+    if (length < 2 || name.charAt(0) != '/') {
+      return false;
+    }
+
+    int start = 1;
+    while (start <= length) {
+      int end = name.indexOf('/', start);
+      if (end < 0) {
+        end = length;
+      }
+      if (isSpecial(name, start, end)) {
+        return false;
+      }
+      start = end + 1;
+    }
+    return true;
+  }
+
+  private static boolean isSpecial(
+    final String name,
+    final int start,
+    final int end)
+  {
+    switch (end - start) {
+      case 0:
+        return true;
+      case 1:
+        return name.charAt(start) == '.';
+      case 2:
+        return name.charAt(start) == '.' && name.charAt(start + 1) == '.';
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Normalize a name. Empty and {@code .} segments are removed, and {@code
+   * ..} segments remove the preceding segment.
+   *
+   * @param name A file name
+   *
+   * @return The normal name, or nothing if the name refers to a location
+   * above the root
+   */
+
+  public static Optional<String> normalize(
+    final String name)
+  {
+    if (isNormal(name)) {
+      return Optional.of(name);
+    }
+
+    final ArrayDeque<String> segments = new ArrayDeque<>(8);
+    int start = 0;
+    while (start <= name.length()) {
+      int end = name.indexOf('/', start);
+      if (end < 0) {
+        end = name.length();
+      }
+
+      final String segment = name.substring(start, end);
+      if ("..".equals(segment)) {
+        if (segments.isEmpty()) {
+          return Optional.empty();
+        }
+        segments.removeLast();
+      } else if (!segment.isEmpty() && !".".equals(segment)) {
+        segments.addLast(segment);
+      }
+      start = end + 1;
+    }
+
+    final StringBuilder sb = new StringBuilder(name.length() + 1);
+    for (final String segment : segments) {
+      sb.append('/');
+      sb.append(segment);
+    }
+    return Optional.of(sb.toString());
+  }
+
+  /**
+   * @param relative A path relative to the root of a store
+   *
+   * @return The normal name of the path
+   */
+
+  static String ofRelativePath(
+    final Path relative)
+  {
+    final StringBuilder sb = new StringBuilder(64);
+    for (final Path segment : relative) {
+      sb.append('/');
+      sb.append(segment.toString());
+    }
+    return sb.toString();
+  }
+}
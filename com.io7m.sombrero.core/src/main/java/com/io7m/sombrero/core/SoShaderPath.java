@@ -0,0 +1,180 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.core;
+
+import com.io7m.jnull.NullCheck;
+
+/**
+ * <p>A parsed path of the form {@code module/file}.</p>
+ *
+ * <p>Parsing records only the positions of the separators. The module name,
+ * the name of the file within the module, and the directory containing the
+ * file are each computed the first time that they are requested, and then
+ * retained, so that resolving a path that has been obtained from a
+ * {@link SoShaderPathTable} requires no further string manipulation.</p>
+ */
+
+public final class SoShaderPath
+{
+  private final String text;
+  private final int separator;
+  private final int last_separator;
+  private String module;
+  private String file;
+  private String directory;
+
+  /*
+   * The substring fields are computed on demand without synchronization.
+   * Strings are immutable and safely published, so a thread that races
+   * another at worst computes an equal substring again.
+   */
+
+  private SoShaderPath(
+    final String in_text,
+    final int in_separator)
+  {
+    this.text = in_text;
+    this.separator = in_separator;
+    this.last_separator = in_text.lastIndexOf('/');
+  }
+
+  /**
+   * Parse a path.
+   *
+   * @param text The path text
+   *
+   * @return A parsed path
+   *
+   * @throws SoShaderExceptionBadPath If the path does not name a module
+   */
+
+  public static SoShaderPath parse(
+    final String text)
+    throws SoShaderExceptionBadPath
+  {
+    NullCheck.notNull(text, "Text");
+
+    final int ind = text.indexOf('/');
+    if (ind != -1) {
+      return new SoShaderPath(text, ind);
+    }
+
+    final StringBuilder sb = new StringBuilder(128);
+    sb.append("Invalid path.");
+    sb.append(System.lineSeparator());
+    sb.append("  Expected: A path of the form module/file");
+    sb.append(System.lineSeparator());
+    sb.append("  Recevied: ");
+    sb.append(text);
+    sb.append(System.lineSeparator());
+    throw new SoShaderExceptionBadPath(sb.toString());
+  }
+
+  static SoShaderPath join(
+    final String directory,
+    final String name)
+  {
+    final StringBuilder sb =
+      new StringBuilder(directory.length() + name.length() + 1);
+    sb.append(directory);
+    sb.append('/');
+    sb.append(name);
+
+    final int ind = directory.indexOf('/');
+    if (ind != -1) {
+      return new SoShaderPath(sb.toString(), ind);
+    }
+    return new SoShaderPath(sb.toString(), directory.length());
+  }
+
+  /**
+   * @return The full text of the path, such as {@code module/a/b.h}
+   */
+
+  public String text()
+  {
+    return this.text;
+  }
+
+  /**
+   * @return The module name, such as {@code module}
+   */
+
+  public String module()
+  {
+    String result = this.module;
+    if (result == null) {
+      result = this.text.substring(0, this.separator);
+      this.module = result;
+    }
+    return result;
+  }
+
+  /**
+   * @return The name of the file within the module, such as {@code /a/b.h}
+   */
+
+  public String file()
+  {
+    String result = this.file;
+    if (result == null) {
+      result = this.text.substring(this.separator);
+      this.file = result;
+    }
+    return result;
+  }
+
+  /**
+   * @return The directory containing the file, such as {@code module/a}
+   */
+
+  public String directory()
+  {
+    String result = this.directory;
+    if (result == null) {
+      result = this.text.substring(0, this.last_separator);
+      this.directory = result;
+    }
+    return result;
+  }
+
+  @Override
+  public boolean equals(
+    final Object other)
+  {
+    if (this == other) {
+      return true;
+    }
+    if (other == null || this.getClass() != other.getClass()) {
+      return false;
+    }
+    final SoShaderPath that = (SoShaderPath) other;
+    return this.text.equals(that.text);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return this.text.hashCode();
+  }
+
+  @Override
+  public String toString()
+  {
+    return this.text;
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.core;
+
+import com.io7m.jnull.NullCheck;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>A table of interned paths.</p>
+ *
+ * <p>Preprocessors typically construct the same few paths over and over, as
+ * each file is included from many others. The table parses each path once
+ * and returns the same {@link SoShaderPath} for every later request, so that
+ * looking up a path that has been seen before allocates nothing. Paths may be
+ * requested either by their full text, or by a directory and a name
+ * relative to that directory, in which case the joined text is not
+ * constructed again.</p>
+ *
+ * <p>The table holds approximately a fixed number of paths. When a path is
+ * added to a full table, the table is first cleared, so that the paths in
+ * use are interned again on their next request rather than the table
+ * remaining frozen with whatever paths were seen first. The table may also
+ * be cleared explicitly, for example when the set of modules changes.</p>
+ *
+ * <p>The table is safe to use from multiple threads.</p>
+ */
+
+public final class SoShaderPathTable
+{
+  private final int size;
+  private final Object lock;
+  private final AtomicInteger count;
+  private final ConcurrentHashMap<String, SoShaderPath> paths;
+  private final ConcurrentHashMap<String, ConcurrentHashMap<String, SoShaderPath>> joined;
+
+  private SoShaderPathTable(
+    final int in_size)
+  {
+    this.size = in_size;
+    this.lock = new Object();
+    this.count = new AtomicInteger(0);
+    this.paths = new ConcurrentHashMap<>(64);
+    this.joined = new ConcurrentHashMap<>(16);
+  }
+
+  /**
+   * Create a new table.
+   *
+   * @param size The maximum number of interned paths
+   *
+   * @return A new table
+   */
+
+  public static SoShaderPathTable create(
+    final int size)
+  {
+    if (size <= 0) {
+      throw new IllegalArgumentException("Table size must be positive");
+    }
+    return new SoShaderPathTable(size);
+  }
+
+  /**
+   * Obtain the path with the given text.
+   *
+   * @param text The path text
+   *
+   * @return The interned path
+   *
+   * @throws SoShaderExceptionBadPath If the path does not name a module
+   */
+
+  public SoShaderPath intern(
+    final String text)
+    throws SoShaderExceptionBadPath
+  {
+    final SoShaderPath existing = this.paths.get(text);
+    if (existing != null) {
+      return existing;
+    }
+    return this.add(SoShaderPath.parse(text));
+  }
+
+  /**
+   * Obtain the path that names {@code name} within {@code directory}. This
+   * is the path with the text {@code directory + "/" + name}.
+   *
+   * @param directory The directory, beginning with the module name
+   * @param name      The name relative to the directory
+   *
+   * @return The interned path
+   */
+
+  public SoShaderPath intern(
+    final String directory,
+    final String name)
+  {
+    NullCheck.notNull(directory, "Directory");
+    NullCheck.notNull(name, "Name");
+
+    final ConcurrentHashMap<String, SoShaderPath> names =
+      this.joined.get(directory);
+    if (names != null) {
+      final SoShaderPath existing = names.get(name);
+      if (existing != null) {
+        return existing;
+      }
+    }
+
+    final SoShaderPath path = this.add(SoShaderPath.join(directory, name));
+    this.joined.computeIfAbsent(directory, k -> new ConcurrentHashMap<>(16))
+      .putIfAbsent(name, path);
+    return path;
+  }
+
+  /**
+   * @return The number of interned paths
+   */
+
+  public int size()
+  {
+    return this.paths.size();
+  }
+
+  /**
+   * Discard all interned paths.
+   */
+
+  public void clear()
+  {
+    synchronized (this.lock) {
+      this.paths.clear();
+      this.joined.clear();
+      this.count.set(0);
+    }
+  }
+
+  private SoShaderPath add(
+    final SoShaderPath path)
+  {
+    if (this.count.get() >= this.size) {
+      synchronized (this.lock) {
+        if (this.count.get() >= this.size) {
+          this.paths.clear();
+          this.joined.clear();
+          this.count.set(0);
+        }
+      }
+    }
+
+    final SoShaderPath existing = this.paths.putIfAbsent(path.text(), path);
+    if (existing != null) {
+      return existing;
+    }
+    this.count.incrementAndGet();
+    return path;
+  }
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.core;
+
+import com.io7m.jnull.NullCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * <p>An abstract preprocessor implementation that provides the output cache,
+ * the source cache, live module tracking, and a bounded pool of sessions that
+ * are reset and reused between calls. Implementations provide sessions and
+ * the preprocessing run itself.</p>
+ *
+ * <p>Instances are safe for concurrent use by multiple threads, provided
+ * that each run only uses the session it is given.</p>
+ *
+ * @param <S> The type of sessions
+ * @param <T> The type of sources held in the source cache
+ */
+
+public abstract class SoShaderPreprocessorAbstract<
+  S extends SoShaderPreprocessorSessionType, T>
+  implements SoShaderPreprocessorType
+{
+  private static final Logger LOG;
+  private static final int PATH_TABLE_SIZE;
+
+  static {
+    LOG = LoggerFactory.getLogger(SoShaderPreprocessorAbstract.class);
+    PATH_TABLE_SIZE = 4096;
+  }
+
+  private final SoShaderPreprocessorConfig config;
+  private final SoShaderModuleTracker modules;
+  private final SoShaderPathTable paths;
+  private final Optional<SoShaderPreprocessorCache> cache;
+  private final Optional<SoShaderSourceCache<T>> sources;
+  private final ArrayBlockingQueue<S> sessions;
+
+  protected SoShaderPreprocessorAbstract(
+    final SoShaderPreprocessorConfig in_config)
+  {
+    this.config = NullCheck.notNull(in_config, "Config");
+    this.paths = SoShaderPathTable.create(PATH_TABLE_SIZE);
+    this.sessions =
+      new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors() * 2);
+
+    final int cache_size = this.config.outputCacheSize();
+    if (cache_size > 0) {
+      this.cache = Optional.of(SoShaderPreprocessorCache.create(cache_size));
+    } else {
+      this.cache = Optional.empty();
+    }
+
+    final int source_cache_size = this.config.sourceCacheSize();
+    if (source_cache_size > 0) {
+      this.sources = Optional.of(SoShaderSourceCache.create(source_cache_size));
+    } else {
+      this.sources = Optional.empty();
+    }
+
+    this.modules = SoShaderModuleTracker.create(
+      this.config.resolver(), this::onModulesChanged);
+  }
+
+  /**
+   * @return The preprocessor configuration
+   */
+
+  protected final SoShaderPreprocessorConfig config()
+  {
+    return this.config;
+  }
+
+  /**
+   * @return The table of interned paths shared by all sessions
+   */
+
+  protected final SoShaderPathTable paths()
+  {
+    return this.paths;
+  }
+
+  /**
+   * Create a new session. This is called when the pool of idle sessions is
+   * empty.
+   *
+   * @return A new session
+   */
+
+  protected abstract S createSession();
+
+  /**
+   * Preprocess {@code file} using {@code session}. Implementations must add
+   * every file that they read to the session's set of files, and must count
+   * every warning and error that they report in the session's diagnostics.
+   * Sources must be stored in the source cache using a generation obtained
+   * before the file was read.
+   *
+   * @param session    The session
+   * @param names      The names of the available modules
+   * @param defines    The set of preprocessor defines
+   * @param file       The file
+   * @param in_sources The source cache, if any
+   * @param lines      The receiver of output lines
+   * @param on_warning The warning callback
+   * @param on_error   The error callback
+   *
+   * @throws SoShaderException On errors
+   */
+
+  protected abstract void run(
+    S session,
+    List<String> names,
+    Map<String, String> defines,
+    String file,
+    Optional<SoShaderSourceCache<T>> in_sources,
+    SoShaderPreprocessorLineConsumerType lines,
+    SoShaderPreprocessorCallbackWarningType on_warning,
+    SoShaderPreprocessorCallbackErrorType on_error)
+    throws SoShaderException;
+
+  @Override
+  public final List<String> preprocessFileWithCallbacks(
+    final Map<String, String> defines,
+    final String file,
+    final SoShaderPreprocessorCallbackWarningType on_warning,
+    final SoShaderPreprocessorCallbackErrorType on_error)
+    throws SoShaderException
+  {
+    return this.preprocess(defines, file, this.sources, on_warning, on_error);
+  }
+
+  @Override
+  public final void preprocessFileWithCallbacksToLines(
+    final Map<String, String> defines,
+    final String file,
+    final SoShaderPreprocessorLineConsumerType lines,
+    final SoShaderPreprocessorCallbackWarningType on_warning,
+    final SoShaderPreprocessorCallbackErrorType on_error)
+    throws SoShaderException
+  {
+    /*
+     * Output can only be streamed directly if it does not also need to be
+     * captured for the output cache.
+     */
+
+    if (this.cache.isPresent()) {
+      final List<String> output =
+        this.preprocess(defines, file, this.sources, on_warning, on_error);
+      for (final String line : output) {
+        lines.onLine(line);
+      }
+      return;
+    }
+
+    final List<String> names = this.modules.modules();
+    final S session = this.acquire();
+    try {
+      this.runChecked(
+        session,
+        names,
+        defines,
+        file,
+        this.sources,
+        lines,
+        on_warning,
+        on_error);
+    } finally {
+      this.release(session);
+    }
+  }
+
+  @Override
+  public final List<List<String>> preprocessFileVariantsWithCallbacks(
+    final List<Map<String, String>> defines,
+    final String file,
+    final Executor executor,
+    final SoShaderPreprocessorCallbackWarningType on_warning,
+    final SoShaderPreprocessorCallbackErrorType on_error)
+    throws SoShaderException
+  {
+    /*
+     * If no source cache is configured, use one that lives only as long as
+     * the batch so that files are resolved and read once for all of the
+     * variants.
+     */
+
+    final Optional<SoShaderSourceCache<T>> batch_sources;
+    if (this.sources.isPresent()) {
+      batch_sources = this.sources;
+    } else {
+      batch_sources = Optional.of(SoShaderSourceCache.create(Integer.MAX_VALUE));
+    }
+
+    final SoShaderPreprocessorType batch =
+      (b_defines, b_file, b_on_warning, b_on_error) ->
+        this.preprocess(
+          b_defines, b_file, batch_sources, b_on_warning, b_on_error);
+
+    return batch.preprocessFileVariantsWithCallbacks(
+      defines, file, executor, on_warning, on_error);
+  }
+
+  private List<String> preprocess(
+    final Map<String, String> defines,
+    final String file,
+    final Optional<SoShaderSourceCache<T>> file_sources,
+    final SoShaderPreprocessorCallbackWarningType on_warning,
+    final SoShaderPreprocessorCallbackErrorType on_error)
+    throws SoShaderException
+  {
+    final OptionalInt version = this.config.version();
+    final long generation;
+    if (this.cache.isPresent()) {
+      final SoShaderPreprocessorCache c = this.cache.get();
+      generation = c.generation();
+      final Optional<List<String>> cached = c.find(defines, file, version);
+      if (cached.isPresent()) {
+        return cached.get();
+      }
+    } else {
+      generation = 0L;
+    }
+
+    /*
+     * The modules are read after the generation of the cache. If the modules
+     * change in between, the cache is invalidated after the generation has
+     * been read, and so the output is rejected rather than being cached
+     * under the new generation.
+     */
+
+    final List<String> names = this.modules.modules();
+
+    final List<String> lines = new ArrayList<>(64);
+    final S session = this.acquire();
+    try {
+      this.runChecked(
+        session,
+        names,
+        defines,
+        file,
+        file_sources,
+        line -> lines.add(line.toString()),
+        on_warning,
+        on_error);
+
+      /*
+       * Output that produced warnings or errors is not cached, as the
+       * callbacks given on later calls would never be evaluated.
+       */
+
+      if (this.cache.isPresent() && session.diagnostics() == 0) {
+        return this.cache.get().put(
+          defines, file, version, lines, session.files(), generation);
+      }
+      return lines;
+    } finally {
+      this.release(session);
+    }
+  }
+
+  private void runChecked(
+    final S session,
+    final List<String> names,
+    final Map<String, String> defines,
+    final String file,
+    final Optional<SoShaderSourceCache<T>> file_sources,
+    final SoShaderPreprocessorLineConsumerType lines,
+    final SoShaderPreprocessorCallbackWarningType on_warning,
+    final SoShaderPreprocessorCallbackErrorType on_error)
+    throws SoShaderException
+  {
+    NullCheck.notNull(defines, "Defines");
+    NullCheck.notNull(file, "File");
+    NullCheck.notNull(lines, "Lines");
+    NullCheck.notNull(on_warning, "on_warning");
+    NullCheck.notNull(on_error, "on_error");
+
+    this.run(
+      session,
+      names,
+      defines,
+      file,
+      file_sources,
+      lines,
+      on_warning,
+      on_error);
+  }
+
+  private S acquire()
+  {
+    final S session = this.sessions.poll();
+    if (session != null) {
+      return session;
+    }
+    return this.createSession();
+  }
+
+  private void release(
+    final S session)
+  {
+    session.reset();
+    this.sessions.offer(session);
+  }
+
+  private void onModulesChanged(
+    final Set<String> added,
+    final Set<String> removed)
+  {
+    LOG.debug("modules added: {}, removed: {}", added, removed);
+
+    /*
+     * A new module may shadow files that were previously found in a later
+     * module on the include path, or become the default module for
+     * unqualified includes, and so any output may now differ.
+     */
+
+    if (!added.isEmpty()) {
+      this.cache.ifPresent(SoShaderPreprocessorCache::invalidateAll);
+    }
+
+    for (final String module : removed) {
+      this.cache.ifPresent(c -> c.invalidateModule(module));
+      this.sources.ifPresent(c -> c.invalidateModule(module));
+    }
+
+    /*
+     * The paths of removed modules would otherwise occupy the path table
+     * until it next fills.
+     */
+
+    if (!removed.isEmpty()) {
+      this.paths.clear();
+    }
+  }
+
+  @Override
+  public final void invalidate(
+    final String file)
+  {
+    this.cache.ifPresent(c -> c.invalidate(file));
+    this.sources.ifPresent(c -> c.invalidate(file));
+  }
+
+  @Override
+  public final void invalidateAll()
+  {
+    this.cache.ifPresent(SoShaderPreprocessorCache::invalidateAll);
+    this.sources.ifPresent(SoShaderSourceCache::invalidateAll);
+  }
+}
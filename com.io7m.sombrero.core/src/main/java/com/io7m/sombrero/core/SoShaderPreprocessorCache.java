@@ -0,0 +1,303 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.core;
+
+import com.io7m.jnull.NullCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Set;
+
+/**
+ * <p>A bounded cache of preprocessed output, keyed by the preprocessed file,
+ * the set of defines, and the version directive.</p>
+ *
+ * <p>Each entry records the set of files that were read in order to produce
+ * it, and the entry is discarded when any of those files are invalidated.
+ * When the cache is full, the least recently used entry is discarded.</p>
+ *
+ * <p>The cache does not observe the files themselves: callers must
+ * invalidate entries when files change, for example from a
+ * {@link SoShaderStoreListenerType}.</p>
+ *
+ * <p>Each invalidation advances the cache's {@link #generation()}. Output
+ * that is stored with a generation obtained before a later invalidation is
+ * discarded instead of being cached, because it may have been produced
+ * from the old contents of the invalidated files.</p>
+ *
+ * <p>The cache is safe to use from multiple threads.</p>
+ */
+
+public final class SoShaderPreprocessorCache
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(SoShaderPreprocessorCache.class);
+  }
+
+  private final Object lock;
+  private final LinkedHashMap<Key, Output> entries;
+  private long generation;
+
+  private SoShaderPreprocessorCache(
+    final int in_size)
+  {
+    this.lock = new Object();
+    this.generation = 0L;
+    this.entries = new LinkedHashMap<Key, Output>(16, 0.75f, true)
+    {
+      @Override
+      protected boolean removeEldestEntry(
+        final Map.Entry<Key, Output> eldest)
+      {
+        return this.size() > in_size;
+      }
+    };
+  }
+
+  /**
+   * Create a new cache.
+   *
+   * @param size The maximum number of entries in the cache
+   *
+   * @return A new cache
+   */
+
+  public static SoShaderPreprocessorCache create(
+    final int size)
+  {
+    if (size <= 0) {
+      throw new IllegalArgumentException("Cache size must be positive");
+    }
+    return new SoShaderPreprocessorCache(size);
+  }
+
+  /**
+   * Find the cached output for the given file.
+   *
+   * @param defines The set of preprocessor defines
+   * @param file    The file
+   * @param version The version directive
+   *
+   * @return The cached (read-only) output lines, if any
+   */
+
+  public Optional<List<String>> find(
+    final Map<String, String> defines,
+    final String file,
+    final OptionalInt version)
+  {
+    final Key key = new Key(defines, file, version);
+    synchronized (this.lock) {
+      final Output output = this.entries.get(key);
+      if (output != null) {
+        LOG.trace("hit: {}", file);
+        return Optional.of(output.lines);
+      }
+    }
+
+    LOG.trace("miss: {}", file);
+    return Optional.empty();
+  }
+
+  /**
+   * @return The current generation, which must be obtained before reading
+   * any of the files used to produce output that will be stored with
+   * {@link #put(Map, String, OptionalInt, List, Collection, long)}
+   */
+
+  public long generation()
+  {
+    synchronized (this.lock) {
+      return this.generation;
+    }
+  }
+
+  /**
+   * Store the output for the given file. The output is not stored if the
+   * cache has been invalidated since {@code in_generation} was obtained.
+   *
+   * @param defines       The set of preprocessor defines
+   * @param file          The file
+   * @param version       The version directive
+   * @param lines         The output lines
+   * @param files         The files that were read in order to produce the
+   *                      output
+   * @param in_generation The value of {@link #generation()} before the
+   *                      output was produced
+   *
+   * @return A read-only view of {@code lines}
+   */
+
+  public List<String> put(
+    final Map<String, String> defines,
+    final String file,
+    final OptionalInt version,
+    final List<String> lines,
+    final Collection<String> files,
+    final long in_generation)
+  {
+    final Key key = new Key(
+      Collections.unmodifiableMap(new HashMap<>(defines)), file, version);
+    final Output output = new Output(
+      Collections.unmodifiableList(new ArrayList<>(lines)),
+      Collections.unmodifiableSet(new HashSet<>(files)));
+
+    synchronized (this.lock) {
+      if (in_generation != this.generation) {
+        LOG.trace("stale: {}", file);
+        return output.lines;
+      }
+      this.entries.put(key, output);
+    }
+    return output.lines;
+  }
+
+  /**
+   * Discard all entries that were produced using {@code file}.
+   *
+   * @param file The file
+   */
+
+  public void invalidate(
+    final String file)
+  {
+    NullCheck.notNull(file, "File");
+
+    synchronized (this.lock) {
+      ++this.generation;
+      final Iterator<Output> iter = this.entries.values().iterator();
+      while (iter.hasNext()) {
+        final Output output = iter.next();
+        if (output.files.contains(file)) {
+          iter.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * Discard all entries that were produced using any file in the module
+   * {@code module}.
+   *
+   * @param module The module name
+   */
+
+  public void invalidateModule(
+    final String module)
+  {
+    NullCheck.notNull(module, "Module");
+
+    final String prefix = module + "/";
+    synchronized (this.lock) {
+      ++this.generation;
+      final Iterator<Output> iter = this.entries.values().iterator();
+      while (iter.hasNext()) {
+        final Output output = iter.next();
+        for (final String file : output.files) {
+          if (file.startsWith(prefix)) {
+            iter.remove();
+            break;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Discard all entries.
+   */
+
+  public void invalidateAll()
+  {
+    synchronized (this.lock) {
+      ++this.generation;
+      this.entries.clear();
+    }
+  }
+
+  private static final class Key
+  {
+    private final Map<String, String> defines;
+    private final String file;
+    private final OptionalInt version;
+    private final int hash;
+
+    Key(
+      final Map<String, String> in_defines,
+      final String in_file,
+      final OptionalInt in_version)
+    {
+      this.defines = NullCheck.notNull(in_defines, "Defines");
+      this.file = NullCheck.notNull(in_file, "File");
+      this.version = NullCheck.notNull(in_version, "Version");
+
+      int h = this.file.hashCode();
+      h = 31 * h + this.defines.hashCode();
+      h = 31 * h + this.version.hashCode();
+      this.hash = h;
+    }
+
+    @Override
+    public boolean equals(final Object other)
+    {
+      if (this == other) {
+        return true;
+      }
+      if (other == null || this.getClass() != other.getClass()) {
+        return false;
+      }
+      final Key k = (Key) other;
+      return this.hash == k.hash
+        && this.file.equals(k.file)
+        && this.version.equals(k.version)
+        && this.defines.equals(k.defines);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return this.hash;
+    }
+  }
+
+  private static final class Output
+  {
+    private final List<String> lines;
+    private final Set<String> files;
+
+    Output(
+      final List<String> in_lines,
+      final Set<String> in_files)
+    {
+      this.lines = NullCheck.notNull(in_lines, "Lines");
+      this.files = NullCheck.notNull(in_files, "Files");
+    }
+  }
+}
@@ -41,4 +41,52 @@ public interface SoShaderPreprocessorConfigType
 
   @Value.Parameter
   OptionalInt version();
+
+  /**
+   * The maximum number of preprocessed files that will be retained in the
+   * preprocessor's output cache. A value of {@code 0} disables caching. If
+   * caching is enabled, the lists of lines returned by the preprocessor are
+   * shared between callers and are therefore read-only.
+   *
+   * @return The maximum size of the output cache
+   */
+
+  @Value.Default
+  default int outputCacheSize()
+  {
+    return 0;
+  }
+
+  /**
+   * The maximum number of source files that will be retained, in decoded
+   * form, in the preprocessor's decoded source cache. Files that are
+   * included by many shaders are then resolved, read and decoded once
+   * instead of on each run. Tokens are not cached: the decoded text is
+   * lexed again on each run. A value of {@code 0} disables caching.
+   *
+   * @return The maximum size of the source cache
+   */
+
+  @Value.Default
+  default int sourceCacheSize()
+  {
+    return 0;
+  }
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    if (this.outputCacheSize() < 0) {
+      throw new IllegalArgumentException(
+        "Output cache size must be non-negative");
+    }
+    if (this.sourceCacheSize() < 0) {
+      throw new IllegalArgumentException(
+        "Source cache size must be non-negative");
+    }
+  }
 }
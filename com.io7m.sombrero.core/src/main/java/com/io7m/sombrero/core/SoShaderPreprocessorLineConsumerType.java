@@ -0,0 +1,39 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.core;
+
+/**
+ * A consumer of preprocessed output lines.
+ */
+
+public interface SoShaderPreprocessorLineConsumerType
+{
+  /**
+   * Called for each line of output, in order. The line includes its
+   * terminating newline. The given character sequence may be reused by the
+   * preprocessor once this method returns, so consumers that need to retain
+   * the line must copy it (for example, with {@link Object#toString()}).
+   *
+   * @param line The line
+   *
+   * @throws SoShaderException If required
+   */
+
+  void onLine(
+    final CharSequence line)
+    throws SoShaderException;
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.core;
+
+import java.util.Set;
+
+/**
+ * The per-call state of a preprocessor, which is reset and reused between
+ * calls.
+ *
+ * @see SoShaderPreprocessorAbstract
+ */
+
+public interface SoShaderPreprocessorSessionType
+{
+  /**
+   * @return The number of warnings and errors reported by the current run
+   */
+
+  int diagnostics();
+
+  /**
+   * @return The resolved paths of the files read by the current run
+   */
+
+  Set<String> files();
+
+  /**
+   * Discard all state from the current run.
+   */
+
+  void reset();
+}
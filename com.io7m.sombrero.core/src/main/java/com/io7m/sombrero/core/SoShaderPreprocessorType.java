@@ -16,8 +16,15 @@
 
 package com.io7m.sombrero.core;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.IntFunction;
 
 /**
  * The type of preprocessors.
@@ -44,34 +51,8 @@ public interface SoShaderPreprocessorType
     return this.preprocessFileWithCallbacks(
       defines,
       file,
-      (file_name, line, column, msg) -> {
-        final StringBuilder sb = new StringBuilder(128);
-        sb.append("Warning: ");
-        sb.append(file);
-        sb.append(":");
-        sb.append(line);
-        sb.append(":");
-        sb.append(column);
-        sb.append(": ");
-        sb.append(msg);
-        sb.append(System.lineSeparator());
-        sb.append("Note: treating warnings as fatal");
-        sb.append(System.lineSeparator());
-        throw new SoShaderException(sb.toString());
-      },
-      (file_name, line, column, msg) -> {
-        final StringBuilder sb = new StringBuilder(128);
-        sb.append("Error: ");
-        sb.append(file);
-        sb.append(":");
-        sb.append(line);
-        sb.append(":");
-        sb.append(column);
-        sb.append(": ");
-        sb.append(msg);
-        sb.append(System.lineSeparator());
-        throw new SoShaderException(sb.toString());
-      });
+      failOnWarning(file),
+      failOnError(file));
   }
 
   /**
@@ -93,4 +74,461 @@ public interface SoShaderPreprocessorType
     final SoShaderPreprocessorCallbackWarningType on_warning,
     final SoShaderPreprocessorCallbackErrorType on_error)
     throws SoShaderException;
+
+  /**
+   * Preprocess a file, appending the preprocessed lines to {@code output}.
+   *
+   * @param defines The set of preprocessor defines
+   * @param file    The file
+   * @param output  The output
+   *
+   * @throws SoShaderException On errors
+   * @see #preprocessFileWithCallbacksToAppendable(Map, String, Appendable,
+   * SoShaderPreprocessorCallbackWarningType, SoShaderPreprocessorCallbackErrorType)
+   */
+
+  default void preprocessFileToAppendable(
+    final Map<String, String> defines,
+    final String file,
+    final Appendable output)
+    throws SoShaderException
+  {
+    this.preprocessFileWithCallbacksToAppendable(
+      defines,
+      file,
+      output,
+      failOnWarning(file),
+      failOnError(file));
+  }
+
+  /**
+   * Preprocess a file, appending the preprocessed lines to {@code output}.
+   * If {@code output} is a fixed-size buffer such as a
+   * {@link java.nio.CharBuffer}, it must have enough space for the complete
+   * output.
+   *
+   * @param defines    The set of preprocessor defines
+   * @param file       The file
+   * @param output     The output
+   * @param on_warning Evaluated on warnings
+   * @param on_error   Evaluated on errors
+   *
+   * @throws SoShaderException On errors
+   */
+
+  default void preprocessFileWithCallbacksToAppendable(
+    final Map<String, String> defines,
+    final String file,
+    final Appendable output,
+    final SoShaderPreprocessorCallbackWarningType on_warning,
+    final SoShaderPreprocessorCallbackErrorType on_error)
+    throws SoShaderException
+  {
+    this.preprocessFileWithCallbacksToLines(
+      defines,
+      file,
+      line -> {
+        try {
+          output.append(line);
+        } catch (final IOException e) {
+          throw new SoShaderExceptionIO(e);
+        }
+      },
+      on_warning,
+      on_error);
+  }
+
+  /**
+   * <p>Preprocess a file, passing each preprocessed line to {@code lines} as
+   * it is produced.</p>
+   *
+   * <p>The default implementation preprocesses the entire file with
+   * {@link #preprocessFileWithCallbacks(Map, String,
+   * SoShaderPreprocessorCallbackWarningType,
+   * SoShaderPreprocessorCallbackErrorType)} before passing on any lines.
+   * Implementations are encouraged to stream lines directly.</p>
+   *
+   * @param defines    The set of preprocessor defines
+   * @param file       The file
+   * @param lines      The receiver of output lines
+   * @param on_warning Evaluated on warnings
+   * @param on_error   Evaluated on errors
+   *
+   * @throws SoShaderException On errors
+   */
+
+  default void preprocessFileWithCallbacksToLines(
+    final Map<String, String> defines,
+    final String file,
+    final SoShaderPreprocessorLineConsumerType lines,
+    final SoShaderPreprocessorCallbackWarningType on_warning,
+    final SoShaderPreprocessorCallbackErrorType on_error)
+    throws SoShaderException
+  {
+    final List<String> output =
+      this.preprocessFileWithCallbacks(defines, file, on_warning, on_error);
+    for (final String line : output) {
+      lines.onLine(line);
+    }
+  }
+
+  /**
+   * Preprocess a file, returning the output as a single character sequence.
+   *
+   * @param defines The set of preprocessor defines
+   * @param file    The file
+   *
+   * @return The preprocessed file
+   *
+   * @throws SoShaderException On errors
+   * @see #preprocessFileWithCallbacksToCharSequence(Map, String,
+   * SoShaderPreprocessorCallbackWarningType, SoShaderPreprocessorCallbackErrorType)
+   */
+
+  default CharSequence preprocessFileToCharSequence(
+    final Map<String, String> defines,
+    final String file)
+    throws SoShaderException
+  {
+    return this.preprocessFileWithCallbacksToCharSequence(
+      defines,
+      file,
+      failOnWarning(file),
+      failOnError(file));
+  }
+
+  /**
+   * Preprocess a file, returning the output as a single character sequence.
+   * The sequence is the concatenation of the lines that would be returned by
+   * {@link #preprocessFileWithCallbacks(Map, String,
+   * SoShaderPreprocessorCallbackWarningType,
+   * SoShaderPreprocessorCallbackErrorType)}, without the allocation of a
+   * separate string per line.
+   *
+   * @param defines    The set of preprocessor defines
+   * @param file       The file
+   * @param on_warning Evaluated on warnings
+   * @param on_error   Evaluated on errors
+   *
+   * @return The preprocessed file
+   *
+   * @throws SoShaderException On errors
+   */
+
+  default CharSequence preprocessFileWithCallbacksToCharSequence(
+    final Map<String, String> defines,
+    final String file,
+    final SoShaderPreprocessorCallbackWarningType on_warning,
+    final SoShaderPreprocessorCallbackErrorType on_error)
+    throws SoShaderException
+  {
+    final StringBuilder output = new StringBuilder(4096);
+    this.preprocessFileWithCallbacksToLines(
+      defines, file, output::append, on_warning, on_error);
+    return output;
+  }
+
+  /**
+   * Preprocess a file, encoding the output as NUL-terminated UTF-8.
+   *
+   * @param defines   The set of preprocessor defines
+   * @param file      The file
+   * @param allocator The buffer allocator
+   *
+   * @return The buffer containing the preprocessed file
+   *
+   * @throws SoShaderException On errors
+   * @see #preprocessFileWithCallbacksToByteBuffer(Map, String, IntFunction,
+   * SoShaderPreprocessorCallbackWarningType, SoShaderPreprocessorCallbackErrorType)
+   */
+
+  default ByteBuffer preprocessFileToByteBuffer(
+    final Map<String, String> defines,
+    final String file,
+    final IntFunction<ByteBuffer> allocator)
+    throws SoShaderException
+  {
+    return this.preprocessFileWithCallbacksToByteBuffer(
+      defines,
+      file,
+      allocator,
+      failOnWarning(file),
+      failOnError(file));
+  }
+
+  /**
+   * <p>Preprocess a file, encoding the output as NUL-terminated UTF-8 into a
+   * buffer obtained from {@code allocator}.</p>
+   *
+   * <p>The allocator is called exactly once with the number of bytes
+   * required, including the terminating NUL byte, and must return a buffer
+   * with at least that many bytes remaining. It may allocate a new buffer
+   * (for example, with {@link ByteBuffer#allocateDirect(int)}), return a
+   * buffer taken from a pool, or return a buffer provided by the caller. The
+   * output is written starting at the buffer's current position.</p>
+   *
+   * <p>On return, the buffer's position is at the start of the output and
+   * its limit is immediately after the terminating NUL byte. The number of
+   * remaining bytes is therefore the length of the output plus one.</p>
+   *
+   * @param defines    The set of preprocessor defines
+   * @param file       The file
+   * @param allocator  The buffer allocator
+   * @param on_warning Evaluated on warnings
+   * @param on_error   Evaluated on errors
+   *
+   * @return The buffer returned by {@code allocator}
+   *
+   * @throws SoShaderException On errors, or if the buffer returned by the
+   *                           allocator is too small
+   */
+
+  default ByteBuffer preprocessFileWithCallbacksToByteBuffer(
+    final Map<String, String> defines,
+    final String file,
+    final IntFunction<ByteBuffer> allocator,
+    final SoShaderPreprocessorCallbackWarningType on_warning,
+    final SoShaderPreprocessorCallbackErrorType on_error)
+    throws SoShaderException
+  {
+    return SoShaderByteBuffers.encodeUTF8(
+      this.preprocessFileWithCallbacksToCharSequence(
+        defines, file, on_warning, on_error),
+      allocator);
+  }
+
+  /**
+   * Preprocess a file once for each of the given sets of defines. The
+   * variants are processed sequentially on the calling thread.
+   *
+   * @param defines A list of sets of preprocessor defines
+   * @param file    The file
+   *
+   * @return The preprocessed file lines for each set of defines, in the
+   * order that the sets were given
+   *
+   * @throws SoShaderException On errors
+   *
+   * @see #preprocessFileVariantsWithCallbacks(List, String, Executor,
+   * SoShaderPreprocessorCallbackWarningType, SoShaderPreprocessorCallbackErrorType)
+   */
+
+  default List<List<String>> preprocessFileVariants(
+    final List<Map<String, String>> defines,
+    final String file)
+    throws SoShaderException
+  {
+    return this.preprocessFileVariantsWithCallbacks(
+      defines,
+      file,
+      Runnable::run,
+      failOnWarning(file),
+      failOnError(file));
+  }
+
+  /**
+   * <p>Preprocess a file once for each of the given sets of defines.</p>
+   *
+   * <p>Each variant is submitted to {@code executor}, and the variants may
+   * therefore be processed in parallel. Implementations are encouraged to
+   * share the resolution, reading, and decoding of files across the variants.
+   * If the executor runs tasks concurrently, the callbacks may be evaluated
+   * concurrently.</p>
+   *
+   * @param defines    A list of sets of preprocessor defines
+   * @param file       The file
+   * @param executor   The executor used to process variants
+   * @param on_warning Evaluated on warnings
+   * @param on_error   Evaluated on errors
+   *
+   * @return The preprocessed file lines for each set of defines, in the
+   * order that the sets were given
+   *
+   * @throws SoShaderException On errors
+   */
+
+  default List<List<String>> preprocessFileVariantsWithCallbacks(
+    final List<Map<String, String>> defines,
+    final String file,
+    final Executor executor,
+    final SoShaderPreprocessorCallbackWarningType on_warning,
+    final SoShaderPreprocessorCallbackErrorType on_error)
+    throws SoShaderException
+  {
+    final List<CompletableFuture<List<String>>> futures =
+      new ArrayList<>(defines.size());
+
+    for (final Map<String, String> variant : defines) {
+      futures.add(this.preprocessFileWithCallbacksAsync(
+        variant, file, executor, on_warning, on_error));
+    }
+
+    final List<List<String>> results = new ArrayList<>(futures.size());
+    for (final CompletableFuture<List<String>> future : futures) {
+      results.add(SoShaderFutures.await(future));
+    }
+    return results;
+  }
+
+  /**
+   * Preprocess a file asynchronously. The file is processed on an executor
+   * that uses virtual threads if the JVM supports them, and the common
+   * fork/join pool otherwise.
+   *
+   * @param defines The set of preprocessor defines
+   * @param file    The file
+   *
+   * @return A future that yields the preprocessed file lines
+   *
+   * @see #preprocessFileAsync(Map, String, Executor)
+   */
+
+  default CompletableFuture<List<String>> preprocessFileAsync(
+    final Map<String, String> defines,
+    final String file)
+  {
+    return this.preprocessFileAsync(
+      defines, file, SoShaderExecutors.defaultExecutor());
+  }
+
+  /**
+   * Preprocess a file asynchronously on {@code executor}.
+   *
+   * @param defines  The set of preprocessor defines
+   * @param file     The file
+   * @param executor The executor used to process the file
+   *
+   * @return A future that yields the preprocessed file lines
+   */
+
+  default CompletableFuture<List<String>> preprocessFileAsync(
+    final Map<String, String> defines,
+    final String file,
+    final Executor executor)
+  {
+    return this.preprocessFileWithCallbacksAsync(
+      defines,
+      file,
+      executor,
+      failOnWarning(file),
+      failOnError(file));
+  }
+
+  /**
+   * Preprocess a file asynchronously on {@code executor}. If preprocessing
+   * fails, the returned future completes exceptionally with the
+   * {@link SoShaderException} that would have been raised by
+   * {@link #preprocessFileWithCallbacks(Map, String,
+   * SoShaderPreprocessorCallbackWarningType,
+   * SoShaderPreprocessorCallbackErrorType)}. The callbacks are evaluated on
+   * the thread that processes the file.
+   *
+   * @param defines    The set of preprocessor defines
+   * @param file       The file
+   * @param executor   The executor used to process the file
+   * @param on_warning Evaluated on warnings
+   * @param on_error   Evaluated on errors
+   *
+   * @return A future that yields the preprocessed file lines
+   */
+
+  default CompletableFuture<List<String>> preprocessFileWithCallbacksAsync(
+    final Map<String, String> defines,
+    final String file,
+    final Executor executor,
+    final SoShaderPreprocessorCallbackWarningType on_warning,
+    final SoShaderPreprocessorCallbackErrorType on_error)
+  {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return this.preprocessFileWithCallbacks(
+          defines, file, on_warning, on_error);
+      } catch (final SoShaderException e) {
+        throw new CompletionException(e);
+      }
+    }, executor);
+  }
+
+  /**
+   * Indicate that the contents of {@code file} have changed. Any cached
+   * output that was produced using the file will be discarded.
+   * Implementations that do not cache output may ignore this. Preprocessors
+   * do not observe files for changes, so callers that enable caching must
+   * call this whenever a file changes.
+   *
+   * @param file The file
+   */
+
+  default void invalidate(
+    final String file)
+  {
+    // Nothing is cached by default
+  }
+
+  /**
+   * Discard all cached output. Implementations that do not cache output may
+   * ignore this.
+   */
+
+  default void invalidateAll()
+  {
+    // Nothing is cached by default
+  }
+
+  /**
+   * A warning callback that treats all warnings as fatal. The reported file
+   * is the requested file, regardless of the file in which the warning
+   * occurred.
+   *
+   * @param file The requested file
+   *
+   * @return A warning callback
+   */
+
+  private static SoShaderPreprocessorCallbackWarningType failOnWarning(
+    final String file)
+  {
+    return (file_name, line, column, msg) -> {
+      final StringBuilder sb = new StringBuilder(128);
+      sb.append("Warning: ");
+      sb.append(file);
+      sb.append(":");
+      sb.append(line);
+      sb.append(":");
+      sb.append(column);
+      sb.append(": ");
+      sb.append(msg);
+      sb.append(System.lineSeparator());
+      sb.append("Note: treating warnings as fatal");
+      sb.append(System.lineSeparator());
+      throw new SoShaderException(sb.toString());
+    };
+  }
+
+  /**
+   * An error callback that treats all errors as fatal. The reported file is
+   * the requested file, regardless of the file in which the error occurred.
+   *
+   * @param file The requested file
+   *
+   * @return An error callback
+   */
+
+  private static SoShaderPreprocessorCallbackErrorType failOnError(
+    final String file)
+  {
+    return (file_name, line, column, msg) -> {
+      final StringBuilder sb = new StringBuilder(128);
+      sb.append("Error: ");
+      sb.append(file);
+      sb.append(":");
+      sb.append(line);
+      sb.append(":");
+      sb.append(column);
+      sb.append(": ");
+      sb.append(msg);
+      sb.append(System.lineSeparator());
+      throw new SoShaderException(sb.toString());
+    };
+  }
 }
@@ -0,0 +1,226 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.core;
+
+import com.io7m.jnull.NullCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * <p>A resolver that caches the results of resolving files with another
+ * resolver.</p>
+ *
+ * <p>Both successful and failed resolutions are cached, so that repeatedly
+ * including a file that does not exist does not repeatedly consult the
+ * underlying store. The cache is discarded whenever the
+ * {@link SoShaderResolverType#generation()} of the underlying resolver
+ * advances, which happens when modules are registered or unregistered. Files
+ * that are created or deleted within a module's store are not detected, and
+ * {@link #invalidate(String)} must be used to discard the cached result for
+ * them. When the cache is full, the least recently used entry is
+ * discarded.</p>
+ *
+ * <p>The resolver is safe to use from multiple threads.</p>
+ */
+
+public final class SoShaderResolverCaching implements SoShaderResolverType
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(SoShaderResolverCaching.class);
+  }
+
+  private final SoShaderResolverType delegate;
+  private final Object lock;
+  private final LinkedHashMap<String, Optional<SoShaderFileReferenceType>> entries;
+  private long generation;
+
+  private SoShaderResolverCaching(
+    final SoShaderResolverType in_delegate,
+    final int in_size)
+  {
+    this.delegate = NullCheck.notNull(in_delegate, "Delegate");
+    this.lock = new Object();
+    this.generation = in_delegate.generation();
+    this.entries =
+      new LinkedHashMap<String, Optional<SoShaderFileReferenceType>>(
+        16, 0.75f, true)
+      {
+        @Override
+        protected boolean removeEldestEntry(
+          final Map.Entry<String, Optional<SoShaderFileReferenceType>> eldest)
+        {
+          return this.size() > in_size;
+        }
+      };
+  }
+
+  /**
+   * Create a new caching resolver.
+   *
+   * @param delegate The underlying resolver
+   * @param size     The maximum number of cached resolutions
+   *
+   * @return A new resolver
+   */
+
+  public static SoShaderResolverCaching create(
+    final SoShaderResolverType delegate,
+    final int size)
+  {
+    if (size <= 0) {
+      throw new IllegalArgumentException("Cache size must be positive");
+    }
+    return new SoShaderResolverCaching(delegate, size);
+  }
+
+  @Override
+  public Optional<SoShaderFileReferenceType> resolve(
+    final String file)
+    throws SoShaderException
+  {
+    NullCheck.notNull(file, "File");
+
+    final long current = this.delegate.generation();
+    final Optional<SoShaderFileReferenceType> cached = this.find(current, file);
+    if (cached != null) {
+      return cached;
+    }
+
+    final Optional<SoShaderFileReferenceType> result =
+      this.delegate.resolve(file);
+    this.store(current, file, result);
+    return result;
+  }
+
+  @Override
+  public Optional<SoShaderFileReferenceType> resolvePath(
+    final SoShaderPath path)
+    throws SoShaderException
+  {
+    NullCheck.notNull(path, "Path");
+
+    final long current = this.delegate.generation();
+    final Optional<SoShaderFileReferenceType> cached =
+      this.find(current, path.text());
+    if (cached != null) {
+      return cached;
+    }
+
+    final Optional<SoShaderFileReferenceType> result =
+      this.delegate.resolvePath(path);
+    this.store(current, path.text(), result);
+    return result;
+  }
+
+  /**
+   * @return The cached resolution, or {@code null} if there is none
+   */
+
+  private Optional<SoShaderFileReferenceType> find(
+    final long current,
+    final String file)
+  {
+    synchronized (this.lock) {
+
+      /*
+       * A caller that observed an older generation than the one the cache
+       * has already moved to must not move the cache back to it.
+       */
+
+      if (current > this.generation) {
+        LOG.debug("generation changed, discarding cached resolutions");
+        this.entries.clear();
+        this.generation = current;
+      }
+
+      final Optional<SoShaderFileReferenceType> cached =
+        this.entries.get(file);
+      if (cached != null) {
+        LOG.trace("hit: {}", file);
+        return cached;
+      }
+    }
+
+    LOG.trace("miss: {}", file);
+    return null;
+  }
+
+  private void store(
+    final long current,
+    final String file,
+    final Optional<SoShaderFileReferenceType> result)
+  {
+    /*
+     * The result is only cached if the set of modules did not change while
+     * the file was being resolved. The generation of the delegate is read
+     * again here, as the cache's own generation only advances when some
+     * caller next looks up a file.
+     */
+
+    synchronized (this.lock) {
+      final long latest = this.delegate.generation();
+      if (latest == current && current == this.generation) {
+        this.entries.put(file, result);
+      }
+    }
+  }
+
+  @Override
+  public Map<String, SoShaderModuleType> available()
+  {
+    return this.delegate.available();
+  }
+
+  @Override
+  public long generation()
+  {
+    return this.delegate.generation();
+  }
+
+  /**
+   * Discard the cached resolution of {@code file}.
+   *
+   * @param file The file
+   */
+
+  public void invalidate(
+    final String file)
+  {
+    NullCheck.notNull(file, "File");
+
+    synchronized (this.lock) {
+      this.entries.remove(file);
+    }
+  }
+
+  /**
+   * Discard all cached resolutions.
+   */
+
+  public void invalidateAll()
+  {
+    synchronized (this.lock) {
+      this.entries.clear();
+    }
+  }
+}
@@ -39,9 +39,48 @@ public interface SoShaderResolverType
     String file)
     throws SoShaderException;
 
+  /**
+   * <p>Resolve the file at {@code path}.</p>
+   *
+   * <p>The default implementation calls {@link #resolve(String)} with the
+   * text of the path. Implementations should override this method to use the
+   * module and file names that have already been parsed.</p>
+   *
+   * @param path A parsed path
+   *
+   * @return A reference to the file, if it exists
+   *
+   * @throws SoShaderException On errors
+   */
+
+  default Optional<SoShaderFileReferenceType> resolvePath(
+    final SoShaderPath path)
+    throws SoShaderException
+  {
+    return this.resolve(path.text());
+  }
+
   /**
    * @return A map of the available modules
    */
 
   Map<String, SoShaderModuleType> available();
+
+  /**
+   * <p>The generation of the resolver. The generation increases whenever the
+   * set of available modules changes, and never decreases, and so results
+   * obtained from
+   * {@link #resolve(String)} may be cached for as long as the generation
+   * stays the same.</p>
+   *
+   * <p>The default implementation returns {@code 0} for resolvers whose set
+   * of modules never changes.</p>
+   *
+   * @return The current generation
+   */
+
+  default long generation()
+  {
+    return 0L;
+  }
 }
@@ -0,0 +1,196 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.core;
+
+import com.io7m.jnull.NullCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * <p>A bounded cache of source files, keyed by resolved path. The cached
+ * value is whatever form of the file a preprocessor can start from most
+ * cheaply.</p>
+ *
+ * <p>When the cache is full, the least recently used entry is discarded.
+ * As with {@link SoShaderPreprocessorCache}, callers must invalidate entries
+ * when files change, and a source that is stored with a generation obtained
+ * before a later invalidation is discarded instead of being cached.</p>
+ *
+ * <p>The cache is safe to use from multiple threads.</p>
+ *
+ * @param <T> The type of cached sources
+ */
+
+public final class SoShaderSourceCache<T>
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(SoShaderSourceCache.class);
+  }
+
+  private final Object lock;
+  private final LinkedHashMap<String, T> sources;
+  private long generation;
+
+  private SoShaderSourceCache(
+    final int in_size)
+  {
+    this.lock = new Object();
+    this.generation = 0L;
+    this.sources = new LinkedHashMap<String, T>(16, 0.75f, true)
+    {
+      @Override
+      protected boolean removeEldestEntry(
+        final Map.Entry<String, T> eldest)
+      {
+        return this.size() > in_size;
+      }
+    };
+  }
+
+  /**
+   * Create a new cache.
+   *
+   * @param size The maximum number of entries in the cache
+   * @param <T>  The type of cached sources
+   *
+   * @return A new cache
+   */
+
+  public static <T> SoShaderSourceCache<T> create(
+    final int size)
+  {
+    if (size <= 0) {
+      throw new IllegalArgumentException("Cache size must be positive");
+    }
+    return new SoShaderSourceCache<>(size);
+  }
+
+  /**
+   * Find the cached source for the given file.
+   *
+   * @param file The resolved path of the file
+   *
+   * @return The cached source, if any
+   */
+
+  public Optional<T> find(
+    final String file)
+  {
+    synchronized (this.lock) {
+      final T source = this.sources.get(file);
+      if (source != null) {
+        LOG.trace("hit: {}", file);
+        return Optional.of(source);
+      }
+    }
+
+    LOG.trace("miss: {}", file);
+    return Optional.empty();
+  }
+
+  /**
+   * @return The current generation, which must be obtained before reading a
+   * file whose source will be stored with {@link #put(String, Object, long)}
+   */
+
+  public long generation()
+  {
+    synchronized (this.lock) {
+      return this.generation;
+    }
+  }
+
+  /**
+   * Store the source for the given file. The source is not stored if the
+   * cache has been invalidated since {@code in_generation} was obtained.
+   *
+   * @param file          The resolved path of the file
+   * @param source        The source
+   * @param in_generation The value of {@link #generation()} before the file
+   *                      was read
+   */
+
+  public void put(
+    final String file,
+    final T source,
+    final long in_generation)
+  {
+    NullCheck.notNull(file, "File");
+    NullCheck.notNull(source, "Source");
+
+    synchronized (this.lock) {
+      if (in_generation != this.generation) {
+        LOG.trace("stale: {}", file);
+        return;
+      }
+      this.sources.put(file, source);
+    }
+  }
+
+  /**
+   * Discard the source for {@code file}.
+   *
+   * @param file The resolved path of the file
+   */
+
+  public void invalidate(
+    final String file)
+  {
+    NullCheck.notNull(file, "File");
+
+    synchronized (this.lock) {
+      ++this.generation;
+      this.sources.remove(file);
+    }
+  }
+
+  /**
+   * Discard the sources of all files in the module {@code module}.
+   *
+   * @param module The module name
+   */
+
+  public void invalidateModule(
+    final String module)
+  {
+    NullCheck.notNull(module, "Module");
+
+    final String prefix = module + "/";
+    synchronized (this.lock) {
+      ++this.generation;
+      this.sources.keySet().removeIf(file -> file.startsWith(prefix));
+    }
+  }
+
+  /**
+   * Discard all sources.
+   */
+
+  public void invalidateAll()
+  {
+    synchronized (this.lock) {
+      ++this.generation;
+      this.sources.clear();
+    }
+  }
+}
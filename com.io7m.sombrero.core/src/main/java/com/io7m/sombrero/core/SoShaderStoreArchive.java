@@ -0,0 +1,374 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.core;
+
+import com.io7m.jnull.NullCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+/**
+ * <p>A shader store based on a single archive file produced by {@link
+ * SoShaderArchiveWriter}. The archive is memory-mapped when the store is
+ * opened, and lookups are performed by binary search over the archive's
+ * sorted index. Searching does not allocate; only the returned reference is
+ * allocated when a file is found.</p>
+ *
+ * <p>The {@link SoShaderFileReferenceType#bytes()} method of the returned
+ * references yields read-only views of the mapped archive. The contents of
+ * an open archive never change, and so the fingerprints of files are derived
+ * from their positions in the archive and the size and modification time of
+ * the archive when it was opened.</p>
+ *
+ * <p>The archive remains mapped for as long as the store is reachable, and
+ * so it must not be truncated or rewritten in place while a store is open:
+ * reading a mapped buffer beyond the new end of a truncated file raises
+ * {@code SIGBUS}, which the JVM reports as an {@link InternalError} or which
+ * may terminate the JVM. {@link SoShaderArchiveWriter#write(Path, Path)}
+ * replaces an existing archive atomically by renaming a new file over it,
+ * which leaves the mapping of an open store intact, and is the safe way to
+ * update an archive that may be in use.</p>
+ */
+
+public final class SoShaderStoreArchive implements SoShaderStoreType
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(SoShaderStoreArchive.class);
+  }
+
+  private final Path path;
+  private final ByteBuffer buffer;
+  private final int count;
+  private final long fingerprint;
+
+  private SoShaderStoreArchive(
+    final Path in_path,
+    final ByteBuffer in_buffer,
+    final int in_count,
+    final long in_fingerprint)
+  {
+    this.path = NullCheck.notNull(in_path, "Path");
+    this.buffer = NullCheck.notNull(in_buffer, "Buffer");
+    this.count = in_count;
+    this.fingerprint = in_fingerprint;
+  }
+
+  /**
+   * Open an archive.
+   *
+   * @param path The archive file
+   *
+   * @return A shader store
+   *
+   * @throws SoShaderException If the archive cannot be read, or is malformed
+   */
+
+  public static SoShaderStoreType open(
+    final Path path)
+    throws SoShaderException
+  {
+    NullCheck.notNull(path, "Path");
+
+    try (final FileChannel channel =
+           FileChannel.open(path, StandardOpenOption.READ)) {
+      final long size = channel.size();
+      if (size > (long) Integer.MAX_VALUE) {
+        throw malformed(path, "File is too large");
+      }
+
+      final ByteBuffer buffer =
+        channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+      final int count = validate(path, buffer);
+      final long fingerprint = SoShaderFingerprints.ofAttributes(path);
+
+      LOG.debug("open: {}: {} files", path, Integer.valueOf(count));
+      return new SoShaderStoreArchive(path, buffer, count, fingerprint);
+    } catch (final IOException e) {
+      throw new SoShaderExceptionIO(e);
+    }
+  }
+
+  private static IOException malformed(
+    final Path path,
+    final String message)
+  {
+    final StringBuilder sb = new StringBuilder(128);
+    sb.append("Malformed shader archive.");
+    sb.append(System.lineSeparator());
+    sb.append("  File: ");
+    sb.append(path);
+    sb.append(System.lineSeparator());
+    sb.append("  Problem: ");
+    sb.append(message);
+    sb.append(System.lineSeparator());
+    return new IOException(sb.toString());
+  }
+
+  private static int validate(
+    final Path path,
+    final ByteBuffer buffer)
+    throws IOException
+  {
+    final long size = (long) buffer.capacity();
+    if (size < (long) SoShaderArchiveFormat.HEADER_SIZE) {
+      throw malformed(path, "File is too small to contain a header");
+    }
+    if (buffer.getInt(0) != SoShaderArchiveFormat.MAGIC) {
+      throw malformed(path, "Bad magic number");
+    }
+
+    final int version = buffer.getInt(4);
+    if (version != SoShaderArchiveFormat.VERSION) {
+      throw malformed(path, "Unsupported version " + version);
+    }
+
+    final int count = buffer.getInt(8);
+    final long index_end = (long) SoShaderArchiveFormat.HEADER_SIZE
+      + (long) count * (long) SoShaderArchiveFormat.ENTRY_SIZE;
+    if (count < 0 || index_end > size) {
+      throw malformed(path, "Index is truncated");
+    }
+
+    for (int index = 0; index < count; ++index) {
+      final int entry = entryOffset(index);
+      checkRange(path, buffer, entry, size, "Name");
+      checkRange(path, buffer, entry + 8, size, "Data");
+      final int previous = entry - SoShaderArchiveFormat.ENTRY_SIZE;
+      if (index > 0 && compareNames(buffer, previous, entry) >= 0) {
+        throw malformed(path, "Index is not sorted");
+      }
+    }
+    return count;
+  }
+
+  private static void checkRange(
+    final Path path,
+    final ByteBuffer buffer,
+    final int at,
+    final long size,
+    final String what)
+    throws IOException
+  {
+    final long offset = (long) buffer.getInt(at);
+    final long length = (long) buffer.getInt(at + 4);
+    if (offset < 0L || length < 0L || offset + length > size) {
+      throw malformed(path, what + " range is out of bounds");
+    }
+  }
+
+  private static int entryOffset(
+    final int index)
+  {
+    return SoShaderArchiveFormat.HEADER_SIZE
+      + index * SoShaderArchiveFormat.ENTRY_SIZE;
+  }
+
+  private static int compareNames(
+    final ByteBuffer buffer,
+    final int entry0,
+    final int entry1)
+  {
+    final int offset0 = buffer.getInt(entry0);
+    final int length0 = buffer.getInt(entry0 + 4);
+    final int offset1 = buffer.getInt(entry1);
+    final int length1 = buffer.getInt(entry1 + 4);
+    final int length = Math.min(length0, length1);
+    for (int index = 0; index < length; ++index) {
+      final int c = Integer.compare(
+        (int) buffer.get(offset0 + index) & 0xff,
+        (int) buffer.get(offset1 + index) & 0xff);
+      if (c != 0) {
+        return c;
+      }
+    }
+    return Integer.compare(length0, length1);
+  }
+
+  /**
+   * Compare {@code name} against an encoded name in the archive, encoding the
+   * name as UTF-8 on the fly. Unpaired surrogates are encoded as {@code ?},
+   * as {@link String#getBytes(java.nio.charset.Charset)} does.
+   */
+
+  private int compareName(
+    final String name,
+    final int offset,
+    final int length)
+  {
+    final int chars = name.length();
+    int position = 0;
+    int index = 0;
+    while (index < chars) {
+      int code = name.codePointAt(index);
+      index += Character.charCount(code);
+      if (code < 0x10000 && Character.isSurrogate((char) code)) {
+        code = '?';
+      }
+
+      final int size = encodedSize(code);
+      for (int k = 0; k < size; ++k) {
+        if (position == length) {
+          return 1;
+        }
+        final int c = Integer.compare(
+          encodedByte(code, size, k),
+          (int) this.buffer.get(offset + position) & 0xff);
+        if (c != 0) {
+          return c;
+        }
+        ++position;
+      }
+    }
+    return Integer.compare(position, length);
+  }
+
+  private static int encodedSize(
+    final int code)
+  {
+    if (code < 0x80) {
+      return 1;
+    }
+    if (code < 0x800) {
+      return 2;
+    }
+    if (code < 0x10000) {
+      return 3;
+    }
+    return 4;
+  }
+
+  private static int encodedByte(
+    final int code,
+    final int size,
+    final int k)
+  {
+    final int shift = 6 * (size - 1 - k);
+    if (k > 0) {
+      return 0x80 | ((code >> shift) & 0x3f);
+    }
+
+    switch (size) {
+      case 1:
+        return code;
+      case 2:
+        return 0xc0 | (code >> shift);
+      case 3:
+        return 0xe0 | (code >> shift);
+      default:
+        return 0xf0 | (code >> shift);
+    }
+  }
+
+  private int find(
+    final String name)
+  {
+    int low = 0;
+    int high = this.count - 1;
+    while (low <= high) {
+      final int middle = (low + high) >>> 1;
+      final int entry = entryOffset(middle);
+      final int c = this.compareName(
+        name, this.buffer.getInt(entry), this.buffer.getInt(entry + 4));
+      if (c == 0) {
+        return entry;
+      }
+      if (c < 0) {
+        high = middle - 1;
+      } else {
+        low = middle + 1;
+      }
+    }
+    return -1;
+  }
+
+  private int search(
+    final String name)
+  {
+    if (SoShaderNames.isNormal(name)) {
+      return this.find(name);
+    }
+
+    final Optional<String> normal = SoShaderNames.normalize(name);
+    if (normal.isPresent()) {
+      return this.find(normal.get());
+    }
+    return -1;
+  }
+
+  @Override
+  public Optional<SoShaderFileReferenceType> lookup(
+    final String name)
+    throws SoShaderException
+  {
+    NullCheck.notNull(name, "name");
+
+    final int entry = this.search(name);
+    if (entry < 0) {
+      LOG.trace("not found: {}: {}", this.path, name);
+      return Optional.empty();
+    }
+
+    return Optional.of(new Reference(
+      this.buffer.getInt(entry + 8), this.buffer.getInt(entry + 12)));
+  }
+
+  private final class Reference implements SoShaderFileReferenceType
+  {
+    private final int offset;
+    private final int length;
+
+    Reference(
+      final int in_offset,
+      final int in_length)
+    {
+      this.offset = in_offset;
+      this.length = in_length;
+    }
+
+    @Override
+    public InputStream stream()
+    {
+      return new SoShaderByteBufferInputStream(this.bytes());
+    }
+
+    @Override
+    public ByteBuffer bytes()
+    {
+      final ByteBuffer view = SoShaderStoreArchive.this.buffer.duplicate();
+      view.position(this.offset);
+      view.limit(this.offset + this.length);
+      return view.slice().asReadOnlyBuffer();
+    }
+
+    @Override
+    public OptionalLong fingerprint()
+    {
+      return OptionalLong.of(SoShaderFingerprints.ofValues(
+        SoShaderStoreArchive.this.fingerprint, (long) this.offset));
+    }
+  }
+}
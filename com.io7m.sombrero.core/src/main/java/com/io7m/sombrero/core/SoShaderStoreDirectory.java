@@ -22,30 +22,80 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalLong;
 
 /**
- * A shader store based on a directory. Requests for files are restricted to
- * descendants of the base directory.
+ * <p>A shader store based on a directory. Requests for files are restricted
+ * to descendants of the base directory.</p>
+ *
+ * <p>A store created with {@link #createMapped(Path, int)} returns
+ * references whose {@link SoShaderFileReferenceType#bytes()} are read-only
+ * memory-mapped views of the files. Mappings are reused until the size or
+ * modification time of the file changes, and so repeated reads of an
+ * unchanged file need only a stat rather than a read into a new heap
+ * buffer. The preprocessors still decode or copy the contents, so nothing is
+ * lexed directly from a mapping. A bounded number of mappings are retained;
+ * when the limit is reached, the least recently used mapping is discarded,
+ * and is unmapped once no buffers that refer to it remain.</p>
+ *
+ * <p>Files must not be truncated while they are mapped: reading a mapped
+ * buffer beyond the new end of a truncated file raises {@code SIGBUS}, which
+ * the JVM reports as an {@link InternalError} or which may terminate the
+ * JVM. Use a mapped store only for files that are replaced atomically (for
+ * example, by renaming a new file over the old one) rather than rewritten in
+ * place.</p>
+ *
+ * <p>The fingerprints of files are derived from their sizes and modification
+ * times.</p>
+ *
+ * <p>A store created with {@link #createIndexed(Path)} lists the regular files
+ * in the directory and its descendants when it is created, and answers all
+ * lookups, including those for nonexistent files, from that listing without
+ * accessing the file system. Symbolic links are followed when listing, so
+ * that the listing contains the same files that an unindexed store would
+ * find. Files created or deleted afterwards are not reflected in lookups
+ * until {@link #refresh()} is called.</p>
  */
 
 public final class SoShaderStoreDirectory implements SoShaderStoreType
 {
   private static final Logger LOG;
+  private static final int MAPPINGS_DEFAULT;
 
   static {
     LOG = LoggerFactory.getLogger(SoShaderStoreDirectory.class);
+    MAPPINGS_DEFAULT = 256;
   }
 
   private final Path base;
+  private final Optional<Mappings> mappings;
+  private final boolean indexed;
+  private volatile Map<String, Optional<SoShaderFileReferenceType>> index;
 
   private SoShaderStoreDirectory(
-    final Path in_base)
+    final Path in_base,
+    final Optional<Mappings> in_mappings,
+    final boolean in_indexed)
   {
     this.base = NullCheck.notNull(in_base, "Base");
+    this.mappings = NullCheck.notNull(in_mappings, "Mappings");
+    this.indexed = in_indexed;
+    this.index = Collections.emptyMap();
   }
 
   /**
@@ -58,7 +108,93 @@ public final class SoShaderStoreDirectory implements SoShaderStoreType
 
   public static SoShaderStoreType create(final Path base)
   {
-    return new SoShaderStoreDirectory(base);
+    return new SoShaderStoreDirectory(base, Optional.empty(), false);
+  }
+
+  /**
+   * Construct a new shader store that memory-maps files, retaining a
+   * default number of mappings.
+   *
+   * @param base The base directory
+   *
+   * @return A shader store
+   *
+   * @see #createMapped(Path, int)
+   */
+
+  public static SoShaderStoreType createMapped(final Path base)
+  {
+    return createMapped(base, MAPPINGS_DEFAULT);
+  }
+
+  /**
+   * Construct a new shader store that memory-maps files.
+   *
+   * @param base     The base directory
+   * @param mappings The maximum number of mappings that will be retained
+   *
+   * @return A shader store
+   */
+
+  public static SoShaderStoreType createMapped(
+    final Path base,
+    final int mappings)
+  {
+    if (mappings <= 0) {
+      throw new IllegalArgumentException(
+        "Mapping count must be positive");
+    }
+    return new SoShaderStoreDirectory(
+      base, Optional.of(new Mappings(mappings)), false);
+  }
+
+  /**
+   * Construct a new shader store that indexes the directory.
+   *
+   * @param base The base directory
+   *
+   * @return A shader store
+   *
+   * @throws SoShaderException If the directory cannot be listed
+   */
+
+  public static SoShaderStoreDirectory createIndexed(final Path base)
+    throws SoShaderException
+  {
+    final SoShaderStoreDirectory store =
+      new SoShaderStoreDirectory(base, Optional.empty(), true);
+    store.refresh();
+    return store;
+  }
+
+  /**
+   * Rebuild the index of the directory, if the store was created with
+   * {@link #createIndexed(Path)}. Lookups made concurrently with a refresh
+   * use the previous index until the refresh completes.
+   *
+   * @throws SoShaderException If the directory cannot be listed
+   */
+
+  public void refresh()
+    throws SoShaderException
+  {
+    if (!this.indexed) {
+      return;
+    }
+
+    final Map<String, Optional<SoShaderFileReferenceType>> files =
+      new HashMap<>(64);
+
+    try {
+      SoShaderDirectories.walk(
+        this.base,
+        (path, name) -> files.put(name, Optional.of(new Reference(path))));
+    } catch (final IOException e) {
+      throw new SoShaderExceptionIO(e);
+    }
+
+    LOG.debug("indexed {}: {} files", this.base, Integer.valueOf(files.size()));
+    this.index = Collections.unmodifiableMap(files);
   }
 
   @Override
@@ -68,6 +204,10 @@ public final class SoShaderStoreDirectory implements SoShaderStoreType
   {
     NullCheck.notNull(name, "name");
 
+    if (this.indexed) {
+      return this.lookupIndexed(name);
+    }
+
     final Path target =
       Paths.get(this.base.toString() + "/" + name).normalize();
 
@@ -90,7 +230,158 @@ public final class SoShaderStoreDirectory implements SoShaderStoreType
     return Optional.empty();
   }
 
-  private static final class Reference implements SoShaderFileReferenceType
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Unless the store is indexed or memory-maps files, the file is read
+   * directly without first checking that it exists.</p>
+   */
+
+  @Override
+  public Optional<ByteBuffer> fetch(
+    final String name)
+    throws SoShaderException
+  {
+    NullCheck.notNull(name, "name");
+
+    if (this.indexed || this.mappings.isPresent()) {
+      return SoShaderStoreType.super.fetch(name);
+    }
+
+    final Path target =
+      Paths.get(this.base.toString() + "/" + name).normalize();
+
+    LOG.debug("fetch: {}", target);
+    if (!target.startsWith(this.base)) {
+      LOG.warn(
+        "Refusing to allow access out of the base directory (base {}, request {}, actual {})",
+        this.base,
+        name,
+        target);
+      return Optional.empty();
+    }
+
+    try {
+      return Optional.of(ByteBuffer.wrap(Files.readAllBytes(target)));
+    } catch (final NoSuchFileException e) {
+      return Optional.empty();
+    } catch (final IOException e) {
+      throw new SoShaderExceptionIO(e);
+    }
+  }
+
+  private Optional<SoShaderFileReferenceType> lookupIndexed(
+    final String name)
+  {
+    final Map<String, Optional<SoShaderFileReferenceType>> files = this.index;
+    final Optional<SoShaderFileReferenceType> direct = files.get(name);
+    if (direct != null) {
+      return direct;
+    }
+
+    final Optional<String> normal = SoShaderNames.normalize(name);
+    if (normal.isPresent()) {
+      final Optional<SoShaderFileReferenceType> ref = files.get(normal.get());
+      if (ref != null) {
+        return ref;
+      }
+    }
+
+    LOG.trace("not found: {}", name);
+    return Optional.empty();
+  }
+
+  private ByteBuffer map(
+    final Path path)
+    throws IOException
+  {
+    final Mappings maps = this.mappings.get();
+    final BasicFileAttributes attributes =
+      Files.readAttributes(path, BasicFileAttributes.class);
+
+    final Mapping existing = maps.get(path);
+    if (existing != null && existing.isCurrent(attributes)) {
+      return existing.buffer.duplicate();
+    }
+
+    final long size = attributes.size();
+    if (size > (long) Integer.MAX_VALUE) {
+      throw new IOException("File is too large to map: " + path);
+    }
+
+    LOG.trace("map: {}", path);
+    try (final FileChannel channel =
+           FileChannel.open(path, StandardOpenOption.READ)) {
+      final MappedByteBuffer buffer =
+        channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+      maps.put(path, new Mapping(attributes, buffer));
+      return buffer.duplicate();
+    }
+  }
+
+  private static final class Mappings
+  {
+    private final Object lock;
+    private final LinkedHashMap<Path, Mapping> mappings;
+
+    Mappings(
+      final int in_size)
+    {
+      this.lock = new Object();
+      this.mappings = new LinkedHashMap<Path, Mapping>(16, 0.75f, true)
+      {
+        @Override
+        protected boolean removeEldestEntry(
+          final Map.Entry<Path, Mapping> eldest)
+        {
+          return this.size() > in_size;
+        }
+      };
+    }
+
+    Mapping get(
+      final Path path)
+    {
+      synchronized (this.lock) {
+        return this.mappings.get(path);
+      }
+    }
+
+    void put(
+      final Path path,
+      final Mapping mapping)
+    {
+      synchronized (this.lock) {
+        this.mappings.put(path, mapping);
+      }
+    }
+  }
+
+  private static final class Mapping
+  {
+    private final long size;
+    private final FileTime modified;
+    private final MappedByteBuffer buffer;
+
+    Mapping(
+      final BasicFileAttributes attributes,
+      final MappedByteBuffer in_buffer)
+    {
+      this.size = attributes.size();
+      this.modified = NullCheck.notNull(
+        attributes.lastModifiedTime(), "Modification time");
+      this.buffer = NullCheck.notNull(in_buffer, "Buffer");
+    }
+
+    boolean isCurrent(
+      final BasicFileAttributes attributes)
+    {
+      return this.size == attributes.size()
+        && this.modified.equals(attributes.lastModifiedTime());
+    }
+  }
+
+  private final class Reference implements SoShaderFileReferenceType
   {
     private final Path path;
 
@@ -105,5 +396,22 @@ public final class SoShaderStoreDirectory implements SoShaderStoreType
     {
       return Files.newInputStream(this.path);
     }
+
+    @Override
+    public ByteBuffer bytes()
+      throws IOException
+    {
+      if (SoShaderStoreDirectory.this.mappings.isPresent()) {
+        return SoShaderStoreDirectory.this.map(this.path);
+      }
+      return SoShaderFileReferenceType.super.bytes();
+    }
+
+    @Override
+    public OptionalLong fingerprint()
+      throws IOException
+    {
+      return OptionalLong.of(SoShaderFingerprints.ofAttributes(this.path));
+    }
   }
 }
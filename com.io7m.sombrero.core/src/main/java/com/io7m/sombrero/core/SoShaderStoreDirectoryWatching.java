@@ -0,0 +1,382 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.core;
+
+import com.io7m.jnull.NullCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A shader store based on a directory that watches the directory and its
+ * descendants for changes. Lookups behave exactly as for {@link
+ * SoShaderStoreDirectory}.</p>
+ *
+ * <p>Each file has a version, which is {@code 0} until the store observes a
+ * change to the file, and is replaced by a new, larger version on each
+ * subsequent change. Callers may either compare versions with {@link
+ * #version(String)} or subscribe to changes with {@link
+ * #subscribe(SoShaderStoreListenerType)}. Changes are observed on a
+ * background thread, and so are visible shortly after they occur rather than
+ * immediately.</p>
+ *
+ * <p>When a directory is deleted or moved out of the store, a change is
+ * reported for each file that the store had seen inside it. Listeners
+ * receive the names of files within the store, such as {@code /a/b.h}; use
+ * {@link SoShaderStoreListenerInvalidating} to invalidate the corresponding
+ * files of a module in a preprocessor.</p>
+ *
+ * <p>The store must be closed when it is no longer required in order to
+ * stop the background thread.</p>
+ */
+
+public final class SoShaderStoreDirectoryWatching
+  implements SoShaderStoreType, Closeable
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(SoShaderStoreDirectoryWatching.class);
+  }
+
+  private final Path base;
+  private final SoShaderStoreType directory;
+  private final WatchService watcher;
+  private final ConcurrentHashMap<WatchKey, Path> keys;
+  private final ConcurrentHashMap<String, Long> versions;
+  private final Set<String> known;
+  private final CopyOnWriteArrayList<SoShaderStoreListenerType> listeners;
+  private final AtomicLong counter;
+  private final Thread thread;
+  private volatile long all_version;
+
+  private SoShaderStoreDirectoryWatching(
+    final Path in_base,
+    final WatchService in_watcher)
+  {
+    this.base = NullCheck.notNull(in_base, "Base");
+    this.watcher = NullCheck.notNull(in_watcher, "Watcher");
+    this.directory = SoShaderStoreDirectory.create(in_base);
+    this.keys = new ConcurrentHashMap<>(16);
+    this.versions = new ConcurrentHashMap<>(64);
+    this.known = ConcurrentHashMap.newKeySet(64);
+    this.listeners = new CopyOnWriteArrayList<>();
+    this.counter = new AtomicLong(0L);
+    this.all_version = 0L;
+    this.thread = new Thread(this::run, "com.io7m.sombrero.watch[" + in_base + "]");
+    this.thread.setDaemon(true);
+  }
+
+  /**
+   * Construct a new shader store and start watching the directory.
+   *
+   * @param base The base directory
+   *
+   * @return A shader store
+   *
+   * @throws SoShaderException If the directory cannot be watched
+   */
+
+  public static SoShaderStoreDirectoryWatching create(
+    final Path base)
+    throws SoShaderException
+  {
+    NullCheck.notNull(base, "Base");
+
+    final Path root = base.toAbsolutePath().normalize();
+    try {
+      final WatchService watcher = root.getFileSystem().newWatchService();
+      final SoShaderStoreDirectoryWatching store =
+        new SoShaderStoreDirectoryWatching(root, watcher);
+      try {
+        store.registerAll(root, false);
+      } catch (final IOException e) {
+        watcher.close();
+        throw e;
+      }
+      store.thread.start();
+      return store;
+    } catch (final IOException e) {
+      throw new SoShaderExceptionIO(e);
+    }
+  }
+
+  /**
+   * Register a listener that will be called for every subsequent change.
+   *
+   * @param listener The listener
+   */
+
+  public void subscribe(
+    final SoShaderStoreListenerType listener)
+  {
+    this.listeners.add(NullCheck.notNull(listener, "Listener"));
+  }
+
+  /**
+   * Remove a listener added with {@link #subscribe(SoShaderStoreListenerType)}.
+   *
+   * @param listener The listener
+   */
+
+  public void unsubscribe(
+    final SoShaderStoreListenerType listener)
+  {
+    this.listeners.remove(NullCheck.notNull(listener, "Listener"));
+  }
+
+  /**
+   * @param name The name of a file
+   *
+   * @return The current version of the file
+   */
+
+  public long version(
+    final String name)
+  {
+    NullCheck.notNull(name, "name");
+
+    final Optional<String> normal = SoShaderNames.normalize(name);
+    long result = this.all_version;
+    if (normal.isPresent()) {
+      final Long version = this.versions.get(normal.get());
+      if (version != null) {
+        result = Math.max(result, version.longValue());
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public Optional<SoShaderFileReferenceType> lookup(
+    final String name)
+    throws SoShaderException
+  {
+    return this.directory.lookup(name);
+  }
+
+  @Override
+  public Optional<ByteBuffer> fetch(
+    final String name)
+    throws SoShaderException
+  {
+    return this.directory.fetch(name);
+  }
+
+  @Override
+  public void close()
+    throws IOException
+  {
+    this.watcher.close();
+    this.thread.interrupt();
+  }
+
+  private void registerAll(
+    final Path start,
+    final boolean report)
+    throws IOException
+  {
+    SoShaderDirectories.walk(
+      this.base, start, new SoShaderDirectories.ReceiverType()
+      {
+        @Override
+        public void onDirectory(
+          final Path directory)
+          throws IOException
+        {
+          SoShaderStoreDirectoryWatching.this.register(directory);
+        }
+
+        @Override
+        public void onFile(
+          final Path file,
+          final String name)
+        {
+          SoShaderStoreDirectoryWatching.this.known.add(name);
+          if (report) {
+            SoShaderStoreDirectoryWatching.this.changed(name);
+          }
+        }
+      });
+  }
+
+  private void register(
+    final Path directory)
+    throws IOException
+  {
+    LOG.trace("watch: {}", directory);
+    final WatchKey key = directory.register(
+      this.watcher,
+      StandardWatchEventKinds.ENTRY_CREATE,
+      StandardWatchEventKinds.ENTRY_MODIFY,
+      StandardWatchEventKinds.ENTRY_DELETE);
+    this.keys.put(key, directory);
+  }
+
+  private void run()
+  {
+    LOG.debug("watching {}", this.base);
+
+    try {
+      while (true) {
+        final WatchKey key = this.watcher.take();
+        final Path dir = this.keys.get(key);
+        for (final WatchEvent<?> event : key.pollEvents()) {
+          this.onEvent(dir, event);
+        }
+        if (!key.reset()) {
+          this.keys.remove(key);
+        }
+      }
+    } catch (final ClosedWatchServiceException | InterruptedException e) {
+      LOG.debug("stopped watching {}", this.base);
+    }
+  }
+
+  private void onEvent(
+    final Path dir,
+    final WatchEvent<?> event)
+  {
+    if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+      this.changedAll();
+      return;
+    }
+
+    final Path path = dir.resolve((Path) event.context());
+    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+      && Files.isDirectory(path)) {
+      this.onDirectoryCreated(path);
+      return;
+    }
+
+    final String name = this.nameOf(path);
+    if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+      if (this.onDirectoryDeleted(path, name)) {
+        return;
+      }
+      this.known.remove(name);
+    } else if (Files.isRegularFile(path)) {
+      this.known.add(name);
+    }
+
+    this.changed(name);
+  }
+
+  /**
+   * The files in a deleted directory cannot be listed, and if the directory
+   * was moved out of the store, no events are delivered for them. Changes
+   * are therefore reported for the files that were seen in the directory,
+   * and the directory and its descendants are no longer watched.
+   */
+
+  private boolean onDirectoryDeleted(
+    final Path path,
+    final String name)
+  {
+    boolean watched = false;
+    final Iterator<Map.Entry<WatchKey, Path>> iter =
+      this.keys.entrySet().iterator();
+    while (iter.hasNext()) {
+      final Map.Entry<WatchKey, Path> entry = iter.next();
+      if (entry.getValue().startsWith(path)) {
+        entry.getKey().cancel();
+        iter.remove();
+        watched = true;
+      }
+    }
+
+    if (!watched) {
+      return false;
+    }
+
+    final String prefix = name + "/";
+    final Iterator<String> files = this.known.iterator();
+    while (files.hasNext()) {
+      final String file = files.next();
+      if (file.startsWith(prefix)) {
+        files.remove();
+        this.changed(file);
+      }
+    }
+    return true;
+  }
+
+  private void onDirectoryCreated(
+    final Path path)
+  {
+    try {
+      this.registerAll(path, true);
+    } catch (final IOException e) {
+      LOG.error("could not watch new directory {}: ", path, e);
+      this.changedAll();
+    }
+  }
+
+  private String nameOf(
+    final Path path)
+  {
+    return SoShaderNames.ofRelativePath(this.base.relativize(path));
+  }
+
+  private void changed(
+    final String name)
+  {
+    final long version = this.counter.incrementAndGet();
+    this.versions.put(name, Long.valueOf(version));
+
+    LOG.trace("changed: {} (version {})", name, Long.valueOf(version));
+    for (final SoShaderStoreListenerType listener : this.listeners) {
+      try {
+        listener.onFileChanged(name, version);
+      } catch (final RuntimeException e) {
+        LOG.error("listener raised exception: ", e);
+      }
+    }
+  }
+
+  private void changedAll()
+  {
+    final long version = this.counter.incrementAndGet();
+    this.all_version = version;
+
+    LOG.debug("events lost, all files changed (version {})", Long.valueOf(version));
+    for (final SoShaderStoreListenerType listener : this.listeners) {
+      try {
+        listener.onAllChanged(version);
+      } catch (final RuntimeException e) {
+        LOG.error("listener raised exception: ", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.core;
+
+import com.io7m.jnull.NullCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
+/**
+ * <p>A store that constructs another store when it is first used, and then
+ * delegates to it.</p>
+ *
+ * <p>Modules are immutable values that hold their store, and so a provider
+ * that publishes many modules would otherwise have to construct every store
+ * (indexing resources, opening archives, and so on) when it is itself
+ * constructed. Declaring a module with a lazy store, as in
+ * {@code SoShaderModule.of(name, SoShaderStoreLazy.create(supplier))}, defers
+ * that work until a file is first looked up in the module.</p>
+ *
+ * <p>The supplier is evaluated at most once, even when the store is first
+ * used by several threads at the same time. If the supplier raises an
+ * exception, the exception is propagated to the caller and the supplier is
+ * evaluated again on the next lookup.</p>
+ *
+ * <p>The store is safe to use from multiple threads if the constructed store
+ * is.</p>
+ */
+
+public final class SoShaderStoreLazy implements SoShaderStoreType
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(SoShaderStoreLazy.class);
+  }
+
+  private final Object lock;
+  private final SoShaderStoreSupplierType supplier;
+  private volatile SoShaderStoreType delegate;
+
+  private SoShaderStoreLazy(
+    final SoShaderStoreSupplierType in_supplier)
+  {
+    this.supplier = NullCheck.notNull(in_supplier, "Supplier");
+    this.lock = new Object();
+  }
+
+  /**
+   * Create a new lazy store.
+   *
+   * @param supplier A function that constructs the underlying store
+   *
+   * @return A new store
+   */
+
+  public static SoShaderStoreLazy create(
+    final SoShaderStoreSupplierType supplier)
+  {
+    return new SoShaderStoreLazy(supplier);
+  }
+
+  /**
+   * @return {@code true} iff the underlying store has been constructed
+   */
+
+  public boolean isConstructed()
+  {
+    return this.delegate != null;
+  }
+
+  private SoShaderStoreType delegate()
+    throws SoShaderException
+  {
+    final SoShaderStoreType current = this.delegate;
+    if (current != null) {
+      return current;
+    }
+
+    synchronized (this.lock) {
+      final SoShaderStoreType latest = this.delegate;
+      if (latest != null) {
+        return latest;
+      }
+
+      LOG.debug("constructing store");
+      final SoShaderStoreType constructed =
+        NullCheck.notNull(this.supplier.get(), "Store");
+      this.delegate = constructed;
+      return constructed;
+    }
+  }
+
+  @Override
+  public Optional<SoShaderFileReferenceType> lookup(
+    final String name)
+    throws SoShaderException
+  {
+    return this.delegate().lookup(name);
+  }
+
+  @Override
+  public Optional<ByteBuffer> fetch(
+    final String name)
+    throws SoShaderException
+  {
+    return this.delegate().fetch(name);
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.core;
+
+import com.io7m.jnull.NullCheck;
+
+/**
+ * <p>A store listener that invalidates the cached output of a preprocessor
+ * when files change.</p>
+ *
+ * <p>Stores report the names of files within the store, such as {@code
+ * /a/b.h}, whereas preprocessors identify files by their path within a
+ * module, such as {@code com.example/a/b.h}. The listener maps one to the
+ * other using the name of the module that the store belongs to. If the
+ * store reports that changes may have been missed, all cached output is
+ * invalidated.</p>
+ */
+
+public final class SoShaderStoreListenerInvalidating
+  implements SoShaderStoreListenerType
+{
+  private final String module;
+  private final SoShaderPreprocessorType preprocessor;
+
+  private SoShaderStoreListenerInvalidating(
+    final String in_module,
+    final SoShaderPreprocessorType in_preprocessor)
+  {
+    this.module = NullCheck.notNull(in_module, "Module");
+    this.preprocessor = NullCheck.notNull(in_preprocessor, "Preprocessor");
+  }
+
+  /**
+   * Create a new listener.
+   *
+   * @param module       The name of the module whose store will be observed
+   * @param preprocessor The preprocessor
+   *
+   * @return A new listener
+   */
+
+  public static SoShaderStoreListenerType create(
+    final String module,
+    final SoShaderPreprocessorType preprocessor)
+  {
+    return new SoShaderStoreListenerInvalidating(module, preprocessor);
+  }
+
+  @Override
+  public void onFileChanged(
+    final String name,
+    final long version)
+  {
+    this.preprocessor.invalidate(this.module + name);
+  }
+
+  @Override
+  public void onAllChanged(
+    final long version)
+  {
+    this.preprocessor.invalidateAll();
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.core;
+
+/**
+ * A listener for changes to the files in a store. Listeners are called on
+ * the thread that observes the change, and so should return quickly.
+ */
+
+public interface SoShaderStoreListenerType
+{
+  /**
+   * Called when a file has been created, modified, or deleted.
+   *
+   * @param name    The normal name of the file within the store, such as
+   *                {@code /a/b.h}, which does not include the name of the
+   *                module (see {@link SoShaderStoreListenerInvalidating})
+   * @param version The new version of the file
+   */
+
+  void onFileChanged(
+    final String name,
+    final long version);
+
+  /**
+   * Called when changes may have been missed, for example because the
+   * operating system discarded events. Any file in the store may have
+   * changed.
+   *
+   * @param version A version newer than that of every file in the store
+   */
+
+  void onAllChanged(
+    final long version);
+}
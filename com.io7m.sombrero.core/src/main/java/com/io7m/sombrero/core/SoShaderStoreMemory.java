@@ -0,0 +1,213 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.core;
+
+import com.io7m.jnull.NullCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+/**
+ * <p>A shader store that holds a snapshot of a set of files in memory. The
+ * contents of all files are read when the store is created, and lookups and
+ * reads never perform I/O afterwards. Changes made to the original files
+ * after the snapshot is taken are not visible through the store.</p>
+ *
+ * <p>Names are interpreted in the same way as for the other stores: leading
+ * and repeated slashes are ignored, and {@code .} and {@code ..} segments are
+ * resolved. Names that refer to locations outside of the snapshot are never
+ * found.</p>
+ *
+ * <p>The fingerprints of files are hashes of their contents, calculated when
+ * the snapshot is taken.</p>
+ */
+
+public final class SoShaderStoreMemory implements SoShaderStoreType
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(SoShaderStoreMemory.class);
+  }
+
+  private final Map<String, Optional<SoShaderFileReferenceType>> files;
+
+  private SoShaderStoreMemory(
+    final Map<String, Optional<SoShaderFileReferenceType>> in_files)
+  {
+    this.files = NullCheck.notNull(in_files, "Files");
+  }
+
+  /**
+   * Construct a new shader store containing every regular file in the given
+   * directory and its descendants.
+   *
+   * @param base The base directory
+   *
+   * @return A shader store
+   *
+   * @throws SoShaderException If the directory cannot be read
+   */
+
+  public static SoShaderStoreType snapshotDirectory(
+    final Path base)
+    throws SoShaderException
+  {
+    NullCheck.notNull(base, "Base");
+
+    final Path root = base.toAbsolutePath().normalize();
+    final Map<String, Optional<SoShaderFileReferenceType>> files =
+      new HashMap<>(64);
+
+    try {
+      SoShaderDirectories.walk(root, (path, name) -> {
+        LOG.trace("snapshot: {}", name);
+        files.put(name, reference(Files.readAllBytes(path)));
+      });
+    } catch (final IOException e) {
+      throw new SoShaderExceptionIO(e);
+    }
+
+    LOG.debug("snapshot of {}: {} files", root, Integer.valueOf(files.size()));
+    return new SoShaderStoreMemory(Collections.unmodifiableMap(files));
+  }
+
+  /**
+   * Construct a new shader store containing the named files from an existing
+   * store. This is intended for stores such as {@link SoShaderStoreResource}
+   * that cannot list their own contents.
+   *
+   * @param store The existing store
+   * @param names The names of the files to be copied
+   *
+   * @return A shader store
+   *
+   * @throws SoShaderException If any of the named files do not exist, or
+   *                           cannot be read
+   */
+
+  public static SoShaderStoreType snapshot(
+    final SoShaderStoreType store,
+    final Collection<String> names)
+    throws SoShaderException
+  {
+    NullCheck.notNull(store, "Store");
+    NullCheck.notNull(names, "Names");
+
+    final Map<String, Optional<SoShaderFileReferenceType>> files =
+      new HashMap<>(names.size());
+
+    try {
+      for (final String name : names) {
+        NullCheck.notNull(name, "Name");
+
+        final Optional<String> normal = SoShaderNames.normalize(name);
+        final Optional<SoShaderFileReferenceType> ref_opt =
+          store.lookup(name);
+        if (!normal.isPresent() || !ref_opt.isPresent()) {
+          throw new NoSuchFileException(name);
+        }
+
+        final ByteBuffer buffer = ref_opt.get().bytes();
+        final byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+
+        LOG.trace("snapshot: {}", normal.get());
+        files.put(normal.get(), reference(data));
+      }
+    } catch (final IOException e) {
+      throw new SoShaderExceptionIO(e);
+    }
+
+    LOG.debug("snapshot of {}: {} files", store, Integer.valueOf(files.size()));
+    return new SoShaderStoreMemory(Collections.unmodifiableMap(files));
+  }
+
+  private static Optional<SoShaderFileReferenceType> reference(
+    final byte[] data)
+  {
+    return Optional.of(new Reference(data));
+  }
+
+  @Override
+  public Optional<SoShaderFileReferenceType> lookup(
+    final String name)
+    throws SoShaderException
+  {
+    NullCheck.notNull(name, "name");
+
+    final Optional<SoShaderFileReferenceType> direct = this.files.get(name);
+    if (direct != null) {
+      return direct;
+    }
+
+    final Optional<String> normal = SoShaderNames.normalize(name);
+    if (normal.isPresent()) {
+      final Optional<SoShaderFileReferenceType> ref =
+        this.files.get(normal.get());
+      if (ref != null) {
+        return ref;
+      }
+    }
+
+    LOG.trace("not found: {}", name);
+    return Optional.empty();
+  }
+
+  private static final class Reference implements SoShaderFileReferenceType
+  {
+    private final byte[] data;
+    private final long fingerprint;
+
+    Reference(final byte[] in_data)
+    {
+      this.data = NullCheck.notNull(in_data, "Data");
+      this.fingerprint = SoShaderFingerprints.ofBytes(ByteBuffer.wrap(in_data));
+    }
+
+    @Override
+    public InputStream stream()
+    {
+      return new ByteArrayInputStream(this.data);
+    }
+
+    @Override
+    public ByteBuffer bytes()
+    {
+      return ByteBuffer.wrap(this.data).asReadOnlyBuffer();
+    }
+
+    @Override
+    public OptionalLong fingerprint()
+    {
+      return OptionalLong.of(this.fingerprint);
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.core;
+
+import com.io7m.jnull.NullCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>A store that combines an ordered list of layers. A lookup returns the
+ * file from the first layer that contains it, so earlier layers override
+ * later ones.</p>
+ *
+ * <p>The store remembers which layer answered each successful lookup, and
+ * subsequent lookups of the same name consult only that layer. If the
+ * remembered layer no longer contains the file, all layers are consulted
+ * again. A file that is later created in an earlier layer is not detected,
+ * and {@link #invalidate(String)} must be used to forget the remembered
+ * layer for it. Unsuccessful lookups are not remembered.</p>
+ *
+ * <p>The store is safe to use from multiple threads if the layers are.</p>
+ */
+
+public final class SoShaderStoreOverlay implements SoShaderStoreType
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(SoShaderStoreOverlay.class);
+  }
+
+  private final List<SoShaderStoreType> layers;
+  private final ConcurrentHashMap<String, Integer> answered;
+
+  private SoShaderStoreOverlay(
+    final List<SoShaderStoreType> in_layers)
+  {
+    this.layers = NullCheck.notNull(in_layers, "Layers");
+    this.answered = new ConcurrentHashMap<>(64);
+  }
+
+  /**
+   * Create a new overlay store.
+   *
+   * @param layers The layers, with the highest priority layer first
+   *
+   * @return A new store
+   */
+
+  public static SoShaderStoreOverlay create(
+    final List<SoShaderStoreType> layers)
+  {
+    NullCheck.notNull(layers, "Layers");
+
+    if (layers.isEmpty()) {
+      throw new IllegalArgumentException("At least one layer is required");
+    }
+
+    final List<SoShaderStoreType> copy = new ArrayList<>(layers.size());
+    for (final SoShaderStoreType layer : layers) {
+      copy.add(NullCheck.notNull(layer, "Layer"));
+    }
+    return new SoShaderStoreOverlay(Collections.unmodifiableList(copy));
+  }
+
+  @Override
+  public Optional<SoShaderFileReferenceType> lookup(
+    final String name)
+    throws SoShaderException
+  {
+    NullCheck.notNull(name, "name");
+
+    final Integer remembered = this.answered.get(name);
+    if (remembered != null) {
+      final Optional<SoShaderFileReferenceType> ref =
+        this.layers.get(remembered.intValue()).lookup(name);
+      if (ref.isPresent()) {
+        return ref;
+      }
+
+      LOG.trace("layer {} no longer contains {}", remembered, name);
+      this.answered.remove(name, remembered);
+    }
+
+    final int count = this.layers.size();
+    for (int index = 0; index < count; ++index) {
+      final Optional<SoShaderFileReferenceType> ref =
+        this.layers.get(index).lookup(name);
+      if (ref.isPresent()) {
+        LOG.trace("layer {} contains {}", Integer.valueOf(index), name);
+        this.answered.put(name, Integer.valueOf(index));
+        return ref;
+      }
+    }
+
+    return Optional.empty();
+  }
+
+  /**
+   * Forget the layer that answered lookups of {@code name}, so that the next
+   * lookup consults all layers.
+   *
+   * @param name The name of a file
+   */
+
+  public void invalidate(
+    final String name)
+  {
+    this.answered.remove(NullCheck.notNull(name, "name"));
+  }
+
+  /**
+   * Forget the layers that answered all lookups.
+   */
+
+  public void invalidateAll()
+  {
+    this.answered.clear();
+  }
+}
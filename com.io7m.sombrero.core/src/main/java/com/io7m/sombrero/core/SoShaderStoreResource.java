@@ -22,14 +22,25 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
 import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.function.Function;
 import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
 
 /**
  * A shader source based on Java resources. Resources will be resolved
  * relative to a given class.
+ *
+ * <p>Fingerprints are available for resources in directories, where they are
+ * derived from the sizes and modification times of files, and for resources
+ * in jar files, where they are derived from the sizes and checksums recorded
+ * in the jar file.</p>
  */
 
 public final class SoShaderStoreResource implements SoShaderStoreType
@@ -71,6 +82,17 @@ public final class SoShaderStoreResource implements SoShaderStoreType
     return new SoShaderStoreResource(base, c);
   }
 
+  static OptionalLong fingerprintOf(
+    final ZipEntry entry)
+  {
+    final long crc = entry.getCrc();
+    final long size = entry.getSize();
+    if (crc == -1L || size == -1L) {
+      return OptionalLong.empty();
+    }
+    return OptionalLong.of(SoShaderFingerprints.ofValues(size, crc));
+  }
+
   @Override
   public Optional<SoShaderFileReferenceType> lookup(
     final String name)
@@ -93,6 +115,36 @@ public final class SoShaderStoreResource implements SoShaderStoreType
     return Optional.empty();
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The resource is read directly from the URL returned by the resource
+   * loader.</p>
+   */
+
+  @Override
+  public Optional<ByteBuffer> fetch(
+    final String name)
+    throws SoShaderException
+  {
+    NullCheck.notNull(name, "name");
+
+    final String target =
+      SLASHES.matcher((this.base + "/" + name)).replaceAll("/");
+
+    final URL url = this.loader.apply(target);
+    if (url == null) {
+      return Optional.empty();
+    }
+
+    LOG.debug("fetch: {}", url);
+    try (final InputStream stream = url.openStream()) {
+      return Optional.of(ByteBuffer.wrap(stream.readAllBytes()));
+    } catch (final IOException e) {
+      throw new SoShaderExceptionIO(e);
+    }
+  }
+
   private final class Reference implements SoShaderFileReferenceType
   {
     private final URL url;
@@ -108,5 +160,28 @@ public final class SoShaderStoreResource implements SoShaderStoreType
     {
       return this.url.openStream();
     }
+
+    @Override
+    public OptionalLong fingerprint()
+      throws IOException
+    {
+      switch (this.url.getProtocol()) {
+        case "file": {
+          try {
+            return OptionalLong.of(
+              SoShaderFingerprints.ofAttributes(Paths.get(this.url.toURI())));
+          } catch (final URISyntaxException e) {
+            throw new IOException(e);
+          }
+        }
+        case "jar": {
+          final JarURLConnection connection =
+            (JarURLConnection) this.url.openConnection();
+          return fingerprintOf(connection.getJarEntry());
+        }
+        default:
+          return OptionalLong.empty();
+      }
+    }
   }
 }
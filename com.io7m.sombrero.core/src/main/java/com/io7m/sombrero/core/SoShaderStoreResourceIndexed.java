@@ -0,0 +1,298 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.core;
+
+import com.io7m.jnull.NullCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.function.Function;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * <p>A shader store based on Java resources that indexes the resources under
+ * a base directory once, when the store is created. Lookups are answered
+ * from the index without consulting a class loader, and files are read
+ * directly from the directory or jar file that contains them.</p>
+ *
+ * <p>The base directory is passed unchanged to the given function, and so,
+ * as with {@link SoShaderStoreResource}, a relative base is resolved relative
+ * to the class whose {@link Class#getResource(String)} method is used, and a
+ * base of {@code /} refers to the root of the class path entry that the
+ * function returns.</p>
+ *
+ * <p>Only resources in directories ({@code file:} URLs) and jar files
+ * ({@code jar:} URLs) can be indexed. Files added to the base directory
+ * after the store is created are not visible. The store must be closed when
+ * it is no longer required in order to release any open jar file.</p>
+ *
+ * <p>The fingerprints of files in directories are derived from their sizes
+ * and modification times, and those of files in jar files from the sizes and
+ * checksums recorded in the jar file.</p>
+ */
+
+public final class SoShaderStoreResourceIndexed
+  implements SoShaderStoreType, Closeable
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(SoShaderStoreResourceIndexed.class);
+  }
+
+  private final Map<String, Optional<SoShaderFileReferenceType>> files;
+  private final Optional<ZipFile> zip;
+
+  private SoShaderStoreResourceIndexed(
+    final Map<String, Optional<SoShaderFileReferenceType>> in_files,
+    final Optional<ZipFile> in_zip)
+  {
+    this.files = NullCheck.notNull(in_files, "Files");
+    this.zip = NullCheck.notNull(in_zip, "Zip");
+  }
+
+  /**
+   * Construct a new shader store.
+   *
+   * @param base The base directory
+   * @param c    A function that will be used to locate the base directory.
+   *             This is intended to be a method reference to {@link
+   *             Class#getResource(String)}.
+   *
+   * @return A shader store
+   *
+   * @throws SoShaderException If the base directory cannot be found or
+   *                           indexed
+   */
+
+  public static SoShaderStoreResourceIndexed create(
+    final String base,
+    final Function<String, URL> c)
+    throws SoShaderException
+  {
+    NullCheck.notNull(base, "Base");
+    NullCheck.notNull(c, "Loader");
+
+    final URL url = c.apply(base);
+    if (url == null) {
+      throw new SoShaderExceptionIO(new NoSuchFileException(base));
+    }
+
+    LOG.debug("index: {}", url);
+    try {
+      switch (url.getProtocol()) {
+        case "file":
+          return indexDirectory(Paths.get(url.toURI()));
+        case "jar":
+          return indexJar((JarURLConnection) url.openConnection());
+        default:
+          throw new SoShaderException(
+            "Resources cannot be indexed: " + url);
+      }
+    } catch (final URISyntaxException e) {
+      throw new SoShaderException(e);
+    } catch (final IOException e) {
+      throw new SoShaderExceptionIO(e);
+    }
+  }
+
+  private static SoShaderStoreResourceIndexed indexDirectory(
+    final Path directory)
+    throws IOException
+  {
+    final Map<String, Optional<SoShaderFileReferenceType>> files =
+      new HashMap<>(64);
+
+    SoShaderDirectories.walk(
+      directory,
+      (path, name) -> files.put(name, Optional.of(new PathReference(path))));
+
+    LOG.debug("indexed {}: {} files", directory, Integer.valueOf(files.size()));
+    return new SoShaderStoreResourceIndexed(
+      Collections.unmodifiableMap(files), Optional.empty());
+  }
+
+  private static SoShaderStoreResourceIndexed indexJar(
+    final JarURLConnection connection)
+    throws IOException, URISyntaxException
+  {
+    final Path path = Paths.get(connection.getJarFileURL().toURI());
+    final String prefix = prefixOf(connection.getEntryName());
+
+    final Map<String, Optional<SoShaderFileReferenceType>> files =
+      new HashMap<>(64);
+
+    final ZipFile zip = new ZipFile(path.toFile());
+    try {
+      final Enumeration<? extends ZipEntry> entries = zip.entries();
+      while (entries.hasMoreElements()) {
+        final ZipEntry entry = entries.nextElement();
+        final String name = entry.getName();
+        if (!entry.isDirectory() && name.startsWith(prefix)) {
+          final Optional<String> normal =
+            SoShaderNames.normalize(name.substring(prefix.length()));
+          if (normal.isPresent()) {
+            files.put(normal.get(), Optional.of(new ZipReference(zip, entry)));
+          }
+        }
+      }
+    } catch (final RuntimeException e) {
+      try {
+        zip.close();
+      } catch (final IOException x) {
+        e.addSuppressed(x);
+      }
+      throw e;
+    }
+
+    LOG.debug("indexed {}: {} files", connection.getURL(), Integer.valueOf(files.size()));
+    return new SoShaderStoreResourceIndexed(
+      Collections.unmodifiableMap(files), Optional.of(zip));
+  }
+
+  /**
+   * @param entry_name The name of the base directory within a jar file, or
+   *                   {@code null} for the root of the jar file
+   *
+   * @return The prefix shared by the names of all entries in the directory
+   */
+
+  private static String prefixOf(
+    final String entry_name)
+  {
+    if (entry_name == null || entry_name.isEmpty()) {
+      return "";
+    }
+    if (entry_name.endsWith("/")) {
+      return entry_name;
+    }
+    return entry_name + "/";
+  }
+
+  @Override
+  public Optional<SoShaderFileReferenceType> lookup(
+    final String name)
+    throws SoShaderException
+  {
+    NullCheck.notNull(name, "name");
+
+    final Optional<SoShaderFileReferenceType> direct = this.files.get(name);
+    if (direct != null) {
+      return direct;
+    }
+
+    final Optional<String> normal = SoShaderNames.normalize(name);
+    if (normal.isPresent()) {
+      final Optional<SoShaderFileReferenceType> ref =
+        this.files.get(normal.get());
+      if (ref != null) {
+        return ref;
+      }
+    }
+
+    LOG.trace("not found: {}", name);
+    return Optional.empty();
+  }
+
+  @Override
+  public void close()
+    throws IOException
+  {
+    if (this.zip.isPresent()) {
+      this.zip.get().close();
+    }
+  }
+
+  private static final class PathReference
+    implements SoShaderFileReferenceType
+  {
+    private final Path path;
+
+    PathReference(
+      final Path in_path)
+    {
+      this.path = NullCheck.notNull(in_path, "Path");
+    }
+
+    @Override
+    public InputStream stream()
+      throws IOException
+    {
+      return Files.newInputStream(this.path);
+    }
+
+    @Override
+    public ByteBuffer bytes()
+      throws IOException
+    {
+      return ByteBuffer.wrap(Files.readAllBytes(this.path));
+    }
+
+    @Override
+    public OptionalLong fingerprint()
+      throws IOException
+    {
+      return OptionalLong.of(SoShaderFingerprints.ofAttributes(this.path));
+    }
+  }
+
+  private static final class ZipReference
+    implements SoShaderFileReferenceType
+  {
+    private final ZipFile zip;
+    private final ZipEntry entry;
+
+    ZipReference(
+      final ZipFile in_zip,
+      final ZipEntry in_entry)
+    {
+      this.zip = NullCheck.notNull(in_zip, "Zip");
+      this.entry = NullCheck.notNull(in_entry, "Entry");
+    }
+
+    @Override
+    public InputStream stream()
+      throws IOException
+    {
+      return this.zip.getInputStream(this.entry);
+    }
+
+    @Override
+    public OptionalLong fingerprint()
+    {
+      return SoShaderStoreResource.fingerprintOf(this.entry);
+    }
+  }
+}
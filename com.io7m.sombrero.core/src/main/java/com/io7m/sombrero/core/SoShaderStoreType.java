@@ -16,7 +16,19 @@
 
 package com.io7m.sombrero.core;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 /**
  * The type of shader stores.
@@ -36,4 +48,118 @@ public interface SoShaderStoreType
 
   Optional<SoShaderFileReferenceType> lookup(String name)
     throws SoShaderException;
+
+  /**
+   * Lookup the file {@code name} inside the store and read its contents.
+   * The default implementation is equivalent to calling {@link
+   * SoShaderFileReferenceType#bytes()} on the result of {@link
+   * #lookup(String)}, and stores may provide more efficient implementations.
+   *
+   * @param name The file
+   *
+   * @return The contents of the file, or nothing if the file does not exist
+   *
+   * @throws SoShaderException On errors
+   */
+
+  default Optional<ByteBuffer> fetch(
+    final String name)
+    throws SoShaderException
+  {
+    final Optional<SoShaderFileReferenceType> ref_opt = this.lookup(name);
+    if (ref_opt.isPresent()) {
+      try {
+        return Optional.of(ref_opt.get().bytes());
+      } catch (final IOException e) {
+        throw new SoShaderExceptionIO(e);
+      }
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Fetch each of the given files with {@link #fetch(String)}, submitting
+   * each file to {@code executor} so that the files may be fetched in
+   * parallel, and wait for all of the files to be fetched.
+   *
+   * @param names    The files
+   * @param executor The executor used to fetch files
+   *
+   * @return The contents of each of the files that exist, in the order that
+   * the names were given
+   *
+   * @throws SoShaderException If fetching any of the files fails
+   */
+
+  default Map<String, ByteBuffer> fetchAll(
+    final Collection<String> names,
+    final Executor executor)
+    throws SoShaderException
+  {
+    return SoShaderFutures.await(this.fetchAllAsync(names, executor));
+  }
+
+  /**
+   * Fetch each of the given files asynchronously on an executor that uses
+   * virtual threads if the JVM supports them, and the common fork/join pool
+   * otherwise.
+   *
+   * @param names The files
+   *
+   * @return A future that yields the contents of each of the files that
+   * exist, in the order that the names were given
+   *
+   * @see #fetchAllAsync(Collection, Executor)
+   */
+
+  default CompletableFuture<Map<String, ByteBuffer>> fetchAllAsync(
+    final Collection<String> names)
+  {
+    return this.fetchAllAsync(names, SoShaderExecutors.defaultExecutor());
+  }
+
+  /**
+   * Fetch each of the given files with {@link #fetch(String)}, submitting
+   * each file to {@code executor}. If fetching any file fails, the returned
+   * future completes exceptionally with the {@link SoShaderException} that
+   * was raised.
+   *
+   * @param names    The files
+   * @param executor The executor used to fetch files
+   *
+   * @return A future that yields the contents of each of the files that
+   * exist, in the order that the names were given
+   */
+
+  default CompletableFuture<Map<String, ByteBuffer>> fetchAllAsync(
+    final Collection<String> names,
+    final Executor executor)
+  {
+    final List<String> unique = new ArrayList<>(new LinkedHashSet<>(names));
+    final List<CompletableFuture<Optional<ByteBuffer>>> futures =
+      new ArrayList<>(unique.size());
+
+    for (final String name : unique) {
+      futures.add(CompletableFuture.supplyAsync(() -> {
+        try {
+          return this.fetch(name);
+        } catch (final SoShaderException e) {
+          throw new CompletionException(e);
+        }
+      }, executor));
+    }
+
+    return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+      .thenApply(ignored -> {
+        final Map<String, ByteBuffer> results =
+          new LinkedHashMap<>(unique.size());
+        for (int index = 0; index < unique.size(); ++index) {
+          final Optional<ByteBuffer> data = futures.get(index).join();
+          if (data.isPresent()) {
+            results.put(unique.get(index), data.get());
+          }
+        }
+        return Collections.unmodifiableMap(results);
+      });
+  }
 }
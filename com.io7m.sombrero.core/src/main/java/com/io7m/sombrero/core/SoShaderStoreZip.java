@@ -0,0 +1,268 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.core;
+
+import com.io7m.jnull.NullCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * <p>A shader store based on the entries of a zip file, which are typically
+ * deflate-compressed. The entries under a base directory are indexed when
+ * the store is opened, and each entry is decompressed only when it is first
+ * read. Decompressed entries are kept in a cache that is bounded by the
+ * total number of decompressed bytes; when the cache is full, the least
+ * recently used entries are discarded.</p>
+ *
+ * <p>The fingerprints of files are derived from the sizes and checksums
+ * recorded in the zip file. The store must be closed when it is no longer
+ * required in order to release the zip file.</p>
+ */
+
+public final class SoShaderStoreZip implements SoShaderStoreType, Closeable
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(SoShaderStoreZip.class);
+  }
+
+  private final ZipFile zip;
+  private final Map<String, Optional<SoShaderFileReferenceType>> files;
+  private final long cache_limit;
+  private final Object lock;
+  private final LinkedHashMap<String, byte[]> cache;
+  private long cache_size;
+
+  private SoShaderStoreZip(
+    final ZipFile in_zip,
+    final String prefix,
+    final long in_cache_limit)
+  {
+    this.zip = NullCheck.notNull(in_zip, "Zip");
+    this.cache_limit = in_cache_limit;
+    this.lock = new Object();
+    this.cache = new LinkedHashMap<>(16, 0.75f, true);
+    this.cache_size = 0L;
+
+    final Map<String, Optional<SoShaderFileReferenceType>> m =
+      new HashMap<>(64);
+    final Enumeration<? extends ZipEntry> entries = in_zip.entries();
+    while (entries.hasMoreElements()) {
+      final ZipEntry entry = entries.nextElement();
+      final String name = entry.getName();
+      if (!entry.isDirectory() && name.startsWith(prefix)) {
+        final Optional<String> normal =
+          SoShaderNames.normalize(name.substring(prefix.length()));
+        if (normal.isPresent()) {
+          m.put(normal.get(), Optional.of(new Reference(normal.get(), entry)));
+        }
+      }
+    }
+    this.files = Collections.unmodifiableMap(m);
+  }
+
+  /**
+   * Open a zip file.
+   *
+   * @param file       The zip file
+   * @param base       The base directory within the zip file, such as
+   *                   {@code /} or {@code /com/example/shaders}
+   * @param cache_size The maximum total size in bytes of the decompressed
+   *                   entries that will be cached
+   *
+   * @return A shader store
+   *
+   * @throws SoShaderException If the zip file cannot be opened
+   */
+
+  public static SoShaderStoreZip open(
+    final Path file,
+    final String base,
+    final long cache_size)
+    throws SoShaderException
+  {
+    NullCheck.notNull(file, "File");
+    NullCheck.notNull(base, "Base");
+
+    if (cache_size < 0L) {
+      throw new IllegalArgumentException("Cache size must be non-negative");
+    }
+
+    final Optional<String> normal = SoShaderNames.normalize(base);
+    if (!normal.isPresent()) {
+      throw new SoShaderExceptionIO(new NoSuchFileException(base));
+    }
+
+    String prefix = "";
+    if (!normal.get().isEmpty()) {
+      prefix = normal.get().substring(1) + "/";
+    }
+
+    try {
+      final SoShaderStoreZip store =
+        new SoShaderStoreZip(new ZipFile(file.toFile()), prefix, cache_size);
+      LOG.debug("open: {}: {} files", file, Integer.valueOf(store.files.size()));
+      return store;
+    } catch (final IOException e) {
+      throw new SoShaderExceptionIO(e);
+    }
+  }
+
+  @Override
+  public Optional<SoShaderFileReferenceType> lookup(
+    final String name)
+    throws SoShaderException
+  {
+    NullCheck.notNull(name, "name");
+
+    final Optional<SoShaderFileReferenceType> direct = this.files.get(name);
+    if (direct != null) {
+      return direct;
+    }
+
+    final Optional<String> normal = SoShaderNames.normalize(name);
+    if (normal.isPresent()) {
+      final Optional<SoShaderFileReferenceType> ref =
+        this.files.get(normal.get());
+      if (ref != null) {
+        return ref;
+      }
+    }
+
+    LOG.trace("not found: {}", name);
+    return Optional.empty();
+  }
+
+  /**
+   * @return The total size in bytes of the decompressed entries that are
+   * currently cached
+   */
+
+  public long cacheSize()
+  {
+    synchronized (this.lock) {
+      return this.cache_size;
+    }
+  }
+
+  @Override
+  public void close()
+    throws IOException
+  {
+    synchronized (this.lock) {
+      this.cache.clear();
+      this.cache_size = 0L;
+    }
+    this.zip.close();
+  }
+
+  private byte[] read(
+    final String name,
+    final ZipEntry entry)
+    throws IOException
+  {
+    synchronized (this.lock) {
+      final byte[] cached = this.cache.get(name);
+      if (cached != null) {
+        LOG.trace("hit: {}", name);
+        return cached;
+      }
+    }
+
+    LOG.trace("decompress: {}", name);
+    final byte[] data;
+    try (final InputStream stream = this.zip.getInputStream(entry)) {
+      data = stream.readAllBytes();
+    }
+
+    if ((long) data.length <= this.cache_limit) {
+      synchronized (this.lock) {
+        final byte[] previous = this.cache.put(name, data);
+        if (previous != null) {
+          this.cache_size -= (long) previous.length;
+        }
+        this.cache_size += (long) data.length;
+        this.evict();
+      }
+    }
+    return data;
+  }
+
+  private void evict()
+  {
+    final Iterator<byte[]> iter = this.cache.values().iterator();
+    while (this.cache_size > this.cache_limit && iter.hasNext()) {
+      this.cache_size -= (long) iter.next().length;
+      iter.remove();
+    }
+  }
+
+  private final class Reference implements SoShaderFileReferenceType
+  {
+    private final String name;
+    private final ZipEntry entry;
+
+    Reference(
+      final String in_name,
+      final ZipEntry in_entry)
+    {
+      this.name = NullCheck.notNull(in_name, "Name");
+      this.entry = NullCheck.notNull(in_entry, "Entry");
+    }
+
+    @Override
+    public InputStream stream()
+      throws IOException
+    {
+      return new ByteArrayInputStream(
+        SoShaderStoreZip.this.read(this.name, this.entry));
+    }
+
+    @Override
+    public ByteBuffer bytes()
+      throws IOException
+    {
+      return ByteBuffer.wrap(SoShaderStoreZip.this.read(this.name, this.entry))
+        .asReadOnlyBuffer();
+    }
+
+    @Override
+    public OptionalLong fingerprint()
+    {
+      return SoShaderStoreResource.fingerprintOf(this.entry);
+    }
+  }
+}
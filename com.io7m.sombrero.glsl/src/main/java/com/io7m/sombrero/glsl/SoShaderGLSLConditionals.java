@@ -0,0 +1,158 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.glsl;
+
+import java.util.Arrays;
+
+/**
+ * The stack of conditional groups opened by {@code #if}, {@code #ifdef} and
+ * {@code #ifndef} directives.
+ */
+
+final class SoShaderGLSLConditionals
+{
+  private boolean[] parent;
+  private boolean[] taken;
+  private boolean[] otherwise;
+  private int depth;
+  private boolean active;
+
+  SoShaderGLSLConditionals()
+  {
+    this.parent = new boolean[16];
+    this.taken = new boolean[16];
+    this.otherwise = new boolean[16];
+    this.depth = 0;
+    this.active = true;
+  }
+
+  /**
+   * @return {@code true} if lines in the current group are processed
+   */
+
+  boolean isActive()
+  {
+    return this.active;
+  }
+
+  int depth()
+  {
+    return this.depth;
+  }
+
+  /**
+   * @return {@code true} if the innermost group has seen an {@code #else}
+   */
+
+  boolean hasElse()
+  {
+    return this.otherwise[this.depth - 1];
+  }
+
+  /**
+   * @return {@code true} if an {@code #elif} in the innermost group must
+   * have its condition evaluated
+   */
+
+  boolean isElifPending()
+  {
+    final int top = this.depth - 1;
+    return this.parent[top] && !this.taken[top];
+  }
+
+  /**
+   * Open a new group.
+   *
+   * @param value The value of the condition, ignored if the enclosing group
+   *              is inactive
+   */
+
+  void push(
+    final boolean value)
+  {
+    if (this.depth == this.parent.length) {
+      final int size = this.depth * 2;
+      this.parent = Arrays.copyOf(this.parent, size);
+      this.taken = Arrays.copyOf(this.taken, size);
+      this.otherwise = Arrays.copyOf(this.otherwise, size);
+    }
+
+    final int top = this.depth;
+    this.parent[top] = this.active;
+    this.taken[top] = this.active && value;
+    this.otherwise[top] = false;
+    ++this.depth;
+    this.active = this.active && value;
+  }
+
+  /**
+   * Begin an {@code #elif} branch of the innermost group.
+   *
+   * @param value The value of the condition, which must be {@code false} if
+   *              {@link #isElifPending()} is {@code false}
+   */
+
+  void elif(
+    final boolean value)
+  {
+    final int top = this.depth - 1;
+    this.taken[top] = this.taken[top] || value;
+    this.active = value;
+  }
+
+  /**
+   * Begin the {@code #else} branch of the innermost group.
+   */
+
+  void otherwise()
+  {
+    final int top = this.depth - 1;
+    this.active = this.parent[top] && !this.taken[top];
+    this.taken[top] = true;
+    this.otherwise[top] = true;
+  }
+
+  /**
+   * Close the innermost group.
+   */
+
+  void pop()
+  {
+    --this.depth;
+    this.active = this.parent[this.depth];
+  }
+
+  /**
+   * Close all groups above {@code in_depth}, restoring the given activity.
+   *
+   * @param in_depth  The depth
+   * @param in_active Whether lines are processed at that depth
+   */
+
+  void truncate(
+    final int in_depth,
+    final boolean in_active)
+  {
+    this.depth = in_depth;
+    this.active = in_active;
+  }
+
+  void reset()
+  {
+    this.truncate(0, true);
+  }
+}
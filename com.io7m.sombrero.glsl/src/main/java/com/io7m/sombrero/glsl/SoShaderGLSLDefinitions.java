@@ -0,0 +1,291 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.glsl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * <p>A parser for macro definitions.</p>
+ *
+ * <p>Macro bodies are stored with whitespace and comments collapsed to single
+ * spaces, and with parameter references and the {@code #} and {@code ##}
+ * operators replaced by the marker bytes defined in
+ * {@link SoShaderGLSLMacro}. Parsers are reusable but not thread-safe.</p>
+ */
+
+final class SoShaderGLSLDefinitions
+{
+  private static final int PARAMETERS_MAXIMUM = 127;
+  private static final boolean[] NO_PARAMETERS = new boolean[0];
+
+  private final int[] parameters;
+  private byte[] data;
+  private byte[] body;
+  private int body_size;
+
+  SoShaderGLSLDefinitions()
+  {
+    this.parameters = new int[PARAMETERS_MAXIMUM * 2];
+    this.body = new byte[256];
+    this.data = this.body;
+  }
+
+  /**
+   * Create an object-like macro.
+   *
+   * @param name  The macro name
+   * @param value The UTF-8 encoded replacement text
+   *
+   * @return A new macro
+   */
+
+  SoShaderGLSLMacro object(
+    final byte[] name,
+    final byte[] value)
+  {
+    this.data = value;
+    final byte[] encoded =
+      this.encode(0, value.length, false, 0, NO_PARAMETERS);
+    return new SoShaderGLSLMacro(
+      name, false, 0, encoded, NO_PARAMETERS, SoShaderGLSLMacro.BUILTIN_NONE);
+  }
+
+  /**
+   * Parse the definition that follows a {@code #define} directive.
+   *
+   * @param in_data The data
+   * @param start   The position after the directive name
+   * @param limit   The end of the directive
+   *
+   * @return A new macro
+   *
+   * @throws SoShaderGLSLSyntaxException If the definition is malformed
+   */
+
+  SoShaderGLSLMacro parse(
+    final byte[] in_data,
+    final int start,
+    final int limit)
+    throws SoShaderGLSLSyntaxException
+  {
+    this.data = in_data;
+
+    final byte[] b = in_data;
+    final int p = SoShaderGLSLText.skipBlank(b, start, limit);
+    final int q = SoShaderGLSLText.identifier(b, p, limit);
+    if (q < 0) {
+      throw new SoShaderGLSLSyntaxException("Macro name missing in #define");
+    }
+    if (SoShaderGLSLText.equalsASCII(b, p, q, "defined")) {
+      throw new SoShaderGLSLSyntaxException(
+        "'defined' cannot be used as a macro name");
+    }
+
+    final byte[] name = Arrays.copyOfRange(b, p, q);
+    if (q >= limit || b[q] != '(') {
+      final byte[] encoded = this.encode(q, limit, false, 0, NO_PARAMETERS);
+      return new SoShaderGLSLMacro(
+        name,
+        false,
+        0,
+        encoded,
+        NO_PARAMETERS,
+        SoShaderGLSLMacro.BUILTIN_NONE);
+    }
+
+    int count = 0;
+    int r = SoShaderGLSLText.skipBlank(b, q + 1, limit);
+    if (r < limit && b[r] == ')') {
+      ++r;
+    } else {
+      while (true) {
+        final int param_end = SoShaderGLSLText.identifier(b, r, limit);
+        if (param_end < 0) {
+          throw malformed(name);
+        }
+        if (count == PARAMETERS_MAXIMUM) {
+          throw new SoShaderGLSLSyntaxException("Too many macro parameters");
+        }
+        this.parameters[count * 2] = r;
+        this.parameters[count * 2 + 1] = param_end;
+        ++count;
+
+        r = SoShaderGLSLText.skipBlank(b, param_end, limit);
+        if (r < limit && b[r] == ',') {
+          r = SoShaderGLSLText.skipBlank(b, r + 1, limit);
+        } else if (r < limit && b[r] == ')') {
+          ++r;
+          break;
+        } else {
+          throw malformed(name);
+        }
+      }
+    }
+
+    final boolean[] expanded = new boolean[count];
+    final byte[] encoded = this.encode(r, limit, true, count, expanded);
+    return new SoShaderGLSLMacro(
+      name, true, count, encoded, expanded, SoShaderGLSLMacro.BUILTIN_NONE);
+  }
+
+  private static SoShaderGLSLSyntaxException malformed(
+    final byte[] name)
+  {
+    return new SoShaderGLSLSyntaxException(
+      "Malformed parameter list in definition of macro "
+        + new String(name, StandardCharsets.UTF_8));
+  }
+
+  private int parameterIndex(
+    final int start,
+    final int limit,
+    final int count)
+  {
+    final byte[] b = this.data;
+    for (int index = 0; index < count; ++index) {
+      final int p = this.parameters[index * 2];
+      final int q = this.parameters[index * 2 + 1];
+      if (Arrays.equals(b, p, q, b, start, limit)) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  private boolean pasteFollows(
+    final int start,
+    final int limit)
+  {
+    final int p = SoShaderGLSLText.skipBlank(this.data, start, limit);
+    return p + 1 < limit && this.data[p] == '#' && this.data[p + 1] == '#';
+  }
+
+  private void append(
+    final byte value)
+  {
+    if (this.body_size == this.body.length) {
+      this.body = Arrays.copyOf(this.body, this.body.length * 2);
+    }
+    this.body[this.body_size] = value;
+    ++this.body_size;
+  }
+
+  /**
+   * Encode a macro body, collapsing whitespace and comments, and replacing
+   * parameter references and operators with marker bytes.
+   */
+
+  private byte[] encode(
+    final int start,
+    final int limit,
+    final boolean function,
+    final int count,
+    final boolean[] expanded)
+  {
+    final byte[] b = this.data;
+    this.body_size = 0;
+
+    boolean space = false;
+    boolean after_paste = false;
+    int p = SoShaderGLSLText.skipBlank(b, start, limit);
+    while (p < limit) {
+      final byte c = b[p];
+      if (SoShaderGLSLText.isHorizontalSpace(c)
+        || SoShaderGLSLText.isCommentStart(b, p, limit)) {
+        p = SoShaderGLSLText.skipBlank(b, p, limit);
+        space = this.body_size > 0;
+        continue;
+      }
+
+      if (c == '#' && p + 1 < limit && b[p + 1] == '#') {
+        this.append(SoShaderGLSLMacro.MARK_PASTE);
+        after_paste = true;
+        space = false;
+        p = SoShaderGLSLText.skipBlank(b, p + 2, limit);
+        continue;
+      }
+
+      if (space && !after_paste) {
+        this.append((byte) ' ');
+      }
+      space = false;
+
+      if (c == '#' && function) {
+        final int q = SoShaderGLSLText.skipBlank(b, p + 1, limit);
+        final int r = SoShaderGLSLText.identifierEnd(b, q, limit);
+        final int index = this.parameterIndex(q, r, count);
+        if (q < r && index >= 0) {
+          this.append(SoShaderGLSLMacro.MARK_STRINGIZE);
+          this.append((byte) index);
+          after_paste = false;
+          p = r;
+          continue;
+        }
+      }
+
+      if (SoShaderGLSLText.isIdentifierStart(c)) {
+        final int q = SoShaderGLSLText.identifierEnd(b, p, limit);
+        this.encodeIdentifier(p, q, limit, after_paste, count, expanded);
+        after_paste = false;
+        p = q;
+        continue;
+      }
+
+      after_paste = false;
+      if (c >= SoShaderGLSLMacro.MARK_PARAM
+        && c <= SoShaderGLSLMacro.MARK_PAINTED) {
+        this.append((byte) ' ');
+      } else {
+        this.append(c);
+      }
+      ++p;
+    }
+
+    return Arrays.copyOf(this.body, this.body_size);
+  }
+
+  /**
+   * Encode an identifier. Parameters that are operands of {@code ##} are
+   * substituted without being expanded first.
+   */
+
+  private void encodeIdentifier(
+    final int start,
+    final int end,
+    final int limit,
+    final boolean after_paste,
+    final int count,
+    final boolean[] expanded)
+  {
+    final int index = this.parameterIndex(start, end, count);
+    if (index < 0) {
+      for (int k = start; k < end; ++k) {
+        this.append(this.data[k]);
+      }
+      return;
+    }
+
+    if (after_paste || this.pasteFollows(end, limit)) {
+      this.append(SoShaderGLSLMacro.MARK_RAW);
+    } else {
+      this.append(SoShaderGLSLMacro.MARK_PARAM);
+      expanded[index] = true;
+    }
+    this.append((byte) index);
+  }
+}
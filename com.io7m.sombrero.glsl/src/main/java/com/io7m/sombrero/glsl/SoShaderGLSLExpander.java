@@ -0,0 +1,875 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.glsl;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.sombrero.core.SoShaderException;
+import com.io7m.sombrero.core.SoShaderLineWriter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * <p>The tokenizer and macro expander for text lines.</p>
+ *
+ * <p>Identifiers are looked up in the macro table directly from the source
+ * bytes. Macro replacements and arguments are held in a stack-like arena
+ * that is reset whenever expansion returns to the source text, so that
+ * steady-state preprocessing allocates very little. Expanders are reusable
+ * but not thread-safe.</p>
+ *
+ * <p>An identifier that names a macro that is currently being expanded is
+ * not expanded, and is also prefixed with {@link
+ * SoShaderGLSLMacro#MARK_PAINTED} wherever it is copied into the arena, so
+ * that it is still not expanded when it is rescanned after that macro's
+ * expansion has finished. This happens to identifiers that are produced
+ * while expanding the arguments of a function-like macro, which are
+ * rescanned again as part of the macro's replacement.</p>
+ */
+
+final class SoShaderGLSLExpander
+{
+  private static final int KIND_EOF = 0;
+  private static final int KIND_END = 1;
+  private static final int KIND_NEWLINE = 2;
+  private static final int KIND_BREAK = 3;
+  private static final int KIND_SPACE = 4;
+  private static final int KIND_IDENTIFIER = 5;
+  private static final int KIND_NUMBER = 6;
+  private static final int KIND_OTHER = 7;
+
+  private static final byte[] SPACE = {' '};
+  private static final byte[] PAINTED = {SoShaderGLSLMacro.MARK_PAINTED};
+
+  private final SoShaderGLSLProcessor processor;
+  private final SoShaderGLSLMacroTable macros;
+  private final SoShaderLineWriter output;
+  private SoShaderGLSLSource source;
+
+  /*
+   * The stack of macro expansion contexts. A context with a null buffer
+   * refers to the arena.
+   */
+
+  private byte[][] ctx_buffer;
+  private int[] ctx_position;
+  private int[] ctx_end;
+  private SoShaderGLSLMacro[] ctx_macro;
+  private int ctx_depth;
+  private int ctx_floor;
+  private boolean base_readable;
+
+  private byte[] arena;
+  private int arena_top;
+  private byte[] sink;
+  private int sink_top;
+  private boolean sink_to_arena;
+  private boolean sink_painted;
+  private int[] args;
+  private int args_top;
+
+  /*
+   * The most recently lexed token.
+   */
+
+  private int tok_kind;
+  private byte[] tok_buffer;
+  private int tok_start;
+  private int tok_end;
+  private int tok_hash;
+  private boolean tok_painted;
+
+  SoShaderGLSLExpander(
+    final SoShaderGLSLProcessor in_processor,
+    final SoShaderGLSLMacroTable in_macros,
+    final SoShaderLineWriter in_output)
+  {
+    this.processor = NullCheck.notNull(in_processor, "Processor");
+    this.macros = NullCheck.notNull(in_macros, "Macros");
+    this.output = NullCheck.notNull(in_output, "Output");
+    this.source = new SoShaderGLSLSource("", new byte[0]);
+
+    this.ctx_buffer = new byte[16][];
+    this.ctx_position = new int[16];
+    this.ctx_end = new int[16];
+    this.ctx_macro = new SoShaderGLSLMacro[16];
+
+    this.arena = new byte[1024];
+    this.sink = new byte[1024];
+    this.args = new int[64];
+    this.tok_buffer = SPACE;
+  }
+
+  void setSource(
+    final SoShaderGLSLSource in_source)
+  {
+    this.source = NullCheck.notNull(in_source, "Source");
+  }
+
+  /**
+   * Discard all expansion state.
+   */
+
+  void reset()
+  {
+    while (this.ctx_depth > 0) {
+      this.pop();
+    }
+    this.clear();
+    this.tok_buffer = SPACE;
+    this.source = new SoShaderGLSLSource("", new byte[0]);
+  }
+
+  /**
+   * Discard the contents of the arena and the sink.
+   */
+
+  void clear()
+  {
+    this.arena_top = 0;
+    this.sink_top = 0;
+    this.args_top = 0;
+  }
+
+  int arenaSize()
+  {
+    return this.arena_top;
+  }
+
+  byte[] sink()
+  {
+    return this.sink;
+  }
+
+  int sinkSize()
+  {
+    return this.sink_top;
+  }
+
+  /**
+   * Expand and write the text line at the current position of the source.
+   *
+   * @throws SoShaderException On errors
+   */
+
+  void textLine()
+    throws SoShaderException
+  {
+    this.ctx_floor = 0;
+    this.base_readable = true;
+    this.sink_to_arena = false;
+
+    while (true) {
+      this.lex();
+      switch (this.tok_kind) {
+        case KIND_EOF: {
+          return;
+        }
+        case KIND_NEWLINE: {
+          this.output.newline();
+          this.clear();
+          return;
+        }
+        case KIND_BREAK: {
+          this.output.newline();
+          break;
+        }
+        case KIND_IDENTIFIER: {
+          this.identifier();
+          break;
+        }
+        default: {
+          this.emit(this.tok_buffer, this.tok_start, this.tok_end);
+          break;
+        }
+      }
+
+      if (this.ctx_depth == 0) {
+        this.clear();
+      }
+    }
+  }
+
+  private void emit(
+    final byte[] buffer,
+    final int start,
+    final int limit)
+  {
+    if (this.sink_to_arena) {
+      final int count = limit - start;
+      if (this.sink_top + count > this.sink.length) {
+        this.sink = Arrays.copyOf(
+          this.sink, Math.max(this.sink.length * 2, this.sink_top + count));
+      }
+      System.arraycopy(buffer, start, this.sink, this.sink_top, count);
+      this.sink_top += count;
+    } else {
+      this.output.write(buffer, start, limit);
+    }
+  }
+
+  void arenaAppend(
+    final byte[] buffer,
+    final int start,
+    final int limit)
+  {
+    final int count = limit - start;
+    this.arenaReserve(count);
+    System.arraycopy(buffer, start, this.arena, this.arena_top, count);
+    this.arena_top += count;
+  }
+
+  void arenaAppend(
+    final byte value)
+  {
+    this.arenaReserve(1);
+    this.arena[this.arena_top] = value;
+    ++this.arena_top;
+  }
+
+  private void arenaReserve(
+    final int count)
+  {
+    if (this.arena_top + count > this.arena.length) {
+      this.arena = Arrays.copyOf(
+        this.arena, Math.max(this.arena.length * 2, this.arena_top + count));
+    }
+  }
+
+  private void argsReserve(
+    final int count)
+  {
+    if (this.args_top + count > this.args.length) {
+      this.args = Arrays.copyOf(
+        this.args, Math.max(this.args.length * 2, this.args_top + count));
+    }
+  }
+
+  /*
+   * Lexing.
+   */
+
+  private byte[] contextBuffer(
+    final int index)
+  {
+    final byte[] buffer = this.ctx_buffer[index];
+    if (buffer == null) {
+      return this.arena;
+    }
+    return buffer;
+  }
+
+  private void lex()
+    throws SoShaderException
+  {
+    while (this.ctx_depth > this.ctx_floor) {
+      final int top = this.ctx_depth - 1;
+      final int p = this.ctx_position[top];
+      if (p < this.ctx_end[top]) {
+        this.ctx_position[top] =
+          this.lexSimple(this.contextBuffer(top), p, this.ctx_end[top]);
+        return;
+      }
+      this.pop();
+    }
+
+    if (this.base_readable) {
+      this.lexBase();
+    } else {
+      this.tok_kind = KIND_END;
+    }
+  }
+
+  /**
+   * Lex a token that cannot be a newline or comment.
+   */
+
+  private int lexSimple(
+    final byte[] b,
+    final int p,
+    final int limit)
+  {
+    this.tok_buffer = b;
+    this.tok_start = p;
+    this.tok_painted = false;
+
+    final byte c = b[p];
+    int q = p + 1;
+    if (c == ' ' || c == '\t') {
+      while (q < limit && (b[q] == ' ' || b[q] == '\t')) {
+        ++q;
+      }
+      this.tok_kind = KIND_SPACE;
+    } else if (SoShaderGLSLText.isIdentifierStart(c)) {
+      q = this.lexIdentifier(b, p, limit);
+    } else if (c == SoShaderGLSLMacro.MARK_PAINTED
+      && q < limit
+      && SoShaderGLSLText.isIdentifierStart(b[q])) {
+      q = this.lexIdentifier(b, q, limit);
+      this.tok_painted = true;
+    } else if (SoShaderGLSLText.isDigit(c)
+      || (c == '.' && q < limit && SoShaderGLSLText.isDigit(b[q]))) {
+      q = numberEnd(b, q, limit);
+      this.tok_kind = KIND_NUMBER;
+    } else {
+      this.tok_kind = KIND_OTHER;
+    }
+
+    this.tok_end = q;
+    return q;
+  }
+
+  /**
+   * Lex the identifier that begins at {@code start}, calculating its hash.
+   */
+
+  private int lexIdentifier(
+    final byte[] b,
+    final int start,
+    final int limit)
+  {
+    int h = SoShaderGLSLMacroTable.HASH_BASIS;
+    int q = start;
+    while (q < limit && SoShaderGLSLText.isIdentifierPart(b[q])) {
+      h = (h ^ (b[q] & 0xff)) * SoShaderGLSLMacroTable.HASH_PRIME;
+      ++q;
+    }
+    this.tok_start = start;
+    this.tok_hash = h;
+    this.tok_kind = KIND_IDENTIFIER;
+    return q;
+  }
+
+  /**
+   * Find the end of a preprocessing number, which includes any exponent
+   * signs and suffixes.
+   */
+
+  private static int numberEnd(
+    final byte[] b,
+    final int start,
+    final int limit)
+  {
+    int q = start;
+    while (q < limit) {
+      final byte x = b[q];
+      final boolean exponent =
+        (x == '+' || x == '-') && (b[q - 1] == 'e' || b[q - 1] == 'E');
+      if (exponent || x == '.' || SoShaderGLSLText.isIdentifierPart(x)) {
+        ++q;
+      } else {
+        break;
+      }
+    }
+    return q;
+  }
+
+  private void lexBase()
+    throws SoShaderException
+  {
+    final SoShaderGLSLSource s = this.source;
+    final byte[] b = s.data();
+    final int end = s.end();
+    final int p = s.position();
+    if (p >= end) {
+      this.tok_kind = KIND_EOF;
+      return;
+    }
+
+    final byte c = b[p];
+    if (SoShaderGLSLText.isNewline(c)) {
+      this.tok_kind = KIND_NEWLINE;
+      s.consumeNewline();
+      return;
+    }
+
+    if (c == '/' && p + 1 < end && b[p + 1] == '*') {
+      this.lexBlockComment(p);
+      return;
+    }
+
+    if (c == '/' && p + 1 < end && b[p + 1] == '/') {
+      int q = p + 2;
+      while (q < end && !SoShaderGLSLText.isNewline(b[q])) {
+        ++q;
+      }
+      s.moveTo(q);
+      this.tok_kind = KIND_SPACE;
+      this.tok_buffer = SPACE;
+      this.tok_start = 0;
+      this.tok_end = 0;
+      return;
+    }
+
+    if (c == '\f' || c == 0x0b) {
+      s.moveTo(p + 1);
+      this.tok_kind = KIND_SPACE;
+      this.tok_buffer = SPACE;
+      this.tok_start = 0;
+      this.tok_end = 1;
+      return;
+    }
+
+    s.moveTo(this.lexSimple(b, p, end));
+  }
+
+  /**
+   * Lex a block comment, which becomes a space if it is contained within a
+   * line, or a line break if it spans lines.
+   */
+
+  private void lexBlockComment(
+    final int p)
+    throws SoShaderException
+  {
+    final SoShaderGLSLSource s = this.source;
+    final int close = SoShaderGLSLText.commentEnd(s.data(), p + 2, s.end(), true);
+    if (close < 0) {
+      s.advance(s.end());
+      this.processor.error(s.line(), 0, "Unterminated comment");
+      this.tok_kind = KIND_EOF;
+      return;
+    }
+
+    final int before = s.line();
+    s.advance(close);
+    if (s.line() == before) {
+      this.tok_kind = KIND_SPACE;
+    } else {
+      this.tok_kind = KIND_BREAK;
+    }
+    this.tok_buffer = SPACE;
+    this.tok_start = 0;
+    this.tok_end = 1;
+  }
+
+  /*
+   * Macro expansion.
+   */
+
+  private void push(
+    final byte[] buffer,
+    final int start,
+    final int limit,
+    final SoShaderGLSLMacro macro)
+  {
+    if (this.ctx_depth == this.ctx_position.length) {
+      final int size = this.ctx_depth * 2;
+      this.ctx_buffer = Arrays.copyOf(this.ctx_buffer, size);
+      this.ctx_position = Arrays.copyOf(this.ctx_position, size);
+      this.ctx_end = Arrays.copyOf(this.ctx_end, size);
+      this.ctx_macro = Arrays.copyOf(this.ctx_macro, size);
+    }
+
+    final int top = this.ctx_depth;
+    this.ctx_buffer[top] = buffer;
+    this.ctx_position[top] = start;
+    this.ctx_end[top] = limit;
+    this.ctx_macro[top] = macro;
+    if (macro != null) {
+      macro.enter();
+    }
+    ++this.ctx_depth;
+  }
+
+  private void pop()
+  {
+    --this.ctx_depth;
+    final int top = this.ctx_depth;
+    final SoShaderGLSLMacro macro = this.ctx_macro[top];
+    if (macro != null) {
+      macro.leave();
+    }
+    this.ctx_buffer[top] = null;
+    this.ctx_macro[top] = null;
+  }
+
+  /**
+   * Handle the identifier that was just lexed, expanding it if it names an
+   * enabled macro.
+   */
+
+  private void identifier()
+    throws SoShaderException
+  {
+    final byte[] name_buffer = this.tok_buffer;
+    final int name_start = this.tok_start;
+    final int name_end = this.tok_end;
+
+    if (this.tok_painted) {
+      this.emitPainted(name_buffer, name_start, name_end);
+      return;
+    }
+
+    final SoShaderGLSLMacro macro =
+      this.macros.find(name_buffer, name_start, name_end, this.tok_hash);
+    if (macro == null) {
+      this.emit(name_buffer, name_start, name_end);
+      return;
+    }
+
+    if (macro.isDisabled()) {
+      this.emitPainted(name_buffer, name_start, name_end);
+      return;
+    }
+
+    if (macro.builtin() == SoShaderGLSLMacro.BUILTIN_LINE) {
+      final byte[] digits = Integer.toString(this.source.line())
+        .getBytes(StandardCharsets.US_ASCII);
+      this.emit(digits, 0, digits.length);
+      return;
+    }
+
+    if (!macro.isFunction()) {
+      final byte[] body = macro.body();
+      this.push(body, 0, body.length, macro);
+      return;
+    }
+
+    if (!this.consumeOpenParenthesis()) {
+      this.emit(name_buffer, name_start, name_end);
+      return;
+    }
+
+    final int args_base = this.args_top;
+    final int count = this.collectArguments(macro);
+    if (count >= 0 && this.checkArguments(macro, args_base, count)) {
+      this.substitute(macro, args_base);
+    }
+    this.args_top = args_base;
+  }
+
+  /**
+   * Emit an identifier that must never be expanded. The identifier is marked
+   * if it is being written to the sink for later rescanning.
+   */
+
+  private void emitPainted(
+    final byte[] buffer,
+    final int start,
+    final int limit)
+  {
+    if (this.sink_to_arena && this.sink_painted) {
+      this.emit(PAINTED, 0, 1);
+    }
+    this.emit(buffer, start, limit);
+  }
+
+  private boolean checkArguments(
+    final SoShaderGLSLMacro macro,
+    final int args_base,
+    final int count)
+    throws SoShaderException
+  {
+    final int parameters = macro.parameters();
+    if (count == parameters) {
+      return true;
+    }
+
+    final boolean empty_call =
+      parameters == 0
+        && count == 1
+        && this.args[args_base] == this.args[args_base + 1];
+    if (empty_call) {
+      return true;
+    }
+
+    this.processor.error(
+      this.source.line(),
+      0,
+      new StringBuilder(64)
+        .append("Macro ")
+        .append(new String(macro.name(), StandardCharsets.UTF_8))
+        .append(" requires ")
+        .append(parameters)
+        .append(" arguments but was given ")
+        .append(count)
+        .toString());
+    return false;
+  }
+
+  /**
+   * Look ahead for the opening parenthesis of a function-like macro
+   * invocation, and consume it if it is present. Nothing is consumed if it
+   * is not.
+   */
+
+  private boolean consumeOpenParenthesis()
+  {
+    for (int index = this.ctx_depth - 1; index >= this.ctx_floor; --index) {
+      final byte[] b = this.contextBuffer(index);
+      final int limit = this.ctx_end[index];
+      int p = this.ctx_position[index];
+      while (p < limit && (b[p] == ' ' || b[p] == '\t')) {
+        ++p;
+      }
+      if (p < limit) {
+        if (b[p] != '(') {
+          return false;
+        }
+        while (this.ctx_depth - 1 > index) {
+          this.pop();
+        }
+        this.ctx_position[index] = p + 1;
+        return true;
+      }
+    }
+
+    if (this.base_readable && this.source.consumeOpenParenthesis()) {
+      while (this.ctx_depth > this.ctx_floor) {
+        this.pop();
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Collect the raw arguments of a macro invocation into the arena. The
+   * start and end of each argument are pushed onto the argument stack.
+   *
+   * @return The number of arguments, or {@code -1} on errors
+   */
+
+  private int collectArguments(
+    final SoShaderGLSLMacro macro)
+    throws SoShaderException
+  {
+    int count = 0;
+    int depth = 1;
+    boolean space = false;
+    final int start_line = this.source.line();
+
+    this.argsReserve(2);
+    this.args[this.args_top] = this.arena_top;
+
+    while (true) {
+      this.lex();
+      final int kind = this.tok_kind;
+      if (kind == KIND_EOF || kind == KIND_END) {
+        this.processor.error(
+          start_line,
+          0,
+          "Unterminated argument list invoking macro "
+            + new String(macro.name(), StandardCharsets.UTF_8));
+        return -1;
+      }
+
+      if (kind == KIND_NEWLINE || kind == KIND_BREAK || kind == KIND_SPACE) {
+        space = this.arena_top > this.args[this.args_top];
+        continue;
+      }
+
+      byte c = 0;
+      if (kind == KIND_OTHER) {
+        c = this.tok_buffer[this.tok_start];
+      }
+
+      if (c == '(') {
+        ++depth;
+      } else if (c == ')') {
+        --depth;
+      }
+
+      if (depth == 0 || (c == ',' && depth == 1)) {
+        this.args[this.args_top + 1] = this.arena_top;
+        this.args_top += 2;
+        ++count;
+        if (depth == 0) {
+          return count;
+        }
+        this.argsReserve(2);
+        this.args[this.args_top] = this.arena_top;
+        space = false;
+        continue;
+      }
+
+      if (space) {
+        this.arenaAppend((byte) ' ');
+        space = false;
+      }
+      if (this.tok_painted) {
+        this.arenaAppend(SoShaderGLSLMacro.MARK_PAINTED);
+      }
+      this.arenaAppend(this.tok_buffer, this.tok_start, this.tok_end);
+    }
+  }
+
+  /**
+   * Fully expand the given range of the arena, appending the result to the
+   * sink.
+   *
+   * @param start The start of the range
+   * @param limit The end of the range
+   *
+   * @throws SoShaderException On errors
+   */
+
+  void expandToSink(
+    final int start,
+    final int limit)
+    throws SoShaderException
+  {
+    this.expand(start, limit, false);
+  }
+
+  /**
+   * Fully expand the given range of the arena, appending the result to the
+   * sink. If {@code painted} is {@code true}, identifiers that must never be
+   * expanded are marked in the sink.
+   */
+
+  private void expand(
+    final int start,
+    final int limit,
+    final boolean painted)
+    throws SoShaderException
+  {
+    final int saved_floor = this.ctx_floor;
+    final boolean saved_base = this.base_readable;
+    final boolean saved_sink = this.sink_to_arena;
+    final boolean saved_painted = this.sink_painted;
+
+    this.push(null, start, limit, null);
+    this.ctx_floor = this.ctx_depth - 1;
+    this.base_readable = false;
+    this.sink_to_arena = true;
+    this.sink_painted = painted;
+
+    try {
+      while (true) {
+        this.lex();
+        if (this.tok_kind == KIND_END) {
+          break;
+        }
+        if (this.tok_kind == KIND_IDENTIFIER) {
+          this.identifier();
+        } else {
+          this.emit(this.tok_buffer, this.tok_start, this.tok_end);
+        }
+      }
+    } finally {
+      this.ctx_floor = saved_floor;
+      this.base_readable = saved_base;
+      this.sink_to_arena = saved_sink;
+      this.sink_painted = saved_painted;
+    }
+  }
+
+  /**
+   * Build the replacement for a function-like macro invocation in the arena
+   * and push it as a new context.
+   */
+
+  private void substitute(
+    final SoShaderGLSLMacro macro,
+    final int args_base)
+    throws SoShaderException
+  {
+    final int parameters = macro.parameters();
+    final int expanded_base = this.args_top;
+    this.argsReserve(parameters * 2);
+    this.args_top += parameters * 2;
+
+    final int sink_base = this.sink_top;
+    for (int index = 0; index < parameters; ++index) {
+      if (macro.isExpanded(index)) {
+        final int slot = expanded_base + index * 2;
+        final int raw = args_base + index * 2;
+        final int arena_mark = this.arena_top;
+        this.args[slot] = this.sink_top;
+        this.expand(this.args[raw], this.args[raw + 1], true);
+        this.args[slot + 1] = this.sink_top;
+        this.arena_top = arena_mark;
+      }
+    }
+
+    final byte[] body = macro.body();
+    final int start = this.arena_top;
+    int index = 0;
+    while (index < body.length) {
+      final byte c = body[index];
+      if (c == SoShaderGLSLMacro.MARK_PARAM) {
+        final int slot = expanded_base + body[index + 1] * 2;
+        this.arenaAppend(this.sink, this.args[slot], this.args[slot + 1]);
+        index += 2;
+      } else if (c == SoShaderGLSLMacro.MARK_RAW) {
+        final int slot = args_base + body[index + 1] * 2;
+        int raw_start = this.args[slot];
+        final int raw_end = this.args[slot + 1];
+        final boolean pasted =
+          index > 0 && body[index - 1] == SoShaderGLSLMacro.MARK_PASTE;
+        if (pasted
+          && raw_start < raw_end
+          && this.arena[raw_start] == SoShaderGLSLMacro.MARK_PAINTED) {
+          ++raw_start;
+        }
+        this.arenaAppend(this.arena, raw_start, raw_end);
+        index += 2;
+      } else if (c == SoShaderGLSLMacro.MARK_STRINGIZE) {
+        final int slot = args_base + body[index + 1] * 2;
+        this.stringize(this.args[slot], this.args[slot + 1]);
+        index += 2;
+      } else if (c == SoShaderGLSLMacro.MARK_PASTE) {
+        this.unpaintLast(start);
+        ++index;
+      } else {
+        this.arenaAppend(c);
+        ++index;
+      }
+    }
+
+    this.sink_top = sink_base;
+    this.push(null, start, this.arena_top, macro);
+  }
+
+  /**
+   * Remove the mark from the identifier at the end of the arena, if it has
+   * one, as the identifier is about to be pasted into a new token.
+   */
+
+  private void unpaintLast(
+    final int start)
+  {
+    int k = this.arena_top;
+    while (k > start && SoShaderGLSLText.isIdentifierPart(this.arena[k - 1])) {
+      --k;
+    }
+    if (k > start && this.arena[k - 1] == SoShaderGLSLMacro.MARK_PAINTED) {
+      System.arraycopy(this.arena, k, this.arena, k - 1, this.arena_top - k);
+      --this.arena_top;
+    }
+  }
+
+  private void stringize(
+    final int start,
+    final int limit)
+  {
+    this.arenaAppend((byte) '"');
+    for (int k = start; k < limit; ++k) {
+      final byte x = this.arena[k];
+      if (x == SoShaderGLSLMacro.MARK_PAINTED) {
+        continue;
+      }
+      if (x == '"' || x == '\\') {
+        this.arenaAppend((byte) '\\');
+      }
+      this.arenaAppend(x);
+    }
+    this.arenaAppend((byte) '"');
+  }
+}
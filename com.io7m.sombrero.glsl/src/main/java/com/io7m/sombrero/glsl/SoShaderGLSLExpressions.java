@@ -0,0 +1,427 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.glsl;
+
+/**
+ * <p>An evaluator for the integer constant expressions of {@code #if} and
+ * {@code #elif} directives.</p>
+ *
+ * <p>The expression must already have been macro-expanded, with each
+ * {@code defined} operator replaced by {@code 0} or {@code 1}. Any remaining
+ * identifiers evaluate to {@code 0}. Evaluators are reusable but not
+ * thread-safe.</p>
+ */
+
+final class SoShaderGLSLExpressions
+{
+  private byte[] data;
+  private int position;
+  private int end;
+
+  SoShaderGLSLExpressions()
+  {
+    this.data = new byte[0];
+  }
+
+  /**
+   * Evaluate the expression in the given range of bytes.
+   *
+   * @param in_data  The data
+   * @param in_start The start of the expression (inclusive)
+   * @param in_end   The end of the expression (exclusive)
+   *
+   * @return The value of the expression
+   *
+   * @throws SoShaderGLSLSyntaxException If the expression is malformed
+   */
+
+  long evaluate(
+    final byte[] in_data,
+    final int in_start,
+    final int in_end)
+    throws SoShaderGLSLSyntaxException
+  {
+    this.data = in_data;
+    this.position = in_start;
+    this.end = in_end;
+
+    this.skipSpace();
+    if (this.position >= this.end) {
+      throw new SoShaderGLSLSyntaxException("Empty expression");
+    }
+
+    final long result = this.conditional(true);
+    this.skipSpace();
+    if (this.position < this.end) {
+      throw this.unexpected();
+    }
+    return result;
+  }
+
+  private static long truth(
+    final boolean value)
+  {
+    if (value) {
+      return 1L;
+    }
+    return 0L;
+  }
+
+  private SoShaderGLSLSyntaxException unexpected()
+  {
+    if (this.position >= this.end) {
+      return new SoShaderGLSLSyntaxException(
+        "Unexpected end of expression");
+    }
+    return new SoShaderGLSLSyntaxException(
+      "Unexpected character '" + (char) (this.data[this.position] & 0xff)
+        + "' in expression");
+  }
+
+  private void skipSpace()
+  {
+    while (this.position < this.end) {
+      final byte c = this.data[this.position];
+      if (c != ' ' && c != '\t') {
+        break;
+      }
+      ++this.position;
+    }
+  }
+
+  private boolean peek(
+    final char c)
+  {
+    this.skipSpace();
+    return this.position < this.end && this.data[this.position] == c;
+  }
+
+  private boolean peek2(
+    final char c0,
+    final char c1)
+  {
+    this.skipSpace();
+    return this.position + 1 < this.end
+      && this.data[this.position] == c0
+      && this.data[this.position + 1] == c1;
+  }
+
+  private long conditional(
+    final boolean eval)
+    throws SoShaderGLSLSyntaxException
+  {
+    final long condition = this.logicalOr(eval);
+    if (!this.peek('?')) {
+      return condition;
+    }
+
+    ++this.position;
+    final long if_true = this.conditional(eval && condition != 0L);
+    if (!this.peek(':')) {
+      throw this.unexpected();
+    }
+    ++this.position;
+    final long if_false = this.conditional(eval && condition == 0L);
+    if (condition != 0L) {
+      return if_true;
+    }
+    return if_false;
+  }
+
+  private long logicalOr(
+    final boolean eval)
+    throws SoShaderGLSLSyntaxException
+  {
+    long x = this.logicalAnd(eval);
+    while (this.peek2('|', '|')) {
+      this.position += 2;
+      final long y = this.logicalAnd(eval && x == 0L);
+      x = truth(x != 0L || y != 0L);
+    }
+    return x;
+  }
+
+  private long logicalAnd(
+    final boolean eval)
+    throws SoShaderGLSLSyntaxException
+  {
+    long x = this.bitwiseOr(eval);
+    while (this.peek2('&', '&')) {
+      this.position += 2;
+      final long y = this.bitwiseOr(eval && x != 0L);
+      x = truth(x != 0L && y != 0L);
+    }
+    return x;
+  }
+
+  private long bitwiseOr(
+    final boolean eval)
+    throws SoShaderGLSLSyntaxException
+  {
+    long x = this.bitwiseXor(eval);
+    while (this.peek('|') && !this.peek2('|', '|')) {
+      ++this.position;
+      x |= this.bitwiseXor(eval);
+    }
+    return x;
+  }
+
+  private long bitwiseXor(
+    final boolean eval)
+    throws SoShaderGLSLSyntaxException
+  {
+    long x = this.bitwiseAnd(eval);
+    while (this.peek('^')) {
+      ++this.position;
+      x ^= this.bitwiseAnd(eval);
+    }
+    return x;
+  }
+
+  private long bitwiseAnd(
+    final boolean eval)
+    throws SoShaderGLSLSyntaxException
+  {
+    long x = this.equality(eval);
+    while (this.peek('&') && !this.peek2('&', '&')) {
+      ++this.position;
+      x &= this.equality(eval);
+    }
+    return x;
+  }
+
+  private long equality(
+    final boolean eval)
+    throws SoShaderGLSLSyntaxException
+  {
+    long x = this.relational(eval);
+    while (true) {
+      if (this.peek2('=', '=')) {
+        this.position += 2;
+        x = truth(x == this.relational(eval));
+      } else if (this.peek2('!', '=')) {
+        this.position += 2;
+        x = truth(x != this.relational(eval));
+      } else {
+        return x;
+      }
+    }
+  }
+
+  private long relational(
+    final boolean eval)
+    throws SoShaderGLSLSyntaxException
+  {
+    long x = this.shift(eval);
+    while (true) {
+      if (this.peek2('<', '=')) {
+        this.position += 2;
+        x = truth(x <= this.shift(eval));
+      } else if (this.peek2('>', '=')) {
+        this.position += 2;
+        x = truth(x >= this.shift(eval));
+      } else if (this.peek('<') && !this.peek2('<', '<')) {
+        ++this.position;
+        x = truth(x < this.shift(eval));
+      } else if (this.peek('>') && !this.peek2('>', '>')) {
+        ++this.position;
+        x = truth(x > this.shift(eval));
+      } else {
+        return x;
+      }
+    }
+  }
+
+  private long shift(
+    final boolean eval)
+    throws SoShaderGLSLSyntaxException
+  {
+    long x = this.additive(eval);
+    while (true) {
+      if (this.peek2('<', '<')) {
+        this.position += 2;
+        x <<= this.additive(eval);
+      } else if (this.peek2('>', '>')) {
+        this.position += 2;
+        x >>= this.additive(eval);
+      } else {
+        return x;
+      }
+    }
+  }
+
+  private long additive(
+    final boolean eval)
+    throws SoShaderGLSLSyntaxException
+  {
+    long x = this.multiplicative(eval);
+    while (true) {
+      if (this.peek('+')) {
+        ++this.position;
+        x += this.multiplicative(eval);
+      } else if (this.peek('-')) {
+        ++this.position;
+        x -= this.multiplicative(eval);
+      } else {
+        return x;
+      }
+    }
+  }
+
+  private long multiplicative(
+    final boolean eval)
+    throws SoShaderGLSLSyntaxException
+  {
+    long x = this.unary(eval);
+    while (true) {
+      if (this.peek('*')) {
+        ++this.position;
+        x *= this.unary(eval);
+      } else if (this.peek('/') || this.peek('%')) {
+        final boolean divide = this.data[this.position] == '/';
+        ++this.position;
+        final long y = this.unary(eval);
+        if (y == 0L) {
+          if (eval) {
+            throw new SoShaderGLSLSyntaxException("Division by zero");
+          }
+          x = 0L;
+        } else {
+          if (divide) {
+            x = x / y;
+          } else {
+            x = x % y;
+          }
+        }
+      } else {
+        return x;
+      }
+    }
+  }
+
+  private long unary(
+    final boolean eval)
+    throws SoShaderGLSLSyntaxException
+  {
+    this.skipSpace();
+    if (this.position >= this.end) {
+      throw this.unexpected();
+    }
+
+    switch (this.data[this.position]) {
+      case '+': {
+        ++this.position;
+        return this.unary(eval);
+      }
+      case '-': {
+        ++this.position;
+        return -this.unary(eval);
+      }
+      case '~': {
+        ++this.position;
+        return ~this.unary(eval);
+      }
+      case '!': {
+        ++this.position;
+        return truth(this.unary(eval) == 0L);
+      }
+      default: {
+        return this.primary(eval);
+      }
+    }
+  }
+
+  private long primary(
+    final boolean eval)
+    throws SoShaderGLSLSyntaxException
+  {
+    final byte c = this.data[this.position];
+    if (c == '(') {
+      ++this.position;
+      final long x = this.conditional(eval);
+      if (!this.peek(')')) {
+        throw this.unexpected();
+      }
+      ++this.position;
+      return x;
+    }
+
+    if (c >= '0' && c <= '9') {
+      return this.number();
+    }
+
+    if (SoShaderGLSLText.isIdentifierStart(c)) {
+      while (this.position < this.end
+        && SoShaderGLSLText.isIdentifierPart(this.data[this.position])) {
+        ++this.position;
+      }
+      return 0L;
+    }
+
+    throw this.unexpected();
+  }
+
+  private long number()
+    throws SoShaderGLSLSyntaxException
+  {
+    int radix = 10;
+    if (this.data[this.position] == '0') {
+      radix = 8;
+      if (this.position + 1 < this.end) {
+        final byte x = this.data[this.position + 1];
+        if (x == 'x' || x == 'X') {
+          radix = 16;
+          this.position += 2;
+        }
+      }
+    }
+
+    long value = 0L;
+    int digits = 0;
+    while (this.position < this.end) {
+      final int digit =
+        Character.digit((char) (this.data[this.position] & 0xff), radix);
+      if (digit < 0) {
+        break;
+      }
+      value = value * radix + digit;
+      ++digits;
+      ++this.position;
+    }
+
+    if (digits == 0 && radix == 16) {
+      throw new SoShaderGLSLSyntaxException("Malformed integer constant");
+    }
+
+    while (this.position < this.end) {
+      final byte x = this.data[this.position];
+      if (x == 'u' || x == 'U' || x == 'l' || x == 'L') {
+        ++this.position;
+      } else {
+        break;
+      }
+    }
+
+    if (this.position < this.end
+      && SoShaderGLSLText.isIdentifierPart(this.data[this.position])
+      || this.position < this.end && this.data[this.position] == '.') {
+      throw new SoShaderGLSLSyntaxException(
+        "Only integer constants may appear in conditional expressions");
+    }
+    return value;
+  }
+}
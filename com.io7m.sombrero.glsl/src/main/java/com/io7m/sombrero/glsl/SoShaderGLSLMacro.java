@@ -0,0 +1,174 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.glsl;
+
+import com.io7m.jnull.NullCheck;
+
+/**
+ * <p>A macro definition.</p>
+ *
+ * <p>The body of a macro is stored with comments removed and runs of
+ * whitespace collapsed to a single space. References to parameters, and the
+ * {@code #} and {@code ##} operators, are encoded in the body as the marker
+ * bytes below, each of which (except {@link #MARK_PASTE}) is followed by the
+ * index of a parameter.</p>
+ */
+
+final class SoShaderGLSLMacro
+{
+  /**
+   * A parameter that is macro-expanded before substitution.
+   */
+
+  static final byte MARK_PARAM = 1;
+
+  /**
+   * A parameter that is substituted without expansion, because it is an
+   * operand of {@code ##}.
+   */
+
+  static final byte MARK_RAW = 2;
+
+  /**
+   * A parameter that is the operand of {@code #}.
+   */
+
+  static final byte MARK_STRINGIZE = 3;
+
+  /**
+   * The {@code ##} operator.
+   */
+
+  static final byte MARK_PASTE = 4;
+
+  /**
+   * A prefix for an identifier that named a macro that was being expanded
+   * when the identifier was produced. Such an identifier is never expanded,
+   * even if it is rescanned after the macro's expansion has finished. The
+   * prefix never appears in macro bodies, and is removed when the identifier
+   * is written to the output.
+   */
+
+  static final byte MARK_PAINTED = 5;
+
+  /**
+   * An ordinary macro.
+   */
+
+  static final int BUILTIN_NONE = 0;
+
+  /**
+   * The {@code __LINE__} macro.
+   */
+
+  static final int BUILTIN_LINE = 1;
+
+  private final byte[] name;
+  private final int hash;
+  private final boolean function;
+  private final int parameters;
+  private final byte[] body;
+  private final boolean[] expanded;
+  private final int builtin;
+  private int depth;
+
+  SoShaderGLSLMacro(
+    final byte[] in_name,
+    final boolean in_function,
+    final int in_parameters,
+    final byte[] in_body,
+    final boolean[] in_expanded,
+    final int in_builtin)
+  {
+    this.name = NullCheck.notNull(in_name, "Name");
+    this.hash = SoShaderGLSLMacroTable.hash(in_name, 0, in_name.length);
+    this.function = in_function;
+    this.parameters = in_parameters;
+    this.body = NullCheck.notNull(in_body, "Body");
+    this.expanded = NullCheck.notNull(in_expanded, "Expanded");
+    this.builtin = in_builtin;
+    this.depth = 0;
+  }
+
+  byte[] name()
+  {
+    return this.name;
+  }
+
+  int hash()
+  {
+    return this.hash;
+  }
+
+  boolean isFunction()
+  {
+    return this.function;
+  }
+
+  int parameters()
+  {
+    return this.parameters;
+  }
+
+  byte[] body()
+  {
+    return this.body;
+  }
+
+  /**
+   * @param index A parameter index
+   *
+   * @return {@code true} iff the parameter appears in the body anywhere other
+   * than as an operand of {@code #} or {@code ##}
+   */
+
+  boolean isExpanded(
+    final int index)
+  {
+    return this.expanded[index];
+  }
+
+  int builtin()
+  {
+    return this.builtin;
+  }
+
+  /**
+   * @return {@code true} iff the macro is currently being expanded, and
+   * therefore must not be expanded again
+   */
+
+  boolean isDisabled()
+  {
+    return this.depth > 0;
+  }
+
+  void enter()
+  {
+    ++this.depth;
+  }
+
+  void leave()
+  {
+    --this.depth;
+  }
+
+  void resetDepth()
+  {
+    this.depth = 0;
+  }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.glsl;
+
+import com.io7m.jnull.NullCheck;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressed table of macros, keyed by name. Lookups take a range of
+ * an existing byte array and a precomputed hash, so that no key objects are
+ * allocated while scanning source text.
+ */
+
+final class SoShaderGLSLMacroTable
+{
+  /**
+   * The FNV-1a offset basis.
+   */
+
+  static final int HASH_BASIS = 0x811c9dc5;
+
+  /**
+   * The FNV-1a prime.
+   */
+
+  static final int HASH_PRIME = 0x01000193;
+
+  private static final SoShaderGLSLMacro REMOVED;
+
+  static {
+    REMOVED = new SoShaderGLSLMacro(
+      new byte[0], false, 0, new byte[0], new boolean[0], 0);
+  }
+
+  private SoShaderGLSLMacro[] slots;
+  private int used;
+
+  SoShaderGLSLMacroTable()
+  {
+    this.slots = new SoShaderGLSLMacro[64];
+    this.used = 0;
+  }
+
+  /**
+   * Hash the given range of bytes using FNV-1a.
+   *
+   * @param data  The data
+   * @param start The start of the range (inclusive)
+   * @param end   The end of the range (exclusive)
+   *
+   * @return The hash of the range
+   */
+
+  static int hash(
+    final byte[] data,
+    final int start,
+    final int end)
+  {
+    int h = HASH_BASIS;
+    for (int index = start; index < end; ++index) {
+      h = (h ^ (data[index] & 0xff)) * HASH_PRIME;
+    }
+    return h;
+  }
+
+  private static boolean matches(
+    final SoShaderGLSLMacro macro,
+    final byte[] data,
+    final int start,
+    final int end,
+    final int hash)
+  {
+    if (macro.hash() != hash) {
+      return false;
+    }
+    final byte[] name = macro.name();
+    if (name.length != end - start) {
+      return false;
+    }
+    for (int index = 0; index < name.length; ++index) {
+      if (name[index] != data[start + index]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Find the macro with the name given by the range of bytes.
+   *
+   * @param data  The data
+   * @param start The start of the name (inclusive)
+   * @param end   The end of the name (exclusive)
+   * @param hash  The hash of the name
+   *
+   * @return The macro, or {@code null} if no macro is defined with the name
+   */
+
+  SoShaderGLSLMacro find(
+    final byte[] data,
+    final int start,
+    final int end,
+    final int hash)
+  {
+    final int mask = this.slots.length - 1;
+    int index = hash & mask;
+    while (true) {
+      final SoShaderGLSLMacro macro = this.slots[index];
+      if (macro == null) {
+        return null;
+      }
+      if (macro != REMOVED && matches(macro, data, start, end, hash)) {
+        return macro;
+      }
+      index = (index + 1) & mask;
+    }
+  }
+
+  /**
+   * Define a macro, replacing any existing macro with the same name.
+   *
+   * @param macro The macro
+   */
+
+  void define(
+    final SoShaderGLSLMacro macro)
+  {
+    NullCheck.notNull(macro, "Macro");
+
+    final byte[] name = macro.name();
+    final int hash = macro.hash();
+    final int mask = this.slots.length - 1;
+    int index = hash & mask;
+    int free = -1;
+    while (true) {
+      final SoShaderGLSLMacro existing = this.slots[index];
+      if (existing == null) {
+        break;
+      }
+      if (existing == REMOVED) {
+        if (free == -1) {
+          free = index;
+        }
+      } else if (matches(existing, name, 0, name.length, hash)) {
+        this.slots[index] = macro;
+        return;
+      }
+      index = (index + 1) & mask;
+    }
+
+    if (free != -1) {
+      this.slots[free] = macro;
+      return;
+    }
+
+    this.slots[index] = macro;
+    ++this.used;
+    if (this.used * 2 > this.slots.length) {
+      this.resize();
+    }
+  }
+
+  /**
+   * Remove the macro with the name given by the range of bytes, if any.
+   *
+   * @param data  The data
+   * @param start The start of the name (inclusive)
+   * @param end   The end of the name (exclusive)
+   * @param hash  The hash of the name
+   */
+
+  void undefine(
+    final byte[] data,
+    final int start,
+    final int end,
+    final int hash)
+  {
+    final int mask = this.slots.length - 1;
+    int index = hash & mask;
+    while (true) {
+      final SoShaderGLSLMacro macro = this.slots[index];
+      if (macro == null) {
+        return;
+      }
+      if (macro != REMOVED && matches(macro, data, start, end, hash)) {
+        this.slots[index] = REMOVED;
+        return;
+      }
+      index = (index + 1) & mask;
+    }
+  }
+
+  /**
+   * Remove all macros.
+   */
+
+  void clear()
+  {
+    Arrays.fill(this.slots, null);
+    this.used = 0;
+  }
+
+  private void resize()
+  {
+    final SoShaderGLSLMacro[] old = this.slots;
+    this.slots = new SoShaderGLSLMacro[old.length * 2];
+    this.used = 0;
+
+    final int mask = this.slots.length - 1;
+    for (final SoShaderGLSLMacro macro : old) {
+      if (macro != null && macro != REMOVED) {
+        int index = macro.hash() & mask;
+        while (this.slots[index] != null) {
+          index = (index + 1) & mask;
+        }
+        this.slots[index] = macro;
+        ++this.used;
+      }
+    }
+  }
+}
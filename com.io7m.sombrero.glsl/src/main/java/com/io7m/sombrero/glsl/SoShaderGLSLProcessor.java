@@ -0,0 +1,905 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.glsl;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.sombrero.core.SoShaderException;
+import com.io7m.sombrero.core.SoShaderExceptionIO;
+import com.io7m.sombrero.core.SoShaderFileReferenceType;
+import com.io7m.sombrero.core.SoShaderLineWriter;
+import com.io7m.sombrero.core.SoShaderPreprocessorCallbackErrorType;
+import com.io7m.sombrero.core.SoShaderPreprocessorCallbackWarningType;
+import com.io7m.sombrero.core.SoShaderPreprocessorLineConsumerType;
+import com.io7m.sombrero.core.SoShaderPath;
+import com.io7m.sombrero.core.SoShaderPathTable;
+import com.io7m.sombrero.core.SoShaderPreprocessorSessionType;
+import com.io7m.sombrero.core.SoShaderResolverType;
+import com.io7m.sombrero.core.SoShaderSourceCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Set;
+
+/**
+ * <p>A single preprocessing run over UTF-8 source bytes.</p>
+ *
+ * <p>The processor handles directives and file inclusion, and delegates
+ * text lines to a {@link SoShaderGLSLExpander}. Lines in inactive
+ * conditional groups are skipped without being tokenized.</p>
+ *
+ * <p>Processors are not thread-safe, but may be reset and reused.</p>
+ */
+
+final class SoShaderGLSLProcessor implements SoShaderPreprocessorSessionType
+{
+  private static final Logger LOG;
+  private static final SoShaderPreprocessorLineConsumerType IDLE;
+  private static final int INCLUDE_DEPTH_MAXIMUM = 256;
+  private static final byte[] LINE;
+  private static final byte[] FILE;
+  private static final byte[] VERSION;
+
+  static {
+    LOG = LoggerFactory.getLogger(SoShaderGLSLProcessor.class);
+    IDLE = line -> {
+      throw new IllegalStateException("Processor is not running");
+    };
+    LINE = SoShaderGLSLText.ascii("__LINE__");
+    FILE = SoShaderGLSLText.ascii("__FILE__");
+    VERSION = SoShaderGLSLText.ascii("__VERSION__");
+  }
+
+  private final SoShaderGLSLMacroTable macros;
+  private final SoShaderLineWriter output;
+  private final SoShaderGLSLExpander expander;
+  private final SoShaderGLSLDefinitions definitions;
+  private final SoShaderGLSLConditionals conditionals;
+  private final SoShaderGLSLExpressions expressions;
+  private final Set<String> files;
+  private final Set<String> once;
+  private SoShaderResolverType resolver;
+  private SoShaderPathTable paths;
+  private List<String> modules;
+  private Optional<SoShaderSourceCache<byte[]>> sources;
+  private SoShaderPreprocessorCallbackWarningType on_warning;
+  private SoShaderPreprocessorCallbackErrorType on_error;
+  private SoShaderGLSLSource source;
+  private int diagnostics;
+  private int include_depth;
+  private byte[] scratch;
+  private int scratch_size;
+
+  SoShaderGLSLProcessor()
+  {
+    this.macros = new SoShaderGLSLMacroTable();
+    this.output = SoShaderLineWriter.create(IDLE);
+    this.expander =
+      new SoShaderGLSLExpander(this, this.macros, this.output);
+    this.definitions = new SoShaderGLSLDefinitions();
+    this.conditionals = new SoShaderGLSLConditionals();
+    this.expressions = new SoShaderGLSLExpressions();
+    this.files = new HashSet<>(8);
+    this.once = new HashSet<>(8);
+    this.sources = Optional.empty();
+    this.modules = List.of();
+    this.source = new SoShaderGLSLSource("", new byte[0]);
+    this.scratch = new byte[256];
+  }
+
+  @Override
+  public int diagnostics()
+  {
+    return this.diagnostics;
+  }
+
+  @Override
+  public Set<String> files()
+  {
+    return this.files;
+  }
+
+  @Override
+  public void reset()
+  {
+    this.macros.clear();
+    this.output.reset(IDLE);
+    this.expander.reset();
+    this.conditionals.reset();
+    this.files.clear();
+    this.once.clear();
+    this.sources = Optional.empty();
+    this.source = new SoShaderGLSLSource("", new byte[0]);
+    this.diagnostics = 0;
+    this.include_depth = 0;
+  }
+
+  /**
+   * Preprocess a file.
+   *
+   * @param in_resolver   The resolver used to locate files
+   * @param in_paths      The table used to intern file paths
+   * @param in_modules    The available modules, the first of which is used
+   *                      for includes that do not name a module
+   * @param in_sources    The source cache, if any
+   * @param version       The GLSL version, if any
+   * @param defines       The preprocessor defines
+   * @param file          The file
+   * @param lines         The receiver of output lines
+   * @param in_on_warning Evaluated on warnings
+   * @param in_on_error   Evaluated on errors
+   *
+   * @throws SoShaderException On errors
+   */
+
+  void run(
+    final SoShaderResolverType in_resolver,
+    final SoShaderPathTable in_paths,
+    final List<String> in_modules,
+    final Optional<SoShaderSourceCache<byte[]>> in_sources,
+    final OptionalInt version,
+    final Map<String, String> defines,
+    final String file,
+    final SoShaderPreprocessorLineConsumerType lines,
+    final SoShaderPreprocessorCallbackWarningType in_on_warning,
+    final SoShaderPreprocessorCallbackErrorType in_on_error)
+    throws SoShaderException
+  {
+    this.resolver = NullCheck.notNull(in_resolver, "Resolver");
+    this.paths = NullCheck.notNull(in_paths, "Paths");
+    this.modules = NullCheck.notNull(in_modules, "Modules");
+    this.sources = NullCheck.notNull(in_sources, "Sources");
+    this.on_warning = NullCheck.notNull(in_on_warning, "on_warning");
+    this.on_error = NullCheck.notNull(in_on_error, "on_error");
+    this.output.reset(lines);
+
+    this.macros.define(new SoShaderGLSLMacro(
+      LINE,
+      false,
+      0,
+      new byte[0],
+      new boolean[0],
+      SoShaderGLSLMacro.BUILTIN_LINE));
+    this.macros.define(this.definitions.object(
+      FILE, SoShaderGLSLText.ascii("0")));
+
+    if (version.isPresent()) {
+      final String text = Integer.toString(version.getAsInt());
+      this.output.append("#version ");
+      this.output.append(text);
+      this.output.append(" core");
+      this.output.newline();
+      this.macros.define(this.definitions.object(
+        VERSION, SoShaderGLSLText.ascii(text)));
+    }
+
+    for (final String name : defines.keySet()) {
+      final String value = defines.get(name);
+      if (LOG.isTraceEnabled()) {
+        LOG.trace("define {} {}", name, value);
+      }
+      this.macros.define(this.definitions.object(
+        name.getBytes(StandardCharsets.UTF_8),
+        value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    this.processFile(file, this.load(file));
+    this.output.finish();
+  }
+
+  /**
+   * Report an error in the current file.
+   *
+   * @param line    The line
+   * @param column  The column
+   * @param message The error message
+   *
+   * @throws SoShaderException If the error callback raises it
+   */
+
+  void error(
+    final int line,
+    final int column,
+    final String message)
+    throws SoShaderException
+  {
+    ++this.diagnostics;
+    this.on_error.onError(this.source.path(), line, column, message);
+  }
+
+  private void warning(
+    final int line,
+    final int column,
+    final String message)
+    throws SoShaderException
+  {
+    ++this.diagnostics;
+    this.on_warning.onWarning(this.source.path(), line, column, message);
+  }
+
+  private byte[] load(
+    final String file)
+    throws SoShaderException
+  {
+    this.files.add(file);
+
+    final long generation;
+    if (this.sources.isPresent()) {
+      final SoShaderSourceCache<byte[]> cache = this.sources.get();
+      final Optional<byte[]> cached = cache.find(file);
+      if (cached.isPresent()) {
+        return cached.get();
+      }
+      generation = cache.generation();
+    } else {
+      generation = 0L;
+    }
+
+    final Optional<SoShaderFileReferenceType> ref_opt =
+      this.resolver.resolvePath(this.paths.intern(file));
+    if (!ref_opt.isPresent()) {
+      throw new SoShaderExceptionIO(new NoSuchFileException(file));
+    }
+
+    final byte[] prepared;
+    try {
+      prepared = SoShaderGLSLText.prepare(
+        SoShaderGLSLText.array(ref_opt.get().bytes()));
+    } catch (final IOException e) {
+      throw new SoShaderExceptionIO(e);
+    }
+
+    if (this.sources.isPresent()) {
+      this.sources.get().put(file, prepared, generation);
+    }
+    return prepared;
+  }
+
+  private void processFile(
+    final String file,
+    final byte[] content)
+    throws SoShaderException
+  {
+    if (LOG.isTraceEnabled()) {
+      LOG.trace("process: {}", file);
+    }
+
+    final SoShaderGLSLSource saved = this.source;
+    final SoShaderGLSLSource current = new SoShaderGLSLSource(file, content);
+    this.source = current;
+    this.expander.setSource(current);
+
+    try {
+      final int depth = this.conditionals.depth();
+      final boolean active = this.conditionals.isActive();
+      while (!current.isFinished()) {
+        if (current.atDirective()) {
+          this.directive();
+        } else if (this.conditionals.isActive()) {
+          this.expander.textLine();
+        } else if (!current.skipLine()) {
+          this.error(current.line(), 0, "Unterminated comment");
+        }
+      }
+
+      if (this.conditionals.depth() > depth) {
+        this.error(current.line(), 0, "Unterminated conditional directive");
+        this.conditionals.truncate(depth, active);
+      }
+    } finally {
+      this.source = saved;
+      this.expander.setSource(saved);
+    }
+  }
+
+  /*
+   * Directives.
+   */
+
+  private void directive()
+    throws SoShaderException
+  {
+    final SoShaderGLSLSource s = this.source;
+    final byte[] b = s.data();
+    final int hash_position = s.position() - 1;
+    final int line = s.line();
+    final int column = s.column(hash_position);
+
+    final int name_start = SoShaderGLSLText.skipBlank(b, s.position(), s.end());
+    final int limit = s.directiveEnd(name_start);
+    int name_end = SoShaderGLSLText.identifier(b, name_start, limit);
+    if (name_end < 0) {
+      name_end = name_start;
+    }
+
+    /*
+     * Advance past the directive before processing it, as #include will
+     * process another file from this point.
+     */
+
+    s.advance(limit);
+    if (s.isFinished()) {
+      this.warning(line, column, "No newline before end of file");
+    }
+    s.consumeNewline();
+
+    final Directive directive =
+      new Directive(hash_position, name_start, name_end, limit, line, column);
+    if (!this.conditional(directive) && this.conditionals.isActive()) {
+      this.command(directive);
+    }
+  }
+
+  /**
+   * Process a conditional directive.
+   *
+   * @return {@code false} if the directive is not a conditional directive
+   */
+
+  private boolean conditional(
+    final Directive d)
+    throws SoShaderException
+  {
+    if (d.is("if")) {
+      this.directiveIf(d);
+    } else if (d.is("ifdef")) {
+      this.directiveIfdef(d, true);
+    } else if (d.is("ifndef")) {
+      this.directiveIfdef(d, false);
+    } else if (d.is("elif")) {
+      this.directiveElif(d);
+    } else if (d.is("else")) {
+      if (this.checkConditional("#else", d)) {
+        this.conditionals.otherwise();
+      }
+    } else if (d.is("endif")) {
+      if (this.checkConditional("#endif", d)) {
+        this.conditionals.pop();
+      }
+    } else {
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Process a directive in an active group.
+   */
+
+  private void command(
+    final Directive d)
+    throws SoShaderException
+  {
+    final byte[] b = this.source.data();
+    if (d.name_start == d.name_end) {
+      if (d.name_start < d.limit) {
+        this.error(
+          d.line,
+          d.column,
+          "Invalid preprocessing directive #"
+            + this.directiveText(d.name_start, d.limit));
+      }
+      return;
+    }
+
+    if (d.is("define")) {
+      try {
+        this.macros.define(this.definitions.parse(b, d.name_end, d.limit));
+      } catch (final SoShaderGLSLSyntaxException e) {
+        this.error(d.line, d.column, e.getMessage());
+      }
+    } else if (d.is("undef")) {
+      this.directiveUndef(d);
+    } else if (d.is("include")) {
+      this.directiveInclude(d);
+    } else if (d.is("error")) {
+      this.error(
+        d.line, d.column, "#error " + this.directiveText(d.name_end, d.limit));
+    } else if (d.is("warning")) {
+      this.warning(
+        d.line,
+        d.column,
+        "#warning " + this.directiveText(d.name_end, d.limit));
+    } else if (d.is("pragma")) {
+      this.directivePragma(d);
+    } else if (d.is("line")) {
+      this.directiveLine(d);
+    } else if (d.is("version") || d.is("extension")) {
+      this.passThrough(d);
+    } else {
+      this.error(
+        d.line,
+        d.column,
+        "Invalid preprocessing directive #"
+          + new String(
+          b, d.name_start, d.name_end - d.name_start, StandardCharsets.UTF_8));
+    }
+  }
+
+  private String directiveText(
+    final int start,
+    final int limit)
+  {
+    final int count = this.directiveBytes(start, limit);
+    return new String(this.scratch, 0, count, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Copy a range of the current directive into the scratch buffer with
+   * comments replaced by spaces and trailing whitespace removed.
+   *
+   * @return The number of bytes copied
+   */
+
+  private int directiveBytes(
+    final int start,
+    final int limit)
+  {
+    final byte[] b = this.source.data();
+    this.scratch_size = 0;
+
+    int p = SoShaderGLSLText.skipBlank(b, start, limit);
+    while (p < limit) {
+      if (SoShaderGLSLText.isCommentStart(b, p, limit)) {
+        this.scratchAppend((byte) ' ');
+        p = SoShaderGLSLText.skipBlank(b, p, limit);
+      } else {
+        this.scratchAppend(b[p]);
+        ++p;
+      }
+    }
+
+    int count = this.scratch_size;
+    while (count > 0
+      && SoShaderGLSLText.isHorizontalSpace(this.scratch[count - 1])) {
+      --count;
+    }
+    return count;
+  }
+
+  private void scratchAppend(
+    final byte value)
+  {
+    if (this.scratch_size == this.scratch.length) {
+      this.scratch = Arrays.copyOf(this.scratch, this.scratch.length * 2);
+    }
+    this.scratch[this.scratch_size] = value;
+    ++this.scratch_size;
+  }
+
+  private void passThrough(
+    final Directive d)
+    throws SoShaderException
+  {
+    final int count = this.directiveBytes(d.hash_position, d.limit);
+    this.output.write(this.scratch, 0, count);
+    this.output.newline();
+  }
+
+  private void directivePragma(
+    final Directive d)
+    throws SoShaderException
+  {
+    final byte[] b = this.source.data();
+    final int p = SoShaderGLSLText.skipBlank(b, d.name_end, d.limit);
+    final int q = SoShaderGLSLText.identifierEnd(b, p, d.limit);
+    if (SoShaderGLSLText.equalsASCII(b, p, q, "once")
+      && SoShaderGLSLText.skipBlank(b, q, d.limit) == d.limit) {
+      this.once.add(this.source.path());
+      return;
+    }
+    this.passThrough(d);
+  }
+
+  /**
+   * Process a {@code #line} directive. The directive is passed through to
+   * the output, and the line number it specifies is applied to the line
+   * that follows it so that {@code __LINE__} and diagnostics agree with the
+   * compiler. The optional source string number is not interpreted.
+   */
+
+  private void directiveLine(
+    final Directive d)
+    throws SoShaderException
+  {
+    final SoShaderGLSLExpander e = this.expander;
+    final int count = this.directiveBytes(d.name_end, d.limit);
+
+    e.clear();
+    try {
+      e.arenaAppend(this.scratch, 0, count);
+      e.expandToSink(0, e.arenaSize());
+
+      final byte[] b = e.sink();
+      final int q = e.sinkSize();
+      int p = SoShaderGLSLText.skipBlank(b, 0, q);
+      final int number_start = p;
+      long number = 0L;
+      while (p < q
+        && SoShaderGLSLText.isDigit(b[p])
+        && number <= (long) Integer.MAX_VALUE) {
+        number = number * 10L + (long) (b[p] - '0');
+        ++p;
+      }
+
+      final int number_end = p;
+      p = SoShaderGLSLText.skipBlank(b, p, q);
+      while (p < q && SoShaderGLSLText.isDigit(b[p])) {
+        ++p;
+      }
+      p = SoShaderGLSLText.skipBlank(b, p, q);
+
+      if (number_start == number_end
+        || number > (long) Integer.MAX_VALUE
+        || p != q) {
+        this.error(d.line, d.column, "Invalid #line directive");
+        return;
+      }
+
+      this.passThrough(d);
+      this.source.setLine((int) number);
+    } finally {
+      e.clear();
+    }
+  }
+
+  private void directiveIf(
+    final Directive d)
+    throws SoShaderException
+  {
+    if (this.conditionals.isActive()) {
+      this.conditionals.push(this.evaluate(d));
+    } else {
+      this.conditionals.push(false);
+    }
+  }
+
+  private void directiveIfdef(
+    final Directive d,
+    final boolean expect)
+    throws SoShaderException
+  {
+    if (!this.conditionals.isActive()) {
+      this.conditionals.push(false);
+      return;
+    }
+
+    final byte[] b = this.source.data();
+    final int p = SoShaderGLSLText.skipBlank(b, d.name_end, d.limit);
+    final int q = SoShaderGLSLText.identifier(b, p, d.limit);
+    if (q < 0) {
+      this.error(d.line, d.column, "Macro name missing in conditional");
+      this.conditionals.push(false);
+      return;
+    }
+
+    this.conditionals.push(this.isDefined(b, p, q) == expect);
+  }
+
+  private boolean isDefined(
+    final byte[] b,
+    final int start,
+    final int end)
+  {
+    final int hash = SoShaderGLSLMacroTable.hash(b, start, end);
+    return this.macros.find(b, start, end, hash) != null;
+  }
+
+  private boolean checkConditional(
+    final String name,
+    final Directive d)
+    throws SoShaderException
+  {
+    if (this.conditionals.depth() == 0) {
+      this.error(d.line, d.column, name + " without #if");
+      return false;
+    }
+    if (this.conditionals.hasElse() && !"#endif".equals(name)) {
+      this.error(d.line, d.column, name + " after #else");
+      return false;
+    }
+    return true;
+  }
+
+  private void directiveElif(
+    final Directive d)
+    throws SoShaderException
+  {
+    if (this.checkConditional("#elif", d)) {
+      if (this.conditionals.isElifPending()) {
+        this.conditionals.elif(this.evaluate(d));
+      } else {
+        this.conditionals.elif(false);
+      }
+    }
+  }
+
+  /**
+   * Evaluate a conditional expression: replace {@code defined} operators,
+   * expand macros, and then evaluate the result.
+   */
+
+  private boolean evaluate(
+    final Directive d)
+    throws SoShaderException
+  {
+    final SoShaderGLSLExpander e = this.expander;
+    final byte[] b = this.source.data();
+    final int limit = d.limit;
+
+    e.clear();
+    try {
+      int p = SoShaderGLSLText.skipBlank(b, d.name_end, limit);
+      while (p < limit) {
+        if (SoShaderGLSLText.isCommentStart(b, p, limit)) {
+          e.arenaAppend((byte) ' ');
+          p = SoShaderGLSLText.skipBlank(b, p, limit);
+        } else if (SoShaderGLSLText.isIdentifierPart(b[p])) {
+          final int q = SoShaderGLSLText.identifierEnd(b, p, limit);
+          if (SoShaderGLSLText.equalsASCII(b, p, q, "defined")) {
+            p = this.defined(q, limit);
+          } else {
+            e.arenaAppend(b, p, q);
+            p = q;
+          }
+        } else {
+          e.arenaAppend(b[p]);
+          ++p;
+        }
+      }
+
+      e.expandToSink(0, e.arenaSize());
+      return this.expressions.evaluate(e.sink(), 0, e.sinkSize()) != 0L;
+    } catch (final SoShaderGLSLSyntaxException x) {
+      this.error(d.line, d.column, "Invalid #if expression: " + x.getMessage());
+      return false;
+    } finally {
+      e.clear();
+    }
+  }
+
+  /**
+   * Evaluate a {@code defined} operator whose operand begins at
+   * {@code start}, appending {@code 1} or {@code 0} to the arena.
+   *
+   * @return The position after the operator
+   */
+
+  private int defined(
+    final int start,
+    final int limit)
+    throws SoShaderGLSLSyntaxException
+  {
+    final byte[] b = this.source.data();
+    int p = SoShaderGLSLText.skipBlank(b, start, limit);
+    final boolean parenthesized = p < limit && b[p] == '(';
+    if (parenthesized) {
+      p = SoShaderGLSLText.skipBlank(b, p + 1, limit);
+    }
+
+    final int q = SoShaderGLSLText.identifier(b, p, limit);
+    if (q < 0) {
+      throw new SoShaderGLSLSyntaxException(
+        "Macro name missing after 'defined'");
+    }
+
+    int r = q;
+    if (parenthesized) {
+      r = SoShaderGLSLText.skipBlank(b, q, limit);
+      if (r >= limit || b[r] != ')') {
+        throw new SoShaderGLSLSyntaxException("Missing ')' after 'defined'");
+      }
+      ++r;
+    }
+
+    this.expander.arenaAppend((byte) ' ');
+    if (this.isDefined(b, p, q)) {
+      this.expander.arenaAppend((byte) '1');
+    } else {
+      this.expander.arenaAppend((byte) '0');
+    }
+    this.expander.arenaAppend((byte) ' ');
+    return r;
+  }
+
+  private void directiveUndef(
+    final Directive d)
+    throws SoShaderException
+  {
+    final byte[] b = this.source.data();
+    final int p = SoShaderGLSLText.skipBlank(b, d.name_end, d.limit);
+    final int q = SoShaderGLSLText.identifier(b, p, d.limit);
+    if (q < 0) {
+      this.error(d.line, d.column, "Macro name missing in #undef");
+      return;
+    }
+    this.macros.undefine(b, p, q, SoShaderGLSLMacroTable.hash(b, p, q));
+  }
+
+  private void directiveInclude(
+    final Directive d)
+    throws SoShaderException
+  {
+    final String name = this.includeName(d);
+    if (name == null) {
+      this.error(d.line, d.column, "Malformed #include directive");
+      return;
+    }
+
+    final boolean quoted = name.charAt(0) == '"';
+    final String target =
+      this.includeTarget(name.substring(1, name.length() - 1), quoted);
+    if (target == null) {
+      this.error(d.line, d.column, "File not found: " + name);
+      return;
+    }
+
+    if (this.once.contains(target)) {
+      return;
+    }
+
+    if (this.include_depth >= INCLUDE_DEPTH_MAXIMUM) {
+      this.error(d.line, d.column, "#include nested too deeply");
+      return;
+    }
+
+    final byte[] content = this.load(target);
+    ++this.include_depth;
+    try {
+      this.processFile(target, content);
+    } finally {
+      --this.include_depth;
+    }
+  }
+
+  /**
+   * Determine the name given to an include directive, expanding macros if
+   * the name is not given literally.
+   *
+   * @return The name including its delimiters, or {@code null} if the
+   * directive is malformed
+   */
+
+  private String includeName(
+    final Directive d)
+    throws SoShaderException
+  {
+    final SoShaderGLSLExpander e = this.expander;
+    byte[] b = this.source.data();
+    int p = SoShaderGLSLText.skipBlank(b, d.name_end, d.limit);
+    int q = d.limit;
+
+    e.clear();
+    try {
+      if (p >= q || (b[p] != '"' && b[p] != '<')) {
+        e.arenaAppend(b, p, q);
+        e.expandToSink(0, e.arenaSize());
+        b = e.sink();
+        p = 0;
+        q = e.sinkSize();
+        while (p < q && SoShaderGLSLText.isHorizontalSpace(b[p])) {
+          ++p;
+        }
+      }
+
+      if (p >= q || (b[p] != '"' && b[p] != '<')) {
+        return null;
+      }
+
+      byte close = '>';
+      if (b[p] == '"') {
+        close = '"';
+      }
+
+      int r = p + 1;
+      while (r < q && b[r] != close) {
+        ++r;
+      }
+      if (r >= q) {
+        return null;
+      }
+      return new String(b, p, r + 1 - p, StandardCharsets.UTF_8);
+    } finally {
+      e.clear();
+    }
+  }
+
+  /**
+   * Determine the file named by an include directive. Names that begin with
+   * {@code /} are used as-is. Quoted names are resolved against the
+   * directory of the including file. Other names that contain a {@code /}
+   * already name a module and are used as-is, and the remainder are
+   * resolved against the first available module.
+   *
+   * @return The target, or {@code null} if there is nowhere to look
+   */
+
+  private String includeTarget(
+    final String name,
+    final boolean quoted)
+    throws SoShaderException
+  {
+    if (name.startsWith("/")) {
+      return name;
+    }
+
+    if (quoted) {
+      final String path = this.source.path();
+      if (path.lastIndexOf('/') >= 1) {
+        final SoShaderPath current = this.paths.intern(path);
+        return this.paths.intern(current.directory(), name).text();
+      }
+    }
+
+    if (name.indexOf('/') != -1) {
+      return name;
+    }
+
+    if (this.modules.isEmpty()) {
+      return null;
+    }
+    return this.paths.intern(this.modules.get(0), name).text();
+  }
+
+  /**
+   * The location of a directive within the current file.
+   */
+
+  private final class Directive
+  {
+    private final int hash_position;
+    private final int name_start;
+    private final int name_end;
+    private final int limit;
+    private final int line;
+    private final int column;
+
+    Directive(
+      final int in_hash_position,
+      final int in_name_start,
+      final int in_name_end,
+      final int in_limit,
+      final int in_line,
+      final int in_column)
+    {
+      this.hash_position = in_hash_position;
+      this.name_start = in_name_start;
+      this.name_end = in_name_end;
+      this.limit = in_limit;
+      this.line = in_line;
+      this.column = in_column;
+    }
+
+    boolean is(
+      final String name)
+    {
+      return SoShaderGLSLText.equalsASCII(
+        SoShaderGLSLProcessor.this.source.data(),
+        this.name_start,
+        this.name_end,
+        name);
+    }
+  }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.glsl;
+
+import com.io7m.jnull.NullCheck;
+
+/**
+ * A cursor over the prepared content of a single source file. The cursor
+ * tracks the current line so that diagnostics can be attributed to it.
+ */
+
+final class SoShaderGLSLSource
+{
+  private final String path;
+  private final byte[] data;
+  private final int end;
+  private int position;
+  private int line;
+  private int line_start;
+
+  SoShaderGLSLSource(
+    final String in_path,
+    final byte[] in_data)
+  {
+    this.path = NullCheck.notNull(in_path, "Path");
+    this.data = NullCheck.notNull(in_data, "Data");
+    this.end = in_data.length;
+    this.position = 0;
+    this.line = 1;
+    this.line_start = 0;
+  }
+
+  String path()
+  {
+    return this.path;
+  }
+
+  byte[] data()
+  {
+    return this.data;
+  }
+
+  int end()
+  {
+    return this.end;
+  }
+
+  int position()
+  {
+    return this.position;
+  }
+
+  int line()
+  {
+    return this.line;
+  }
+
+  /**
+   * Set the number of the current line, as specified by a {@code #line}
+   * directive.
+   *
+   * @param number The line number
+   */
+
+  void setLine(
+    final int number)
+  {
+    this.line = number;
+  }
+
+  int column(
+    final int at)
+  {
+    return at - this.line_start;
+  }
+
+  boolean isFinished()
+  {
+    return this.position >= this.end;
+  }
+
+  /**
+   * Move to {@code target}, which must be on the current line.
+   *
+   * @param target The new position
+   */
+
+  void moveTo(
+    final int target)
+  {
+    this.position = target;
+  }
+
+  /**
+   * Move to {@code target}, counting any newlines that are passed over.
+   *
+   * @param target The new position
+   */
+
+  void advance(
+    final int target)
+  {
+    final byte[] b = this.data;
+    for (int index = this.position; index < target; ++index) {
+      final byte c = b[index];
+      if (c == '\r') {
+        ++this.line;
+        this.line_start = index + 1;
+      } else if (c == '\n') {
+        if (index == 0 || b[index - 1] != '\r') {
+          ++this.line;
+        }
+        this.line_start = index + 1;
+      }
+    }
+    this.position = target;
+  }
+
+  /**
+   * Consume the newline at the current position, if there is one.
+   */
+
+  void consumeNewline()
+  {
+    if (this.position < this.end) {
+      final byte c = this.data[this.position];
+      if (c == '\r') {
+        ++this.position;
+        if (this.position < this.end && this.data[this.position] == '\n') {
+          ++this.position;
+        }
+      } else if (c == '\n') {
+        ++this.position;
+      } else {
+        return;
+      }
+      ++this.line;
+      this.line_start = this.position;
+    }
+  }
+
+  /**
+   * Determine if the current line is a directive. If it is, the position is
+   * advanced past the {@code #}.
+   *
+   * @return {@code true} if the current line is a directive
+   */
+
+  boolean atDirective()
+  {
+    final byte[] b = this.data;
+    int p = this.position;
+    while (p < this.end) {
+      final byte c = b[p];
+      if (SoShaderGLSLText.isHorizontalSpace(c)) {
+        ++p;
+      } else if (c == '/' && p + 1 < this.end && b[p + 1] == '*') {
+        p = SoShaderGLSLText.commentEnd(b, p + 2, this.end, false);
+        if (p < 0) {
+          return false;
+        }
+      } else if (c == '#') {
+        this.position = p + 1;
+        return true;
+      } else {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Skip the current line without tokenizing it. Block comments are still
+   * recognized so that a {@code #} inside a comment is not mistaken for a
+   * directive.
+   *
+   * @return {@code false} if the line began an unterminated comment
+   */
+
+  boolean skipLine()
+  {
+    final byte[] b = this.data;
+    int p = this.position;
+    while (p < this.end) {
+      final byte c = b[p];
+      if (SoShaderGLSLText.isNewline(c)) {
+        this.position = p;
+        this.consumeNewline();
+        return true;
+      }
+      if (c == '/' && p + 1 < this.end && b[p + 1] == '*') {
+        final int close = SoShaderGLSLText.commentEnd(b, p + 2, this.end, true);
+        if (close < 0) {
+          this.advance(this.end);
+          return false;
+        }
+        this.advance(close);
+        p = close;
+      } else {
+        ++p;
+      }
+    }
+    this.position = this.end;
+    return true;
+  }
+
+  /**
+   * Find the end of the directive whose name begins at {@code start}. Block
+   * comments may continue a directive onto following lines.
+   *
+   * @param start The starting position
+   *
+   * @return The position of the newline that ends the directive
+   */
+
+  int directiveEnd(
+    final int start)
+  {
+    final byte[] b = this.data;
+    int p = start;
+    while (p < this.end) {
+      final byte c = b[p];
+      if (SoShaderGLSLText.isNewline(c)) {
+        return p;
+      }
+      if (c == '/' && p + 1 < this.end && b[p + 1] == '*') {
+        p = SoShaderGLSLText.commentEnd(b, p + 2, this.end, true);
+        if (p < 0) {
+          return this.end;
+        }
+      } else if (c == '/' && p + 1 < this.end && b[p + 1] == '/') {
+        while (p < this.end && !SoShaderGLSLText.isNewline(b[p])) {
+          ++p;
+        }
+        return p;
+      } else {
+        ++p;
+      }
+    }
+    return p;
+  }
+
+  /**
+   * Look ahead for the opening parenthesis of a function-like macro
+   * invocation, passing over whitespace, comments and newlines, and consume
+   * it if it is present. A following directive line begins with {@code #},
+   * and so always ends the search.
+   *
+   * @return {@code true} if a parenthesis was consumed
+   */
+
+  boolean consumeOpenParenthesis()
+  {
+    final byte[] b = this.data;
+    int p = this.position;
+    while (p < this.end) {
+      final byte c = b[p];
+      if (SoShaderGLSLText.isHorizontalSpace(c)) {
+        ++p;
+      } else if (SoShaderGLSLText.isNewline(c)) {
+        ++p;
+      } else if (c == '/' && p + 1 < this.end && b[p + 1] == '*') {
+        p = SoShaderGLSLText.commentEnd(b, p + 2, this.end, true);
+        if (p < 0) {
+          return false;
+        }
+      } else if (c == '/' && p + 1 < this.end && b[p + 1] == '/') {
+        while (p < this.end && !SoShaderGLSLText.isNewline(b[p])) {
+          ++p;
+        }
+      } else if (c == '(') {
+        this.advance(p + 1);
+        return true;
+      } else {
+        return false;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.glsl;
+
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Functions for scanning UTF-8 encoded source text.
+ */
+
+final class SoShaderGLSLText
+{
+  private SoShaderGLSLText()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  static byte[] ascii(
+    final String text)
+  {
+    return text.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  static boolean isIdentifierStart(
+    final byte c)
+  {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+  }
+
+  static boolean isIdentifierPart(
+    final byte c)
+  {
+    return isIdentifierStart(c) || isDigit(c);
+  }
+
+  static boolean isDigit(
+    final byte c)
+  {
+    return c >= '0' && c <= '9';
+  }
+
+  static boolean isHorizontalSpace(
+    final byte c)
+  {
+    return c == ' ' || c == '\t' || c == '\f' || c == 0x0b;
+  }
+
+  static boolean isNewline(
+    final byte c)
+  {
+    return c == '\n' || c == '\r';
+  }
+
+  static boolean isCommentStart(
+    final byte[] data,
+    final int position,
+    final int limit)
+  {
+    if (position + 1 < limit && data[position] == '/') {
+      final byte next = data[position + 1];
+      return next == '*' || next == '/';
+    }
+    return false;
+  }
+
+  static boolean equalsASCII(
+    final byte[] data,
+    final int start,
+    final int limit,
+    final String text)
+  {
+    if (limit - start != text.length()) {
+      return false;
+    }
+    for (int index = 0; index < text.length(); ++index) {
+      if (data[start + index] != text.charAt(index)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Find the end of the block comment whose content begins at
+   * {@code position}.
+   *
+   * @param data           The data
+   * @param position       The start of the comment content
+   * @param limit          The end of the searchable range
+   * @param allow_newlines {@code true} if the comment may span lines
+   *
+   * @return The position after the comment, or {@code -1} if the comment is
+   * unterminated or spans lines when {@code allow_newlines} is false
+   */
+
+  static int commentEnd(
+    final byte[] data,
+    final int position,
+    final int limit,
+    final boolean allow_newlines)
+  {
+    for (int index = position; index + 1 < limit; ++index) {
+      final byte c = data[index];
+      if (c == '*' && data[index + 1] == '/') {
+        return index + 2;
+      }
+      if (!allow_newlines && isNewline(c)) {
+        return -1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Skip horizontal whitespace and comments within a single logical line.
+   * A line comment extends to {@code limit}.
+   *
+   * @param data  The data
+   * @param start The starting position
+   * @param limit The end of the line
+   *
+   * @return The position of the next significant byte, or {@code limit}
+   */
+
+  static int skipBlank(
+    final byte[] data,
+    final int start,
+    final int limit)
+  {
+    int p = start;
+    while (p < limit) {
+      final byte c = data[p];
+      if (isHorizontalSpace(c)) {
+        ++p;
+      } else if (c == '/' && p + 1 < limit && data[p + 1] == '*') {
+        p = commentEnd(data, p + 2, limit, true);
+        if (p < 0) {
+          return limit;
+        }
+      } else if (c == '/' && p + 1 < limit && data[p + 1] == '/') {
+        return limit;
+      } else {
+        return p;
+      }
+    }
+    return p;
+  }
+
+  static int identifierEnd(
+    final byte[] data,
+    final int start,
+    final int limit)
+  {
+    int p = start;
+    while (p < limit && isIdentifierPart(data[p])) {
+      ++p;
+    }
+    return p;
+  }
+
+  /**
+   * Determine if an identifier starts at {@code start}.
+   *
+   * @param data  The data
+   * @param start The starting position
+   * @param limit The end of the line
+   *
+   * @return The end of the identifier, or {@code -1} if there is none
+   */
+
+  static int identifier(
+    final byte[] data,
+    final int start,
+    final int limit)
+  {
+    if (start < limit && isIdentifierStart(data[start])) {
+      return identifierEnd(data, start, limit);
+    }
+    return -1;
+  }
+
+  /**
+   * Obtain the remaining bytes of {@code buffer} as an array. The buffer's
+   * backing array is used directly if it holds exactly those bytes, and
+   * otherwise the bytes are copied with a single bulk transfer.
+   *
+   * @param buffer The buffer
+   *
+   * @return The bytes
+   */
+
+  static byte[] array(
+    final ByteBuffer buffer)
+  {
+    final int size = buffer.remaining();
+    if (buffer.hasArray()
+      && buffer.arrayOffset() == 0
+      && buffer.position() == 0
+      && buffer.array().length == size) {
+      return buffer.array();
+    }
+
+    final byte[] data = new byte[size];
+    buffer.duplicate().get(data);
+    return data;
+  }
+
+  /**
+   * Strip any byte order mark, and remove backslash-newline sequences. The
+   * newlines removed by splicing are reinserted after the end of the logical
+   * line so that line numbers are preserved.
+   *
+   * @param raw The raw file content
+   *
+   * @return The prepared content, which may be {@code raw} itself
+   */
+
+  static byte[] prepare(
+    final byte[] raw)
+  {
+    int start = 0;
+    if (raw.length >= 3
+      && raw[0] == (byte) 0xef
+      && raw[1] == (byte) 0xbb
+      && raw[2] == (byte) 0xbf) {
+      start = 3;
+    }
+
+    if (!hasSplices(raw, start)) {
+      if (start == 0) {
+        return raw;
+      }
+      return Arrays.copyOfRange(raw, start, raw.length);
+    }
+
+    final byte[] result = new byte[raw.length - start];
+    int count = 0;
+    int pending = 0;
+    int index = start;
+    while (index < raw.length) {
+      final byte c = raw[index];
+      if (c == '\\' && index + 1 < raw.length && isNewline(raw[index + 1])) {
+        ++pending;
+        index = newlineEnd(raw, index + 1);
+        continue;
+      }
+
+      if (isNewline(c)) {
+        final int next = newlineEnd(raw, index);
+        while (index < next) {
+          result[count] = raw[index];
+          ++count;
+          ++index;
+        }
+        while (pending > 0) {
+          result[count] = '\n';
+          ++count;
+          --pending;
+        }
+        continue;
+      }
+
+      result[count] = c;
+      ++count;
+      ++index;
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  private static boolean hasSplices(
+    final byte[] raw,
+    final int start)
+  {
+    for (int index = start; index + 1 < raw.length; ++index) {
+      if (raw[index] == '\\' && isNewline(raw[index + 1])) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return The position after the newline sequence at {@code position}
+   */
+
+  private static int newlineEnd(
+    final byte[] data,
+    final int position)
+  {
+    if (data[position] == '\r'
+      && position + 1 < data.length
+      && data[position + 1] == '\n') {
+      return position + 2;
+    }
+    return position + 1;
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.glsl;
+
+import com.io7m.sombrero.core.SoShaderException;
+import com.io7m.sombrero.core.SoShaderPreprocessorAbstract;
+import com.io7m.sombrero.core.SoShaderPreprocessorCallbackErrorType;
+import com.io7m.sombrero.core.SoShaderPreprocessorCallbackWarningType;
+import com.io7m.sombrero.core.SoShaderPreprocessorConfig;
+import com.io7m.sombrero.core.SoShaderPreprocessorLineConsumerType;
+import com.io7m.sombrero.core.SoShaderPreprocessorType;
+import com.io7m.sombrero.core.SoShaderSourceCache;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * <p>A native preprocessor implementation for GLSL.</p>
+ *
+ * <p>The preprocessor implements the subset of the C preprocessor that GLSL
+ * defines: object-like and function-like macros (including the {@code #} and
+ * {@code ##} operators), conditional groups, {@code #include}, {@code #error},
+ * {@code #warning}, and {@code #pragma once}. The {@code #version},
+ * {@code #extension}, {@code #line} and remaining {@code #pragma} directives
+ * are passed through to the output unchanged. Variadic macros are not
+ * supported.</p>
+ *
+ * <p>The line number given by a {@code #line} directive is also applied to
+ * the following lines of the same file, so that {@code __LINE__} and the
+ * line numbers reported in diagnostics agree with the compiler. The source
+ * string number that may follow it is not interpreted, and does not change
+ * {@code __FILE__}.</p>
+ *
+ * <p>The predefined macros are {@code __LINE__}, {@code __VERSION__} (when a
+ * version is configured), and {@code __FILE__}. As in GLSL, {@code __FILE__}
+ * expands to a source string number rather than a file name; the output is
+ * always a single source string, so the number is always {@code 0}.</p>
+ *
+ * <p>Instances are safe for concurrent use by multiple threads. Each call
+ * runs on its own processor, taken from a bounded pool of processors that are
+ * reset and reused between calls. The decoded source cache holds files as
+ * prepared UTF-8 bytes, with line continuations already spliced; they are
+ * tokenized again on each run.</p>
+ *
+ * <p>The set of modules is tracked live: modules registered with or removed
+ * from the resolver after the preprocessor is created are visible to the
+ * next call, and cached output that depended on a removed module is
+ * discarded.</p>
+ */
+
+public final class SoShaderPreprocessorGLSL
+  extends SoShaderPreprocessorAbstract<SoShaderGLSLProcessor, byte[]>
+{
+  private SoShaderPreprocessorGLSL(
+    final SoShaderPreprocessorConfig in_config)
+  {
+    super(in_config);
+  }
+
+  /**
+   * Create a new preprocessor.
+   *
+   * @param config The preprocessor configuration
+   *
+   * @return A new preprocessor
+   */
+
+  public static SoShaderPreprocessorType create(
+    final SoShaderPreprocessorConfig config)
+  {
+    return new SoShaderPreprocessorGLSL(config);
+  }
+
+  @Override
+  protected SoShaderGLSLProcessor createSession()
+  {
+    return new SoShaderGLSLProcessor();
+  }
+
+  @Override
+  protected void run(
+    final SoShaderGLSLProcessor processor,
+    final List<String> names,
+    final Map<String, String> defines,
+    final String file,
+    final Optional<SoShaderSourceCache<byte[]>> in_sources,
+    final SoShaderPreprocessorLineConsumerType lines,
+    final SoShaderPreprocessorCallbackWarningType on_warning,
+    final SoShaderPreprocessorCallbackErrorType on_error)
+    throws SoShaderException
+  {
+    processor.run(
+      this.config().resolver(),
+      this.paths(),
+      names,
+      in_sources,
+      this.config().version(),
+      defines,
+      file,
+      lines,
+      on_warning,
+      on_error);
+  }
+}
@@ -20,60 +20,76 @@ import com.io7m.jnull.NullCheck;
 import com.io7m.sombrero.core.SoShaderException;
 import com.io7m.sombrero.core.SoShaderExceptionIO;
 import com.io7m.sombrero.core.SoShaderFileReferenceType;
+import com.io7m.sombrero.core.SoShaderLineWriter;
+import com.io7m.sombrero.core.SoShaderPreprocessorAbstract;
 import com.io7m.sombrero.core.SoShaderPreprocessorCallbackErrorType;
 import com.io7m.sombrero.core.SoShaderPreprocessorCallbackWarningType;
 import com.io7m.sombrero.core.SoShaderPreprocessorConfig;
+import com.io7m.sombrero.core.SoShaderPreprocessorLineConsumerType;
+import com.io7m.sombrero.core.SoShaderPreprocessorSessionType;
 import com.io7m.sombrero.core.SoShaderPreprocessorType;
 import com.io7m.sombrero.core.SoShaderResolverType;
-import org.anarres.cpp.InputLexerSource;
+import com.io7m.sombrero.core.SoShaderSourceCache;
 import org.anarres.cpp.LexerException;
+import org.anarres.cpp.LexerSource;
 import org.anarres.cpp.Preprocessor;
 import org.anarres.cpp.PreprocessorListener;
 import org.anarres.cpp.Source;
 import org.anarres.cpp.Token;
 import org.anarres.cpp.VirtualFile;
 import org.anarres.cpp.VirtualFileSystem;
-import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.NoSuchFileException;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.OptionalInt;
-import java.util.stream.Collectors;
+import java.util.Set;
 
 /**
- * A JCPP-based preprocessor implementation.
+ * <p>A JCPP-based preprocessor implementation.</p>
+ *
+ * <p>Instances are safe for concurrent use by multiple threads. Each call
+ * runs in its own session, taken from a bounded pool of sessions that are
+ * reset and reused between calls.</p>
+ *
+ * <p>The decoded source cache holds the decoded text of each file, which is
+ * lexed again by a new {@link LexerSource} on each run. Token sequences are
+ * not cached, because JCPP lexes the header names of {@code #include}
+ * directives by switching the current {@link LexerSource} into a special
+ * mode, which a replayed token sequence cannot support.</p>
+ *
+ * <p>The set of modules is tracked live: modules registered with or removed
+ * from the resolver after the preprocessor is created are visible to the
+ * next call, and cached output that depended on a removed module is
+ * discarded.</p>
  */
 
-public final class SoShaderPreprocessorJCPP implements SoShaderPreprocessorType
+public final class SoShaderPreprocessorJCPP
+  extends SoShaderPreprocessorAbstract<SoShaderPreprocessorJCPP.Session, String>
 {
   private static final Logger LOG;
+  private static final SoShaderPreprocessorLineConsumerType IDLE;
 
   static {
     LOG = LoggerFactory.getLogger(SoShaderPreprocessorJCPP.class);
+    IDLE = line -> {
+      throw new IllegalStateException("Session is not running");
+    };
   }
 
-  private final SoShaderPreprocessorConfig config;
-  private final List<String> modules;
-  private final ProcessorFilesystem filesystem;
-
   private SoShaderPreprocessorJCPP(
     final SoShaderPreprocessorConfig in_config)
   {
-    this.config = NullCheck.notNull(in_config, "Config");
-    this.modules = this.config.resolver().available().keySet()
-      .stream().collect(Collectors.toList());
-    this.filesystem = new ProcessorFilesystem();
+    super(in_config);
   }
 
   /**
@@ -91,26 +107,85 @@ public final class SoShaderPreprocessorJCPP implements SoShaderPreprocessorType
   }
 
   @Override
-  public List<String> preprocessFileWithCallbacks(
+  protected Session createSession()
+  {
+    return new Session();
+  }
+
+  @Override
+  protected void run(
+    final Session session,
+    final List<String> names,
     final Map<String, String> defines,
     final String file,
+    final Optional<SoShaderSourceCache<String>> in_sources,
+    final SoShaderPreprocessorLineConsumerType lines,
     final SoShaderPreprocessorCallbackWarningType on_warning,
     final SoShaderPreprocessorCallbackErrorType on_error)
     throws SoShaderException
   {
+    session.filesystem.sources = in_sources;
+    session.writer.reset(lines);
+
     try (final Processor proc =
-           new Processor(defines, file, on_warning, on_error)) {
-      return proc.run();
+           new Processor(
+             session, names, defines, file, on_warning, on_error)) {
+      proc.run();
     } catch (final IOException e) {
       throw new SoShaderExceptionIO(e);
     }
   }
 
+  /**
+   * The per-call state that can be reused across calls. A new JCPP
+   * {@link Preprocessor} is still required for each call, as it cannot be
+   * reset once it has consumed its input.
+   */
+
+  final class Session implements SoShaderPreprocessorSessionType
+  {
+    private final ProcessorFilesystem filesystem;
+    private final SoShaderLineWriter writer;
+    private int diagnostics;
+
+    Session()
+    {
+      this.filesystem = new ProcessorFilesystem();
+      this.writer = SoShaderLineWriter.create(IDLE);
+      this.diagnostics = 0;
+    }
+
+    @Override
+    public int diagnostics()
+    {
+      return this.diagnostics;
+    }
+
+    @Override
+    public Set<String> files()
+    {
+      return this.filesystem.files;
+    }
+
+    @Override
+    public void reset()
+    {
+      this.filesystem.files.clear();
+      this.filesystem.sources = Optional.empty();
+      this.writer.reset(IDLE);
+      this.diagnostics = 0;
+    }
+  }
+
   private final class ProcessorFilesystem implements VirtualFileSystem
   {
+    private final Set<String> files;
+    private Optional<SoShaderSourceCache<String>> sources;
+
     ProcessorFilesystem()
     {
-
+      this.sources = Optional.empty();
+      this.files = new HashSet<>(8);
     }
 
     @Override
@@ -131,18 +206,18 @@ public final class SoShaderPreprocessorJCPP implements SoShaderPreprocessorType
         LOG.trace("getFile: {} {}", dir, name);
       }
 
-      final StringBuilder sb =
-        new StringBuilder(dir.length() + name.length() + 1);
+      /*
+       * The include path is searched for every system include, and so the
+       * joined paths are interned rather than built each time.
+       */
 
+      final String target;
       final int ind = name.indexOf("/");
       if (ind != -1) {
-        sb.append(name);
+        target = name;
       } else {
-        sb.append(dir);
-        sb.append("/");
-        sb.append(name);
+        target = SoShaderPreprocessorJCPP.this.paths().intern(dir, name).text();
       }
-      final String target = sb.toString();
 
       if (LOG.isTraceEnabled()) {
         LOG.trace("transformed {} + {} -> {}", dir, name, target);
@@ -199,16 +274,49 @@ public final class SoShaderPreprocessorJCPP implements SoShaderPreprocessorType
       @Override
       public Source getSource()
         throws IOException
+      {
+        ProcessorFilesystem.this.files.add(this.file_name);
+
+        final Optional<SoShaderSourceCache<String>> sources =
+          ProcessorFilesystem.this.sources;
+        final long generation;
+        if (sources.isPresent()) {
+          final SoShaderSourceCache<String> cache = sources.get();
+          final Optional<String> cached = cache.find(this.file_name);
+          if (cached.isPresent()) {
+            return new ProcessorSource(new StringReader(cached.get()));
+          }
+          generation = cache.generation();
+        } else {
+          generation = 0L;
+        }
+
+        /*
+         * Decode the whole file at once from its buffer, rather than
+         * through a stream opened for each include.
+         */
+
+        final SoShaderFileReferenceType ref = this.resolve();
+        final String text =
+          StandardCharsets.UTF_8.decode(ref.bytes()).toString();
+        if (sources.isPresent()) {
+          sources.get().put(this.file_name, text, generation);
+        }
+        return new ProcessorSource(new StringReader(text));
+      }
+
+      private SoShaderFileReferenceType resolve()
+        throws IOException
       {
         final SoShaderResolverType res =
-          SoShaderPreprocessorJCPP.this.config.resolver();
+          SoShaderPreprocessorJCPP.this.config().resolver();
 
         try {
           final Optional<SoShaderFileReferenceType> ref_opt =
-            res.resolve(this.file_name);
-
+            res.resolvePath(
+              SoShaderPreprocessorJCPP.this.paths().intern(this.file_name));
           if (ref_opt.isPresent()) {
-            return new ProcessorSource(ref_opt.get().stream());
+            return ref_opt.get();
           }
         } catch (final SoShaderException e) {
           throw new IOException(e);
@@ -216,12 +324,12 @@ public final class SoShaderPreprocessorJCPP implements SoShaderPreprocessorType
         throw new NoSuchFileException(this.file_name);
       }
 
-      private final class ProcessorSource extends InputLexerSource
+      private final class ProcessorSource extends LexerSource
       {
         ProcessorSource(
-          final InputStream in_stream)
+          final Reader in_reader)
         {
-          super(in_stream, StandardCharsets.UTF_8);
+          super(in_reader, true);
         }
 
         @Override
@@ -244,15 +352,21 @@ public final class SoShaderPreprocessorJCPP implements SoShaderPreprocessorType
     private final String file;
     private final Preprocessor pp;
     private final Map<String, String> defines;
+    private final List<String> names;
     private final SoShaderPreprocessorCallbackWarningType on_warning;
     private final SoShaderPreprocessorCallbackErrorType on_error;
+    private final Session session;
 
     Processor(
+      final Session in_session,
+      final List<String> in_names,
       final Map<String, String> in_defines,
       final String in_file,
       final SoShaderPreprocessorCallbackWarningType in_on_warning,
       final SoShaderPreprocessorCallbackErrorType in_on_error)
     {
+      this.session = NullCheck.notNull(in_session, "Session");
+      this.names = NullCheck.notNull(in_names, "Names");
       this.defines = NullCheck.notNull(in_defines, "Defines");
       this.file = NullCheck.notNull(in_file, "file");
       this.on_warning = NullCheck.notNull(in_on_warning, "on_warning");
@@ -267,38 +381,34 @@ public final class SoShaderPreprocessorJCPP implements SoShaderPreprocessorType
       this.pp.close();
     }
 
-    public List<String> run()
+    void run()
       throws SoShaderException
     {
       try {
-        final SoShaderPreprocessorJCPP p = SoShaderPreprocessorJCPP.this;
-        this.pp.setSystemIncludePath(p.modules);
-        this.pp.setFileSystem(p.filesystem);
-        this.pp.addInput(p.filesystem.getFile(this.file).getSource());
+        final ProcessorFilesystem filesystem = this.session.filesystem;
+        this.pp.setSystemIncludePath(this.names);
+        this.pp.setFileSystem(filesystem);
+        this.pp.addInput(filesystem.getFile(this.file).getSource());
         this.pp.setListener(this);
 
         this.setupDefines();
-        final int bsize = 2 << 14;
-        try (final ByteArrayOutputStream bao =
-               new ByteArrayOutputStream(bsize)) {
-          this.processTokens(bao);
-          return this.processLines(bao);
-        }
+        this.processTokens(this.session.writer);
       } catch (final IOException e) {
         throw new SoShaderExceptionIO(e);
       }
     }
 
     private void processTokens(
-      final ByteArrayOutputStream bao)
-      throws IOException
+      final SoShaderLineWriter writer)
+      throws IOException, SoShaderException
     {
-      try (final PrintStream baos = new PrintStream(bao, false, "UTF-8")) {
+      try {
         final OptionalInt version =
-          SoShaderPreprocessorJCPP.this.config.version();
+          SoShaderPreprocessorJCPP.this.config().version();
         if (version.isPresent()) {
-          baos.printf(
-            "#version %d core\n", Integer.valueOf(version.getAsInt()));
+          writer.append("#version ");
+          writer.append(Integer.toString(version.getAsInt()));
+          writer.append(" core\n");
         }
 
         while (true) {
@@ -306,29 +416,14 @@ public final class SoShaderPreprocessorJCPP implements SoShaderPreprocessorType
           if (tok.getType() == Token.EOF) {
             break;
           }
-          baos.print(tok.getText());
+          writer.append(tok.getText());
         }
-        baos.flush();
+        writer.finish();
       } catch (final LexerException e) {
         throw new IOException(e);
       }
     }
 
-    private List<String> processLines(
-      final ByteArrayOutputStream bao)
-      throws IOException
-    {
-      try (final ByteArrayInputStream bai =
-             new ByteArrayInputStream(bao.toByteArray())) {
-        final List<String> lines =
-          IOUtils.readLines(bai, StandardCharsets.UTF_8);
-        return lines.stream()
-          .filter(s -> !s.trim().isEmpty())
-          .map(line -> line + "\n")
-          .collect(Collectors.toList());
-      }
-    }
-
     private void setupDefines()
       throws SoShaderException
     {
@@ -353,6 +448,7 @@ public final class SoShaderPreprocessorJCPP implements SoShaderPreprocessorType
       final String msg)
       throws LexerException
     {
+      ++this.session.diagnostics;
       try {
         this.on_warning.onWarning(source.getPath(), line, column, msg);
       } catch (final SoShaderException e) {
@@ -368,6 +464,7 @@ public final class SoShaderPreprocessorJCPP implements SoShaderPreprocessorType
       final String msg)
       throws LexerException
     {
+      ++this.session.diagnostics;
       try {
         this.on_error.onError(source.getPath(), line, column, msg);
       } catch (final SoShaderException e) {
@@ -17,10 +17,10 @@
 package com.io7m.sombrero.osgi;
 
 import com.io7m.sombrero.core.SoShaderException;
-import com.io7m.sombrero.core.SoShaderExceptionBadPath;
 import com.io7m.sombrero.core.SoShaderFileReferenceType;
 import com.io7m.sombrero.core.SoShaderModuleProviderType;
 import com.io7m.sombrero.core.SoShaderModuleType;
+import com.io7m.sombrero.core.SoShaderPath;
 import com.io7m.sombrero.core.SoShaderResolverType;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
@@ -31,12 +31,22 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.TreeMap;
 
 /**
- * An <tt>OSGI</tt> based implementation of the {@link SoShaderResolverType}.
+ * <p>An <tt>OSGI</tt> based implementation of the {@link
+ * SoShaderResolverType}.</p>
+ *
+ * <p>The set of registered modules is held in an immutable snapshot that is
+ * replaced whenever a module provider is registered or unregistered, and
+ * each replacement increments the {@link #generation()}. Resolving a file
+ * therefore requires no locking. The map returned by {@link #available()}
+ * is ordered by module name, so the order in which modules are searched by
+ * preprocessors does not depend on the order in which they were
+ * registered.</p>
  */
 
 @Component
@@ -48,8 +58,8 @@ public final class SoShaderResolverOSGi implements SoShaderResolverType
     LOG = LoggerFactory.getLogger(SoShaderResolverOSGi.class);
   }
 
-  private final Map<String, SoShaderModuleType> modules;
-  private final Map<String, SoShaderModuleType> modules_view;
+  private final Object lock;
+  private volatile Snapshot snapshot;
 
   /**
    * Construct a new resolver.
@@ -57,8 +67,8 @@ public final class SoShaderResolverOSGi implements SoShaderResolverType
 
   public SoShaderResolverOSGi()
   {
-    this.modules = new ConcurrentSkipListMap<>();
-    this.modules_view = Collections.unmodifiableMap(this.modules);
+    this.lock = new Object();
+    this.snapshot = new Snapshot(Collections.emptyMap(), 0L);
   }
 
   /**
@@ -76,16 +86,25 @@ public final class SoShaderResolverOSGi implements SoShaderResolverType
     final SoShaderModuleProviderType provider)
   {
     final Map<String, SoShaderModuleType> available = provider.available();
-    for (final String name : available.keySet()) {
-      final SoShaderModuleType module = available.get(name);
-      if (this.modules.containsKey(name)) {
-        LOG.warn("multiple modules with the same name: {}", name);
-      }
 
-      if (LOG.isDebugEnabled()) {
-        LOG.debug("registered module {} via provider {}", name, provider);
+    synchronized (this.lock) {
+      final Snapshot current = this.snapshot;
+      final Map<String, SoShaderModuleType> modules =
+        new HashMap<>(current.modules);
+
+      for (final String name : available.keySet()) {
+        final SoShaderModuleType module = available.get(name);
+        if (modules.containsKey(name)) {
+          LOG.warn("multiple modules with the same name: {}", name);
+        }
+
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("registered module {} via provider {}", name, provider);
+        }
+        modules.put(name, module);
       }
-      this.modules.put(name, module);
+
+      this.snapshot = new Snapshot(modules, current.generation + 1L);
     }
   }
 
@@ -99,13 +118,22 @@ public final class SoShaderResolverOSGi implements SoShaderResolverType
     final SoShaderModuleProviderType provider)
   {
     final Map<String, SoShaderModuleType> available = provider.available();
-    for (final String name : available.keySet()) {
-      final SoShaderModuleType module = available.get(name);
 
-      if (LOG.isDebugEnabled()) {
-        LOG.debug("unregistered module {} via provider {}", name, provider);
+    synchronized (this.lock) {
+      final Snapshot current = this.snapshot;
+      final Map<String, SoShaderModuleType> modules =
+        new HashMap<>(current.modules);
+
+      for (final String name : available.keySet()) {
+        final SoShaderModuleType module = available.get(name);
+
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("unregistered module {} via provider {}", name, provider);
+        }
+        modules.remove(name, module);
       }
-      this.modules.remove(name, module);
+
+      this.snapshot = new Snapshot(modules, current.generation + 1L);
     }
   }
 
@@ -114,39 +142,65 @@ public final class SoShaderResolverOSGi implements SoShaderResolverType
     final String file)
     throws SoShaderException
   {
-    LOG.debug("resolve: {}", file);
+    return this.resolvePath(SoShaderPath.parse(file));
+  }
 
-    final int ind = file.indexOf("/");
-    if (ind != -1) {
-      final String modu_name = file.substring(0, ind);
+  @Override
+  public Optional<SoShaderFileReferenceType> resolvePath(
+    final SoShaderPath path)
+    throws SoShaderException
+  {
+    LOG.debug("resolve: {}", path);
 
-      final SoShaderModuleType m = this.modules.get(modu_name);
-      if (m != null) {
-        final String file_name = file.substring(ind);
-        if (LOG.isDebugEnabled()) {
-          LOG.debug("lookup [{}]: {}", modu_name, file_name);
-        }
-        return m.store().lookup(file_name);
+    final SoShaderModuleType m = this.snapshot.modules.get(path.module());
+    if (m != null) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("lookup [{}]: {}", path.module(), path.file());
       }
-
-      LOG.debug("nonexistent module: {}", modu_name);
-      return Optional.empty();
+      return m.store().lookup(path.file());
     }
 
-    final StringBuilder sb = new StringBuilder(128);
-    sb.append("Invalid path.");
-    sb.append(System.lineSeparator());
-    sb.append("  Expected: A path of the form module/file");
-    sb.append(System.lineSeparator());
-    sb.append("  Recevied: ");
-    sb.append(file);
-    sb.append(System.lineSeparator());
-    throw new SoShaderExceptionBadPath(sb.toString());
+    LOG.debug("nonexistent module: {}", path.module());
+    return Optional.empty();
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The returned map is an immutable snapshot of the modules that were
+   * registered at the time of the call, ordered by module name.</p>
+   */
+
   @Override
   public Map<String, SoShaderModuleType> available()
   {
-    return this.modules_view;
+    return this.snapshot.sorted;
+  }
+
+  @Override
+  public long generation()
+  {
+    return this.snapshot.generation;
+  }
+
+  /**
+   * An immutable set of registered modules. A snapshot takes ownership of
+   * the map that it is given, which must not be modified afterwards.
+   */
+
+  private static final class Snapshot
+  {
+    private final Map<String, SoShaderModuleType> modules;
+    private final Map<String, SoShaderModuleType> sorted;
+    private final long generation;
+
+    Snapshot(
+      final Map<String, SoShaderModuleType> in_modules,
+      final long in_generation)
+    {
+      this.modules = Collections.unmodifiableMap(in_modules);
+      this.sorted = Collections.unmodifiableMap(new TreeMap<>(in_modules));
+      this.generation = in_generation;
+    }
   }
 }
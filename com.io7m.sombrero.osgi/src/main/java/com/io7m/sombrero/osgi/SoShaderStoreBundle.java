@@ -0,0 +1,202 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.osgi;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.sombrero.core.SoShaderException;
+import com.io7m.sombrero.core.SoShaderFileReferenceType;
+import com.io7m.sombrero.core.SoShaderNames;
+import com.io7m.sombrero.core.SoShaderStoreType;
+import org.osgi.framework.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+/**
+ * <p>A shader store based on the entries of an <tt>OSGi</tt> bundle. The
+ * entries under a base directory of the bundle (and any attached fragments)
+ * are indexed once, when the store is created, and lookups are answered from
+ * the index without searching the bundle or its class loader.</p>
+ *
+ * <p>Entries added to the bundle after the store is created (for example,
+ * by attaching a new fragment) are not visible.</p>
+ *
+ * <p>The contents of each entry are read from the bundle once, on first use,
+ * and are retained for the lifetime of the store. The contents of a bundle
+ * can only change when the bundle is updated, and so the fingerprint of each
+ * entry is the modification time of the bundle when the store was
+ * created.</p>
+ */
+
+public final class SoShaderStoreBundle implements SoShaderStoreType
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(SoShaderStoreBundle.class);
+  }
+
+  private final Map<String, Optional<SoShaderFileReferenceType>> files;
+
+  private SoShaderStoreBundle(
+    final Map<String, Optional<SoShaderFileReferenceType>> in_files)
+  {
+    this.files = NullCheck.notNull(in_files, "Files");
+  }
+
+  /**
+   * Construct a new shader store.
+   *
+   * @param bundle The bundle
+   * @param base   The base directory within the bundle
+   *
+   * @return A shader store
+   */
+
+  public static SoShaderStoreType create(
+    final Bundle bundle,
+    final String base)
+  {
+    NullCheck.notNull(bundle, "Bundle");
+    NullCheck.notNull(base, "Base");
+
+    final Optional<String> normal_base = SoShaderNames.normalize(base);
+    if (!normal_base.isPresent()) {
+      throw new IllegalArgumentException(
+        "Base directory is outside of the bundle: " + base);
+    }
+
+    final String prefix = normal_base.get() + "/";
+    final long fingerprint = bundle.getLastModified();
+    final Map<String, Optional<SoShaderFileReferenceType>> files =
+      new HashMap<>(64);
+
+    final Enumeration<URL> entries = bundle.findEntries(prefix, "*", true);
+    if (entries != null) {
+      while (entries.hasMoreElements()) {
+        final URL url = entries.nextElement();
+        final String path = url.getPath();
+        if (!path.endsWith("/") && path.startsWith(prefix)) {
+          final Optional<String> normal =
+            SoShaderNames.normalize(path.substring(prefix.length()));
+          if (normal.isPresent()) {
+            files.putIfAbsent(
+              normal.get(), Optional.of(new Reference(url, fingerprint)));
+          }
+        }
+      }
+    }
+
+    LOG.debug(
+      "indexed bundle {} {}: {} files",
+      bundle.getSymbolicName(),
+      prefix,
+      Integer.valueOf(files.size()));
+    return new SoShaderStoreBundle(Collections.unmodifiableMap(files));
+  }
+
+  @Override
+  public Optional<SoShaderFileReferenceType> lookup(
+    final String name)
+    throws SoShaderException
+  {
+    NullCheck.notNull(name, "name");
+
+    final Optional<SoShaderFileReferenceType> direct = this.files.get(name);
+    if (direct != null) {
+      return direct;
+    }
+
+    final Optional<String> normal = SoShaderNames.normalize(name);
+    if (normal.isPresent()) {
+      final Optional<SoShaderFileReferenceType> ref =
+        this.files.get(normal.get());
+      if (ref != null) {
+        return ref;
+      }
+    }
+
+    LOG.trace("not found: {}", name);
+    return Optional.empty();
+  }
+
+  private static final class Reference implements SoShaderFileReferenceType
+  {
+    private final URL url;
+    private final long fingerprint;
+    private volatile byte[] data;
+
+    Reference(
+      final URL in_url,
+      final long in_fingerprint)
+    {
+      this.url = NullCheck.notNull(in_url, "url");
+      this.fingerprint = in_fingerprint;
+    }
+
+    /**
+     * Concurrent first reads may each read the entry, but they all read the
+     * same contents, and so any of them may be retained.
+     */
+
+    private byte[] load()
+      throws IOException
+    {
+      final byte[] cached = this.data;
+      if (cached != null) {
+        return cached;
+      }
+
+      try (final InputStream stream = this.url.openStream()) {
+        final byte[] loaded = stream.readAllBytes();
+        this.data = loaded;
+        return loaded;
+      }
+    }
+
+    @Override
+    public InputStream stream()
+      throws IOException
+    {
+      return new ByteArrayInputStream(this.load());
+    }
+
+    @Override
+    public ByteBuffer bytes()
+      throws IOException
+    {
+      return ByteBuffer.wrap(this.load()).asReadOnlyBuffer();
+    }
+
+    @Override
+    public OptionalLong fingerprint()
+    {
+      return OptionalLong.of(this.fingerprint);
+    }
+  }
+}
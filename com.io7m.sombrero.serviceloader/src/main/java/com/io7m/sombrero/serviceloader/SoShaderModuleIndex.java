@@ -0,0 +1,349 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.serviceloader;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+import com.io7m.sombrero.core.SoShaderException;
+import com.io7m.sombrero.core.SoShaderExceptionIO;
+import com.io7m.sombrero.core.SoShaderModuleProviderType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.TreeMap;
+
+/**
+ * <p>Functions for generating and reading module indices.</p>
+ *
+ * <p>A module index maps the name of each module to the name of the
+ * {@link SoShaderModuleProviderType} class that publishes it, so that
+ * {@link SoShaderResolverServiceLoaderLazy} can instantiate providers only
+ * when their modules are first used. Each jar that contains module providers
+ * should contain an index at {@link #RESOURCE}. The index is a UTF-8 text
+ * file containing one {@code module provider} pair per line; blank lines and
+ * lines beginning with {@code #} are ignored.</p>
+ *
+ * <p>Module names are only known once a provider has been instantiated, and
+ * so the index is generated during the build by instantiating the providers
+ * that are registered in the build output directory's own
+ * {@code META-INF/services} file, using {@link SoShaderModuleIndexMain}.
+ * Providers registered by dependencies on the class path are not included,
+ * as they are described by the indices in their own jars. The program must
+ * be run after the providers have been compiled, with the build output
+ * directory and its dependencies on the class path. The
+ * {@code com.io7m.sombrero.tests} module does this with the
+ * {@code exec-maven-plugin} during the {@code process-test-classes} phase,
+ * and jars that publish modules can do the same during
+ * {@code process-classes}.</p>
+ */
+
+public final class SoShaderModuleIndex
+{
+  /**
+   * The name of the index resource.
+   */
+
+  public static final String RESOURCE;
+
+  private static final Logger LOG;
+  private static final String SERVICES;
+
+  static {
+    LOG = LoggerFactory.getLogger(SoShaderModuleIndex.class);
+    RESOURCE = "META-INF/com.io7m.sombrero/modules";
+    SERVICES =
+      "META-INF/services/" + SoShaderModuleProviderType.class.getName();
+  }
+
+  private SoShaderModuleIndex()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Generate an index for the {@link SoShaderModuleProviderType} classes
+   * registered in {@code directory}. The providers are those named by the
+   * {@link ServiceLoader} provider-configuration file in the
+   * {@code META-INF/services} subdirectory of {@code directory}, and are
+   * instantiated using {@code loader}.
+   *
+   * @param loader    The class loader
+   * @param directory The build output directory
+   *
+   * @return A read-only map from module names to provider class names
+   *
+   * @throws SoShaderException If the providers cannot be listed or
+   *                           instantiated
+   */
+
+  public static Map<String, String> generate(
+    final ClassLoader loader,
+    final Path directory)
+    throws SoShaderException
+  {
+    NullCheck.notNull(loader, "Loader");
+    NullCheck.notNull(directory, "Directory");
+
+    final Map<String, String> index = new TreeMap<>();
+    for (final String provider_name : providers(directory)) {
+      final SoShaderModuleProviderType provider =
+        instantiate(loader, provider_name);
+      for (final String name : provider.available().keySet()) {
+        checkName(name);
+        if (index.containsKey(name)) {
+          LOG.warn("multiple modules with the same name: {}", name);
+        }
+        index.put(name, provider_name);
+      }
+    }
+
+    return Collections.unmodifiableMap(index);
+  }
+
+  private static List<String> providers(
+    final Path directory)
+    throws SoShaderException
+  {
+    final Path file = directory.resolve(SERVICES);
+    final List<String> names = new ArrayList<>(4);
+    try (final BufferedReader reader =
+           Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      while (true) {
+        final String line = reader.readLine();
+        if (line == null) {
+          break;
+        }
+
+        final int comment = line.indexOf('#');
+        final String name;
+        if (comment >= 0) {
+          name = line.substring(0, comment).trim();
+        } else {
+          name = line.trim();
+        }
+        if (!name.isEmpty() && !names.contains(name)) {
+          names.add(name);
+        }
+      }
+    } catch (final IOException e) {
+      throw new SoShaderExceptionIO(e);
+    }
+
+    LOG.debug("{}: {} providers", file, Integer.valueOf(names.size()));
+    return names;
+  }
+
+  private static SoShaderModuleProviderType instantiate(
+    final ClassLoader loader,
+    final String name)
+    throws SoShaderException
+  {
+    try {
+      return Class.forName(name, true, loader)
+        .asSubclass(SoShaderModuleProviderType.class)
+        .getConstructor()
+        .newInstance();
+    } catch (final ReflectiveOperationException | ClassCastException e) {
+      throw new SoShaderException(e);
+    }
+  }
+
+  /**
+   * Write an index to {@code output}. The index is written to a temporary
+   * file that then replaces {@code output}. Entries are written in order of
+   * module name, so the same index always produces the same file.
+   *
+   * @param index  The index
+   * @param output The index file
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static void write(
+    final Map<String, String> index,
+    final Path output)
+    throws IOException
+  {
+    NullCheck.notNull(index, "Index");
+    NullCheck.notNull(output, "Output");
+
+    final Path absolute = output.toAbsolutePath();
+    Files.createDirectories(absolute.getParent());
+    final Path temporary = Files.createTempFile(
+      absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+
+    try {
+      try (final OutputStream stream = Files.newOutputStream(temporary)) {
+        write(index, stream);
+      }
+      Files.move(
+        temporary,
+        absolute,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+
+    LOG.debug("wrote {}: {} modules", absolute, Integer.valueOf(index.size()));
+  }
+
+  /**
+   * Write an index to {@code output}. The stream is flushed but not closed.
+   *
+   * @param index  The index
+   * @param output The output stream
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static void write(
+    final Map<String, String> index,
+    final OutputStream output)
+    throws IOException
+  {
+    NullCheck.notNull(index, "Index");
+    NullCheck.notNull(output, "Output");
+
+    final Writer writer = new BufferedWriter(
+      new OutputStreamWriter(output, StandardCharsets.UTF_8));
+    for (final Map.Entry<String, String> e : new TreeMap<>(index).entrySet()) {
+      checkName(e.getKey());
+      writer.write(e.getKey());
+      writer.write(' ');
+      writer.write(e.getValue());
+      writer.write('\n');
+    }
+    writer.flush();
+  }
+
+  /**
+   * Read and merge every index available to {@code loader}. If more than one
+   * index names the same module with different providers, the last one found
+   * is used.
+   *
+   * @param loader The class loader
+   *
+   * @return A read-only map from module names to provider class names
+   *
+   * @throws SoShaderException On I/O errors or malformed indices
+   */
+
+  public static Map<String, String> read(
+    final ClassLoader loader)
+    throws SoShaderException
+  {
+    NullCheck.notNull(loader, "Loader");
+
+    final Map<String, String> index = new TreeMap<>();
+    try {
+      final Enumeration<URL> urls = loader.getResources(RESOURCE);
+      while (urls.hasMoreElements()) {
+        final URL url = urls.nextElement();
+        LOG.debug("reading index {}", url);
+        try (final InputStream stream = url.openStream()) {
+          readInto(url, stream, index);
+        }
+      }
+    } catch (final IOException e) {
+      throw new SoShaderExceptionIO(e);
+    }
+
+    return Collections.unmodifiableMap(index);
+  }
+
+  private static void readInto(
+    final URL url,
+    final InputStream stream,
+    final Map<String, String> index)
+    throws IOException, SoShaderException
+  {
+    final BufferedReader reader = new BufferedReader(
+      new InputStreamReader(stream, StandardCharsets.UTF_8));
+
+    int line_number = 0;
+    while (true) {
+      final String line = reader.readLine();
+      if (line == null) {
+        break;
+      }
+      ++line_number;
+
+      final String trimmed = line.trim();
+      if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+        continue;
+      }
+
+      final String[] parts = trimmed.split("\\s+");
+      if (parts.length != 2) {
+        final StringBuilder sb = new StringBuilder(128);
+        sb.append("Malformed module index.");
+        sb.append(System.lineSeparator());
+        sb.append("  Expected: module provider");
+        sb.append(System.lineSeparator());
+        sb.append("  Received: ");
+        sb.append(line);
+        sb.append(System.lineSeparator());
+        sb.append("  Index: ");
+        sb.append(url);
+        sb.append(":");
+        sb.append(line_number);
+        sb.append(System.lineSeparator());
+        throw new SoShaderException(sb.toString());
+      }
+
+      final String previous = index.put(parts[0], parts[1]);
+      if (previous != null && !previous.equals(parts[1])) {
+        LOG.warn(
+          "multiple modules with the same name: {} ({}, {})",
+          parts[0],
+          previous,
+          parts[1]);
+      }
+    }
+  }
+
+  private static void checkName(
+    final String name)
+  {
+    for (int index = 0; index < name.length(); ++index) {
+      if (Character.isWhitespace(name.charAt(index))) {
+        throw new IllegalArgumentException(
+          "Module names in an index cannot contain whitespace: " + name);
+      }
+    }
+  }
+}
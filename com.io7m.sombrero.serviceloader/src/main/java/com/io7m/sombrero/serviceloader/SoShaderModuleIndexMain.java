@@ -0,0 +1,65 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.serviceloader;
+
+import com.io7m.junreachable.UnreachableCodeException;
+import com.io7m.sombrero.core.SoShaderException;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * A program that generates a module index for the providers registered in a
+ * build output directory, and writes the index into that directory, for use
+ * during builds: {@code SoShaderModuleIndexMain <output-directory>}. The
+ * output directory and its dependencies must be on the class path.
+ *
+ * @see SoShaderModuleIndex
+ */
+
+public final class SoShaderModuleIndexMain
+{
+  private SoShaderModuleIndexMain()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Main entry point.
+   *
+   * @param args Command-line arguments: the build output directory
+   *
+   * @throws IOException       On I/O errors
+   * @throws SoShaderException If the providers cannot be instantiated
+   */
+
+  public static void main(
+    final String[] args)
+    throws IOException, SoShaderException
+  {
+    if (args.length != 1) {
+      throw new IllegalArgumentException("usage: output-directory");
+    }
+
+    final Path directory = Paths.get(args[0]);
+    SoShaderModuleIndex.write(
+      SoShaderModuleIndex.generate(
+        Thread.currentThread().getContextClassLoader(), directory),
+      directory.resolve(SoShaderModuleIndex.RESOURCE));
+  }
+}
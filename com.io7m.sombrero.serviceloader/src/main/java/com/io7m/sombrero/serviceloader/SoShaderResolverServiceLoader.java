@@ -18,10 +18,10 @@ package com.io7m.sombrero.serviceloader;
 
 import com.io7m.jnull.NullCheck;
 import com.io7m.sombrero.core.SoShaderException;
-import com.io7m.sombrero.core.SoShaderExceptionBadPath;
 import com.io7m.sombrero.core.SoShaderFileReferenceType;
 import com.io7m.sombrero.core.SoShaderModuleProviderType;
 import com.io7m.sombrero.core.SoShaderModuleType;
+import com.io7m.sombrero.core.SoShaderPath;
 import com.io7m.sombrero.core.SoShaderResolverType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -98,34 +98,26 @@ public final class SoShaderResolverServiceLoader implements SoShaderResolverType
     final String file)
     throws SoShaderException
   {
-    LOG.debug("resolve: {}", file);
+    return this.resolvePath(SoShaderPath.parse(file));
+  }
 
-    final int ind = file.indexOf("/");
-    if (ind != -1) {
-      final String modu_name = file.substring(0, ind);
-      final String file_name = file.substring(ind);
+  @Override
+  public Optional<SoShaderFileReferenceType> resolvePath(
+    final SoShaderPath path)
+    throws SoShaderException
+  {
+    LOG.debug("resolve: {}", path);
 
-      if (this.modules.containsKey(modu_name)) {
-        final SoShaderModuleType m = this.modules.get(modu_name);
-        if (LOG.isDebugEnabled()) {
-          LOG.debug("lookup [{}]: {}", modu_name, file_name);
-        }
-        return m.store().lookup(file_name);
+    final SoShaderModuleType m = this.modules.get(path.module());
+    if (m != null) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("lookup [{}]: {}", path.module(), path.file());
       }
-
-      LOG.debug("nonexistent module: {}", modu_name);
-      return Optional.empty();
+      return m.store().lookup(path.file());
     }
 
-    final StringBuilder sb = new StringBuilder(128);
-    sb.append("Invalid path.");
-    sb.append(System.lineSeparator());
-    sb.append("  Expected: A path of the form module/file");
-    sb.append(System.lineSeparator());
-    sb.append("  Recevied: ");
-    sb.append(file);
-    sb.append(System.lineSeparator());
-    throw new SoShaderExceptionBadPath(sb.toString());
+    LOG.debug("nonexistent module: {}", path.module());
+    return Optional.empty();
   }
 
   @Override
@@ -0,0 +1,204 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.serviceloader;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.sombrero.core.SoShaderException;
+import com.io7m.sombrero.core.SoShaderFileReferenceType;
+import com.io7m.sombrero.core.SoShaderModule;
+import com.io7m.sombrero.core.SoShaderModuleProviderType;
+import com.io7m.sombrero.core.SoShaderModuleType;
+import com.io7m.sombrero.core.SoShaderPath;
+import com.io7m.sombrero.core.SoShaderResolverType;
+import com.io7m.sombrero.core.SoShaderStoreLazy;
+import com.io7m.sombrero.core.SoShaderStoreType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * <p>A resolver that instantiates module providers lazily.</p>
+ *
+ * <p>Unlike {@link SoShaderResolverServiceLoader}, which instantiates every
+ * available provider when it is created, this resolver reads the module
+ * indices generated by {@link SoShaderModuleIndex} and instantiates a
+ * provider only when a file is first looked up in one of the modules that it
+ * publishes. Each provider is instantiated at most once. Providers that are
+ * registered with the {@code ServiceLoader} API but that do not appear in an
+ * index are not available from this resolver.</p>
+ *
+ * <p>The modules returned by {@link #available()} have
+ * {@link SoShaderStoreLazy} stores that instantiate the provider on first
+ * use, and so obtaining the set of modules is cheap.</p>
+ *
+ * <p>The resolver is safe to use from multiple threads.</p>
+ */
+
+public final class SoShaderResolverServiceLoaderLazy
+  implements SoShaderResolverType
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(SoShaderResolverServiceLoaderLazy.class);
+  }
+
+  private final ClassLoader loader;
+  private final Object lock;
+  private final Map<String, SoShaderModuleProviderType> providers;
+  private final Map<String, SoShaderModuleType> modules;
+
+  private SoShaderResolverServiceLoaderLazy(
+    final ClassLoader in_loader,
+    final Map<String, String> in_index)
+  {
+    this.loader = NullCheck.notNull(in_loader, "Loader");
+    this.lock = new Object();
+    this.providers = new HashMap<>(8);
+
+    final Map<String, SoShaderModuleType> m =
+      new LinkedHashMap<>(in_index.size());
+    for (final Map.Entry<String, String> e : in_index.entrySet()) {
+      final String name = e.getKey();
+      final String provider_name = e.getValue();
+      m.put(name, SoShaderModule.of(
+        name, SoShaderStoreLazy.create(() -> this.load(name, provider_name))));
+    }
+    this.modules = Collections.unmodifiableMap(m);
+  }
+
+  /**
+   * Create a new resolver using the indices available to the current
+   * thread's context class loader.
+   *
+   * @return A new shader resolver
+   *
+   * @throws SoShaderException If the indices cannot be read
+   */
+
+  public static SoShaderResolverType create()
+    throws SoShaderException
+  {
+    return create(Thread.currentThread().getContextClassLoader());
+  }
+
+  /**
+   * Create a new resolver using the indices available to {@code loader}.
+   * Providers are also loaded using {@code loader}.
+   *
+   * @param loader The class loader
+   *
+   * @return A new shader resolver
+   *
+   * @throws SoShaderException If the indices cannot be read
+   */
+
+  public static SoShaderResolverType create(
+    final ClassLoader loader)
+    throws SoShaderException
+  {
+    final Map<String, String> index = SoShaderModuleIndex.read(loader);
+    LOG.debug("indexed {} modules", Integer.valueOf(index.size()));
+    return new SoShaderResolverServiceLoaderLazy(loader, index);
+  }
+
+  @Override
+  public Optional<SoShaderFileReferenceType> resolve(
+    final String file)
+    throws SoShaderException
+  {
+    return this.resolvePath(SoShaderPath.parse(file));
+  }
+
+  @Override
+  public Optional<SoShaderFileReferenceType> resolvePath(
+    final SoShaderPath path)
+    throws SoShaderException
+  {
+    LOG.debug("resolve: {}", path);
+
+    final SoShaderModuleType m = this.modules.get(path.module());
+    if (m != null) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("lookup [{}]: {}", path.module(), path.file());
+      }
+      return m.store().lookup(path.file());
+    }
+
+    LOG.debug("nonexistent module: {}", path.module());
+    return Optional.empty();
+  }
+
+  @Override
+  public Map<String, SoShaderModuleType> available()
+  {
+    return this.modules;
+  }
+
+  private SoShaderStoreType load(
+    final String module,
+    final String provider_name)
+    throws SoShaderException
+  {
+    synchronized (this.lock) {
+      SoShaderModuleProviderType provider =
+        this.providers.get(provider_name);
+      if (provider == null) {
+        provider = this.instantiate(provider_name);
+        this.providers.put(provider_name, provider);
+      }
+
+      final SoShaderModuleType published = provider.available().get(module);
+      if (published == null) {
+        final StringBuilder sb = new StringBuilder(128);
+        sb.append("Module index is out of date.");
+        sb.append(System.lineSeparator());
+        sb.append("  Module: ");
+        sb.append(module);
+        sb.append(System.lineSeparator());
+        sb.append("  Provider: ");
+        sb.append(provider_name);
+        sb.append(System.lineSeparator());
+        sb.append("  Problem: The provider does not publish the module");
+        sb.append(System.lineSeparator());
+        throw new SoShaderException(sb.toString());
+      }
+      return published.store();
+    }
+  }
+
+  private SoShaderModuleProviderType instantiate(
+    final String provider_name)
+    throws SoShaderException
+  {
+    LOG.debug("instantiating provider {}", provider_name);
+
+    try {
+      final Class<? extends SoShaderModuleProviderType> c =
+        Class.forName(provider_name, true, this.loader)
+          .asSubclass(SoShaderModuleProviderType.class);
+      return c.getConstructor().newInstance();
+    } catch (final ReflectiveOperationException | ClassCastException e) {
+      throw new SoShaderException(e);
+    }
+  }
+}
@@ -17,11 +17,18 @@
 package com.io7m.sombrero.tests.core;
 
 import com.io7m.sombrero.core.SoShaderFileReferenceType;
+import com.io7m.sombrero.core.SoShaderModule;
+import com.io7m.sombrero.core.SoShaderModuleProviderAbstract;
+import com.io7m.sombrero.core.SoShaderModuleProviderType;
+import com.io7m.sombrero.core.SoShaderModuleType;
 import com.io7m.sombrero.core.SoShaderResolverType;
 import com.io7m.sombrero.osgi.SoShaderResolverOSGi;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.Optional;
 
 public final class SoShaderModuleResolverOSGiTest extends
@@ -58,4 +65,63 @@ public final class SoShaderModuleResolverOSGiTest extends
       Assert.assertFalse(ref_opt.isPresent());
     }
   }
+
+  @Test
+  public void testGeneration()
+    throws Exception
+  {
+    final ExampleModuleProvider provider = new ExampleModuleProvider();
+
+    final SoShaderResolverOSGi r = new SoShaderResolverOSGi();
+    final long generation_0 = r.generation();
+    final Map<String, SoShaderModuleType> modules_0 = r.available();
+    Assert.assertTrue(modules_0.isEmpty());
+
+    r.onModuleRegister(provider);
+    final long generation_1 = r.generation();
+    final Map<String, SoShaderModuleType> modules_1 = r.available();
+    Assert.assertTrue(generation_1 > generation_0);
+    Assert.assertTrue(modules_0.isEmpty());
+    Assert.assertTrue(modules_1.containsKey("com.io7m.sombrero.example0"));
+
+    r.onModuleUnregister(provider);
+    Assert.assertTrue(r.generation() > generation_1);
+    Assert.assertTrue(r.available().isEmpty());
+    Assert.assertTrue(modules_1.containsKey("com.io7m.sombrero.example0"));
+  }
+
+  private static SoShaderModuleProviderType provider(
+    final String... names)
+  {
+    final SoShaderModuleType[] modules = new SoShaderModuleType[names.length];
+    for (int index = 0; index < names.length; ++index) {
+      modules[index] =
+        SoShaderModule.of(names[index], name -> Optional.empty());
+    }
+    return new SoShaderModuleProviderAbstract(modules)
+    {
+      // No extra methods
+    };
+  }
+
+  @Test
+  public void testAvailableOrdered()
+    throws Exception
+  {
+    final SoShaderModuleProviderType provider_0 = provider("z", "k");
+    final SoShaderModuleProviderType provider_1 =
+      provider("a", "q", "b", "y");
+
+    final SoShaderResolverOSGi r = new SoShaderResolverOSGi();
+    r.onModuleRegister(provider_0);
+    r.onModuleRegister(provider_1);
+    Assert.assertEquals(
+      Arrays.asList("a", "b", "k", "q", "y", "z"),
+      new ArrayList<>(r.available().keySet()));
+
+    r.onModuleUnregister(provider_0);
+    Assert.assertEquals(
+      Arrays.asList("a", "b", "q", "y"),
+      new ArrayList<>(r.available().keySet()));
+  }
 }
@@ -0,0 +1,205 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.tests.core;
+
+import com.io7m.sombrero.core.SoShaderException;
+import com.io7m.sombrero.core.SoShaderExceptionIO;
+import com.io7m.sombrero.core.SoShaderModuleType;
+import com.io7m.sombrero.core.SoShaderResolverType;
+import com.io7m.sombrero.serviceloader.SoShaderModuleIndex;
+import com.io7m.sombrero.serviceloader.SoShaderModuleIndexMain;
+import com.io7m.sombrero.serviceloader.SoShaderResolverServiceLoaderLazy;
+import org.hamcrest.core.IsInstanceOf;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Map;
+
+public final class SoShaderModuleResolverServiceLoaderLazyTest extends
+  SoShaderModuleResolverContract
+{
+  @Override
+  protected SoShaderResolverType create()
+  {
+    try {
+      return SoShaderResolverServiceLoaderLazy.create(
+        SoShaderModuleResolverServiceLoaderLazyTest.class.getClassLoader());
+    } catch (final SoShaderException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static Path classes()
+    throws Exception
+  {
+    return Paths.get(
+      SoShaderModuleResolverServiceLoaderLazyTest.class.getProtectionDomain()
+        .getCodeSource()
+        .getLocation()
+        .toURI());
+  }
+
+  private static Path services(
+    final String text)
+    throws Exception
+  {
+    final Path directory = Files.createTempDirectory("sombrero-");
+    final Path file = directory.resolve(
+      "META-INF/services/com.io7m.sombrero.core.SoShaderModuleProviderType");
+    Files.createDirectories(file.getParent());
+    Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    return directory;
+  }
+
+  @Test
+  public void testIndexGenerated()
+    throws Exception
+  {
+    final ClassLoader loader =
+      SoShaderModuleResolverServiceLoaderLazyTest.class.getClassLoader();
+    final Map<String, String> generated =
+      SoShaderModuleIndex.generate(loader, classes());
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SoShaderModuleIndex.write(generated, out);
+
+    final byte[] expected;
+    try (final InputStream stream =
+           loader.getResourceAsStream(SoShaderModuleIndex.RESOURCE)) {
+      expected = stream.readAllBytes();
+    }
+
+    Assert.assertArrayEquals(expected, out.toByteArray());
+    Assert.assertEquals(generated, SoShaderModuleIndex.read(loader));
+  }
+
+  @Test
+  public void testGeneratedOwnProvidersOnly()
+    throws Exception
+  {
+    final ClassLoader loader =
+      SoShaderModuleResolverServiceLoaderLazyTest.class.getClassLoader();
+
+    Assert.assertEquals(
+      Collections.emptyMap(),
+      SoShaderModuleIndex.generate(loader, services("# None\n")));
+
+    final Map<String, String> generated = SoShaderModuleIndex.generate(
+      loader,
+      services(ExampleModuleProvider.class.getName() + " # Example\n"));
+    Assert.assertFalse(generated.isEmpty());
+    for (final String provider : generated.values()) {
+      Assert.assertEquals(ExampleModuleProvider.class.getName(), provider);
+    }
+  }
+
+  @Test
+  public void testGeneratedMissingProvider()
+    throws Exception
+  {
+    this.expected.expect(SoShaderException.class);
+    this.expected.expectCause(
+      IsInstanceOf.any(ClassNotFoundException.class));
+    SoShaderModuleIndex.generate(
+      SoShaderModuleResolverServiceLoaderLazyTest.class.getClassLoader(),
+      services("x.nonexistent.Provider\n"));
+  }
+
+  @Test
+  public void testGeneratedMissingServices()
+    throws Exception
+  {
+    this.expected.expect(SoShaderExceptionIO.class);
+    SoShaderModuleIndex.generate(
+      SoShaderModuleResolverServiceLoaderLazyTest.class.getClassLoader(),
+      Files.createTempDirectory("sombrero-"));
+  }
+
+  @Test
+  public void testMain()
+    throws Exception
+  {
+    final Path directory =
+      services(ExampleModuleProvider.class.getName() + "\n");
+    SoShaderModuleIndexMain.main(new String[]{directory.toString()});
+
+    try (final URLClassLoader loader = new URLClassLoader(
+      new URL[]{directory.toUri().toURL()}, null)) {
+      Assert.assertEquals(
+        SoShaderModuleIndex.generate(
+          SoShaderModuleResolverServiceLoaderLazyTest.class.getClassLoader(),
+          classes()),
+        SoShaderModuleIndex.read(loader));
+    }
+  }
+
+  @Test
+  public void testReadDuplicate()
+    throws Exception
+  {
+    final Path directory_0 = Files.createTempDirectory("sombrero-");
+    final Path directory_1 = Files.createTempDirectory("sombrero-");
+    SoShaderModuleIndex.write(
+      Collections.singletonMap("x.a", "x.Provider0"),
+      directory_0.resolve(SoShaderModuleIndex.RESOURCE));
+    SoShaderModuleIndex.write(
+      Collections.singletonMap("x.a", "x.Provider1"),
+      directory_1.resolve(SoShaderModuleIndex.RESOURCE));
+
+    try (final URLClassLoader loader = new URLClassLoader(
+      new URL[]{directory_0.toUri().toURL(), directory_1.toUri().toURL()},
+      null)) {
+      Assert.assertEquals(
+        Collections.singletonMap("x.a", "x.Provider1"),
+        SoShaderModuleIndex.read(loader));
+    }
+  }
+
+  @Test
+  public void testProviderNotInstantiatedUntilUsed()
+    throws Exception
+  {
+    final Path directory = Files.createTempDirectory("sombrero-");
+    SoShaderModuleIndex.write(
+      Collections.singletonMap("x.missing", "x.nonexistent.Provider"),
+      directory.resolve(SoShaderModuleIndex.RESOURCE));
+
+    try (final URLClassLoader loader = new URLClassLoader(
+      new URL[]{directory.toUri().toURL()}, null)) {
+      final SoShaderResolverType r =
+        SoShaderResolverServiceLoaderLazy.create(loader);
+      final Map<String, SoShaderModuleType> m = r.available();
+
+      Assert.assertEquals(1L, (long) m.size());
+      Assert.assertTrue(m.containsKey("x.missing"));
+
+      this.expected.expect(SoShaderException.class);
+      this.expected.expectCause(
+        IsInstanceOf.any(ClassNotFoundException.class));
+      r.resolve("x.missing/file.h");
+    }
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.tests.core;
+
+import com.io7m.sombrero.core.SoShaderExceptionBadPath;
+import com.io7m.sombrero.core.SoShaderPath;
+import com.io7m.sombrero.core.SoShaderPathTable;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public final class SoShaderPathTableTest
+{
+  @Rule public ExpectedException expected = ExpectedException.none();
+
+  @Test
+  public void testParse()
+    throws Exception
+  {
+    final SoShaderPath path = SoShaderPath.parse("m/a/b.h");
+    Assert.assertEquals("m/a/b.h", path.text());
+    Assert.assertEquals("m", path.module());
+    Assert.assertEquals("/a/b.h", path.file());
+    Assert.assertEquals("m/a", path.directory());
+    Assert.assertEquals(SoShaderPath.parse("m/a/b.h"), path);
+  }
+
+  @Test
+  public void testParseBad()
+    throws Exception
+  {
+    this.expected.expect(SoShaderExceptionBadPath.class);
+    SoShaderPath.parse("m");
+  }
+
+  @Test
+  public void testBadSize()
+  {
+    this.expected.expect(IllegalArgumentException.class);
+    SoShaderPathTable.create(0);
+  }
+
+  @Test
+  public void testIntern()
+    throws Exception
+  {
+    final SoShaderPathTable table = SoShaderPathTable.create(8);
+    final SoShaderPath p0 = table.intern("m/a/b.h");
+    final SoShaderPath p1 = table.intern(new String("m/a/b.h"));
+    Assert.assertSame(p0, p1);
+    Assert.assertEquals(1L, (long) table.size());
+  }
+
+  @Test
+  public void testInternJoined()
+    throws Exception
+  {
+    final SoShaderPathTable table = SoShaderPathTable.create(8);
+    final SoShaderPath p0 = table.intern("m/a", "b.h");
+    final SoShaderPath p1 = table.intern("m/a", "b.h");
+    final SoShaderPath p2 = table.intern("m/a/b.h");
+    Assert.assertSame(p0, p1);
+    Assert.assertSame(p0, p2);
+    Assert.assertEquals("m", p0.module());
+    Assert.assertEquals("/a/b.h", p0.file());
+
+    final SoShaderPath p3 = table.intern("m", "c.h");
+    Assert.assertEquals("m/c.h", p3.text());
+    Assert.assertEquals("m", p3.module());
+    Assert.assertEquals("/c.h", p3.file());
+    Assert.assertEquals("m", p3.directory());
+  }
+
+  @Test
+  public void testFull()
+    throws Exception
+  {
+    final SoShaderPathTable table = SoShaderPathTable.create(1);
+    final SoShaderPath p0 = table.intern("m/a.h");
+    Assert.assertSame(p0, table.intern("m/a.h"));
+
+    final SoShaderPath p1 = table.intern("m/b.h");
+    Assert.assertSame(p1, table.intern("m/b.h"));
+    Assert.assertEquals(1L, (long) table.size());
+
+    final SoShaderPath p2 = table.intern("m/a.h");
+    Assert.assertNotSame(p0, p2);
+    Assert.assertEquals(p0, p2);
+    Assert.assertSame(p2, table.intern("m/a.h"));
+    Assert.assertEquals(1L, (long) table.size());
+  }
+
+  @Test
+  public void testFullJoined()
+    throws Exception
+  {
+    final SoShaderPathTable table = SoShaderPathTable.create(1);
+    final SoShaderPath p0 = table.intern("m", "a.h");
+    final SoShaderPath p1 = table.intern("m", "b.h");
+    Assert.assertSame(p1, table.intern("m", "b.h"));
+    Assert.assertNotSame(p0, table.intern("m", "a.h"));
+    Assert.assertEquals(1L, (long) table.size());
+  }
+
+  @Test
+  public void testClear()
+    throws Exception
+  {
+    final SoShaderPathTable table = SoShaderPathTable.create(8);
+    final SoShaderPath p0 = table.intern("m/a.h");
+    final SoShaderPath p1 = table.intern("m", "b.h");
+    table.clear();
+    Assert.assertEquals(0L, (long) table.size());
+    Assert.assertNotSame(p0, table.intern("m/a.h"));
+    Assert.assertNotSame(p1, table.intern("m", "b.h"));
+  }
+}
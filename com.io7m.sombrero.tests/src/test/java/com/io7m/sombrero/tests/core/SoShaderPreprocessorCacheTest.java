@@ -0,0 +1,228 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.tests.core;
+
+import com.io7m.sombrero.core.SoShaderPreprocessorCache;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+
+public final class SoShaderPreprocessorCacheTest
+{
+  @Rule public ExpectedException expected = ExpectedException.none();
+
+  @Test
+  public void testBadSize()
+  {
+    this.expected.expect(IllegalArgumentException.class);
+    SoShaderPreprocessorCache.create(0);
+  }
+
+  @Test
+  public void testFindPut()
+  {
+    final SoShaderPreprocessorCache cache = SoShaderPreprocessorCache.create(8);
+    final Map<String, String> defines = new HashMap<>();
+    defines.put("A", "B");
+
+    Assert.assertEquals(
+      Optional.empty(),
+      cache.find(defines, "x/a.h", OptionalInt.of(330)));
+
+    final List<String> stored = cache.put(
+      defines,
+      "x/a.h",
+      OptionalInt.of(330),
+      Arrays.asList("a\n", "b\n"),
+      Arrays.asList("x/a.h", "x/b.h"),
+      cache.generation());
+
+    Assert.assertEquals(Arrays.asList("a\n", "b\n"), stored);
+    Assert.assertEquals(
+      Optional.of(stored),
+      cache.find(defines, "x/a.h", OptionalInt.of(330)));
+
+    Assert.assertEquals(
+      Optional.empty(),
+      cache.find(defines, "x/a.h", OptionalInt.of(450)));
+    Assert.assertEquals(
+      Optional.empty(),
+      cache.find(new HashMap<>(), "x/a.h", OptionalInt.of(330)));
+    Assert.assertEquals(
+      Optional.empty(),
+      cache.find(defines, "x/b.h", OptionalInt.of(330)));
+  }
+
+  @Test
+  public void testDefinesCopied()
+  {
+    final SoShaderPreprocessorCache cache = SoShaderPreprocessorCache.create(8);
+    final Map<String, String> defines = new HashMap<>();
+
+    cache.put(
+      defines,
+      "x/a.h",
+      OptionalInt.empty(),
+      Arrays.asList("a\n"),
+      Arrays.asList("x/a.h"),
+      cache.generation());
+
+    defines.put("A", "B");
+    Assert.assertEquals(
+      Optional.empty(),
+      cache.find(defines, "x/a.h", OptionalInt.empty()));
+    Assert.assertTrue(
+      cache.find(new HashMap<>(), "x/a.h", OptionalInt.empty()).isPresent());
+  }
+
+  @Test
+  public void testInvalidate()
+  {
+    final SoShaderPreprocessorCache cache = SoShaderPreprocessorCache.create(8);
+    final Map<String, String> defines = new HashMap<>();
+
+    cache.put(
+      defines,
+      "x/a.h",
+      OptionalInt.empty(),
+      Arrays.asList("a\n"),
+      Arrays.asList("x/a.h", "x/common.h"),
+      cache.generation());
+    cache.put(
+      defines,
+      "x/b.h",
+      OptionalInt.empty(),
+      Arrays.asList("b\n"),
+      Arrays.asList("x/b.h"),
+      cache.generation());
+
+    cache.invalidate("x/common.h");
+    Assert.assertEquals(
+      Optional.empty(),
+      cache.find(defines, "x/a.h", OptionalInt.empty()));
+    Assert.assertTrue(
+      cache.find(defines, "x/b.h", OptionalInt.empty()).isPresent());
+
+    cache.invalidateAll();
+    Assert.assertEquals(
+      Optional.empty(),
+      cache.find(defines, "x/b.h", OptionalInt.empty()));
+  }
+
+  @Test
+  public void testInvalidateModule()
+  {
+    final SoShaderPreprocessorCache cache = SoShaderPreprocessorCache.create(8);
+    final Map<String, String> defines = new HashMap<>();
+
+    cache.put(
+      defines,
+      "x/a.h",
+      OptionalInt.empty(),
+      Arrays.asList("a\n"),
+      Arrays.asList("x/a.h", "y/common.h"),
+      cache.generation());
+    cache.put(
+      defines,
+      "x/b.h",
+      OptionalInt.empty(),
+      Arrays.asList("b\n"),
+      Arrays.asList("x/b.h", "yy/common.h"),
+      cache.generation());
+
+    cache.invalidateModule("y");
+    Assert.assertEquals(
+      Optional.empty(),
+      cache.find(defines, "x/a.h", OptionalInt.empty()));
+    Assert.assertTrue(
+      cache.find(defines, "x/b.h", OptionalInt.empty()).isPresent());
+  }
+
+  @Test
+  public void testEviction()
+  {
+    final SoShaderPreprocessorCache cache = SoShaderPreprocessorCache.create(2);
+    final Map<String, String> defines = new HashMap<>();
+
+    cache.put(
+      defines, "x/a.h", OptionalInt.empty(),
+      Arrays.asList("a\n"), Arrays.asList("x/a.h"), cache.generation());
+    cache.put(
+      defines, "x/b.h", OptionalInt.empty(),
+      Arrays.asList("b\n"), Arrays.asList("x/b.h"), cache.generation());
+
+    Assert.assertTrue(
+      cache.find(defines, "x/a.h", OptionalInt.empty()).isPresent());
+
+    cache.put(
+      defines, "x/c.h", OptionalInt.empty(),
+      Arrays.asList("c\n"), Arrays.asList("x/c.h"), cache.generation());
+
+    Assert.assertTrue(
+      cache.find(defines, "x/a.h", OptionalInt.empty()).isPresent());
+    Assert.assertFalse(
+      cache.find(defines, "x/b.h", OptionalInt.empty()).isPresent());
+    Assert.assertTrue(
+      cache.find(defines, "x/c.h", OptionalInt.empty()).isPresent());
+  }
+
+  @Test
+  public void testPutAfterInvalidateRejected()
+  {
+    final SoShaderPreprocessorCache cache = SoShaderPreprocessorCache.create(8);
+    final Map<String, String> defines = new HashMap<>();
+
+    /*
+     * A run obtains the generation and reads the old contents of a file,
+     * the file is invalidated, and then the run stores its output.
+     */
+
+    final long generation = cache.generation();
+    cache.invalidate("x/a.h");
+
+    final List<String> stored = cache.put(
+      defines,
+      "x/a.h",
+      OptionalInt.empty(),
+      Arrays.asList("a\n"),
+      Arrays.asList("x/a.h"),
+      generation);
+
+    Assert.assertEquals(Arrays.asList("a\n"), stored);
+    Assert.assertEquals(
+      Optional.empty(),
+      cache.find(defines, "x/a.h", OptionalInt.empty()));
+
+    cache.put(
+      defines,
+      "x/a.h",
+      OptionalInt.empty(),
+      Arrays.asList("a\n"),
+      Arrays.asList("x/a.h"),
+      cache.generation());
+    Assert.assertTrue(
+      cache.find(defines, "x/a.h", OptionalInt.empty()).isPresent());
+  }
+}
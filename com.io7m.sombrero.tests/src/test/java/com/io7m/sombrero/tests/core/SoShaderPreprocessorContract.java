@@ -17,20 +17,31 @@
 package com.io7m.sombrero.tests.core;
 
 import com.io7m.junreachable.UnreachableCodeException;
+import com.io7m.sombrero.core.SoShaderException;
 import com.io7m.sombrero.core.SoShaderExceptionIO;
 import com.io7m.sombrero.core.SoShaderPreprocessorConfig;
 import com.io7m.sombrero.core.SoShaderPreprocessorType;
 import com.io7m.sombrero.core.SoShaderResolverType;
+import com.io7m.sombrero.osgi.SoShaderResolverOSGi;
 import org.hamcrest.core.IsInstanceOf;
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class SoShaderPreprocessorContract
@@ -243,6 +254,32 @@ public abstract class SoShaderPreprocessorContract
     Assert.assertEquals(1L, (long) errors.get());
   }
 
+  /**
+   * <p>This checks that fatal errors report the requested file, even when
+   * the error occurs in an included file.</p>
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public final void testErrorFatalRequestedFile()
+    throws Exception
+  {
+    final SoShaderPreprocessorConfig.Builder b =
+      SoShaderPreprocessorConfig.builder();
+    b.setResolver(this.resolver());
+    b.setVersion(330);
+    final SoShaderPreprocessorConfig c = b.build();
+
+    final SoShaderPreprocessorType preprocessor = this.create(c);
+
+    this.expected.expect(SoShaderException.class);
+    this.expected.expectMessage(
+      "Error: com.io7m.sombrero.example0/errors_included.h:");
+    preprocessor.preprocessFile(
+      new HashMap<>(), "com.io7m.sombrero.example0/errors_included.h");
+  }
+
   /**
    * <p>This checks that cross-module includes work correctly.</p>
    *
@@ -278,4 +315,488 @@ public abstract class SoShaderPreprocessorContract
     Assert.assertEquals("#version 330 core\n", lines.get(0));
     Assert.assertEquals("int ok;\n", lines.get(1));
   }
+
+  @Test
+  public final void testVariants()
+    throws Exception
+  {
+    final SoShaderPreprocessorConfig.Builder b =
+      SoShaderPreprocessorConfig.builder();
+    b.setResolver(this.resolver());
+    b.setVersion(330);
+    final SoShaderPreprocessorConfig c = b.build();
+
+    final SoShaderPreprocessorType preprocessor = this.create(c);
+
+    final List<Map<String, String>> variants = new ArrayList<>();
+    for (int index = 0; index < 3; ++index) {
+      final Map<String, String> defines = new HashMap<>();
+      defines.put("DEFINE_0", "a" + index);
+      defines.put("DEFINE_1", "b" + index);
+      defines.put("DEFINE_2", "c" + index);
+      variants.add(defines);
+    }
+
+    final List<List<String>> results = preprocessor.preprocessFileVariants(
+      variants,
+      "com.io7m.sombrero.example0/defines.h");
+
+    Assert.assertEquals(3L, (long) results.size());
+    for (int index = 0; index < 3; ++index) {
+      final List<String> lines = results.get(index);
+      Assert.assertEquals(4L, (long) lines.size());
+      Assert.assertEquals("#version 330 core\n", lines.get(0));
+      Assert.assertEquals("int a" + index + ";\n", lines.get(1));
+      Assert.assertEquals("int b" + index + ";\n", lines.get(2));
+      Assert.assertEquals("int c" + index + ";\n", lines.get(3));
+    }
+  }
+
+  @Test
+  public final void testVariantsParallel()
+    throws Exception
+  {
+    final SoShaderPreprocessorConfig.Builder b =
+      SoShaderPreprocessorConfig.builder();
+    b.setResolver(this.resolver());
+    b.setVersion(330);
+    final SoShaderPreprocessorConfig c = b.build();
+
+    final SoShaderPreprocessorType preprocessor = this.create(c);
+
+    final List<Map<String, String>> variants = new ArrayList<>();
+    for (int index = 0; index < 16; ++index) {
+      final Map<String, String> defines = new HashMap<>();
+      defines.put("DEFINE_0", "a" + index);
+      defines.put("DEFINE_1", "b" + index);
+      defines.put("DEFINE_2", "c" + index);
+      variants.add(defines);
+    }
+
+    final ExecutorService exec = Executors.newFixedThreadPool(4);
+    try {
+      final List<List<String>> results =
+        preprocessor.preprocessFileVariantsWithCallbacks(
+          variants,
+          "com.io7m.sombrero.example0/defines.h",
+          exec,
+          (file, line, column, msg) -> {
+            throw new UnreachableCodeException();
+          },
+          (file, line, column, msg) -> {
+            throw new UnreachableCodeException();
+          });
+
+      Assert.assertEquals(16L, (long) results.size());
+      for (int index = 0; index < 16; ++index) {
+        final List<String> lines = results.get(index);
+        Assert.assertEquals(4L, (long) lines.size());
+        Assert.assertEquals("int a" + index + ";\n", lines.get(1));
+      }
+    } finally {
+      exec.shutdown();
+    }
+  }
+
+  @Test
+  public final void testConcurrentCallers()
+    throws Exception
+  {
+    final SoShaderPreprocessorConfig.Builder b =
+      SoShaderPreprocessorConfig.builder();
+    b.setResolver(this.resolver());
+    b.setVersion(330);
+    final SoShaderPreprocessorConfig c = b.build();
+
+    final SoShaderPreprocessorType preprocessor = this.create(c);
+
+    final ExecutorService exec = Executors.newFixedThreadPool(8);
+    try {
+      final List<Future<List<String>>> futures = new ArrayList<>();
+      for (int index = 0; index < 256; ++index) {
+        final Map<String, String> defines = new HashMap<>();
+        defines.put("DEFINE_0", "a" + index);
+        defines.put("DEFINE_1", "b" + index);
+        defines.put("DEFINE_2", "c" + index);
+        futures.add(exec.submit(() -> preprocessor.preprocessFile(
+          defines, "com.io7m.sombrero.example0/defines.h")));
+      }
+
+      for (int index = 0; index < 256; ++index) {
+        final List<String> lines = futures.get(index).get();
+        Assert.assertEquals(4L, (long) lines.size());
+        Assert.assertEquals("#version 330 core\n", lines.get(0));
+        Assert.assertEquals("int a" + index + ";\n", lines.get(1));
+        Assert.assertEquals("int b" + index + ";\n", lines.get(2));
+        Assert.assertEquals("int c" + index + ";\n", lines.get(3));
+      }
+    } finally {
+      exec.shutdown();
+    }
+  }
+
+  @Test
+  public final void testVariantsError()
+    throws Exception
+  {
+    final SoShaderPreprocessorConfig.Builder b =
+      SoShaderPreprocessorConfig.builder();
+    b.setResolver(this.resolver());
+    b.setVersion(330);
+    final SoShaderPreprocessorConfig c = b.build();
+
+    final SoShaderPreprocessorType preprocessor = this.create(c);
+
+    final List<Map<String, String>> variants = new ArrayList<>();
+    variants.add(new HashMap<>());
+    variants.add(new HashMap<>());
+
+    this.expected.expect(SoShaderExceptionIO.class);
+    this.expected.expectCause(IsInstanceOf.any(NoSuchFileException.class));
+    preprocessor.preprocessFileVariants(
+      variants,
+      "com.io7m.sombrero.example0/relative_reject.h");
+  }
+
+  @Test
+  public final void testAsync()
+    throws Exception
+  {
+    final SoShaderPreprocessorConfig.Builder b =
+      SoShaderPreprocessorConfig.builder();
+    b.setResolver(this.resolver());
+    b.setVersion(330);
+    final SoShaderPreprocessorConfig c = b.build();
+
+    final SoShaderPreprocessorType preprocessor = this.create(c);
+
+    final List<CompletableFuture<List<String>>> futures = new ArrayList<>();
+    for (int index = 0; index < 32; ++index) {
+      final Map<String, String> defines = new HashMap<>();
+      defines.put("DEFINE_0", "a" + index);
+      defines.put("DEFINE_1", "b" + index);
+      defines.put("DEFINE_2", "c" + index);
+      futures.add(preprocessor.preprocessFileAsync(
+        defines, "com.io7m.sombrero.example0/defines.h"));
+    }
+
+    for (int index = 0; index < 32; ++index) {
+      final List<String> lines = futures.get(index).get();
+      Assert.assertEquals(4L, (long) lines.size());
+      Assert.assertEquals("int a" + index + ";\n", lines.get(1));
+    }
+  }
+
+  @Test
+  public final void testAsyncExecutor()
+    throws Exception
+  {
+    final SoShaderPreprocessorConfig.Builder b =
+      SoShaderPreprocessorConfig.builder();
+    b.setResolver(this.resolver());
+    b.setVersion(330);
+    final SoShaderPreprocessorConfig c = b.build();
+
+    final SoShaderPreprocessorType preprocessor = this.create(c);
+
+    final AtomicInteger tasks = new AtomicInteger(0);
+    final List<String> lines = preprocessor.preprocessFileAsync(
+      new HashMap<>(),
+      "com.io7m.sombrero.example0/same_module.h",
+      task -> {
+        tasks.incrementAndGet();
+        task.run();
+      }).get();
+
+    Assert.assertEquals(1L, (long) tasks.get());
+    Assert.assertEquals(2L, (long) lines.size());
+    Assert.assertEquals("void file0();\n", lines.get(1));
+  }
+
+  @Test
+  public final void testAsyncError()
+    throws Exception
+  {
+    final SoShaderPreprocessorConfig.Builder b =
+      SoShaderPreprocessorConfig.builder();
+    b.setResolver(this.resolver());
+    b.setVersion(330);
+    final SoShaderPreprocessorConfig c = b.build();
+
+    final SoShaderPreprocessorType preprocessor = this.create(c);
+
+    final CompletableFuture<List<String>> future =
+      preprocessor.preprocessFileAsync(
+        new HashMap<>(),
+        "com.io7m.sombrero.example0/relative_reject.h");
+
+    this.expected.expect(ExecutionException.class);
+    this.expected.expectCause(IsInstanceOf.any(SoShaderExceptionIO.class));
+    future.get();
+  }
+
+  @Test
+  public final void testAppendable()
+    throws Exception
+  {
+    final SoShaderPreprocessorConfig.Builder b =
+      SoShaderPreprocessorConfig.builder();
+    b.setResolver(this.resolver());
+    b.setVersion(330);
+    final SoShaderPreprocessorConfig c = b.build();
+
+    final SoShaderPreprocessorType preprocessor = this.create(c);
+
+    final Map<String, String> defines = new HashMap<>();
+    defines.put("DEFINE_0", "int0");
+    defines.put("DEFINE_1", "int1");
+    defines.put("DEFINE_2", "int2");
+
+    final StringBuilder output = new StringBuilder(128);
+    preprocessor.preprocessFileToAppendable(
+      defines,
+      "com.io7m.sombrero.example0/defines.h",
+      output);
+
+    Assert.assertEquals(
+      "#version 330 core\nint int0;\nint int1;\nint int2;\n",
+      output.toString());
+  }
+
+  @Test
+  public final void testCharBuffer()
+    throws Exception
+  {
+    final SoShaderPreprocessorConfig.Builder b =
+      SoShaderPreprocessorConfig.builder();
+    b.setResolver(this.resolver());
+    b.setVersion(330);
+    final SoShaderPreprocessorConfig c = b.build();
+
+    final SoShaderPreprocessorType preprocessor = this.create(c);
+
+    final CharBuffer output = CharBuffer.allocate(128);
+    preprocessor.preprocessFileToAppendable(
+      new HashMap<>(),
+      "com.io7m.sombrero.example0/file0.h",
+      output);
+    output.flip();
+
+    Assert.assertEquals(
+      "#version 330 core\nvoid file0();\n",
+      output.toString());
+  }
+
+  @Test
+  public final void testLines()
+    throws Exception
+  {
+    final SoShaderPreprocessorConfig.Builder b =
+      SoShaderPreprocessorConfig.builder();
+    b.setResolver(this.resolver());
+    b.setVersion(330);
+    final SoShaderPreprocessorConfig c = b.build();
+
+    final SoShaderPreprocessorType preprocessor = this.create(c);
+
+    final List<String> lines = new ArrayList<>();
+    final AtomicInteger warnings = new AtomicInteger(0);
+    preprocessor.preprocessFileWithCallbacksToLines(
+      new HashMap<>(),
+      "com.io7m.sombrero.example0/no_newline.h",
+      line -> lines.add(line.toString()),
+      (file, line, column, msg) -> {
+        warnings.incrementAndGet();
+      },
+      (file, line, column, msg) -> {
+        throw new UnreachableCodeException();
+      });
+
+    Assert.assertEquals(1L, (long) warnings.get());
+    Assert.assertEquals(2L, (long) lines.size());
+    Assert.assertEquals("#version 330 core\n", lines.get(0));
+    Assert.assertEquals("int ok;\n", lines.get(1));
+  }
+
+  @Test
+  public final void testCharSequence()
+    throws Exception
+  {
+    final SoShaderPreprocessorConfig.Builder b =
+      SoShaderPreprocessorConfig.builder();
+    b.setResolver(this.resolver());
+    b.setVersion(330);
+    final SoShaderPreprocessorConfig c = b.build();
+
+    final SoShaderPreprocessorType preprocessor = this.create(c);
+
+    final CharSequence text = preprocessor.preprocessFileToCharSequence(
+      new HashMap<>(),
+      "com.io7m.sombrero.module1/module1.h");
+
+    Assert.assertEquals("#version 330 core\nint ok;\n", text.toString());
+  }
+
+  @Test
+  public final void testByteBuffer()
+    throws Exception
+  {
+    final SoShaderPreprocessorConfig.Builder b =
+      SoShaderPreprocessorConfig.builder();
+    b.setResolver(this.resolver());
+    b.setVersion(330);
+    final SoShaderPreprocessorConfig c = b.build();
+
+    final SoShaderPreprocessorType preprocessor = this.create(c);
+
+    final Map<String, String> defines = new HashMap<>();
+    defines.put("DEFINE_0", "\u00e9");
+    defines.put("DEFINE_1", "\u2603");
+    defines.put("DEFINE_2", "\ud834\udd1e");
+
+    final AtomicInteger sizes = new AtomicInteger(0);
+    final ByteBuffer buffer = preprocessor.preprocessFileToByteBuffer(
+      defines,
+      "com.io7m.sombrero.example0/defines.h",
+      size -> {
+        sizes.set(size);
+        return ByteBuffer.allocateDirect(size);
+      });
+
+    final String expected =
+      "#version 330 core\nint \u00e9;\nint \u2603;\nint \ud834\udd1e;\n";
+    final byte[] expected_bytes = expected.getBytes(StandardCharsets.UTF_8);
+
+    Assert.assertTrue(buffer.isDirect());
+    Assert.assertEquals(0L, (long) buffer.position());
+    Assert.assertEquals((long) expected_bytes.length + 1L, (long) sizes.get());
+    Assert.assertEquals(
+      (long) expected_bytes.length + 1L, (long) buffer.limit());
+    Assert.assertEquals(0L, (long) buffer.get(buffer.limit() - 1));
+
+    final byte[] received = new byte[expected_bytes.length];
+    buffer.get(received);
+    Assert.assertEquals(expected, new String(received, StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public final void testModulesLive()
+    throws Exception
+  {
+    final SoShaderResolverOSGi resolver = new SoShaderResolverOSGi();
+    final ExampleModuleProvider provider = new ExampleModuleProvider();
+
+    final SoShaderPreprocessorConfig.Builder b =
+      SoShaderPreprocessorConfig.builder();
+    b.setResolver(resolver);
+    b.setVersion(330);
+    b.setOutputCacheSize(8);
+    b.setSourceCacheSize(8);
+    final SoShaderPreprocessorConfig c = b.build();
+
+    final SoShaderPreprocessorType preprocessor = this.create(c);
+
+    resolver.onModuleRegister(provider);
+    final List<String> lines = preprocessor.preprocessFile(
+      new HashMap<>(),
+      "com.io7m.sombrero.example0/same_module.h");
+
+    Assert.assertEquals(2L, (long) lines.size());
+    Assert.assertEquals("#version 330 core\n", lines.get(0));
+    Assert.assertEquals("void file0();\n", lines.get(1));
+
+    resolver.onModuleUnregister(provider);
+
+    this.expected.expect(SoShaderExceptionIO.class);
+    this.expected.expectCause(IsInstanceOf.any(NoSuchFileException.class));
+    preprocessor.preprocessFile(
+      new HashMap<>(),
+      "com.io7m.sombrero.example0/same_module.h");
+  }
+
+  @Test
+  public final void testByteBufferTooSmall()
+    throws Exception
+  {
+    final SoShaderPreprocessorConfig.Builder b =
+      SoShaderPreprocessorConfig.builder();
+    b.setResolver(this.resolver());
+    b.setVersion(330);
+    final SoShaderPreprocessorConfig c = b.build();
+
+    final SoShaderPreprocessorType preprocessor = this.create(c);
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(4);
+
+    this.expected.expect(SoShaderException.class);
+    preprocessor.preprocessFileToByteBuffer(
+      new HashMap<>(),
+      "com.io7m.sombrero.example0/file0.h",
+      size -> buffer);
+  }
+
+  @Test
+  public final void testOutputCache()
+    throws Exception
+  {
+    final SoShaderPreprocessorConfig.Builder b =
+      SoShaderPreprocessorConfig.builder();
+    b.setResolver(this.resolver());
+    b.setVersion(330);
+    b.setOutputCacheSize(8);
+    final SoShaderPreprocessorConfig c = b.build();
+
+    final SoShaderPreprocessorType preprocessor = this.create(c);
+
+    final List<String> lines0 = preprocessor.preprocessFile(
+      new HashMap<>(),
+      "com.io7m.sombrero.example0/same_module.h");
+    final List<String> lines1 = preprocessor.preprocessFile(
+      new HashMap<>(),
+      "com.io7m.sombrero.example0/same_module.h");
+
+    Assert.assertEquals(2L, (long) lines0.size());
+    Assert.assertSame(lines0, lines1);
+
+    preprocessor.invalidate("com.io7m.sombrero.example0/file0.h");
+
+    final List<String> lines2 = preprocessor.preprocessFile(
+      new HashMap<>(),
+      "com.io7m.sombrero.example0/same_module.h");
+
+    Assert.assertNotSame(lines0, lines2);
+    Assert.assertEquals(lines0, lines2);
+  }
+
+  @Test
+  public final void testSourceCache()
+    throws Exception
+  {
+    final SoShaderPreprocessorConfig.Builder b =
+      SoShaderPreprocessorConfig.builder();
+    b.setResolver(this.resolver());
+    b.setVersion(330);
+    b.setSourceCacheSize(8);
+    final SoShaderPreprocessorConfig c = b.build();
+
+    final SoShaderPreprocessorType preprocessor = this.create(c);
+
+    final List<String> lines0 = preprocessor.preprocessFile(
+      new HashMap<>(),
+      "com.io7m.sombrero.example0/same_module.h");
+    final List<String> lines1 = preprocessor.preprocessFile(
+      new HashMap<>(),
+      "com.io7m.sombrero.example0/cross_module.h");
+
+    Assert.assertEquals(2L, (long) lines0.size());
+    Assert.assertEquals("#version 330 core\n", lines0.get(0));
+    Assert.assertEquals("void file0();\n", lines0.get(1));
+    Assert.assertEquals(lines0, lines1);
+
+    preprocessor.invalidateAll();
+
+    final List<String> lines2 = preprocessor.preprocessFile(
+      new HashMap<>(),
+      "com.io7m.sombrero.example0/same_module.h");
+    Assert.assertEquals(lines0, lines2);
+  }
 }
@@ -0,0 +1,309 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.tests.core;
+
+import com.io7m.junreachable.UnreachableCodeException;
+import com.io7m.sombrero.core.SoShaderPreprocessorConfig;
+import com.io7m.sombrero.core.SoShaderPreprocessorType;
+import com.io7m.sombrero.core.SoShaderResolverType;
+import com.io7m.sombrero.glsl.SoShaderPreprocessorGLSL;
+import com.io7m.sombrero.serviceloader.SoShaderResolverServiceLoader;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+public final class SoShaderPreprocessorGLSLTest
+  extends SoShaderPreprocessorContract
+{
+  @Override
+  protected SoShaderPreprocessorType create(
+    final SoShaderPreprocessorConfig config)
+  {
+    return SoShaderPreprocessorGLSL.create(config);
+  }
+
+  @Override
+  protected SoShaderResolverType resolver()
+  {
+    return SoShaderResolverServiceLoader.create();
+  }
+
+  @Test
+  public void testMacros()
+    throws Exception
+  {
+    final SoShaderPreprocessorConfig.Builder b =
+      SoShaderPreprocessorConfig.builder();
+    b.setResolver(this.resolver());
+    b.setVersion(330);
+    final SoShaderPreprocessorConfig c = b.build();
+
+    final SoShaderPreprocessorType preprocessor = this.create(c);
+
+    final List<String> lines = preprocessor.preprocessFile(
+      new HashMap<>(),
+      "com.io7m.sombrero.example0/macros.h");
+
+    Assert.assertEquals(5L, (long) lines.size());
+    Assert.assertEquals("#version 330 core\n", lines.get(0));
+    Assert.assertEquals(
+      "#extension GL_ARB_separate_shader_objects : require\n",
+      lines.get(1));
+    Assert.assertEquals(
+      "int value_0 = ((((1) + (2))) + (((1) + (2))));\n",
+      lines.get(2));
+    Assert.assertEquals("const char s = \"a \\\"b\\\"\";\n", lines.get(3));
+    Assert.assertEquals("int ok;\n", lines.get(4));
+  }
+
+  private SoShaderPreprocessorType preprocessor()
+  {
+    final SoShaderPreprocessorConfig.Builder b =
+      SoShaderPreprocessorConfig.builder();
+    b.setResolver(this.resolver());
+    b.setVersion(330);
+    return this.create(b.build());
+  }
+
+  @Test
+  public void testConditionals()
+    throws Exception
+  {
+    final SoShaderPreprocessorType preprocessor = this.preprocessor();
+
+    final List<String> lines = preprocessor.preprocessFileWithCallbacks(
+      new HashMap<>(),
+      "com.io7m.sombrero.example0/glsl_conditionals.h",
+      (file, line, column, msg) -> {
+        throw new UnreachableCodeException();
+      },
+      (file, line, column, msg) -> {
+        throw new UnreachableCodeException();
+      });
+
+    Assert.assertEquals(5L, (long) lines.size());
+    Assert.assertEquals("#version 330 core\n", lines.get(0));
+    Assert.assertEquals("int a2;\n", lines.get(1));
+    Assert.assertEquals("int elif_taken;\n", lines.get(2));
+    Assert.assertEquals("int defined_taken;\n", lines.get(3));
+    Assert.assertEquals("int else_taken;\n", lines.get(4));
+  }
+
+  @Test
+  public void testUndef()
+    throws Exception
+  {
+    final SoShaderPreprocessorType preprocessor = this.preprocessor();
+
+    final List<String> lines = preprocessor.preprocessFile(
+      new HashMap<>(),
+      "com.io7m.sombrero.example0/glsl_undef.h");
+
+    Assert.assertEquals(3L, (long) lines.size());
+    Assert.assertEquals("int x0 = 1;\n", lines.get(1));
+    Assert.assertEquals("int x1 = X;\n", lines.get(2));
+  }
+
+  @Test
+  public void testPragmaOnce()
+    throws Exception
+  {
+    final SoShaderPreprocessorType preprocessor = this.preprocessor();
+
+    final List<String> lines = preprocessor.preprocessFile(
+      new HashMap<>(),
+      "com.io7m.sombrero.example0/glsl_once_includer.h");
+
+    Assert.assertEquals(3L, (long) lines.size());
+    Assert.assertEquals("int once;\n", lines.get(1));
+    Assert.assertEquals("int after;\n", lines.get(2));
+  }
+
+  @Test
+  public void testRecursiveMacros()
+    throws Exception
+  {
+    final SoShaderPreprocessorType preprocessor = this.preprocessor();
+
+    final List<String> lines = preprocessor.preprocessFile(
+      new HashMap<>(),
+      "com.io7m.sombrero.example0/glsl_recursive.h");
+
+    Assert.assertEquals(3L, (long) lines.size());
+    Assert.assertEquals("int s = SELF + 1;\n", lines.get(1));
+    Assert.assertEquals("int f = F(1) * 2;\n", lines.get(2));
+  }
+
+  @Test
+  public void testPaintedMacros()
+    throws Exception
+  {
+    final SoShaderPreprocessorType preprocessor = this.preprocessor();
+
+    final List<String> lines = preprocessor.preprocessFile(
+      new HashMap<>(),
+      "com.io7m.sombrero.example0/glsl_painted.h");
+
+    Assert.assertEquals(3L, (long) lines.size());
+    Assert.assertEquals("int p0 = (z[0]);\n", lines.get(1));
+    Assert.assertEquals("int p1 = ((z[0]));\n", lines.get(2));
+  }
+
+  /**
+   * The examples from ISO/IEC 9899:1999 section 6.10.3.5. The expected text
+   * is compared with all whitespace removed.
+   */
+
+  @Test
+  public void testStandardExamples()
+    throws Exception
+  {
+    final SoShaderPreprocessorType preprocessor = this.preprocessor();
+
+    final List<String> lines = preprocessor.preprocessFile(
+      new HashMap<>(),
+      "com.io7m.sombrero.example0/glsl_standard.h");
+
+    final StringBuilder text = new StringBuilder(128);
+    for (int index = 1; index < lines.size(); ++index) {
+      text.append(lines.get(index));
+    }
+
+    Assert.assertEquals(
+      "f(2*(y+1))+f(2*(f(2*(z[0]))))%f(2*(0))+t(1);"
+        + "f(2*(2+(3,4)-0,1))|f(2*(~5))&f(2*(0,1))^m(0,1);"
+        + "inti[]={1,23,4,5,};"
+        + "charc[2][6]={\"hello\",\"\"};",
+      text.toString().replaceAll("\\s", ""));
+  }
+
+  @Test
+  public void testMacroArity()
+    throws Exception
+  {
+    final SoShaderPreprocessorType preprocessor = this.preprocessor();
+
+    final List<String> errors = new ArrayList<>();
+    preprocessor.preprocessFileWithCallbacks(
+      new HashMap<>(),
+      "com.io7m.sombrero.example0/glsl_arity.h",
+      (file, line, column, msg) -> {
+        throw new UnreachableCodeException();
+      },
+      (file, line, column, msg) -> {
+        errors.add(line + ": " + msg);
+      });
+
+    Assert.assertEquals(1L, (long) errors.size());
+    Assert.assertEquals(
+      "2: Macro TWO requires 2 arguments but was given 1",
+      errors.get(0));
+  }
+
+  @Test
+  public void testIncludeDepth()
+    throws Exception
+  {
+    final SoShaderPreprocessorType preprocessor = this.preprocessor();
+
+    final List<String> errors = new ArrayList<>();
+    preprocessor.preprocessFileWithCallbacks(
+      new HashMap<>(),
+      "com.io7m.sombrero.example0/glsl_include_self.h",
+      (file, line, column, msg) -> {
+        throw new UnreachableCodeException();
+      },
+      (file, line, column, msg) -> {
+        errors.add(msg);
+      });
+
+    Assert.assertEquals(1L, (long) errors.size());
+    Assert.assertEquals("#include nested too deeply", errors.get(0));
+  }
+
+  @Test
+  public void testDiagnostics()
+    throws Exception
+  {
+    final SoShaderPreprocessorType preprocessor = this.preprocessor();
+
+    final List<String> warnings = new ArrayList<>();
+    final List<String> errors = new ArrayList<>();
+    final List<String> lines = preprocessor.preprocessFileWithCallbacks(
+      new HashMap<>(),
+      "com.io7m.sombrero.example0/glsl_diagnostics.h",
+      (file, line, column, msg) -> {
+        warnings.add(file + ":" + line + ": " + msg);
+      },
+      (file, line, column, msg) -> {
+        errors.add(file + ":" + line + ": " + msg);
+      });
+
+    Assert.assertEquals(1L, (long) warnings.size());
+    Assert.assertEquals(1L, (long) errors.size());
+    Assert.assertTrue(warnings.get(0).endsWith(":1: #warning \"Careful\""));
+    Assert.assertTrue(errors.get(0).endsWith(":2: #error \"Broken\""));
+    Assert.assertEquals("int after;\n", lines.get(lines.size() - 1));
+  }
+
+  @Test
+  public void testLineDirectives()
+    throws Exception
+  {
+    final SoShaderPreprocessorType preprocessor = this.preprocessor();
+
+    final List<String> errors = new ArrayList<>();
+    final List<String> lines = preprocessor.preprocessFileWithCallbacks(
+      new HashMap<>(),
+      "com.io7m.sombrero.example0/glsl_line.h",
+      (file, line, column, msg) -> {
+        throw new UnreachableCodeException();
+      },
+      (file, line, column, msg) -> {
+        errors.add(line + ": " + msg);
+      });
+
+    Assert.assertEquals(6L, (long) lines.size());
+    Assert.assertEquals("int a = 1;\n", lines.get(1));
+    Assert.assertEquals("#line 10\n", lines.get(2));
+    Assert.assertEquals("int b = 10;\n", lines.get(3));
+    Assert.assertEquals("#line N\n", lines.get(4));
+    Assert.assertEquals("int c = 20;\n", lines.get(5));
+
+    Assert.assertEquals(2L, (long) errors.size());
+    Assert.assertEquals("21: #error \"Here\"", errors.get(0));
+    Assert.assertEquals("22: Invalid #line directive", errors.get(1));
+  }
+
+  @Test
+  public void testBuiltinMacros()
+    throws Exception
+  {
+    final SoShaderPreprocessorType preprocessor = this.preprocessor();
+
+    final List<String> lines = preprocessor.preprocessFile(
+      new HashMap<>(),
+      "com.io7m.sombrero.example0/glsl_builtins.h");
+
+    Assert.assertEquals("int file = 0;\n", lines.get(1));
+    Assert.assertEquals("int line = 2;\n", lines.get(2));
+    Assert.assertEquals("int line_later = 4;\n", lines.get(lines.size() - 1));
+  }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.tests.core;
+
+import com.io7m.sombrero.core.SoShaderException;
+import com.io7m.sombrero.core.SoShaderFileReferenceType;
+import com.io7m.sombrero.core.SoShaderModuleType;
+import com.io7m.sombrero.core.SoShaderResolverCaching;
+import com.io7m.sombrero.core.SoShaderResolverType;
+import com.io7m.sombrero.osgi.SoShaderResolverOSGi;
+import com.io7m.sombrero.serviceloader.SoShaderResolverServiceLoader;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Optional;
+
+public final class SoShaderResolverCachingTest extends
+  SoShaderModuleResolverContract
+{
+  @Override
+  protected SoShaderResolverType create()
+  {
+    return SoShaderResolverCaching.create(
+      SoShaderResolverServiceLoader.create(), 8);
+  }
+
+  @Test
+  public void testBadSize()
+  {
+    this.expected.expect(IllegalArgumentException.class);
+    SoShaderResolverCaching.create(SoShaderResolverServiceLoader.create(), 0);
+  }
+
+  @Test
+  public void testHitsAndMisses()
+    throws Exception
+  {
+    final CountingResolver counting = new CountingResolver();
+    final SoShaderResolverCaching r =
+      SoShaderResolverCaching.create(counting, 8);
+
+    final Optional<SoShaderFileReferenceType> ref0 =
+      r.resolve("com.io7m.sombrero.example0/example.txt");
+    final Optional<SoShaderFileReferenceType> ref1 =
+      r.resolve("com.io7m.sombrero.example0/example.txt");
+    Assert.assertTrue(ref0.isPresent());
+    Assert.assertSame(ref0, ref1);
+    Assert.assertEquals(1L, (long) counting.resolves);
+
+    Assert.assertFalse(
+      r.resolve("com.io7m.sombrero.example0/nonexistent.txt").isPresent());
+    Assert.assertFalse(
+      r.resolve("com.io7m.sombrero.example0/nonexistent.txt").isPresent());
+    Assert.assertEquals(2L, (long) counting.resolves);
+
+    r.invalidate("com.io7m.sombrero.example0/nonexistent.txt");
+    r.resolve("com.io7m.sombrero.example0/nonexistent.txt");
+    Assert.assertEquals(3L, (long) counting.resolves);
+
+    r.invalidateAll();
+    r.resolve("com.io7m.sombrero.example0/example.txt");
+    Assert.assertEquals(4L, (long) counting.resolves);
+  }
+
+  @Test
+  public void testEviction()
+    throws Exception
+  {
+    final CountingResolver counting = new CountingResolver();
+    final SoShaderResolverCaching r =
+      SoShaderResolverCaching.create(counting, 1);
+
+    r.resolve("com.io7m.sombrero.example0/a.txt");
+    r.resolve("com.io7m.sombrero.example0/b.txt");
+    r.resolve("com.io7m.sombrero.example0/a.txt");
+    Assert.assertEquals(3L, (long) counting.resolves);
+  }
+
+  @Test
+  public void testGenerationChange()
+    throws Exception
+  {
+    final ExampleModuleProvider provider = new ExampleModuleProvider();
+    final SoShaderResolverOSGi osgi = new SoShaderResolverOSGi();
+    final SoShaderResolverCaching r =
+      SoShaderResolverCaching.create(osgi, 8);
+
+    Assert.assertFalse(
+      r.resolve("com.io7m.sombrero.example0/example.txt").isPresent());
+
+    final long generation = osgi.generation();
+    osgi.onModuleRegister(provider);
+    Assert.assertNotEquals(generation, osgi.generation());
+    Assert.assertTrue(
+      r.resolve("com.io7m.sombrero.example0/example.txt").isPresent());
+
+    osgi.onModuleUnregister(provider);
+    Assert.assertFalse(
+      r.resolve("com.io7m.sombrero.example0/example.txt").isPresent());
+  }
+
+  @Test
+  public void testGenerationChangeDuringResolve()
+    throws Exception
+  {
+    final String file = "com.io7m.sombrero.example0/example.txt";
+    final BumpingResolver bumping = new BumpingResolver();
+    final SoShaderResolverCaching r =
+      SoShaderResolverCaching.create(bumping, 8);
+
+    /*
+     * The first resolution changes the generation while it runs, and so its
+     * result must not be cached.
+     */
+
+    bumping.bump = true;
+    Assert.assertTrue(r.resolve(file).isPresent());
+    Assert.assertEquals(1L, (long) bumping.resolves);
+    bumping.bump = false;
+
+    /*
+     * A caller that read the generation before it changed must not observe
+     * the result of the first resolution.
+     */
+
+    bumping.stale = true;
+    Assert.assertTrue(r.resolve(file).isPresent());
+    Assert.assertEquals(2L, (long) bumping.resolves);
+
+    Assert.assertTrue(r.resolve(file).isPresent());
+    Assert.assertEquals(3L, (long) bumping.resolves);
+
+    /*
+     * A caller that read an older generation must not move the cache back
+     * to that generation and discard the current entries.
+     */
+
+    bumping.stale = true;
+    Assert.assertTrue(r.resolve(file).isPresent());
+    Assert.assertEquals(3L, (long) bumping.resolves);
+
+    Assert.assertTrue(r.resolve(file).isPresent());
+    Assert.assertEquals(3L, (long) bumping.resolves);
+  }
+
+  /**
+   * A resolver whose generation can be advanced during a resolution, and
+   * that can report the original generation once, as a concurrent caller
+   * that read it before the change would have seen it.
+   */
+
+  private static final class BumpingResolver implements SoShaderResolverType
+  {
+    private final SoShaderResolverType delegate;
+    private int resolves;
+    private long generation;
+    private boolean bump;
+    private boolean stale;
+
+    BumpingResolver()
+    {
+      this.delegate = SoShaderResolverServiceLoader.create();
+    }
+
+    @Override
+    public Optional<SoShaderFileReferenceType> resolve(
+      final String file)
+      throws SoShaderException
+    {
+      ++this.resolves;
+      if (this.bump) {
+        ++this.generation;
+      }
+      return this.delegate.resolve(file);
+    }
+
+    @Override
+    public Map<String, SoShaderModuleType> available()
+    {
+      return this.delegate.available();
+    }
+
+    @Override
+    public long generation()
+    {
+      if (this.stale) {
+        this.stale = false;
+        return 0L;
+      }
+      return this.generation;
+    }
+  }
+
+  private static final class CountingResolver implements SoShaderResolverType
+  {
+    private final SoShaderResolverType delegate;
+    private int resolves;
+
+    CountingResolver()
+    {
+      this.delegate = SoShaderResolverServiceLoader.create();
+    }
+
+    @Override
+    public Optional<SoShaderFileReferenceType> resolve(
+      final String file)
+      throws SoShaderException
+    {
+      ++this.resolves;
+      return this.delegate.resolve(file);
+    }
+
+    @Override
+    public Map<String, SoShaderModuleType> available()
+    {
+      return this.delegate.available();
+    }
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.tests.core;
+
+import com.io7m.sombrero.core.SoShaderArchiveWriter;
+import com.io7m.sombrero.core.SoShaderArchiveWriterMain;
+import com.io7m.sombrero.core.SoShaderExceptionIO;
+import com.io7m.sombrero.core.SoShaderFileReferenceType;
+import com.io7m.sombrero.core.SoShaderStoreArchive;
+import com.io7m.sombrero.core.SoShaderStoreType;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+
+public final class SoShaderStoreArchiveTest
+{
+  @Rule public ExpectedException expected = ExpectedException.none();
+
+  private static String text(
+    final SoShaderStoreType store,
+    final String name)
+    throws Exception
+  {
+    final Optional<SoShaderFileReferenceType> ref_opt = store.lookup(name);
+    Assert.assertTrue(ref_opt.isPresent());
+    final ByteBuffer buffer = ref_opt.get().bytes();
+    final byte[] data = new byte[buffer.remaining()];
+    buffer.get(data);
+    return new String(data, StandardCharsets.UTF_8);
+  }
+
+  private static void write(
+    final Path file,
+    final String text)
+    throws Exception
+  {
+    Files.createDirectories(file.getParent());
+    Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static Path pack(
+    final Path directory)
+    throws Exception
+  {
+    final Path archive =
+      Files.createTempDirectory("sombrero-").resolve("archive.soma");
+    SoShaderArchiveWriterMain.main(
+      new String[]{directory.toString(), archive.toString()});
+    return archive;
+  }
+
+  @Test
+  public void testLookup()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+    write(base.resolve("a.h"), "A");
+    write(base.resolve("b.h"), "B");
+    write(base.resolve("x").resolve("c.h"), "C");
+    write(base.resolve("x").resolve("y").resolve("d.h"), "D");
+    write(base.resolve("empty.h"), "");
+
+    final SoShaderStoreType store = SoShaderStoreArchive.open(pack(base));
+
+    Assert.assertEquals("A", text(store, "/a.h"));
+    Assert.assertEquals("B", text(store, "/b.h"));
+    Assert.assertEquals("C", text(store, "/x/c.h"));
+    Assert.assertEquals("D", text(store, "/x/y/d.h"));
+    Assert.assertEquals("", text(store, "/empty.h"));
+    Assert.assertEquals("A", text(store, "a.h"));
+    Assert.assertEquals("D", text(store, "//x/./y/d.h"));
+    Assert.assertEquals("C", text(store, "/x/y/../c.h"));
+
+    Assert.assertEquals(Optional.empty(), store.lookup("/x"));
+    Assert.assertEquals(Optional.empty(), store.lookup("/a"));
+    Assert.assertEquals(Optional.empty(), store.lookup("/a.hh"));
+    Assert.assertEquals(Optional.empty(), store.lookup("/0.h"));
+    Assert.assertEquals(Optional.empty(), store.lookup("/z.h"));
+    Assert.assertEquals(Optional.empty(), store.lookup("../a.h"));
+    Assert.assertEquals(Optional.empty(), store.lookup("/\u00e9\ud800.h"));
+  }
+
+  @Test
+  public void testStream()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+    write(base.resolve("a.h"), "Hello");
+    write(base.resolve("b.h"), "World");
+
+    final SoShaderStoreType store = SoShaderStoreArchive.open(pack(base));
+    final Optional<SoShaderFileReferenceType> ref_opt = store.lookup("/b.h");
+    Assert.assertTrue(ref_opt.isPresent());
+
+    try (final InputStream is = ref_opt.get().stream()) {
+      Assert.assertEquals(
+        "World", new String(is.readAllBytes(), StandardCharsets.UTF_8));
+      Assert.assertEquals(-1L, (long) is.read());
+    }
+  }
+
+  @Test
+  public void testFingerprint()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+    write(base.resolve("a.h"), "A");
+    write(base.resolve("b.h"), "B");
+
+    final SoShaderStoreType store = SoShaderStoreArchive.open(pack(base));
+    final long a = store.lookup("/a.h").get().fingerprint().getAsLong();
+    final long b = store.lookup("/b.h").get().fingerprint().getAsLong();
+    Assert.assertNotEquals(a, b);
+    Assert.assertEquals(a, store.lookup("a.h").get().fingerprint().getAsLong());
+  }
+
+  @Test
+  public void testEmpty()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+    final SoShaderStoreType store = SoShaderStoreArchive.open(pack(base));
+    Assert.assertEquals(Optional.empty(), store.lookup("/a.h"));
+  }
+
+  @Test
+  public void testWriteStream()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+    write(base.resolve("a.h"), "A");
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SoShaderArchiveWriter.write(base, out);
+
+    final Path archive = Files.createTempFile("sombrero-", ".soma");
+    Files.write(archive, out.toByteArray());
+    Assert.assertEquals("A", text(SoShaderStoreArchive.open(archive), "/a.h"));
+  }
+
+  @Test
+  public void testBadMagic()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+    write(base.resolve("a.h"), "A");
+
+    final Path archive = pack(base);
+    final byte[] data = Files.readAllBytes(archive);
+    data[0] = (byte) 'X';
+    Files.write(archive, data);
+
+    this.expected.expect(SoShaderExceptionIO.class);
+    SoShaderStoreArchive.open(archive);
+  }
+
+  @Test
+  public void testTruncated()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+    write(base.resolve("a.h"), "Hello");
+
+    final Path archive = pack(base);
+    final byte[] data = Files.readAllBytes(archive);
+    Files.write(archive, Arrays.copyOf(data, data.length - 1));
+
+    this.expected.expect(SoShaderExceptionIO.class);
+    SoShaderStoreArchive.open(archive);
+  }
+
+  @Test
+  public void testTooSmall()
+    throws Exception
+  {
+    final Path archive = Files.createTempFile("sombrero-", ".soma");
+
+    this.expected.expect(SoShaderExceptionIO.class);
+    SoShaderStoreArchive.open(archive);
+  }
+
+  @Test
+  public void testNonexistent()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+
+    this.expected.expect(SoShaderExceptionIO.class);
+    SoShaderStoreArchive.open(base.resolve("nonexistent.soma"));
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.tests.core;
+
+import com.io7m.sombrero.core.SoShaderFileReferenceType;
+import com.io7m.sombrero.core.SoShaderStoreType;
+import com.io7m.sombrero.osgi.SoShaderStoreBundle;
+import org.junit.Assert;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class SoShaderStoreBundleTest
+{
+  /**
+   * A bundle entry URL, in the style of those returned by OSGi frameworks,
+   * that reads the corresponding test resource.
+   */
+
+  private static URL entry(
+    final String path,
+    final AtomicInteger opens)
+    throws Exception
+  {
+    return new URL("bundleentry", "1.fwk", -1, path, new URLStreamHandler()
+    {
+      @Override
+      protected URLConnection openConnection(
+        final URL url)
+        throws IOException
+      {
+        opens.incrementAndGet();
+        return SoShaderStoreBundleTest.class.getResource(url.getPath())
+          .openConnection();
+      }
+    });
+  }
+
+  /**
+   * A bundle that contains the test resources, and for which only {@code
+   * findEntries}, {@code getLastModified} and {@code getSymbolicName} are
+   * implemented.
+   */
+
+  private static Bundle bundle(
+    final List<String> requests,
+    final AtomicInteger opens)
+  {
+    return (Bundle) Proxy.newProxyInstance(
+      Bundle.class.getClassLoader(),
+      new Class<?>[]{Bundle.class},
+      (proxy, method, args) -> {
+        switch (method.getName()) {
+          case "getSymbolicName":
+            return "com.io7m.sombrero.tests";
+          case "getLastModified":
+            return Long.valueOf(1000L);
+          case "findEntries": {
+            requests.add((String) args[0]);
+            final String base = "/com/io7m/sombrero/tests/core/";
+            if (!base.equals(args[0])) {
+              return null;
+            }
+            final List<URL> urls = new ArrayList<>(4);
+            urls.add(entry(base, opens));
+            urls.add(entry(base + "example.txt", opens));
+            urls.add(entry(base + "file0.h", opens));
+            return Collections.enumeration(urls);
+          }
+          default:
+            throw new UnsupportedOperationException(method.getName());
+        }
+      });
+  }
+
+  @Test
+  public void testLookup()
+    throws Exception
+  {
+    final List<String> requests = new ArrayList<>(1);
+    final AtomicInteger opens = new AtomicInteger(0);
+    final SoShaderStoreType store = SoShaderStoreBundle.create(
+      bundle(requests, opens), "com/io7m/sombrero/tests/core");
+
+    Assert.assertEquals(
+      Collections.singletonList("/com/io7m/sombrero/tests/core/"), requests);
+    Assert.assertTrue(store.lookup("/file0.h").isPresent());
+    Assert.assertTrue(store.lookup("file0.h").isPresent());
+    Assert.assertEquals(Optional.empty(), store.lookup("/"));
+    Assert.assertEquals(Optional.empty(), store.lookup("/errors.h"));
+    Assert.assertTrue(store.lookup("/x/../file0.h").isPresent());
+    Assert.assertEquals(Optional.empty(), store.lookup("/../file0.h"));
+
+    final Optional<SoShaderFileReferenceType> ref_opt =
+      store.lookup("//example.txt");
+    Assert.assertTrue(ref_opt.isPresent());
+    try (final InputStream is = ref_opt.get().stream()) {
+      final byte[] b = new byte[6];
+      Assert.assertEquals(6L, (long) is.read(b));
+      Assert.assertEquals("Hello.", new String(b, StandardCharsets.UTF_8));
+    }
+  }
+
+  @Test
+  public void testContentsReadOnce()
+    throws Exception
+  {
+    final AtomicInteger opens = new AtomicInteger(0);
+    final SoShaderStoreType store = SoShaderStoreBundle.create(
+      bundle(new ArrayList<>(1), opens), "com/io7m/sombrero/tests/core");
+
+    final SoShaderFileReferenceType ref = store.lookup("/example.txt").get();
+    Assert.assertEquals(0L, (long) opens.get());
+    Assert.assertEquals(OptionalLong.of(1000L), ref.fingerprint());
+    Assert.assertEquals(0L, (long) opens.get());
+
+    Assert.assertEquals(6L, (long) ref.bytes().remaining());
+    Assert.assertTrue(ref.bytes().isReadOnly());
+    try (final InputStream is = ref.stream()) {
+      Assert.assertEquals((long) 'H', (long) is.read());
+    }
+    Assert.assertEquals(1L, (long) opens.get());
+  }
+
+  @Test
+  public void testEmpty()
+    throws Exception
+  {
+    final SoShaderStoreType store =
+      SoShaderStoreBundle.create(
+        bundle(new ArrayList<>(1), new AtomicInteger(0)), "/nonexistent");
+    Assert.assertEquals(Optional.empty(), store.lookup("/file0.h"));
+  }
+}
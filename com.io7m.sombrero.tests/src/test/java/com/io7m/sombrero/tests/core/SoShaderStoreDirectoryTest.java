@@ -16,6 +16,7 @@
 
 package com.io7m.sombrero.tests.core;
 
+import com.io7m.sombrero.core.SoShaderExceptionIO;
 import com.io7m.sombrero.core.SoShaderFileReferenceType;
 import com.io7m.sombrero.core.SoShaderStoreDirectory;
 import com.io7m.sombrero.core.SoShaderStoreType;
@@ -26,10 +27,17 @@ import org.junit.rules.ExpectedException;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public final class SoShaderStoreDirectoryTest
 {
@@ -80,4 +88,255 @@ public final class SoShaderStoreDirectoryTest
       Assert.fail();
     }
   }
+
+  @Test
+  public void testBytes()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+    final Path file = base.resolve("file.txt");
+    Files.write(file, "Hello".getBytes(StandardCharsets.UTF_8));
+
+    final SoShaderStoreType source = SoShaderStoreDirectory.create(base);
+    final SoShaderFileReferenceType ref = source.lookup("/file.txt").get();
+    Assert.assertEquals("Hello", decode(ref.bytes()));
+  }
+
+  @Test
+  public void testBytesMapped()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+    final Path file = base.resolve("file.txt");
+    Files.write(file, "Hello".getBytes(StandardCharsets.UTF_8));
+
+    final SoShaderStoreType source = SoShaderStoreDirectory.createMapped(base);
+    final SoShaderFileReferenceType ref = source.lookup("/file.txt").get();
+
+    final ByteBuffer buffer0 = ref.bytes();
+    Assert.assertTrue(buffer0.isReadOnly());
+    Assert.assertEquals("Hello", decode(buffer0));
+    Assert.assertEquals("Hello", decode(ref.bytes()));
+
+    try (final InputStream is = ref.stream()) {
+      Assert.assertEquals(
+        "Hello", new String(is.readAllBytes(), StandardCharsets.UTF_8));
+    }
+  }
+
+  @Test
+  public void testBytesMappedChanged()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+    final Path file = base.resolve("file.txt");
+    Files.write(file, "Hello".getBytes(StandardCharsets.UTF_8));
+
+    final SoShaderStoreType source = SoShaderStoreDirectory.createMapped(base);
+    final SoShaderFileReferenceType ref = source.lookup("/file.txt").get();
+    Assert.assertEquals("Hello", decode(ref.bytes()));
+
+    Files.write(file, "Goodbye".getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(file, FileTime.fromMillis(0L));
+    Assert.assertEquals("Goodbye", decode(ref.bytes()));
+  }
+
+  @Test
+  public void testBytesMappedEvicted()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+    Files.write(base.resolve("a.txt"), "A".getBytes(StandardCharsets.UTF_8));
+    Files.write(base.resolve("b.txt"), "B".getBytes(StandardCharsets.UTF_8));
+
+    final SoShaderStoreType source =
+      SoShaderStoreDirectory.createMapped(base, 1);
+    final SoShaderFileReferenceType ref_a = source.lookup("/a.txt").get();
+    final SoShaderFileReferenceType ref_b = source.lookup("/b.txt").get();
+
+    final ByteBuffer buffer_a = ref_a.bytes();
+    Assert.assertEquals("B", decode(ref_b.bytes()));
+    Assert.assertEquals("A", decode(buffer_a));
+    Assert.assertEquals("A", decode(ref_a.bytes()));
+  }
+
+  @Test
+  public void testBytesMappedBadCount()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+    this.expected.expect(IllegalArgumentException.class);
+    SoShaderStoreDirectory.createMapped(base, 0);
+  }
+
+  @Test
+  public void testBytesMappedEmpty()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+    Files.write(base.resolve("file.txt"), new byte[0]);
+
+    final SoShaderStoreType source = SoShaderStoreDirectory.createMapped(base);
+    final SoShaderFileReferenceType ref = source.lookup("/file.txt").get();
+    Assert.assertEquals(0L, (long) ref.bytes().remaining());
+  }
+
+  @Test
+  public void testIndexed()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+    Files.createDirectories(base.resolve("x"));
+    Files.write(
+      base.resolve("file.txt"), "Hello".getBytes(StandardCharsets.UTF_8));
+    Files.write(
+      base.resolve("x").resolve("other.txt"),
+      "Other".getBytes(StandardCharsets.UTF_8));
+
+    final SoShaderStoreType source = SoShaderStoreDirectory.createIndexed(base);
+    Assert.assertEquals(
+      "Hello", decode(source.lookup("/file.txt").get().bytes()));
+    Assert.assertEquals(
+      "Hello", decode(source.lookup("file.txt").get().bytes()));
+    Assert.assertEquals(
+      "Other", decode(source.lookup("/x/../x//other.txt").get().bytes()));
+    Assert.assertEquals(Optional.empty(), source.lookup("/x"));
+    Assert.assertEquals(Optional.empty(), source.lookup("/nonexistent.txt"));
+    Assert.assertEquals(Optional.empty(), source.lookup("../../file.txt"));
+  }
+
+  @Test
+  public void testIndexedRefresh()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+    final Path file = base.resolve("file.txt");
+    Files.write(file, "Hello".getBytes(StandardCharsets.UTF_8));
+
+    final SoShaderStoreDirectory source =
+      SoShaderStoreDirectory.createIndexed(base);
+    Files.write(
+      base.resolve("new.txt"), "New".getBytes(StandardCharsets.UTF_8));
+    Files.delete(file);
+
+    Assert.assertTrue(source.lookup("/file.txt").isPresent());
+    Assert.assertEquals(Optional.empty(), source.lookup("/new.txt"));
+
+    source.refresh();
+    Assert.assertEquals(Optional.empty(), source.lookup("/file.txt"));
+    Assert.assertEquals("New", decode(source.lookup("/new.txt").get().bytes()));
+  }
+
+  @Test
+  public void testIndexedSymbolicLinks()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+    final Path other = Files.createTempDirectory("sombrero-");
+    Files.write(
+      other.resolve("other.txt"), "Other".getBytes(StandardCharsets.UTF_8));
+    Files.createSymbolicLink(base.resolve("x"), other);
+    Files.createSymbolicLink(
+      base.resolve("file.txt"), other.resolve("other.txt"));
+    Files.createSymbolicLink(other.resolve("loop"), base);
+
+    final SoShaderStoreType plain = SoShaderStoreDirectory.create(base);
+    final SoShaderStoreType indexed = SoShaderStoreDirectory.createIndexed(base);
+    for (final SoShaderStoreType source : new SoShaderStoreType[]{plain, indexed}) {
+      Assert.assertEquals(
+        "Other", decode(source.lookup("/x/other.txt").get().bytes()));
+      Assert.assertEquals(
+        "Other", decode(source.lookup("/file.txt").get().bytes()));
+    }
+  }
+
+  @Test
+  public void testIndexedNonexistent()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+
+    this.expected.expect(SoShaderExceptionIO.class);
+    SoShaderStoreDirectory.createIndexed(base.resolve("nonexistent"));
+  }
+
+  @Test
+  public void testFingerprint()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+    final Path file = base.resolve("file.txt");
+    Files.write(file, "Hello".getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(file, FileTime.fromMillis(1000L));
+
+    final SoShaderStoreType source = SoShaderStoreDirectory.create(base);
+    final SoShaderFileReferenceType ref = source.lookup("/file.txt").get();
+    final long fingerprint_0 = ref.fingerprint().getAsLong();
+    Assert.assertEquals(fingerprint_0, ref.fingerprint().getAsLong());
+
+    Files.write(file, "Hello!".getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(file, FileTime.fromMillis(1000L));
+    final long fingerprint_1 = ref.fingerprint().getAsLong();
+    Assert.assertNotEquals(fingerprint_0, fingerprint_1);
+
+    Files.setLastModifiedTime(file, FileTime.fromMillis(2000L));
+    Assert.assertNotEquals(fingerprint_1, ref.fingerprint().getAsLong());
+  }
+
+  @Test
+  public void testFetchAll()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+    Files.write(base.resolve("a.txt"), "A".getBytes(StandardCharsets.UTF_8));
+    Files.write(base.resolve("b.txt"), "B".getBytes(StandardCharsets.UTF_8));
+
+    final SoShaderStoreType source = SoShaderStoreDirectory.create(base);
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      final Map<String, ByteBuffer> results = source.fetchAll(
+        Arrays.asList("/b.txt", "/a.txt", "/c.txt", "/b.txt", "../a.txt"),
+        executor);
+      Assert.assertEquals(
+        Arrays.asList("/b.txt", "/a.txt"), new ArrayList<>(results.keySet()));
+      Assert.assertEquals("A", decode(results.get("/a.txt")));
+      Assert.assertEquals("B", decode(results.get("/b.txt")));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testFetchAllIndexed()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+    Files.write(base.resolve("a.txt"), "A".getBytes(StandardCharsets.UTF_8));
+
+    final SoShaderStoreType source = SoShaderStoreDirectory.createIndexed(base);
+    final Map<String, ByteBuffer> results =
+      source.fetchAllAsync(Arrays.asList("/a.txt", "/c.txt")).get();
+    Assert.assertEquals(1L, (long) results.size());
+    Assert.assertEquals("A", decode(results.get("/a.txt")));
+  }
+
+  @Test
+  public void testFetchAllError()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+    Files.createDirectories(base.resolve("x"));
+    Files.write(base.resolve("a.txt"), "A".getBytes(StandardCharsets.UTF_8));
+
+    final SoShaderStoreType source = SoShaderStoreDirectory.create(base);
+
+    this.expected.expect(SoShaderExceptionIO.class);
+    source.fetchAll(Arrays.asList("/a.txt", "/x"), Runnable::run);
+  }
+
+  private static String decode(
+    final ByteBuffer buffer)
+  {
+    return StandardCharsets.UTF_8.decode(buffer).toString();
+  }
 }
@@ -0,0 +1,264 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.tests.core;
+
+import com.io7m.junreachable.UnreachableCodeException;
+import com.io7m.sombrero.core.SoShaderExceptionIO;
+import com.io7m.sombrero.core.SoShaderPreprocessorCallbackErrorType;
+import com.io7m.sombrero.core.SoShaderPreprocessorCallbackWarningType;
+import com.io7m.sombrero.core.SoShaderPreprocessorType;
+import com.io7m.sombrero.core.SoShaderStoreDirectoryWatching;
+import com.io7m.sombrero.core.SoShaderStoreListenerInvalidating;
+import com.io7m.sombrero.core.SoShaderStoreListenerType;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public final class SoShaderStoreDirectoryWatchingTest
+{
+  @Rule public ExpectedException expected = ExpectedException.none();
+
+  private static void write(
+    final Path file,
+    final String text)
+    throws Exception
+  {
+    Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String awaitChange(
+    final LinkedBlockingQueue<String> changes,
+    final String name)
+    throws Exception
+  {
+    while (true) {
+      final String change = changes.poll(30L, TimeUnit.SECONDS);
+      Assert.assertNotNull(change);
+      if (change.equals(name)) {
+        return change;
+      }
+    }
+  }
+
+  private static final class Listener implements SoShaderStoreListenerType
+  {
+    private final LinkedBlockingQueue<String> changes;
+
+    Listener(
+      final LinkedBlockingQueue<String> in_changes)
+    {
+      this.changes = in_changes;
+    }
+
+    @Override
+    public void onFileChanged(
+      final String name,
+      final long version)
+    {
+      this.changes.add(name);
+    }
+
+    @Override
+    public void onAllChanged(
+      final long version)
+    {
+      this.changes.add("*");
+    }
+  }
+
+  @Test
+  public void testLookup()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+    write(base.resolve("a.h"), "A");
+
+    try (final SoShaderStoreDirectoryWatching store =
+           SoShaderStoreDirectoryWatching.create(base)) {
+      Assert.assertTrue(store.lookup("/a.h").isPresent());
+      Assert.assertFalse(store.lookup("/b.h").isPresent());
+      Assert.assertFalse(store.lookup("../a.h").isPresent());
+      Assert.assertEquals(0L, store.version("/a.h"));
+    }
+  }
+
+  @Test
+  public void testModified()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+    write(base.resolve("a.h"), "A");
+    write(base.resolve("b.h"), "B");
+
+    try (final SoShaderStoreDirectoryWatching store =
+           SoShaderStoreDirectoryWatching.create(base)) {
+      final LinkedBlockingQueue<String> changes = new LinkedBlockingQueue<>();
+      store.subscribe(new Listener(changes));
+
+      write(base.resolve("a.h"), "AA");
+      awaitChange(changes, "/a.h");
+
+      final long version_0 = store.version("/a.h");
+      Assert.assertTrue(version_0 > 0L);
+      Assert.assertTrue(store.version("a.h") >= version_0);
+      Assert.assertEquals(0L, store.version("/b.h"));
+
+      Files.delete(base.resolve("b.h"));
+      awaitChange(changes, "/b.h");
+      Assert.assertTrue(store.version("/b.h") > version_0);
+    }
+  }
+
+  @Test
+  public void testNewDirectory()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+
+    try (final SoShaderStoreDirectoryWatching store =
+           SoShaderStoreDirectoryWatching.create(base)) {
+      final LinkedBlockingQueue<String> changes = new LinkedBlockingQueue<>();
+      store.subscribe(new Listener(changes));
+
+      final Path x = base.resolve("x");
+      Files.createDirectory(x);
+      write(x.resolve("c.h"), "C");
+      awaitChange(changes, "/x/c.h");
+
+      write(x.resolve("c.h"), "CC");
+      awaitChange(changes, "/x/c.h");
+      Assert.assertTrue(store.version("/x/c.h") > 0L);
+      Assert.assertTrue(store.lookup("/x/c.h").isPresent());
+    }
+  }
+
+  @Test
+  public void testUnsubscribe()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+
+    try (final SoShaderStoreDirectoryWatching store =
+           SoShaderStoreDirectoryWatching.create(base)) {
+      final LinkedBlockingQueue<String> changes_0 = new LinkedBlockingQueue<>();
+      final LinkedBlockingQueue<String> changes_1 = new LinkedBlockingQueue<>();
+      final Listener listener_0 = new Listener(changes_0);
+      store.subscribe(listener_0);
+      store.subscribe(new Listener(changes_1));
+      store.unsubscribe(listener_0);
+
+      write(base.resolve("a.h"), "A");
+      awaitChange(changes_1, "/a.h");
+      Assert.assertTrue(changes_0.isEmpty());
+    }
+  }
+
+  @Test
+  public void testNonexistent()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+
+    this.expected.expect(SoShaderExceptionIO.class);
+    SoShaderStoreDirectoryWatching.create(base.resolve("nonexistent"));
+  }
+
+  @Test
+  public void testDirectoryMovedOut()
+    throws Exception
+  {
+    final Path outside = Files.createTempDirectory("sombrero-");
+    final Path base = Files.createTempDirectory("sombrero-");
+    final Path x = base.resolve("x");
+    Files.createDirectories(x.resolve("y"));
+    write(x.resolve("c.h"), "C");
+    write(x.resolve("y").resolve("d.h"), "D");
+
+    try (final SoShaderStoreDirectoryWatching store =
+           SoShaderStoreDirectoryWatching.create(base)) {
+      final LinkedBlockingQueue<String> changes = new LinkedBlockingQueue<>();
+      store.subscribe(new Listener(changes));
+
+      Files.move(x, outside.resolve("x"));
+
+      final Set<String> expected_changes = new HashSet<>(2);
+      expected_changes.add("/x/c.h");
+      expected_changes.add("/x/y/d.h");
+      while (!expected_changes.isEmpty()) {
+        final String change = changes.poll(30L, TimeUnit.SECONDS);
+        Assert.assertNotNull(change);
+        expected_changes.remove(change);
+      }
+
+      Assert.assertTrue(store.version("/x/c.h") > 0L);
+      Assert.assertTrue(store.version("/x/y/d.h") > 0L);
+      Assert.assertFalse(store.lookup("/x/c.h").isPresent());
+    }
+  }
+
+  @Test
+  public void testInvalidating()
+  {
+    final List<String> invalidated = new ArrayList<>(2);
+    final SoShaderPreprocessorType preprocessor = new SoShaderPreprocessorType()
+    {
+      @Override
+      public List<String> preprocessFileWithCallbacks(
+        final Map<String, String> defines,
+        final String file,
+        final SoShaderPreprocessorCallbackWarningType on_warning,
+        final SoShaderPreprocessorCallbackErrorType on_error)
+      {
+        throw new UnreachableCodeException();
+      }
+
+      @Override
+      public void invalidate(
+        final String file)
+      {
+        invalidated.add(file);
+      }
+
+      @Override
+      public void invalidateAll()
+      {
+        invalidated.add("*");
+      }
+    };
+
+    final SoShaderStoreListenerType listener =
+      SoShaderStoreListenerInvalidating.create("com.example", preprocessor);
+    listener.onFileChanged("/a/b.h", 1L);
+    listener.onAllChanged(2L);
+
+    Assert.assertEquals(2L, (long) invalidated.size());
+    Assert.assertEquals("com.example/a/b.h", invalidated.get(0));
+    Assert.assertEquals("*", invalidated.get(1));
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.tests.core;
+
+import com.io7m.sombrero.core.SoShaderException;
+import com.io7m.sombrero.core.SoShaderFileReferenceType;
+import com.io7m.sombrero.core.SoShaderStoreLazy;
+import com.io7m.sombrero.core.SoShaderStoreResource;
+import com.io7m.sombrero.core.SoShaderStoreType;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class SoShaderStoreLazyTest
+{
+  @Rule public ExpectedException expected = ExpectedException.none();
+
+  private static SoShaderStoreType example()
+  {
+    return SoShaderStoreResource.create(
+      "/com/io7m/sombrero/tests/core",
+      ExampleModuleProvider.class::getResource);
+  }
+
+  @Test
+  public void testConstructedOnFirstUse()
+    throws Exception
+  {
+    final AtomicInteger calls = new AtomicInteger(0);
+    final SoShaderStoreLazy store = SoShaderStoreLazy.create(() -> {
+      calls.incrementAndGet();
+      return example();
+    });
+
+    Assert.assertFalse(store.isConstructed());
+    Assert.assertEquals(0L, (long) calls.get());
+
+    final Optional<SoShaderFileReferenceType> ref_opt =
+      store.lookup("/example.txt");
+    Assert.assertTrue(ref_opt.isPresent());
+    Assert.assertTrue(store.isConstructed());
+
+    final Optional<ByteBuffer> data_opt = store.fetch("/example.txt");
+    Assert.assertTrue(data_opt.isPresent());
+    Assert.assertEquals(
+      "Hello.",
+      StandardCharsets.UTF_8.decode(data_opt.get()).toString());
+
+    Assert.assertFalse(store.lookup("/nonexistent.txt").isPresent());
+    Assert.assertEquals(1L, (long) calls.get());
+  }
+
+  @Test
+  public void testConstructedOnce()
+    throws Exception
+  {
+    final AtomicInteger calls = new AtomicInteger(0);
+    final CountDownLatch start = new CountDownLatch(1);
+    final SoShaderStoreLazy store = SoShaderStoreLazy.create(() -> {
+      calls.incrementAndGet();
+      return example();
+    });
+
+    final ExecutorService exec = Executors.newFixedThreadPool(8);
+    try {
+      final List<Future<Boolean>> futures = new ArrayList<>(8);
+      for (int index = 0; index < 8; ++index) {
+        futures.add(exec.submit(() -> {
+          start.await();
+          return Boolean.valueOf(store.lookup("/example.txt").isPresent());
+        }));
+      }
+
+      start.countDown();
+      for (final Future<Boolean> future : futures) {
+        Assert.assertTrue(future.get().booleanValue());
+      }
+    } finally {
+      exec.shutdown();
+    }
+
+    Assert.assertEquals(1L, (long) calls.get());
+  }
+
+  @Test
+  public void testFailureRetried()
+    throws Exception
+  {
+    final AtomicInteger calls = new AtomicInteger(0);
+    final SoShaderStoreLazy store = SoShaderStoreLazy.create(() -> {
+      if (calls.incrementAndGet() == 1) {
+        throw new SoShaderException("Failed");
+      }
+      return example();
+    });
+
+    try {
+      store.lookup("/example.txt");
+      Assert.fail();
+    } catch (final SoShaderException e) {
+      Assert.assertFalse(store.isConstructed());
+    }
+
+    Assert.assertTrue(store.lookup("/example.txt").isPresent());
+    Assert.assertEquals(2L, (long) calls.get());
+  }
+}
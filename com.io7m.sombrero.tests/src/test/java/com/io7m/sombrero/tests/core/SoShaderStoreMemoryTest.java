@@ -0,0 +1,184 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.tests.core;
+
+import com.io7m.sombrero.core.SoShaderExceptionIO;
+import com.io7m.sombrero.core.SoShaderFileReferenceType;
+import com.io7m.sombrero.core.SoShaderStoreMemory;
+import com.io7m.sombrero.core.SoShaderStoreResource;
+import com.io7m.sombrero.core.SoShaderStoreType;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+
+public final class SoShaderStoreMemoryTest
+{
+  @Rule public ExpectedException expected = ExpectedException.none();
+
+  private static String text(
+    final SoShaderStoreType store,
+    final String name)
+    throws Exception
+  {
+    final Optional<SoShaderFileReferenceType> ref_opt = store.lookup(name);
+    Assert.assertTrue(ref_opt.isPresent());
+    final ByteBuffer buffer = ref_opt.get().bytes();
+    final byte[] data = new byte[buffer.remaining()];
+    buffer.get(data);
+    return new String(data, StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testDirectory()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+    Files.createDirectories(base.resolve("x").resolve("y"));
+    Files.write(
+      base.resolve("a.txt"), "A".getBytes(StandardCharsets.UTF_8));
+    Files.write(
+      base.resolve("x").resolve("y").resolve("b.txt"),
+      "B".getBytes(StandardCharsets.UTF_8));
+
+    final SoShaderStoreType store = SoShaderStoreMemory.snapshotDirectory(base);
+
+    Assert.assertEquals("A", text(store, "/a.txt"));
+    Assert.assertEquals("A", text(store, "a.txt"));
+    Assert.assertEquals("B", text(store, "/x/y/b.txt"));
+    Assert.assertEquals("B", text(store, "//x//y/./b.txt"));
+    Assert.assertEquals("A", text(store, "/x/y/../../a.txt"));
+    Assert.assertEquals(Optional.empty(), store.lookup("/x"));
+    Assert.assertEquals(Optional.empty(), store.lookup("/c.txt"));
+    Assert.assertEquals(Optional.empty(), store.lookup("../a.txt"));
+  }
+
+  @Test
+  public void testDirectoryUnchanged()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+    final Path file = base.resolve("a.txt");
+    Files.write(file, "A".getBytes(StandardCharsets.UTF_8));
+
+    final SoShaderStoreType store = SoShaderStoreMemory.snapshotDirectory(base);
+    Files.write(file, "Changed".getBytes(StandardCharsets.UTF_8));
+    Files.write(base.resolve("b.txt"), "B".getBytes(StandardCharsets.UTF_8));
+
+    Assert.assertEquals("A", text(store, "/a.txt"));
+    Assert.assertEquals(Optional.empty(), store.lookup("/b.txt"));
+  }
+
+  @Test
+  public void testDirectoryNonexistent()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+
+    this.expected.expect(SoShaderExceptionIO.class);
+    SoShaderStoreMemory.snapshotDirectory(base.resolve("nonexistent"));
+  }
+
+  @Test
+  public void testReadOnly()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+    Files.write(base.resolve("a.txt"), "A".getBytes(StandardCharsets.UTF_8));
+
+    final SoShaderStoreType store = SoShaderStoreMemory.snapshotDirectory(base);
+    final SoShaderFileReferenceType ref = store.lookup("/a.txt").get();
+    Assert.assertTrue(ref.bytes().isReadOnly());
+    Assert.assertEquals("A", text(store, "/a.txt"));
+  }
+
+  @Test
+  public void testStream()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+    Files.write(
+      base.resolve("a.txt"), "Hello".getBytes(StandardCharsets.UTF_8));
+
+    final SoShaderStoreType store = SoShaderStoreMemory.snapshotDirectory(base);
+    final Optional<SoShaderFileReferenceType> ref_opt = store.lookup("/a.txt");
+    Assert.assertTrue(ref_opt.isPresent());
+
+    try (final InputStream is = ref_opt.get().stream()) {
+      Assert.assertEquals(
+        "Hello", new String(is.readAllBytes(), StandardCharsets.UTF_8));
+    }
+  }
+
+  @Test
+  public void testFingerprint()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+    Files.write(base.resolve("a.txt"), "A".getBytes(StandardCharsets.UTF_8));
+    Files.write(base.resolve("b.txt"), "A".getBytes(StandardCharsets.UTF_8));
+    Files.write(base.resolve("c.txt"), "C".getBytes(StandardCharsets.UTF_8));
+
+    final SoShaderStoreType store = SoShaderStoreMemory.snapshotDirectory(base);
+    final long a = store.lookup("/a.txt").get().fingerprint().getAsLong();
+    final long b = store.lookup("/b.txt").get().fingerprint().getAsLong();
+    final long c = store.lookup("/c.txt").get().fingerprint().getAsLong();
+    Assert.assertEquals(a, b);
+    Assert.assertNotEquals(a, c);
+  }
+
+  @Test
+  public void testResources()
+    throws Exception
+  {
+    final SoShaderStoreType resources =
+      SoShaderStoreResource.create(
+        "/com/io7m/sombrero/tests/core",
+        SoShaderStoreMemoryTest.class::getResource);
+
+    final SoShaderStoreType store =
+      SoShaderStoreMemory.snapshot(
+        resources, Arrays.asList("example.txt", "/file0.h"));
+
+    Assert.assertEquals("Hello.", text(store, "/example.txt").substring(0, 6));
+    Assert.assertTrue(store.lookup("file0.h").isPresent());
+    Assert.assertEquals(Optional.empty(), store.lookup("/errors.h"));
+  }
+
+  @Test
+  public void testResourcesNonexistent()
+    throws Exception
+  {
+    final SoShaderStoreType resources =
+      SoShaderStoreResource.create(
+        "/com/io7m/sombrero/tests/core",
+        SoShaderStoreMemoryTest.class::getResource);
+
+    this.expected.expect(SoShaderExceptionIO.class);
+    SoShaderStoreMemory.snapshot(
+      resources, Collections.singletonList("/nonexistent.h"));
+  }
+}
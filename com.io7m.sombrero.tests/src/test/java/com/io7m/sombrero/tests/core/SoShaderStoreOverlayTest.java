@@ -0,0 +1,175 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.tests.core;
+
+import com.io7m.sombrero.core.SoShaderException;
+import com.io7m.sombrero.core.SoShaderFileReferenceType;
+import com.io7m.sombrero.core.SoShaderStoreDirectory;
+import com.io7m.sombrero.core.SoShaderStoreOverlay;
+import com.io7m.sombrero.core.SoShaderStoreType;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+
+public final class SoShaderStoreOverlayTest
+{
+  @Rule public ExpectedException expected = ExpectedException.none();
+
+  private static String text(
+    final SoShaderStoreType store,
+    final String name)
+    throws Exception
+  {
+    final Optional<SoShaderFileReferenceType> ref_opt = store.lookup(name);
+    Assert.assertTrue(ref_opt.isPresent());
+    final ByteBuffer buffer = ref_opt.get().bytes();
+    return StandardCharsets.UTF_8.decode(buffer).toString();
+  }
+
+  private static void write(
+    final Path file,
+    final String text)
+    throws Exception
+  {
+    Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static final class CountingStore implements SoShaderStoreType
+  {
+    private final SoShaderStoreType delegate;
+    private int lookups;
+
+    CountingStore(
+      final SoShaderStoreType in_delegate)
+    {
+      this.delegate = in_delegate;
+    }
+
+    @Override
+    public Optional<SoShaderFileReferenceType> lookup(
+      final String name)
+      throws SoShaderException
+    {
+      ++this.lookups;
+      return this.delegate.lookup(name);
+    }
+  }
+
+  @Test
+  public void testPriority()
+    throws Exception
+  {
+    final Path upper = Files.createTempDirectory("sombrero-");
+    final Path lower = Files.createTempDirectory("sombrero-");
+    write(upper.resolve("a.h"), "upper A");
+    write(lower.resolve("a.h"), "lower A");
+    write(lower.resolve("b.h"), "lower B");
+
+    final SoShaderStoreOverlay store = SoShaderStoreOverlay.create(
+      Arrays.asList(
+        SoShaderStoreDirectory.create(upper),
+        SoShaderStoreDirectory.create(lower)));
+
+    Assert.assertEquals("upper A", text(store, "/a.h"));
+    Assert.assertEquals("lower B", text(store, "/b.h"));
+    Assert.assertEquals(Optional.empty(), store.lookup("/c.h"));
+  }
+
+  @Test
+  public void testRemembered()
+    throws Exception
+  {
+    final Path upper = Files.createTempDirectory("sombrero-");
+    final Path lower = Files.createTempDirectory("sombrero-");
+    write(lower.resolve("b.h"), "lower B");
+
+    final CountingStore upper_store =
+      new CountingStore(SoShaderStoreDirectory.create(upper));
+    final CountingStore lower_store =
+      new CountingStore(SoShaderStoreDirectory.create(lower));
+    final SoShaderStoreOverlay store =
+      SoShaderStoreOverlay.create(Arrays.asList(upper_store, lower_store));
+
+    Assert.assertEquals("lower B", text(store, "/b.h"));
+    Assert.assertEquals(1L, (long) upper_store.lookups);
+    Assert.assertEquals(1L, (long) lower_store.lookups);
+
+    Assert.assertEquals("lower B", text(store, "/b.h"));
+    Assert.assertEquals(1L, (long) upper_store.lookups);
+    Assert.assertEquals(2L, (long) lower_store.lookups);
+
+    write(upper.resolve("b.h"), "upper B");
+    Assert.assertEquals("lower B", text(store, "/b.h"));
+
+    store.invalidate("/b.h");
+    Assert.assertEquals("upper B", text(store, "/b.h"));
+  }
+
+  @Test
+  public void testRememberedRemoved()
+    throws Exception
+  {
+    final Path upper = Files.createTempDirectory("sombrero-");
+    final Path lower = Files.createTempDirectory("sombrero-");
+    write(upper.resolve("a.h"), "upper A");
+    write(lower.resolve("a.h"), "lower A");
+
+    final SoShaderStoreOverlay store = SoShaderStoreOverlay.create(
+      Arrays.asList(
+        SoShaderStoreDirectory.create(upper),
+        SoShaderStoreDirectory.create(lower)));
+
+    Assert.assertEquals("upper A", text(store, "/a.h"));
+    Files.delete(upper.resolve("a.h"));
+    Assert.assertEquals("lower A", text(store, "/a.h"));
+  }
+
+  @Test
+  public void testInvalidateAll()
+    throws Exception
+  {
+    final Path upper = Files.createTempDirectory("sombrero-");
+    final Path lower = Files.createTempDirectory("sombrero-");
+    write(lower.resolve("a.h"), "lower A");
+
+    final SoShaderStoreOverlay store = SoShaderStoreOverlay.create(
+      Arrays.asList(
+        SoShaderStoreDirectory.create(upper),
+        SoShaderStoreDirectory.create(lower)));
+
+    Assert.assertEquals("lower A", text(store, "/a.h"));
+    write(upper.resolve("a.h"), "upper A");
+    store.invalidateAll();
+    Assert.assertEquals("upper A", text(store, "/a.h"));
+  }
+
+  @Test
+  public void testNoLayers()
+  {
+    this.expected.expect(IllegalArgumentException.class);
+    SoShaderStoreOverlay.create(Collections.emptyList());
+  }
+}
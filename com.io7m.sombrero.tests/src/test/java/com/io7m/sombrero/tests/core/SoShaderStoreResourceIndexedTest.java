@@ -0,0 +1,209 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.tests.core;
+
+import com.io7m.sombrero.core.SoShaderException;
+import com.io7m.sombrero.core.SoShaderExceptionIO;
+import com.io7m.sombrero.core.SoShaderFileReferenceType;
+import com.io7m.sombrero.core.SoShaderStoreResourceIndexed;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public final class SoShaderStoreResourceIndexedTest
+{
+  @Rule public ExpectedException expected = ExpectedException.none();
+
+  private static String text(
+    final SoShaderStoreResourceIndexed store,
+    final String name)
+    throws Exception
+  {
+    final Optional<SoShaderFileReferenceType> ref_opt = store.lookup(name);
+    Assert.assertTrue(ref_opt.isPresent());
+    final ByteBuffer buffer = ref_opt.get().bytes();
+    final byte[] data = new byte[buffer.remaining()];
+    buffer.get(data);
+    return new String(data, StandardCharsets.UTF_8);
+  }
+
+  private static void entry(
+    final ZipOutputStream zip,
+    final String name,
+    final String text)
+    throws Exception
+  {
+    zip.putNextEntry(new ZipEntry(name));
+    if (text != null) {
+      zip.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+    zip.closeEntry();
+  }
+
+  @Test
+  public void testDirectory()
+    throws Exception
+  {
+    try (final SoShaderStoreResourceIndexed store =
+           SoShaderStoreResourceIndexed.create(
+             "/com/io7m/sombrero/tests/core",
+             SoShaderStoreResourceIndexedTest.class::getResource)) {
+      Assert.assertTrue(text(store, "/example.txt").startsWith("Hello."));
+      Assert.assertTrue(text(store, "example.txt").startsWith("Hello."));
+      Assert.assertTrue(text(store, "//example.txt").startsWith("Hello."));
+      Assert.assertEquals(Optional.empty(), store.lookup("/file.txt"));
+      Assert.assertEquals(Optional.empty(), store.lookup("../core/example.txt"));
+
+      final Optional<SoShaderFileReferenceType> ref_opt =
+        store.lookup("/example.txt");
+      Assert.assertTrue(ref_opt.isPresent());
+      try (final InputStream is = ref_opt.get().stream()) {
+        final byte[] b = new byte[6];
+        Assert.assertEquals(6L, (long) is.read(b));
+        Assert.assertEquals("Hello.", new String(b, StandardCharsets.UTF_8));
+      }
+    }
+  }
+
+  @Test
+  public void testJar()
+    throws Exception
+  {
+    final Path jar = Files.createTempFile("sombrero-", ".jar");
+    try (final OutputStream os = Files.newOutputStream(jar)) {
+      try (final ZipOutputStream zip = new ZipOutputStream(os)) {
+        entry(zip, "shaders/", null);
+        entry(zip, "shaders/a.h", "A");
+        entry(zip, "shaders/x/", null);
+        entry(zip, "shaders/x/b.h", "B");
+        entry(zip, "other/c.h", "C");
+      }
+    }
+
+    try (final URLClassLoader loader =
+           new URLClassLoader(new URL[]{jar.toUri().toURL()}, null)) {
+      try (final SoShaderStoreResourceIndexed store =
+             SoShaderStoreResourceIndexed.create(
+               "/shaders", name -> loader.getResource(name.substring(1)))) {
+        Assert.assertEquals("A", text(store, "/a.h"));
+        Assert.assertEquals("B", text(store, "/x/b.h"));
+        Assert.assertEquals("B", text(store, "x//b.h"));
+        Assert.assertEquals(Optional.empty(), store.lookup("/x"));
+        Assert.assertEquals(Optional.empty(), store.lookup("/c.h"));
+        Assert.assertEquals(Optional.empty(), store.lookup("../other/c.h"));
+
+        Assert.assertNotEquals(
+          store.lookup("/a.h").get().fingerprint().getAsLong(),
+          store.lookup("/x/b.h").get().fingerprint().getAsLong());
+
+        final Optional<SoShaderFileReferenceType> ref_opt =
+          store.lookup("/a.h");
+        Assert.assertTrue(ref_opt.isPresent());
+        try (final InputStream is = ref_opt.get().stream()) {
+          Assert.assertEquals(
+            "A", new String(is.readAllBytes(), StandardCharsets.UTF_8));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testDirectoryRoot()
+    throws Exception
+  {
+    try (final SoShaderStoreResourceIndexed store =
+           SoShaderStoreResourceIndexed.create(
+             "/", SoShaderStoreResourceIndexedTest.class::getResource)) {
+      Assert.assertTrue(
+        text(store, "/com/io7m/sombrero/tests/core/example.txt")
+          .startsWith("Hello."));
+      Assert.assertEquals(Optional.empty(), store.lookup("/example.txt"));
+    }
+  }
+
+  @Test
+  public void testDirectoryRelative()
+    throws Exception
+  {
+    try (final SoShaderStoreResourceIndexed store =
+           SoShaderStoreResourceIndexed.create(
+             "", SoShaderStoreResourceIndexedTest.class::getResource)) {
+      Assert.assertTrue(text(store, "/example.txt").startsWith("Hello."));
+    }
+  }
+
+  @Test
+  public void testJarRoot()
+    throws Exception
+  {
+    final Path jar = Files.createTempFile("sombrero-", ".jar");
+    try (final OutputStream os = Files.newOutputStream(jar)) {
+      try (final ZipOutputStream zip = new ZipOutputStream(os)) {
+        entry(zip, "shaders/", null);
+        entry(zip, "shaders/a.h", "A");
+        entry(zip, "c.h", "C");
+      }
+    }
+
+    final URL root = new URL("jar:" + jar.toUri() + "!/");
+    try (final SoShaderStoreResourceIndexed store =
+           SoShaderStoreResourceIndexed.create("/", name -> root)) {
+      Assert.assertEquals("A", text(store, "/shaders/a.h"));
+      Assert.assertEquals("C", text(store, "/c.h"));
+      Assert.assertEquals(Optional.empty(), store.lookup("/a.h"));
+    }
+  }
+
+  @Test
+  public void testNonexistent()
+    throws Exception
+  {
+    this.expected.expect(SoShaderExceptionIO.class);
+    SoShaderStoreResourceIndexed.create(
+      "/com/io7m/sombrero/tests/nonexistent",
+      SoShaderStoreResourceIndexedTest.class::getResource);
+  }
+
+  @Test
+  public void testUnsupported()
+    throws Exception
+  {
+    this.expected.expect(SoShaderException.class);
+    SoShaderStoreResourceIndexed.create(
+      "/shaders",
+      name -> {
+        try {
+          return new URL("http://www.example.com" + name);
+        } catch (final Exception e) {
+          throw new AssertionError(e);
+        }
+      });
+  }
+}
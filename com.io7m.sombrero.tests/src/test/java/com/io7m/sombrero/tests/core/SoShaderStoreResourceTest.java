@@ -25,8 +25,16 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Optional;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 public final class SoShaderStoreResourceTest
 {
@@ -69,6 +77,69 @@ public final class SoShaderStoreResourceTest
     }
   }
 
+  @Test
+  public void testFingerprint()
+    throws Exception
+  {
+    final SoShaderStoreType source =
+      SoShaderStoreResource.create(
+        "/com/io7m/sombrero/tests/core",
+        SoShaderStoreResourceTest.class::getResource);
+
+    final SoShaderFileReferenceType ref = source.lookup("/example.txt").get();
+    final SoShaderFileReferenceType other = source.lookup("/file0.h").get();
+    Assert.assertEquals(
+      ref.fingerprint().getAsLong(), ref.fingerprint().getAsLong());
+    Assert.assertNotEquals(
+      ref.fingerprint().getAsLong(), other.fingerprint().getAsLong());
+  }
+
+  @Test
+  public void testFingerprintJar()
+    throws Exception
+  {
+    final Path jar = Files.createTempFile("sombrero-", ".jar");
+    try (final OutputStream os = Files.newOutputStream(jar)) {
+      try (final ZipOutputStream zip = new ZipOutputStream(os)) {
+        zip.putNextEntry(new ZipEntry("shaders/a.h"));
+        zip.write("A".getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+        zip.putNextEntry(new ZipEntry("shaders/b.h"));
+        zip.write("B".getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+      }
+    }
+
+    try (final URLClassLoader loader =
+           new URLClassLoader(new URL[]{jar.toUri().toURL()}, null)) {
+      final SoShaderStoreType source =
+        SoShaderStoreResource.create(
+          "/shaders", name -> loader.getResource(name.substring(1)));
+
+      final SoShaderFileReferenceType a = source.lookup("/a.h").get();
+      final SoShaderFileReferenceType b = source.lookup("/b.h").get();
+      Assert.assertTrue(a.fingerprint().isPresent());
+      Assert.assertNotEquals(
+        a.fingerprint().getAsLong(), b.fingerprint().getAsLong());
+    }
+  }
+
+  @Test
+  public void testFetch()
+    throws Exception
+  {
+    final SoShaderStoreType source =
+      SoShaderStoreResource.create(
+        "/com/io7m/sombrero/tests/core",
+        SoShaderStoreResourceTest.class::getResource);
+
+    final Optional<ByteBuffer> data = source.fetch("/example.txt");
+    Assert.assertTrue(data.isPresent());
+    Assert.assertTrue(
+      StandardCharsets.UTF_8.decode(data.get()).toString().startsWith("Hello."));
+    Assert.assertEquals(Optional.empty(), source.fetch("/file.txt"));
+  }
+
   @Test
   public void testLookupAbsolute()
     throws Exception
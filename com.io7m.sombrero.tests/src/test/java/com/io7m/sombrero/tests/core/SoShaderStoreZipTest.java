@@ -0,0 +1,192 @@
+/*
+ * Copyright © 2016 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.sombrero.tests.core;
+
+import com.io7m.sombrero.core.SoShaderExceptionIO;
+import com.io7m.sombrero.core.SoShaderFileReferenceType;
+import com.io7m.sombrero.core.SoShaderStoreZip;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public final class SoShaderStoreZipTest
+{
+  @Rule public ExpectedException expected = ExpectedException.none();
+
+  private static Path zip()
+    throws Exception
+  {
+    final Path file = Files.createTempFile("sombrero-", ".zip");
+    try (final OutputStream os = Files.newOutputStream(file)) {
+      try (final ZipOutputStream zip = new ZipOutputStream(os)) {
+        zip.setMethod(ZipOutputStream.DEFLATED);
+        entry(zip, "shaders/", "");
+        entry(zip, "shaders/a.h", "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA");
+        entry(zip, "shaders/x/b.h", "B");
+        entry(zip, "other/c.h", "C");
+      }
+    }
+    return file;
+  }
+
+  private static void entry(
+    final ZipOutputStream zip,
+    final String name,
+    final String text)
+    throws Exception
+  {
+    zip.putNextEntry(new ZipEntry(name));
+    zip.write(text.getBytes(StandardCharsets.UTF_8));
+    zip.closeEntry();
+  }
+
+  private static String decode(
+    final ByteBuffer buffer)
+  {
+    return StandardCharsets.UTF_8.decode(buffer).toString();
+  }
+
+  @Test
+  public void testLookup()
+    throws Exception
+  {
+    try (final SoShaderStoreZip store =
+           SoShaderStoreZip.open(zip(), "/shaders", 1024L)) {
+      Assert.assertEquals(
+        "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA",
+        decode(store.lookup("/a.h").get().bytes()));
+      Assert.assertEquals("B", decode(store.lookup("x//b.h").get().bytes()));
+      Assert.assertEquals(Optional.empty(), store.lookup("/x"));
+      Assert.assertEquals(Optional.empty(), store.lookup("/c.h"));
+      Assert.assertEquals(Optional.empty(), store.lookup("../other/c.h"));
+
+      try (final InputStream is = store.lookup("/x/b.h").get().stream()) {
+        Assert.assertEquals(
+          "B", new String(is.readAllBytes(), StandardCharsets.UTF_8));
+      }
+    }
+  }
+
+  @Test
+  public void testRoot()
+    throws Exception
+  {
+    try (final SoShaderStoreZip store = SoShaderStoreZip.open(zip(), "/", 0L)) {
+      Assert.assertEquals(
+        "C", decode(store.lookup("/other/c.h").get().bytes()));
+      Assert.assertEquals(
+        "B", decode(store.lookup("/shaders/x/b.h").get().bytes()));
+    }
+  }
+
+  @Test
+  public void testCached()
+    throws Exception
+  {
+    try (final SoShaderStoreZip store =
+           SoShaderStoreZip.open(zip(), "/shaders", 1024L)) {
+      final SoShaderFileReferenceType a = store.lookup("/a.h").get();
+      Assert.assertEquals(0L, store.cacheSize());
+      Assert.assertEquals(32L, (long) a.bytes().remaining());
+      Assert.assertEquals(32L, store.cacheSize());
+      Assert.assertEquals(32L, (long) a.bytes().remaining());
+      Assert.assertEquals(32L, store.cacheSize());
+    }
+  }
+
+  @Test
+  public void testEvicted()
+    throws Exception
+  {
+    try (final SoShaderStoreZip store =
+           SoShaderStoreZip.open(zip(), "/shaders", 32L)) {
+      final SoShaderFileReferenceType a = store.lookup("/a.h").get();
+      final SoShaderFileReferenceType b = store.lookup("/x/b.h").get();
+      a.bytes();
+      Assert.assertEquals(32L, store.cacheSize());
+      b.bytes();
+      Assert.assertEquals(1L, store.cacheSize());
+      Assert.assertEquals(
+        "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA", decode(a.bytes()));
+      Assert.assertEquals(32L, store.cacheSize());
+    }
+  }
+
+  @Test
+  public void testUncached()
+    throws Exception
+  {
+    try (final SoShaderStoreZip store =
+           SoShaderStoreZip.open(zip(), "/shaders", 0L)) {
+      final SoShaderFileReferenceType a = store.lookup("/a.h").get();
+      Assert.assertEquals(32L, (long) a.bytes().remaining());
+      Assert.assertEquals(0L, store.cacheSize());
+    }
+  }
+
+  @Test
+  public void testReadOnly()
+    throws Exception
+  {
+    try (final SoShaderStoreZip store =
+           SoShaderStoreZip.open(zip(), "/shaders", 1024L)) {
+      final SoShaderFileReferenceType a = store.lookup("/a.h").get();
+      Assert.assertTrue(a.bytes().isReadOnly());
+    }
+  }
+
+  @Test
+  public void testFingerprint()
+    throws Exception
+  {
+    try (final SoShaderStoreZip store =
+           SoShaderStoreZip.open(zip(), "/shaders", 0L)) {
+      Assert.assertNotEquals(
+        store.lookup("/a.h").get().fingerprint().getAsLong(),
+        store.lookup("/x/b.h").get().fingerprint().getAsLong());
+    }
+  }
+
+  @Test
+  public void testBadCacheSize()
+    throws Exception
+  {
+    this.expected.expect(IllegalArgumentException.class);
+    SoShaderStoreZip.open(zip(), "/", -1L);
+  }
+
+  @Test
+  public void testNonexistent()
+    throws Exception
+  {
+    final Path base = Files.createTempDirectory("sombrero-");
+
+    this.expected.expect(SoShaderExceptionIO.class);
+    SoShaderStoreZip.open(base.resolve("nonexistent.zip"), "/", 0L);
+  }
+}
@@ -0,0 +1,4 @@
+#ifndef ERRORS_INCLUDED_H
+#define ERRORS_INCLUDED_H
+#include "errors.h"
+#endif
@@ -0,0 +1,2 @@
+#define TWO(a, b) a + b
+int t = TWO(1);
@@ -0,0 +1,4 @@
+int file = __FILE__;
+int line = __LINE__;
+
+int line_later = __LINE__;
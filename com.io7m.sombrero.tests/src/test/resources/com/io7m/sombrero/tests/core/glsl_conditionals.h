@@ -0,0 +1,31 @@
+#define A 2
+#if A == 1
+int a1;
+#elif A == 2
+int a2;
+#if 0
+int inactive;
+#if 1
+int inactive_nested;
+#else
+int inactive_nested_else;
+#endif
+#error "Inactive groups must not be evaluated"
+#elif 1
+int elif_taken;
+#else
+int else_not_taken;
+#endif
+#else
+int a_else;
+#endif
+#ifdef UNDEFINED
+int undefined;
+#elif defined(A) && !defined(B)
+int defined_taken;
+#endif
+#ifndef A
+int not_taken;
+#else
+int else_taken;
+#endif
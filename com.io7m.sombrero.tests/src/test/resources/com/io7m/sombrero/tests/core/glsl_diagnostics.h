@@ -0,0 +1,3 @@
+#warning "Careful"
+#error "Broken"
+int after;
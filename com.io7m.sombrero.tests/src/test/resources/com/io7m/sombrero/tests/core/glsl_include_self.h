@@ -0,0 +1 @@
+#include "glsl_include_self.h"
@@ -0,0 +1,8 @@
+int a = __LINE__;
+#line 10
+int b = __LINE__;
+#define N 20 0
+#line N
+int c = __LINE__;
+#error "Here"
+#line x
@@ -0,0 +1,3 @@
+#include "glsl_once.h"
+#include "glsl_once.h"
+int after;
@@ -0,0 +1,4 @@
+#define z z[0]
+#define f(a) (a)
+int p0 = f(z);
+int p1 = f(f(z));
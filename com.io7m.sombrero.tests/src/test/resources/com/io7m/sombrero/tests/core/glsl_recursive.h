@@ -0,0 +1,5 @@
+#define SELF SELF + 1
+#define F(x) G(x)
+#define G(x) F(x) * 2
+int s = SELF;
+int f = F(1);
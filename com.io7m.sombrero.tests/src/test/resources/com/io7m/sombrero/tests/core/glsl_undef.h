@@ -0,0 +1,7 @@
+#define X 1
+int x0 = X;
+#undef X
+int x1 = X;
+#ifdef X
+int defined_after_undef;
+#endif
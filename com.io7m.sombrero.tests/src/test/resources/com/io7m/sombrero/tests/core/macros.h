@@ -0,0 +1,17 @@
+#ifndef MACROS_H
+#define MACROS_H
+#extension GL_ARB_separate_shader_objects : require
+#define ADD(x, y) ((x) + (y))
+#define NAME(a, b) a ## b
+#define STR(x) #x
+#define TWICE(x) ADD(x, x)
+/* A comment
+   spanning lines */
+int NAME(value, _0) = TWICE(ADD(1, 2));
+const char s = STR(a "b");
+#if defined(MACROS_H) && ADD(1, 1) == 2
+int ok;
+#else
+int not_ok;
+#endif
+#endif